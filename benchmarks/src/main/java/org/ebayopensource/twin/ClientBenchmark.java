@@ -0,0 +1,86 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.ebayopensource.twin.benchmarks.*;
+
+/**
+ * Benchmarks of the Java client's internals: proxy construction and the HTTP request path.
+ * <p>
+ * This lives in the client's package because ElementImpl, RemoteObject and TwinConnection are package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true") // see StubServer
+public class ClientBenchmark {
+	/** Number of elements in the search result returned by the stub server, and wrapped by createElements */
+	@Param({"1", "500"})
+	public int elements;
+
+	private StubServer server;
+	private Application application;
+	private List<RemoteObject> remotes;
+	private List<Element> created;
+	private Map<String,Object> searchRequest;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() throws Exception {
+		server = new StubServer(Payloads.bytes(Payloads.elementList(elements)));
+		application = new Application(server.getURL());
+		application.sessionId = "3f2504e0-4f89-11d3-9a0c-0305e82c3301"; // skip open(), the stub doesn't care
+
+		remotes = new ArrayList<RemoteObject>();
+		for(Object element : (List<Object>)Payloads.elementList(elements).get("value")) {
+			Map<String,Object> properties = new CompactProperties((Map<String,Object>)element);
+			remotes.add(new RemoteObject(application, (String)properties.get("class"), (String)properties.get("uuid"), properties));
+		}
+		searchRequest = Payloads.searchRequest();
+		created = createElements();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+
+	/** Wrap already-decoded RemoteObjects in Element proxies, as every search does */
+	@Benchmark
+	public List<Element> createElements() {
+		List<Element> result = new ArrayList<Element>(remotes.size());
+		for(RemoteObject remote : remotes)
+			result.add(ElementImpl.create(remote));
+		return result;
+	}
+
+	/** Call a method that doesn't touch the server on each Element proxy, measuring dispatch alone */
+	@Benchmark
+	public int callElements() {
+		int total = 0;
+		for(Element element : created)
+			total += element.getControlPatterns().size();
+		return total;
+	}
+
+	/** A bodyless GET through Application.request, returning the decoded search result */
+	@Benchmark
+	public Object requestGet() {
+		return application.request("GET", "/element/1234/children", null);
+	}
+
+	/** A search: encode Criteria, send, decode, recognize RemoteObjects */
+	@Benchmark
+	public Object requestSearch() {
+		return application.request("GET", "/element/1234/descendants", searchRequest);
+	}
+}
@@ -0,0 +1,76 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.ebayopensource.twin.json.JSON;
+
+/**
+ * Throughput of JSON.encode and JSON.decode over typical Twin payloads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONBenchmark {
+	/**
+	 * elements-N: a search result of N elements.
+	 * screenshot-N: a screenshot response of N bytes of image data.
+	 * criteria: a search request with nested Criteria.
+	 */
+	@Param({"elements-100", "elements-5000", "screenshot-1000000", "criteria"})
+	public String payload;
+
+	private Object data;
+	private String text;
+	private byte[] bytes;
+
+	@Setup
+	public void setup() {
+		if(payload.startsWith("elements-"))
+			data = Payloads.elementList(Integer.parseInt(payload.substring("elements-".length())));
+		else if(payload.startsWith("screenshot-"))
+			data = Payloads.screenshot(Integer.parseInt(payload.substring("screenshot-".length())));
+		else if(payload.equals("criteria"))
+			data = Payloads.searchRequest();
+		else
+			throw new IllegalArgumentException("Unknown payload "+payload);
+		text = JSON.encode(data);
+		bytes = Payloads.bytes(data);
+	}
+
+	@Benchmark
+	public String encodeToString() {
+		return JSON.encode(data);
+	}
+
+	@Benchmark
+	public int encodeToStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+		JSON.encode(data, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public Object decodeString() {
+		return JSON.decode(text);
+	}
+
+	@Benchmark
+	public Object decodeBytes() {
+		return JSON.decode(bytes);
+	}
+
+	@Benchmark
+	public Object decodeStream() throws IOException {
+		return JSON.decode(new ByteArrayInputStream(bytes));
+	}
+}
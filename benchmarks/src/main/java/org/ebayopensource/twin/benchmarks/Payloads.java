@@ -0,0 +1,95 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.benchmarks;
+
+import java.util.*;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.ebayopensource.twin.Criteria;
+import org.ebayopensource.twin.element.*;
+import org.ebayopensource.twin.pattern.*;
+import org.ebayopensource.twin.json.JSON;
+
+/**
+ * Builds payloads shaped like real Twin traffic, so benchmarks measure what the client actually sees.
+ * <p>
+ * Elements look like the RC's PersistedObject serialisation (uuid, hCode, class, name, id, controlType, className, controlPatterns).
+ * All payloads are generated from a fixed seed so runs are comparable.
+ */
+public class Payloads {
+	private static final String[] CONTROL_TYPES = { "Button", "Edit", "TreeItem", "ListItem", "DataItem", "Pane", "Text", "CheckBox", "MenuItem" };
+	private static final String[] CONTROL_PATTERNS = { "edit", "expand", "select", "select-container", "toggle", "transform" };
+
+	/** A single element as it appears in a search result */
+	public static Map<String,Object> element(Random random) {
+		Map<String,Object> element = new HashMap<String,Object>();
+		element.put("uuid", new UUID(random.nextLong(), random.nextLong()).toString());
+		element.put("hCode", random.nextInt());
+		element.put("class", "Twin.Model.Element");
+		element.put("name", "Row "+random.nextInt(10000)+" \u2013 "+(random.nextBoolean() ? "Bid" : "Offer"));
+		element.put("id", "ctl"+random.nextInt(1000));
+		element.put("controlType", CONTROL_TYPES[random.nextInt(CONTROL_TYPES.length)]);
+		element.put("className", random.nextBoolean() ? "WindowsForms10.Window.8.app.0.2bf8098_r11_ad1" : "Static");
+		List<Object> patterns = new ArrayList<Object>();
+		for(String pattern : CONTROL_PATTERNS)
+			if(random.nextInt(3) == 0)
+				patterns.add(pattern);
+		element.put("controlPatterns", patterns);
+		return element;
+	}
+
+	/** A successful /children or /descendants response containing count elements */
+	public static Map<String,Object> elementList(int count) {
+		Random random = new Random(count);
+		List<Object> elements = new ArrayList<Object>();
+		for(int i=0; i<count; i++)
+			elements.add(element(random));
+		return response(elements);
+	}
+
+	/** A successful /screenshot response carrying imageBytes of (incompressible) image data */
+	public static Map<String,Object> screenshot(int imageBytes) {
+		byte[] data = new byte[imageBytes];
+		new Random(imageBytes).nextBytes(data);
+		Map<String,Object> value = new HashMap<String,Object>();
+		value.put("contentType", "image/png");
+		value.put("data", new String(Base64.encodeBase64(data)));
+		return response(value);
+	}
+
+	/** A search request body with a nested Criteria, as sent by Element.getDescendants() */
+	public static Map<String,Object> searchRequest() {
+		Criteria criteria = Criteria.type(Window.class).and(
+				Criteria.or(
+					Criteria.name("Trade Blotter").and(Criteria.type(DataGrid.class)),
+					Criteria.id("grid1").and(Criteria.type(SelectionContainer.class).not()),
+					Criteria.className("WindowsForms10.Window.8.app.0.2bf8098_r11_ad1")
+				).and(Criteria.enabled(true)));
+		Map<String,Object> body = new HashMap<String,Object>();
+		body.put("criteria", criteria);
+		body.put("count", 1);
+		body.put("waitForResults", 2.5);
+		return body;
+	}
+
+	/** Wrap a value in the RC's standard success envelope */
+	public static Map<String,Object> response(Object value) {
+		Map<String,Object> response = new HashMap<String,Object>();
+		response.put("sessionId", "3f2504e0-4f89-11d3-9a0c-0305e82c3301");
+		response.put("status", 0);
+		response.put("value", value);
+		return response;
+	}
+
+	/** Encode a payload as the UTF-8 bytes that would arrive on the wire */
+	public static byte[] bytes(Object payload) {
+		try {
+			return JSON.encode(payload).getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.benchmarks;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * A minimal local HTTP server that answers every request with the same canned JSON body.
+ * <p>
+ * This isolates the cost of the client's request path (encoding, HttpClient, decoding) from any real RC work.
+ * <p>
+ * Run it in a JVM started with -Dsun.net.httpserver.nodelay=true, as ClientBenchmark's forks are. Otherwise the JDK
+ * server's small writes hit Nagle + delayed ACK, and every request takes ~40ms.
+ */
+public class StubServer {
+	private final HttpServer server;
+	private volatile byte[] response;
+
+	public StubServer(byte[] response) throws IOException {
+		this.response = response;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				InputStream in = exchange.getRequestBody();
+				byte[] buf = new byte[4096];
+				while(in.read(buf) >= 0)
+					; // discard the request body
+				in.close();
+
+				byte[] body = StubServer.this.response;
+				exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	/** Change the body returned for subsequent requests */
+	public void setResponse(byte[] response) {
+		this.response = response;
+	}
+
+	/** The base URL of this server, suitable for new Application(url) */
+	public URL getURL() {
+		try {
+			return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/");
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+}
@@ -12,6 +12,7 @@ import java.util.*;
  * Utility methods for converting Java objects to and from JSON strings.
  * <p>
  * Objects implementing the JSONable interface will be so transformed before serialization.
+ * Objects implementing JSONStreamable write their own serialized form.
  * <p>
  * JSONRecognizers can be used to turn Maps into custom objects on deserialization.
  * <p>
@@ -31,21 +32,44 @@ public class JSON {
 	 * @throws IllegalArgumentException on serialization error
 	 */
 	public static String encode(Object data) {
-		StringWriter sw = new StringWriter();
+		JSONEncoder encoder = new JSONEncoder(256);
 		try {
-			encode(data, sw);
+			encoder.write(data);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return sw.toString();
+		return encoder.toText();
 	}
+	/** 
+	 * Convert a Java object to UTF-8 encoded bytes using JSON serialization
+	 * @throws IllegalArgumentException on serialization error
+	 */
+	public static byte[] encodeToBytes(Object data) {
+		JSONEncoder encoder = new JSONEncoder(256);
+		try {
+			encoder.write(data);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return encoder.toByteArray();
+	}
+	/**
+	 * Write a Java object to a stream as UTF-8 encoded JSON. 
+	 * The stream is flushed but not closed.
+	 * @throws IllegalArgumentException on serialization error
+	 */
 	public static void encode(Object data, OutputStream stream) throws IOException {
-		Writer writer = new OutputStreamWriter(stream, "UTF-8");
-		encode(data, writer);
+		JSONEncoder.encode(data, stream);
 	}
 	public static void encode(Object data, Writer writer) throws IOException {
 		while(data instanceof JSONable)
 			data = ((JSONable)data).toJSON();
+		if(data instanceof JSONStreamable) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			((JSONStreamable)data).writeJSON(bytes);
+			writer.write(bytes.toString("UTF-8"));
+			return;
+		}
 		
 		if(data instanceof Double || data instanceof Short) {
 			double value = ((Number)data).doubleValue();
@@ -73,11 +97,15 @@ public class JSON {
 			data = ((Enum<?>)data).name();
 		
 		if(data.getClass().isArray()) {
-			ArrayList<Object> list = new ArrayList<Object>();
+			writer.write('[');
 			int length = Array.getLength(data);
-			for(int i=0; i<length; i++)
-				list.add(Array.get(data, i));
-			data = list; // continue
+			for(int i=0; i<length; i++) {
+				if(i > 0)
+					writer.write(',');
+				encode(Array.get(data, i), writer);
+			}
+			writer.write(']');
+			return;
 		}
 		if(data instanceof Map<?,?>) {
 			writer.write('{');
@@ -109,8 +137,14 @@ public class JSON {
 			String string = (String)data;
 			char[] hex = new char[]{'\\', 'u', '0', '0', '0', '0'};
 			writer.write('"');
+			int run = 0; // start of the current run of characters that need no escaping
 			for(int i=0; i<string.length(); i++) {
 				char c = string.charAt(i);
+				if(c >= 0x20 && c < 0x80 && c != '"' && c != '\\')
+					continue;
+				if(i > run)
+					writer.write(string, run, i - run);
+				run = i + 1;
 				switch(c) {
 				case '\r':
 					writer.write("\\r");
@@ -129,22 +163,20 @@ public class JSON {
 					break;
 				case '"':
 				case '\\':
-					writer.write('\\'); // fall thru
+					writer.write('\\');
 					writer.write(c);
 					break;
 				default:
-					if(c < 0x20 || c >= 0x80) {
-						hex[2] = HEX[(c >> 12)&0xf];
-						hex[3] = HEX[(c >>  8)&0xf];
-						hex[4] = HEX[(c >>  4)&0xf];
-						hex[5] = HEX[(c >>  0)&0xf];
-						writer.write(hex);
-					} else {
-						writer.write(c);
-					}
+					hex[2] = HEX[(c >> 12)&0xf];
+					hex[3] = HEX[(c >>  8)&0xf];
+					hex[4] = HEX[(c >>  4)&0xf];
+					hex[5] = HEX[(c >>  0)&0xf];
+					writer.write(hex);
 					break;
 				}
 			}
+			if(string.length() > run)
+				writer.write(string, run, string.length() - run);
 			writer.write('"');
 			return;
 		}
@@ -158,16 +190,37 @@ public class JSON {
 	 * @throws IllegalArgumentException on deserialization error 
 	 */
 	public static Object decode(String text, JSONRecognizer... recognizers) {
-		PushbackReader reader = new PushbackReader(new StringReader(text));
 		try {
-			return decode(reader, recognizers);
+			return decode(text.getBytes("UTF-8"), recognizers);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	/** 
+	 * Convert UTF-8 encoded bytes to a Java object using JSON deserialization
+	 * @throws IllegalArgumentException on deserialization error 
+	 */
+	public static Object decode(byte[] data, JSONRecognizer... recognizers) {
+		return decode(data, 0, data.length, recognizers);
+	}
+	/** 
+	 * Convert a region of UTF-8 encoded bytes to a Java object using JSON deserialization
+	 * @throws IllegalArgumentException on deserialization error 
+	 */
+	public static Object decode(byte[] data, int offset, int length, JSONRecognizer... recognizers) {
+		try {
+			return new JSONParser(data, offset, length, recognizers).parse();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
+	/** 
+	 * Read UTF-8 encoded JSON from a stream and convert it to a Java object.
+	 * The stream is read in blocks, so it may be consumed past the end of the value. It is not closed.
+	 * @throws IllegalArgumentException on deserialization error 
+	 */
 	public static Object decode(InputStream in, JSONRecognizer... recognizers) throws IOException {
-		PushbackReader reader = new PushbackReader(new InputStreamReader(in, "UTF-8"));
-		return decode(reader, recognizers);
+		return new JSONParser(in, recognizers).parse();
 	}
 	public static Object decode(PushbackReader reader, JSONRecognizer... recognizers) throws IOException {
 		int start = skipWhitespace(reader);
@@ -0,0 +1,367 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.json;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A JSON encoder that writes bytes directly, either into a growable in-memory buffer or through a fixed buffer to an OutputStream.
+ * <p>
+ * This is the implementation behind JSON.encode(Object, OutputStream), JSON.encodeToBytes(Object) and JSON.encode(Object).
+ * It produces exactly the same text as JSON.encode(Object, Writer), but:<ul>
+ * <li>Output is always ASCII (non-ASCII characters are escaped), so it is valid UTF-8 without going through a charset encoder.</li>
+ * <li>Runs of characters that need no escaping are copied straight into the buffer.</li>
+ * <li>Arrays are walked in place, and primitive arrays are written without boxing.</li>
+ * <li>JSONStreamable values write straight through, so they need never be held in memory.</li>
+ * </ul>
+ * An encoder is not thread-safe.
+ */
+class JSONEncoder {
+	private static final int STREAM_BUFFER_SIZE = 8192;
+
+	/** The stream to flush to, or null if the output is accumulated in memory */
+	private final OutputStream out;
+	private byte[] buf;
+	private int count;
+
+	/** Create an encoder that accumulates output in memory */
+	JSONEncoder(int initialCapacity) {
+		this.out = null;
+		this.buf = new byte[Math.max(initialCapacity, 16)];
+	}
+	/** Create an encoder that writes to the given stream, using buffer as scratch space */
+	JSONEncoder(OutputStream out, byte[] buffer) {
+		this.out = out;
+		this.buf = buffer;
+	}
+
+	/**
+	 * Buffers for stream encoders, one per thread. A buffer is removed while in use, so a
+	 * JSONable that itself encodes JSON in toJSON() just gets a fresh one.
+	 */
+	private static final ThreadLocal<byte[]> streamBuffers = new ThreadLocal<byte[]>();
+
+	/** Encode data to the given stream, which is flushed but not closed */
+	static void encode(Object data, OutputStream out) throws IOException {
+		byte[] buffer = streamBuffers.get();
+		if(buffer == null)
+			buffer = new byte[STREAM_BUFFER_SIZE];
+		else
+			streamBuffers.set(null);
+		try {
+			JSONEncoder encoder = new JSONEncoder(out, buffer);
+			encoder.write(data);
+			encoder.flush();
+		} finally {
+			streamBuffers.set(buffer);
+		}
+	}
+
+	/** Write any pending output to the underlying stream */
+	void flush() throws IOException {
+		if(out == null)
+			return;
+		if(count > 0)
+			out.write(buf, 0, count);
+		count = 0;
+		out.flush();
+	}
+	/** The number of bytes accumulated so far (in-memory encoders only) */
+	int size() {
+		return count;
+	}
+	/** A copy of the accumulated output (in-memory encoders only) */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+	/** The accumulated output as a String (in-memory encoders only) */
+	String toText() {
+		try {
+			return new String(buf, 0, count, "US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Make room for at least n more bytes */
+	private void require(int n) throws IOException {
+		if(count + n <= buf.length)
+			return;
+		if(out != null) {
+			out.write(buf, 0, count);
+			count = 0;
+			if(n <= buf.length)
+				return;
+		}
+		buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+	}
+	private void writeByte(int b) throws IOException {
+		if(count == buf.length)
+			require(1);
+		buf[count++] = (byte)b;
+	}
+	private void writeAscii(String s) throws IOException {
+		int length = s.length();
+		require(length);
+		for(int i=0; i<length; i++)
+			buf[count++] = (byte)s.charAt(i);
+	}
+
+	void write(Object data) throws IOException {
+		while(data instanceof JSONable)
+			data = ((JSONable)data).toJSON();
+		if(data instanceof JSONStreamable) {
+			((JSONStreamable)data).writeJSON(new Sink());
+			return;
+		}
+
+		if(data == null) {
+			writeAscii("null");
+			return;
+		}
+		if(data instanceof String) {
+			writeString((String)data);
+			return;
+		}
+		if(data instanceof Integer || data instanceof Long || data instanceof Byte) {
+			writeLong(((Number)data).longValue());
+			return;
+		}
+		if(data instanceof Double || data instanceof Short) {
+			writeDouble(((Number)data).doubleValue());
+			return;
+		}
+		// double and short already handled.
+		if(data instanceof Number || data instanceof Boolean) {
+			writeAscii(data.toString());
+			return;
+		}
+		if(data instanceof Character) {
+			writeString(data.toString());
+			return;
+		}
+		if(data instanceof Enum<?>) {
+			writeString(((Enum<?>)data).name());
+			return;
+		}
+		if(data instanceof Map<?,?>) {
+			writeByte('{');
+			boolean any=false;
+			for(Map.Entry<?, ?> entry : ((Map<?,?>)data).entrySet()) {
+				if(any)
+					writeByte(',');
+				writeString(String.valueOf(entry.getKey()));
+				writeByte(':');
+				write(entry.getValue());
+				any = true;
+			}
+			writeByte('}');
+			return;
+		}
+		if(data instanceof List<?>) {
+			writeByte('[');
+			boolean any=false;
+			for(Object item : (List<?>)data) {
+				if(any)
+					writeByte(',');
+				write(item);
+				any = true;
+			}
+			writeByte(']');
+			return;
+		}
+		if(data.getClass().isArray()) {
+			writeArray(data);
+			return;
+		}
+
+		throw new IllegalArgumentException("Cannot encode "+data.getClass().getName()+": "+data);
+	}
+
+	/** Write an array, special-casing primitive arrays so their elements are never boxed */
+	private void writeArray(Object array) throws IOException {
+		writeByte('[');
+		if(array instanceof Object[]) {
+			Object[] a = (Object[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				write(a[i]);
+			}
+		} else if(array instanceof int[]) {
+			int[] a = (int[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeLong(a[i]);
+			}
+		} else if(array instanceof long[]) {
+			long[] a = (long[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeLong(a[i]);
+			}
+		} else if(array instanceof byte[]) {
+			byte[] a = (byte[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeLong(a[i]);
+			}
+		} else if(array instanceof double[]) {
+			double[] a = (double[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeDouble(a[i]);
+			}
+		} else if(array instanceof short[]) {
+			short[] a = (short[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeDouble(a[i]); // shorts are encoded like doubles, see JSON.encode(Object, Writer)
+			}
+		} else if(array instanceof float[]) {
+			float[] a = (float[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeAscii(Float.toString(a[i]));
+			}
+		} else if(array instanceof boolean[]) {
+			boolean[] a = (boolean[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeAscii(a[i] ? "true" : "false");
+			}
+		} else if(array instanceof char[]) {
+			char[] a = (char[])array;
+			for(int i=0; i<a.length; i++) {
+				if(i > 0)
+					writeByte(',');
+				writeString(String.valueOf(a[i]));
+			}
+		}
+		writeByte(']');
+	}
+
+	/** Lets a JSONStreamable write through this encoder's buffer */
+	private class Sink extends OutputStream {
+		public void write(int b) throws IOException {
+			writeByte(b);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(out != null && len >= buf.length) {
+				// bigger than our buffer anyway, don't copy it
+				out.write(buf, 0, count);
+				count = 0;
+				out.write(b, off, len);
+				return;
+			}
+			require(len);
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+	}
+
+	private void writeDouble(double value) throws IOException {
+		if(Double.isInfinite(value) || Double.isNaN(value)) // JSON can not represent these
+			writeAscii("null");
+		else
+			writeAscii(String.valueOf(value));
+	}
+
+	/** Write the decimal digits of value without creating a String */
+	private void writeLong(long value) throws IOException {
+		if(value == Long.MIN_VALUE) {
+			writeAscii(String.valueOf(value));
+			return;
+		}
+		require(20);
+		if(value < 0) {
+			buf[count++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for(long v = value; v >= 10; v /= 10)
+			digits++;
+		int p = count + digits;
+		count = p;
+		do {
+			buf[--p] = (byte)('0' + (int)(value % 10));
+			value /= 10;
+		} while(value != 0);
+	}
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	private void writeString(String string) throws IOException {
+		writeByte('"');
+		int length = string.length();
+		int i = 0;
+		while(i < length) {
+			if(count == buf.length)
+				require(1);
+			// Copy as many characters as fit that don't need escaping
+			byte[] b = buf;
+			int p = count;
+			int end = Math.min(length, i + (b.length - p));
+			while(i < end) {
+				char c = string.charAt(i);
+				if(c < 0x20 || c >= 0x80 || c == '"' || c == '\\')
+					break;
+				b[p++] = (byte)c;
+				i++;
+			}
+			count = p;
+			if(i < end)
+				writeEscaped(string.charAt(i++));
+		}
+		writeByte('"');
+	}
+	private void writeEscaped(char c) throws IOException {
+		require(6);
+		byte[] b = buf;
+		switch(c) {
+		case '\r':
+			b[count++] = '\\';
+			b[count++] = 'r';
+			break;
+		case '\n':
+			b[count++] = '\\';
+			b[count++] = 'n';
+			break;
+		case '\b':
+			b[count++] = '\\';
+			b[count++] = 'b';
+			break;
+		case '\f':
+			b[count++] = '\\';
+			b[count++] = 'f';
+			break;
+		case '\t':
+			b[count++] = '\\';
+			b[count++] = 't';
+			break;
+		case '"':
+		case '\\':
+			b[count++] = '\\';
+			b[count++] = (byte)c;
+			break;
+		default:
+			b[count++] = '\\';
+			b[count++] = 'u';
+			b[count++] = HEX[(c >> 12)&0xf];
+			b[count++] = HEX[(c >>  8)&0xf];
+			b[count++] = HEX[(c >>  4)&0xf];
+			b[count++] = HEX[(c >>  0)&0xf];
+			break;
+		}
+	}
+}
@@ -0,0 +1,458 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.json;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A JSON parser that decodes UTF-8 directly from a byte buffer, refilling it from an InputStream as needed.
+ * <p>
+ * This is the implementation behind JSON.decode(byte[]) and JSON.decode(InputStream). Unlike the Reader based
+ * decoder it does not push characters back one at a time: strings are decoded from the buffer straight into a
+ * reusable char array, and numbers are accumulated without going through an intermediate String where possible.
+ * <p>
+ * A parser is good for a single decode and is not thread-safe.
+ */
+class JSONParser {
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The source of more data, or null if the whole document is already in buf */
+	private final InputStream in;
+	private final byte[] buf;
+	private int pos;
+	private int limit;
+	/** Scratch space for decoding strings and numbers */
+	private char[] chars = new char[128];
+	private final JSONRecognizer[] recognizers;
+
+	/** Create a parser over a fixed region of a byte array */
+	JSONParser(byte[] data, int offset, int length, JSONRecognizer... recognizers) {
+		this.in = null;
+		this.buf = data;
+		this.pos = offset;
+		this.limit = offset + length;
+		this.recognizers = recognizers;
+	}
+	/** Create a parser that reads from the given stream. The stream is not closed. */
+	JSONParser(InputStream in, JSONRecognizer... recognizers) {
+		this.in = in;
+		this.buf = new byte[BUFFER_SIZE];
+		this.pos = 0;
+		this.limit = 0;
+		this.recognizers = recognizers;
+	}
+
+	/** Decode a single value from the input */
+	Object parse() throws IOException {
+		if(skipWhitespace() < 0)
+			throw new IllegalArgumentException("EOF at start of decode");
+		return readValue();
+	}
+
+	private Object readValue() throws IOException {
+		int start = peek();
+		switch(start) {
+		case -1:
+			throw new IllegalArgumentException("EOF at start of decode");
+		case '"':
+			return readString();
+		case '{':
+			return recognize(readMap());
+		case '[':
+			return readList();
+		case 't': case 'f': case 'n':
+			return readTrueFalseNull();
+		case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9': case '-':
+			return readNumber();
+		default:
+			throw new IllegalArgumentException("Unexpected character "+(char)start+" at start of decode");
+		}
+	}
+
+	/** Make at least one byte available in buf, returning false at end of input */
+	private boolean fill() throws IOException {
+		if(pos < limit)
+			return true;
+		if(in == null)
+			return false;
+		int read;
+		do {
+			read = in.read(buf, 0, buf.length);
+		} while(read == 0);
+		if(read < 0)
+			return false;
+		pos = 0;
+		limit = read;
+		return true;
+	}
+	private int peek() throws IOException {
+		if(pos >= limit && !fill())
+			return -1;
+		return buf[pos] & 0xff;
+	}
+	private int next() throws IOException {
+		if(pos >= limit && !fill())
+			return -1;
+		return buf[pos++] & 0xff;
+	}
+	private int skipWhitespace() throws IOException {
+		while(true) {
+			int c = peek();
+			if(c == ' ' || c == '\n' || c == '\r' || c == '\t')
+				pos++;
+			else
+				return c;
+		}
+	}
+
+	private Boolean readTrueFalseNull() throws IOException {
+		int c0 = next(), c1 = next(), c2 = next(), c3 = next();
+		if(c3 < 0)
+			throw new IllegalArgumentException("End of file while reading bareword");
+		switch(c0) {
+		case 't':
+			if(!(c1 == 'r' && c2 == 'u' && c3 == 'e'))
+				throw new IllegalArgumentException("Expected 'true' after reading 't'");
+			return true;
+		case 'n':
+			if(!(c1 == 'u' && c2 == 'l' && c3 == 'l'))
+				throw new IllegalArgumentException("Expected 'null' after reading 'n'");
+			return null;
+		case 'f':
+			int c4 = next();
+			if(c4 < 0)
+				throw new IllegalArgumentException("End of file while reading bareword");
+			if(!(c1 == 'a' && c2 == 'l' && c3 == 's' && c4 == 'e'))
+				throw new IllegalArgumentException("Expected 'false' after reading 'f'");
+			return false;
+		}
+		throw new IllegalStateException();
+	}
+
+	/** Powers of ten that are exactly representable as doubles */
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+	};
+
+	private Number readNumber() throws IOException {
+		int length = 0;
+		out: while(true) {
+			int c = peek();
+			switch(c) {
+			case '.': case 'e': case 'E': case '-': case '+':
+			case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
+				if(length == chars.length)
+					chars = Arrays.copyOf(chars, length * 2);
+				chars[length++] = (char)c;
+				pos++;
+				break;
+			default:
+				break out;
+			}
+		}
+		return parseNumber(chars, length);
+	}
+
+	/**
+	 * Convert the characters of a number to an Integer, Long or Double.
+	 * <p>
+	 * Integers of up to 18 digits are accumulated directly. Decimals with up to 15 significant digits and a small
+	 * exponent are computed exactly from a long mantissa and a power of ten, which is correctly rounded because both
+	 * operands are exactly representable. Anything else falls back to Long.parseLong/Double.parseDouble, so
+	 * malformed numbers fail exactly as they always did.
+	 */
+	static Number parseNumber(char[] s, int length) {
+		int i = 0;
+		boolean negative = false;
+		if(i < length && s[i] == '-') {
+			negative = true;
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean isDecimal = false;
+
+		int intStart = i;
+		while(i < length && s[i] >= '0' && s[i] <= '9') {
+			mantissa = mantissa*10 + (s[i++] - '0');
+			digits++;
+		}
+		boolean simple = i > intStart;
+		if(simple && i < length && s[i] == '.') {
+			isDecimal = true;
+			int fracStart = ++i;
+			while(i < length && s[i] >= '0' && s[i] <= '9') {
+				mantissa = mantissa*10 + (s[i++] - '0');
+				digits++;
+				exponent--;
+			}
+			simple = i > fracStart;
+		}
+		if(simple && i < length && (s[i] == 'e' || s[i] == 'E')) {
+			isDecimal = true;
+			i++;
+			boolean negativeExponent = false;
+			if(i < length && (s[i] == '-' || s[i] == '+'))
+				negativeExponent = s[i++] == '-';
+			int expStart = i;
+			int e = 0;
+			while(i < length && s[i] >= '0' && s[i] <= '9') {
+				if(e < 10000)
+					e = e*10 + (s[i] - '0');
+				i++;
+			}
+			simple = i > expStart;
+			exponent += negativeExponent ? -e : e;
+		}
+		simple = simple && i == length && digits <= 18;
+
+		if(simple && !isDecimal) {
+			long l = negative ? -mantissa : mantissa;
+			if(l <= Integer.MAX_VALUE && l >= Integer.MIN_VALUE)
+				return (int)l;
+			return l;
+		}
+		if(simple && digits <= 15 && exponent >= -22 && exponent <= 22) {
+			double d = mantissa;
+			d = exponent < 0 ? d / POW10[-exponent] : d * POW10[exponent];
+			return negative ? -d : d;
+		}
+
+		// Slow path: rare or malformed numbers
+		for(int j=0; j<length && !isDecimal; j++)
+			isDecimal = s[j] == '.' || s[j] == 'e' || s[j] == 'E';
+		String text = new String(s, 0, length);
+		if(isDecimal)
+			return Double.parseDouble(text);
+		long l = Long.parseLong(text);
+		if(l <= Integer.MAX_VALUE && l >= Integer.MIN_VALUE)
+			return (int)l;
+		return l;
+	}
+
+	/** Read a string into the chars buffer, returning its length */
+	private int readStringChars() throws IOException {
+		pos++; // opening quote, checked by caller
+		int length = 0;
+		while(true) {
+			if(pos >= limit && !fill())
+				throw new IllegalArgumentException("String meets end of file");
+
+			// Fast path: copy a run of plain ASCII straight out of the buffer
+			byte[] b = buf;
+			int p = pos;
+			int runEnd = limit;
+			if(runEnd - p > chars.length - length)
+				runEnd = p + (chars.length - length);
+			char[] c = chars;
+			while(p < runEnd) {
+				byte x = b[p];
+				if(x == '"' || x == '\\' || x < 0)
+					break;
+				c[length++] = (char)x;
+				p++;
+			}
+			pos = p;
+			if(length == chars.length) {
+				chars = Arrays.copyOf(chars, length * 2);
+				continue;
+			}
+			if(p == limit)
+				continue;
+
+			int d = buf[pos++] & 0xff;
+			if(d == '"')
+				return length;
+			if(length + 2 > chars.length)
+				chars = Arrays.copyOf(chars, chars.length * 2);
+			if(d == '\\')
+				length = readEscape(length);
+			else
+				length = readMultiByte(d, length);
+		}
+	}
+	private int readEscape(int length) throws IOException {
+		int d = next();
+		switch(d) {
+		case -1:
+			throw new IllegalArgumentException("Escape sequence meets end of file");
+		case '\\':
+		case '"':
+		case '/':
+			chars[length++] = (char)d;
+			break;
+		case 'r':
+			chars[length++] = '\r';
+			break;
+		case 'n':
+			chars[length++] = '\n';
+			break;
+		case 'b':
+			chars[length++] = '\b';
+			break;
+		case 'f':
+			chars[length++] = '\f';
+			break;
+		case 't':
+			chars[length++] = '\t';
+			break;
+		case 'u':
+			int value = 0;
+			for(int i=0; i<4; i++) {
+				int h = next();
+				if(h < 0)
+					throw new IllegalArgumentException("Unicode escape meets end of file");
+				int digit = Character.digit((char)h, 16);
+				if(digit < 0)
+					throw new IllegalArgumentException("Invalid character "+(char)h+" in unicode escape");
+				value = (value << 4) | digit;
+			}
+			chars[length++] = (char)value;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown escape sequence \\"+(char)d);
+		}
+		return length;
+	}
+	/** Decode a multi-byte UTF-8 sequence starting with lead. Malformed input decodes to U+FFFD, as InputStreamReader does. */
+	private int readMultiByte(int lead, int length) throws IOException {
+		int extra;
+		int codePoint;
+		if(lead >= 0xc2 && lead < 0xe0) {
+			extra = 1;
+			codePoint = lead & 0x1f;
+		} else if(lead >= 0xe0 && lead < 0xf0) {
+			extra = 2;
+			codePoint = lead & 0x0f;
+		} else if(lead >= 0xf0 && lead <= 0xf4) {
+			extra = 3;
+			codePoint = lead & 0x07;
+		} else {
+			chars[length++] = '\ufffd';
+			return length;
+		}
+		for(int i=0; i<extra; i++) {
+			int c = peek();
+			if(c < 0 || (c & 0xc0) != 0x80) {
+				chars[length++] = '\ufffd';
+				return length;
+			}
+			pos++;
+			codePoint = (codePoint << 6) | (c & 0x3f);
+		}
+		if(extra == 3 && codePoint >= 0x10000 && codePoint <= 0x10ffff) {
+			codePoint -= 0x10000;
+			chars[length++] = (char)(0xd800 + (codePoint >> 10));
+			chars[length++] = (char)(0xdc00 + (codePoint & 0x3ff));
+		} else if((extra == 2 && codePoint < 0x800) || (codePoint >= 0xd800 && codePoint < 0xe000) || codePoint > 0x10ffff || (extra == 3 && codePoint < 0x10000)) {
+			chars[length++] = '\ufffd';
+		} else {
+			chars[length++] = (char)codePoint;
+		}
+		return length;
+	}
+
+	private String readString() throws IOException {
+		int length = readStringChars();
+		return new String(chars, 0, length);
+	}
+
+	private static final int KEY_CACHE_SIZE = 512;
+	private static final int MAX_CACHED_KEY_LENGTH = 32;
+	/**
+	 * Recently seen map keys. Twin responses repeat the same few keys ("uuid", "class", "controlType"...) for every
+	 * element, so sharing the String instances saves both allocation and retained memory.
+	 * Races between threads are benign: Strings are immutable and a lost update just means a cache miss.
+	 */
+	private static final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+	private String readKey() throws IOException {
+		int length = readStringChars();
+		if(length > MAX_CACHED_KEY_LENGTH)
+			return new String(chars, 0, length);
+		int hash = 0;
+		for(int i=0; i<length; i++)
+			hash = 31*hash + chars[i];
+		int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+		String cached = keyCache[slot];
+		if(cached != null && cached.length() == length) {
+			boolean match = true;
+			for(int i=0; i<length && match; i++)
+				match = cached.charAt(i) == chars[i];
+			if(match)
+				return cached;
+		}
+		String key = new String(chars, 0, length);
+		keyCache[slot] = key;
+		return key;
+	}
+
+	private Map<String,Object> readMap() throws IOException {
+		pos++; // opening brace, checked by caller
+		HashMap<String,Object> result = new HashMap<String,Object>();
+		while(true) {
+			int next = skipWhitespace();
+			if(next < 0)
+				throw new IllegalArgumentException("EOF inside map");
+			else if(next == '}') {
+				pos++;
+				return result;
+			}
+			if(!result.isEmpty()) {
+				if(next == ',') {
+					pos++;
+					next = skipWhitespace();
+				} else {
+					throw new IllegalArgumentException("Expected , or } in map, got "+(char)next);
+				}
+			}
+			if(next != '"')
+				throw new IllegalArgumentException("Expected \" to begin key in map, got "+(char)next);
+
+			String key = readKey();
+			int colon = skipWhitespace();
+			if(colon != ':')
+				throw new IllegalArgumentException("Expected : after key name in map, got "+(char)colon);
+			pos++;
+			skipWhitespace();
+			result.put(key, readValue());
+		}
+	}
+	private List<Object> readList() throws IOException {
+		pos++; // opening bracket, checked by caller
+		ArrayList<Object> result = new ArrayList<Object>();
+		while(true) {
+			int next = skipWhitespace();
+			if(next < 0)
+				throw new IllegalArgumentException("EOF inside list");
+			if(next == ']') {
+				pos++;
+				return result;
+			}
+			if(!result.isEmpty()) {
+				if(next == ',') {
+					pos++;
+					skipWhitespace();
+				} else {
+					throw new IllegalArgumentException("Unexpected character in list "+(char)next+", expected , or ]");
+				}
+			}
+			result.add(readValue());
+		}
+	}
+	@SuppressWarnings("unchecked")
+	private Object recognize(Object o) {
+		Map<String,Object> map = (Map<String,Object>)o;
+		for(JSONRecognizer recognizer : recognizers) {
+			Object result = recognizer.recognize(map);
+			if(result != null)
+				return result;
+		}
+		return map;
+	}
+}
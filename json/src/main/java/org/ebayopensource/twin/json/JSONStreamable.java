@@ -0,0 +1,19 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.json;
+
+import java.io.*;
+
+/**
+ * Used by objects that are too large to hold in memory as a String, such as file contents.
+ * <p>
+ * If an object implements JSONStreamable, when it is serialized its writeJSON() method will be called
+ * to write its encoded form directly to the output. The implementation is responsible for producing
+ * a single, valid JSON value, e.g. a correctly quoted and escaped string.
+ */
+public interface JSONStreamable {
+	/** Write the UTF-8 encoded JSON text of this object. The stream must not be closed. */
+	public void writeJSON(OutputStream out) throws IOException;
+}
@@ -0,0 +1,169 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.json;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class JSONEncoderTest {
+	private enum Color { RED, GREEN }
+
+	/** The reference encoding, via the Writer path */
+	private static String encodeWriter(Object data) throws IOException {
+		StringWriter writer = new StringWriter();
+		JSON.encode(data, writer);
+		return writer.toString();
+	}
+
+	/** Encode through a deliberately tiny buffer so every write crosses a flush */
+	private static String encodeTinyBuffer(Object data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONEncoder encoder = new JSONEncoder(out, new byte[7]);
+		encoder.write(data);
+		encoder.flush();
+		return out.toString("UTF-8");
+	}
+
+	private static String longString() {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<20000; i++)
+			sb.append(i % 97 == 0 ? '\n' : i % 89 == 0 ? '\u00e9' : (char)('a' + i % 26));
+		return sb.toString();
+	}
+
+	@DataProvider(name="values")
+	public Object[][] values() {
+		Map<String,Object> map = new LinkedHashMap<String,Object>();
+		map.put("a", 1);
+		map.put("b", Arrays.asList("x", null, true));
+		map.put("c\"", new int[] { 1, 2 });
+		return new Object[][] {
+				{null},
+				{0},
+				{-42},
+				{Integer.MIN_VALUE},
+				{Long.MAX_VALUE},
+				{Long.MIN_VALUE},
+				{(byte)-7},
+				{(short)3},
+				{2.5},
+				{Double.NaN},
+				{Double.NEGATIVE_INFINITY},
+				{1.5f},
+				{Float.NaN},
+				{true},
+				{'q'},
+				{Color.GREEN},
+				{""},
+				{"plain ascii"},
+				{"quote \" backslash \\ slash /"},
+				{"\r\n\b\f\t\u0000\u001f\u007f"},
+				{"caf\u00e9 \u20ac \ud83d\ude00"},
+				{longString()},
+				{new int[] { 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE }},
+				{new long[] { 0, Long.MIN_VALUE, Long.MAX_VALUE }},
+				{new byte[] { 0, -128, 127 }},
+				{new short[] { 1, -2 }},
+				{new double[] { 0.5, Double.NaN, 1e300 }},
+				{new float[] { 0.1f, Float.POSITIVE_INFINITY }},
+				{new boolean[] { true, false }},
+				{new char[] { 'a', '"', '\u00ff' }},
+				{new int[0]},
+				{new Object[] { "a", 1, null, new String[] { "b" } }},
+				{new int[][] { { 1 }, { 2, 3 } }},
+				{map},
+				{Collections.singletonMap(7, "seven")},
+		};
+	}
+
+	@Test(dataProvider="values")
+	public void testSameAsWriter(Object value) throws IOException {
+		String expected = encodeWriter(value);
+		assertEquals(expected, JSON.encode(value));
+		assertEquals(expected, new String(JSON.encodeToBytes(value), "UTF-8"));
+		assertEquals(expected, encodeTinyBuffer(value));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSON.encode(value, out);
+		assertEquals(expected, out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testShortEncodedAsDouble() {
+		assertEquals("[3.0,-1.0]", JSON.encode(new Object[] { (short)3, Short.valueOf((short)-1) }));
+		assertEquals("[3.0]", JSON.encode(new short[] { 3 }));
+	}
+
+	@Test
+	public void testOutputIsAscii() {
+		byte[] bytes = JSON.encodeToBytes("\u00e9\ud83d\ude00");
+		assertEquals("\"\\u00e9\\ud83d\\ude00\"", new String(bytes));
+		assertEquals("\u00e9\ud83d\ude00", JSON.decode(bytes));
+	}
+
+	@Test
+	public void testStreamIsFlushedNotClosed() throws IOException {
+		final boolean[] closed = new boolean[1];
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			public void close() throws IOException {
+				closed[0] = true;
+			}
+		};
+		JSON.encode(Arrays.asList(1, 2), out);
+		JSON.encode("x", out);
+		assertEquals("[1,2]\"x\"", out.toString("UTF-8"));
+		assertFalse(closed[0]);
+	}
+
+	@Test
+	public void testNestedEncodeInToJSON() throws IOException {
+		final JSONable inner = new JSONable() {
+			public Object toJSON() {
+				// encoding from within an encode must not disturb the outer buffer
+				ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+				try {
+					JSON.encode(Collections.singletonMap("k", "v"), scratch);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				return scratch.toString();
+			}
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSON.encode(Arrays.asList("before", inner, "after"), out);
+		assertEquals("[\"before\",\"{\\\"k\\\":\\\"v\\\"}\",\"after\"]", out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testStreamable() throws IOException {
+		final byte[] big = new byte[100000];
+		Arrays.fill(big, (byte)'z');
+		big[0] = big[big.length-1] = '"';
+		JSONStreamable streamable = new JSONStreamable() {
+			public void writeJSON(OutputStream out) throws IOException {
+				out.write(big, 0, 1);
+				out.write(big, 1, big.length-2);
+				out.write(big[big.length-1]);
+			}
+		};
+		List<Object> value = Arrays.asList(1, streamable, "x");
+		String expected = "[1,"+new String(big, "US-ASCII")+",\"x\"]";
+
+		assertEquals(expected, JSON.encode(value));
+		assertEquals(expected, encodeWriter(value));
+		assertEquals(expected, encodeTinyBuffer(value));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSON.encode(value, out);
+		assertEquals(expected, out.toString("UTF-8"));
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void testUnencodable() {
+		JSON.encodeToBytes(Collections.singletonList(new Object()));
+	}
+}
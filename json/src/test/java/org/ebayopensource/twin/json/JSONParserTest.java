@@ -0,0 +1,127 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.json;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class JSONParserTest {
+	/** An input stream that returns at most one byte per read, to exercise buffer refills */
+	private static class TrickleInputStream extends FilterInputStream {
+		public TrickleInputStream(InputStream in) {
+			super(in);
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			return super.read(b, off, Math.min(len, 1));
+		}
+	}
+
+	private static Object decodeTrickle(String json) throws IOException {
+		return JSON.decode(new TrickleInputStream(new ByteArrayInputStream(json.getBytes("UTF-8"))));
+	}
+
+	@DataProvider(name="numbers")
+	public Object[][] numbers() {
+		return new Object[][] {
+				{"0", 0},
+				{"-0", 0},
+				{"42", 42},
+				{"-17", -17},
+				{"2147483647", Integer.MAX_VALUE},
+				{"-2147483648", Integer.MIN_VALUE},
+				{"2147483648", 2147483648L},
+				{"9223372036854775807", Long.MAX_VALUE},
+				{"-9223372036854775808", Long.MIN_VALUE},
+				{"2.5", 2.5},
+				{"-0.0", -0.0},
+				{"0.1", 0.1},
+				{"1e5", 1e5},
+				{"1E-5", 1e-5},
+				{"123.456e+2", 123.456e2},
+				{"3.141592653589793", Math.PI},
+				{"1.7976931348623157e308", Double.MAX_VALUE},
+				{"4.9e-324", Double.MIN_VALUE},
+				{"12345678901234567890.5", 12345678901234567890.5},
+				{"1.", 1.0},
+		};
+	}
+
+	@Test(dataProvider="numbers")
+	public void testNumberDecode(String json, Object expected) throws IOException {
+		assertEquals(json, expected, JSON.decode(json));
+		assertEquals(json+" from stream", expected, decodeTrickle(json));
+		assertEquals(json+" in list", Arrays.asList(expected, expected), JSON.decode("["+json+","+json+"]"));
+	}
+
+	@Test
+	public void testMalformedNumbers() {
+		for(String json : new String[]{"-", "1-2", "1e", "99999999999999999999"}) {
+			try {
+				Object result = JSON.decode(json);
+				fail("Decoding "+json+" should fail but got "+result);
+			} catch (IllegalArgumentException e) {}
+		}
+	}
+
+	@Test
+	public void testUnicodeDecode() throws IOException {
+		String text = "a\u00e9\u4e2d\ud83d\ude00z";
+		assertEquals("raw UTF-8", text, JSON.decode("\""+text+"\""));
+		assertEquals("raw UTF-8 from stream", text, decodeTrickle("\""+text+"\""));
+		assertEquals("escaped", text, JSON.decode(JSON.encode(text)));
+		assertEquals("solidus escape", "a/b", JSON.decode("\"a\\/b\""));
+	}
+
+	@Test
+	public void testMalformedUTF8() {
+		byte[] data = new byte[]{'"', 'a', (byte)0xff, 'b', (byte)0xe4, 'c', '"'};
+		assertEquals("a\ufffdb\ufffdc", JSON.decode(data));
+	}
+
+	@Test
+	public void testLongStringAcrossBuffers() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<20000; i++)
+			sb.append((char)('a' + i%26)).append(i%100 == 0 ? "\u00e9\\n" : "");
+		String json = "\""+sb+"\"";
+		Object expected = JSON.decode(new PushbackReader(new StringReader(json)));
+		assertEquals(expected, JSON.decode(json));
+		assertEquals(expected, JSON.decode(new ByteArrayInputStream(json.getBytes("UTF-8"))));
+		assertEquals(expected, decodeTrickle(json));
+	}
+
+	@Test
+	public void testDecodeRegion() throws IOException {
+		byte[] data = "xx[1, {\"a\": true}]yy".getBytes("UTF-8");
+		Map<String,Object> map = new HashMap<String,Object>();
+		map.put("a", true);
+		assertEquals(Arrays.asList(1, map), JSON.decode(data, 2, data.length - 4));
+	}
+
+	@Test
+	public void testRecognizerFromStream() throws IOException {
+		final Object marker = new Object();
+		JSONRecognizer recognizer = new JSONRecognizer() {
+			public Object recognize(Map<String, Object> jsonObject) {
+				return jsonObject.containsKey("uuid") ? marker : null;
+			}
+		};
+		Object result = JSON.decode(new ByteArrayInputStream("{\"value\": [{\"uuid\": \"1234\"}]}".getBytes("UTF-8")), recognizer);
+		assertSame(marker, ((List<?>)((Map<?,?>)result).get("value")).get(0));
+	}
+
+	@Test
+	public void testTruncatedInput() {
+		for(String json : new String[]{"", "  ", "[1,", "{\"a\":", "\"abc", "\"\\u12", "tru", "{\"a\" 1}"}) {
+			try {
+				Object result = JSON.decode(json);
+				fail("Decoding "+json+" should fail but got "+result);
+			} catch (IllegalArgumentException e) {}
+		}
+	}
+}
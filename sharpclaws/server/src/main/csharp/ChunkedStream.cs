@@ -90,7 +90,7 @@ namespace Twin.SharpClaws {
 
         public override int Read(byte[] buffer, int offset, int n) {
             if (inEof)
-                return -1;
+                return 0; // end of stream, as Stream.Read() reports it; GZipStream etc rely on this
             // skip reading more data if we have data in the buffer already
             if (!(bufferInSize > 0 && bufferInPos < bufferInSize)) {
                 string line = readLine();
@@ -110,7 +110,7 @@ namespace Twin.SharpClaws {
                     if (blank.Length > 0)
                         throw new HttpException(400, "Expected blank line after last chunk but got " + blank);
 
-                    return -1;
+                    return 0;
                 }
                 if (bufferIn == null || bufferIn.Length < count) {
                     bufferIn = new byte[count];
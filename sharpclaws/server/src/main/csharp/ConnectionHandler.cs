@@ -7,6 +7,7 @@ using System.Collections.Generic;
 using System.Text;
 using System.Net.Sockets;
 using System.IO;
+using System.IO.Compression;
 using System.Threading;
 using System.Net;
 using Twin.Logging;
@@ -94,6 +95,7 @@ namespace Twin.SharpClaws
 	                    try {
 	                        long start = System.DateTime.Now.Ticks;
 	                        request.Servlet.Handle(request);
+	                        request.SkipBody();
 	                        long end = System.DateTime.Now.Ticks;
 	                        long duration = end - start;
 	
@@ -198,16 +200,26 @@ namespace Twin.SharpClaws
         }
 
         Stream CreateBodyStream(Request request, Stream stream) {
+            Stream body = null;
             if (request.Headers["Transfer-Encoding"] != null && "chunked".Equals(request.Headers["Transfer-Encoding"], StringComparison.InvariantCultureIgnoreCase)) {
-                return new ChunkedStream(stream, true, false);
+                body = new ChunkedStream(stream, true, false);
             } else if (request.Headers["Content-Length"] != null) {
                 try {
-                    return new LengthBoundStream(stream, Convert.ToInt64(request.Headers["Content-Length"]), 0);
+                    body = new LengthBoundStream(stream, Convert.ToInt64(request.Headers["Content-Length"]), 0);
                 } catch (FormatException) {
                     throw new HttpException(400, "Bad Content-Length value " + request.Headers["Content-Length"]);
                 }
             }
-            return null;
+            request.RawBody = body;
+            string encoding = request.Headers["Content-Encoding"];
+            if (body == null || encoding == null || encoding.Trim().Equals("identity", StringComparison.InvariantCultureIgnoreCase))
+                return body;
+            // leave the raw stream open when the decompressor is closed, so SkipBody() can still read what it didn't
+            if (encoding.Trim().Equals("gzip", StringComparison.InvariantCultureIgnoreCase))
+                return new GZipStream(body, CompressionMode.Decompress, true);
+            if (encoding.Trim().Equals("deflate", StringComparison.InvariantCultureIgnoreCase))
+                return new DeflateStream(body, CompressionMode.Decompress, true);
+            throw new HttpException(415, "Unsupported Content-Encoding " + encoding);
         }
 
         class RequestLine {
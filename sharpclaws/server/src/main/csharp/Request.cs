@@ -134,6 +134,21 @@ namespace Twin.SharpClaws {
             get { return bodyStream; }
             set { bodyStream = value; }
         }
+        // The body as sent, before any Content-Encoding is undone
+        Stream rawBodyStream;
+        internal Stream RawBody {
+            get { return rawBodyStream; }
+            set { rawBodyStream = value; }
+        }
+
+        // Read whatever of the body the servlet left, so the next request on the connection can be read.
+        // A decompressor can stop at the end of the compressed data, before the end of the body.
+        internal void SkipBody() {
+            if (rawBodyStream == null)
+                return;
+            byte[] buf = new byte[1024];
+            while (rawBodyStream.Read(buf, 0, buf.Length) > 0) { }
+        }
 
 
         public NameValueCollection Parameters {
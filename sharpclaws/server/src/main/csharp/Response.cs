@@ -4,7 +4,9 @@
 
 using System;
 using System.Collections.Generic;
+using System.Globalization;
 using System.IO;
+using System.IO.Compression;
 using System.Reflection;
 using System.Resources;
 using System.Text;
@@ -33,12 +35,48 @@ namespace Twin.SharpClaws {
                     return new LengthBoundStream(stream, 0, Convert.ToInt64(headers["Content-Length"]));
                 }
                 headers["Transfer-Encoding"] = "chunked";
-				return new ChunkedStream(stream, false, true);
+                Stream chunked = new ChunkedStream(stream, false, true);
+                if (ShouldCompress()) {
+                    headers["Content-Encoding"] = "gzip";
+                    headers["Vary"] = "Accept-Encoding";
+                    return new GZipStream(chunked, CompressionMode.Compress); // closing it closes the chunked stream
+                }
+				return chunked;
             } finally {
                 HeadersFinalized = true;
             }
         }
 
+        // Only bodies of unknown length are compressed: ones with a Content-Length are small or already compressed
+        // (files, images), and the compressed length isn't known until the end. Streamed progress reports
+        // (x-ndjson) aren't compressed either, as GZipStream holds data back until it is closed.
+        private bool ShouldCompress() {
+            if (headers["Content-Encoding"] != null || !AcceptsGzip(request.Headers["Accept-Encoding"]))
+                return false;
+            string type = headers["Content-Type"];
+            if (type == null)
+                return false;
+            type = type.ToLowerInvariant();
+            return type.StartsWith("application/json") || type.StartsWith("application/xml") || type.StartsWith("text/");
+        }
+        private static bool AcceptsGzip(string acceptEncoding) {
+            if (acceptEncoding == null)
+                return false;
+            foreach (string coding in acceptEncoding.Split(',')) {
+                string[] parts = coding.Split(';');
+                if (!parts[0].Trim().Equals("gzip", StringComparison.InvariantCultureIgnoreCase))
+                    continue;
+                for (int i = 1; i < parts.Length; i++) {
+                    string param = parts[i].Replace(" ", "");
+                    double q;
+                    if (param.StartsWith("q=") && double.TryParse(param.Substring(2), NumberStyles.Float, CultureInfo.InvariantCulture, out q) && q == 0)
+                        return false; // explicitly refused
+                }
+                return true;
+            }
+            return false;
+        }
+
         bool headersFinalized;
         internal bool HeadersFinalized {
             get { return headersFinalized; }
@@ -52,12 +52,24 @@ public class Application {
 	Map<String,Object> capabilities;
 	/** The default timeout e.g. for getWindow() */
 	private double timeout=30.0;
+	/** Element properties read recently, see setCacheTimeout() */
+	final PropertyCache cache = new PropertyCache();
+	/** False once we've found the server doesn't support /batch */
+	volatile boolean batchSupported = true;
+	/** False once we've found the server doesn't support /watch, and waits must poll */
+	volatile boolean watchSupported = true;
+	/** The elements the RC is holding for this application, released once they are unreachable */
+	final ElementTracker elements = new ElementTracker(this);
 
 	/** A recognizer that picks up objects of the form {"class":"foo", "uuid":"12345"} and wraps them in RemoteObject instances */
-	private JSONRecognizer recognizeRemoteObjects = new JSONRecognizer() {
+	JSONRecognizer recognizeRemoteObjects = new JSONRecognizer() {
 		public Object recognize(Map<String,Object> jsonObject) {
 			if(jsonObject.get("class") instanceof String && jsonObject.get("uuid") instanceof String) {
-				return new RemoteObject(Application.this, (String)jsonObject.get("class"), (String)jsonObject.get("uuid"), jsonObject);
+				CompactProperties properties = new CompactProperties(jsonObject);
+				RemoteObject remote = new RemoteObject(Application.this, (String)properties.get("class"), (String)properties.get("uuid"), properties);
+				if(properties.containsKey("controlType")) // an element, which the RC holds until released
+					elements.track(remote);
+				return remote;
 			}
 			return null;
 		}
@@ -70,6 +82,13 @@ public class Application {
 	public Application(URL url) {
 		connection = new TwinConnection(url);
 	}	
+	/** 
+	 * Create an application proxy that will connect to the given automation server with the given connection settings. 
+	 * The application must be open()ed before being used.
+	 */
+	public Application(URL url, ConnectionConfig config) {
+		connection = new TwinConnection(url, config);
+	}
 	
 	/**
 	 * Configure session setup information.
@@ -109,6 +128,105 @@ public class Application {
 	public void setTimeout(double timeout) {
 		this.timeout = timeout;
 	}
+	/** Get how long element property values are reused, in seconds. The default is 0: every read goes to the server. */
+	public double getCacheTimeout() {
+		return cache.getTimeout();
+	}
+	/**
+	 * Set how long element property values (name, value, bounds, enabled etc) are reused before they are read from the 
+	 * server again. The default is 0, which disables caching.
+	 * <p>
+	 * Anything done through this session that might change the application (click(), setValue(), sendKeys() etc) 
+	 * discards all cached values, but changes the application makes by itself are not seen until values expire. 
+	 * Use Element.invalidate() or invalidateCache() when you know something has changed.
+	 * @param timeout in seconds, or Double.POSITIVE_INFINITY to keep values until something is changed
+	 */
+	public void setCacheTimeout(double timeout) {
+		cache.setTimeout(timeout);
+	}
+	/** Discard all cached element property values. */
+	public void invalidateCache() {
+		cache.clear();
+	}
+	/** Get a copy of the settings used to connect to the server */
+	public ConnectionConfig getConnectionConfig() {
+		return connection.config.clone();
+	}
+	/** 
+	 * Change the settings used to connect to the server: timeouts, connection pool sizes etc. 
+	 * This should be done before the application is opened, or at least while no requests are in progress.
+	 */
+	public void setConnectionConfig(ConnectionConfig config) {
+		TwinConnection previous = connection;
+		connection = new TwinConnection(connection.url, config);
+		connection.metrics = previous.metrics;
+		connection.trace = previous.trace;
+		connection.recorder = previous.recorder;
+		connection.replay = previous.replay;
+		if(sessionId != null) {
+			// the open session moves to the pool for the new settings
+			connection.sessionOpened();
+			previous.sessionClosed();
+		}
+	}
+	/** Get the metrics requests are reported to, or null if there are none */
+	public TwinMetrics getMetrics() {
+		return connection.metrics;
+	}
+	/**
+	 * Report every request made by this application to the given metrics, e.g. a HistogramMetrics shared by a whole suite.
+	 * Unlike enableWireLogging(), this is cheap enough to leave on.
+	 * @param metrics the metrics to report to, or null to stop reporting
+	 * @see org.ebayopensource.twin.metrics.HistogramMetrics
+	 */
+	public void setMetrics(TwinMetrics metrics) {
+		connection.metrics = metrics;
+	}
+	/** Get the trace requests are recorded in, or null if there is none */
+	public TwinTrace getTrace() {
+		return connection.trace;
+	}
+	/**
+	 * Record the phases of every request made by this application in the given trace, to see whether time goes to
+	 * this JVM, the network or the RC. A trace can be shared by several applications.
+	 * @param trace the trace to record in, or null to stop recording
+	 */
+	public void setTrace(TwinTrace trace) {
+		connection.trace = trace;
+	}
+	/**
+	 * Save every request made by this application from now on, and the RC's response to it, to the given file.
+	 * Usually this is done before open(), so that the whole session can be replayed with replay(File).
+	 * Closing the application stops the recording; until then the file isn't complete.
+	 * @throws IOException if the file can't be created
+	 */
+	public void startRecording(File file) throws IOException {
+		Recording.Writer recorder = new Recording.Writer(file);
+		stopRecording();
+		connection.recorder = recorder;
+	}
+	/** Stop saving requests, and finish the recording file. Does nothing if this isn't recording. */
+	public void stopRecording() throws IOException {
+		Recording.Writer recorder = connection.recorder;
+		connection.recorder = null;
+		if(recorder != null)
+			recorder.close();
+	}
+	/**
+	 * Create an application that answers every request from a recording made with startRecording(), with no RC at all. 
+	 * This runs a test at full speed wherever the client can run, to profile the client or check it hasn't changed 
+	 * what it sends.
+	 * <p>
+	 * Requests are matched on their method, path and body, so the test must do what it did when it was recorded,
+	 * starting with open() with the same capabilities. A request made several times gets the responses recorded for
+	 * it in turn, then the last one again. A request that wasn't recorded fails with a TwinException.
+	 * @throws IOException if the recording can't be read
+	 */
+	public static Application replay(File recording) throws IOException {
+		Application application = new Application(recording.toURI().toURL());
+		application.connection.replay = new Recording.Replay(recording);
+		return application;
+	}
 	/** 
 	 * Launch the application on the remote server 
 	 * @param applicationName must match the configured application name on the remote server
@@ -137,20 +255,36 @@ public class Application {
 	 * @param desiredCapabilities all capabilities required, must match the remote server
 	 * @throws TwinException
 	 */
-	@SuppressWarnings("unchecked")
 	public void open(Map<String,String> desiredCapabilities) throws TwinException {
+		Map<String,Object> request = openRequest(desiredCapabilities);
+		// hold the pool from the start, so that the connection the session is opened on stays open for it
+		connection.sessionOpened();
+		try {
+			opened(connection.request("POST", "/session", request, recognizeRemoteObjects));
+		} finally {
+			if(sessionId == null)
+				connection.sessionClosed();
+		}
+	}
+	/** Build the body of a new session request. Shared with AsyncApplication. */
+	Map<String,Object> openRequest(Map<String,String> desiredCapabilities) {
 		if(sessionId != null)
 			throw new IllegalStateException("Session already open with id "+sessionId);
 		this.desiredCapabilities.putAll(desiredCapabilities);
 		Map<String,Object> request = new HashMap<String,Object>();
 		request.put("desiredCapabilities", this.desiredCapabilities);
 		request.put("sessionSetup", sessionSetup);
-		Map<String,Object> result = connection.request("POST", "/session", request, recognizeRemoteObjects);
+		return request;
+	}
+	/** Record the session from the response to a new session request. Shared with AsyncApplication. */
+	@SuppressWarnings("unchecked")
+	void opened(Map<String,Object> result) throws TwinException {
 		ensureSuccess(result);
 		if(!result.containsKey("sessionId") || !result.containsKey("value"))
 			throw TwinError.UnknownError.create("Success response didn't include sessionId or value: "+result);			
 		sessionId = (String)result.get("sessionId");
 		capabilities = (Map<String,Object>)result.get("value");
+		connection.sessionOpened();
 	}
 	/** 
 	 * Issue a low-level OPTIONS request to the remote server.
@@ -175,17 +309,79 @@ public class Application {
 	 * @throws TwinException
 	 */
 	public Object request(String method, String path, Map<String,Object> body) throws TwinException {
+		return request(method, path, body, invalidatesCache(method, path));
+	}
+	/**
+	 * Whether a request might change something, so that cached property values must be discarded after it.
+	 * Reads are GETs, apart from POST .../exists, which only waits for an element to appear or go.
+	 */
+	static boolean invalidatesCache(String method, String path) {
+		return !method.equals("GET") && !(method.equals("POST") && path.endsWith("/exists"));
+	}
+	/** Issue a request, discarding cached property values afterwards if it might change something */
+	Object request(String method, String path, Map<String,Object> body, boolean invalidatesCache) throws TwinException {
+		try {
+			return valueOf(connection.request(method, sessionPath(path), body, recognizeRemoteObjects));
+		} finally {
+			if(invalidatesCache)
+				cache.clear();
+			// after, not before, so that the element this request was for has been used by the time it can be released
+			elements.releaseUnreachable();
+		}
+	}
+	/**
+	 * Issue a request that the server may answer with a binary body of the given type rather than JSON
+	 * @return a TwinConnection.Binary if it did, otherwise the "value" of the JSON response
+	 */
+	Object requestBinary(String method, String path, Map<String,Object> body, String accept) throws TwinException {
+		Object result = connection.requestBinary(method, sessionPath(path), body, accept, recognizeRemoteObjects);
+		if(result instanceof TwinConnection.Binary)
+			return result;
+		@SuppressWarnings("unchecked")
+		Map<String,Object> json = (Map<String,Object>)result;
+		return valueOf(json);
+	}
+	/** GET a property value, from the cache if caching is enabled and it is there */
+	Object cachedRequest(String path) throws TwinException {
+		Object value = cache.get(path);
+		if(value != PropertyCache.MISSING)
+			return value;
+		int generation = cache.generation();
+		value = request("GET", path, null);
+		cache.put(path, value, generation);
+		return value;
+	}
+	/** Get the server path of a session resource, e.g. "/elements/12345" to "/session/{id}/elements/12345" */
+	String sessionPath(String path) {
 		if(sessionId == null)
 			throw new IllegalStateException("Session not open");
 		while(path.startsWith("/"))
 			path = path.substring(1);
-		path = "/session/"+sessionId+"/"+path;
-		Map<String,Object> jsonResult = connection.request(method, path, body, recognizeRemoteObjects);
+		return "/session/"+sessionId+"/"+path;
+	}
+	/** Get the "value" of a response, or throw an appropriate exception if it does not represent a success */
+	static Object valueOf(Map<String,Object> jsonResult) throws TwinException {
 		ensureSuccess(jsonResult);
 		if(!jsonResult.containsKey("value"))
 			throw TwinError.UnknownError.create("Got success response with no value set: \n"+jsonResult);
 		return jsonResult.get("value");
 	}
+	/**
+	 * The body of a POST .../watch request, which waits on the server for an element to appear or go away,
+	 * and responds as soon as it does.
+	 * @param event "child", "descendant" or "gone"
+	 * @param criteria what should appear, or null
+	 * @param timeout how long to wait in seconds, may be infinite
+	 */
+	static Map<String,Object> watchRequest(String event, Criteria criteria, double timeout) {
+		Map<String,Object> data = new HashMap<String,Object>();
+		data.put("event", event);
+		if(criteria != null)
+			data.put("criteria", criteria);
+		if(!Double.isInfinite(timeout))
+			data.put("timeout", timeout);
+		return data;
+	}
 	/**
 	 * Issue a low-level request to the remote server.
 	 * This is identical to request(method, path, body), but the result is expected to be a Map (i.e. javascript object) and an exception is thrown if not.
@@ -210,6 +406,22 @@ public class Application {
 			throw new TwinException("Expected object from "+method+" "+path+" but got "+result);
 		return (List<Object>)result;
 	}
+	/**
+	 * Start a batch of operations that will be sent to the server in a single request.
+	 * This saves round trips when reading several properties of one or more elements.
+	 * @see Batch
+	 */
+	public Batch batch() {
+		return new Batch(this);
+	}
+	/**
+	 * Get a non-blocking view of this application, whose operations return immediately with a TwinFuture.
+	 * It shares this session, so the two can be used together.
+	 * @see AsyncApplication
+	 */
+	public AsyncApplication async() {
+		return new AsyncApplication(this);
+	}
 	/**
 	 * Tells the remote server to forcibly close the application and end the session. 
 	 * After this call the application can no longer be used.
@@ -218,12 +430,56 @@ public class Application {
 	public void close() throws TwinException {
 		if(sessionId == null)
 			throw new IllegalStateException("Session not open");
-		Map<String,Object> result = connection.request("DELETE", "/session/"+sessionId, null);
-		ensureSuccess(result);
-		sessionId = null;
+		Map<String,Object> result = null;
+		try {
+			result = connection.request("DELETE", "/session/"+sessionId, null);
+		} finally {
+			closed(result);
+		}
+	}
+	/**
+	 * Finish closing the session, for both close() and AsyncApplication.close(): if the server closed it, forget it
+	 * and everything received in it, and either way stop any recording.
+	 * @param result the server's response to the DELETE, or null if there was none
+	 */
+	void closed(Map<String,Object> result) throws TwinException {
+		try {
+			if(result != null) {
+				ensureSuccess(result);
+				sessionId = null;
+				connection.sessionClosed();
+				elements.clear();
+				cache.clear();
+			}
+		} finally {
+			try {
+				stopRecording();
+			} catch (IOException e) {
+				throw TwinError.UnknownError.create("Couldn't finish recording", e);
+			}
+		}
+	}
+	/**
+	 * Tells the remote server to release every element this application has received, so that it no longer holds them.
+	 * <p>
+	 * The server holds each element it sends until the client releases it. Elements the client has garbage collected
+	 * are released in batches without calling this, but a long test can call it between steps to release everything
+	 * at once. Elements received before the call can't be used afterwards: find them again instead.
+	 * @see #openScope()
+	 * @throws TwinException
+	 */
+	public void releaseAll() throws TwinException {
+		elements.releaseSince(0);
+	}
+	/**
+	 * Open a scope that releases the elements this application receives from now on when it is closed.
+	 * @see ElementScope
+	 */
+	public ElementScope openScope() {
+		return new ElementScope(elements);
 	}
 	/** Throw an appropriate exception if the result object does not represent a success */
-	private void ensureSuccess(Map<String,Object> result) throws TwinException {
+	static void ensureSuccess(Map<String,Object> result) throws TwinException {
 		TwinError code = result.containsKey("status") ? 
 			TwinError.get(((Number)result.get("status")).intValue())
 			: TwinError.UnknownError;
@@ -299,6 +555,31 @@ public class Application {
 			windows.add((Window)e);
 		return windows;
 	}
+	/**
+	 * Find all the elements matching the criteria, searching the application's top-level elements in parallel.
+	 * @see #findAll(Criteria, SearchOptions)
+	 */
+	public <T extends Element> List<T> findAll(Criteria criteria) throws TwinException {
+		return findAll(criteria, new SearchOptions());
+	}
+	/**
+	 * Find the elements matching the criteria under several roots, searching them in parallel.
+	 * <p>
+	 * getDesktop().getDescendants() searches each window in turn in a single request, so an application with many
+	 * windows is slow to search. This instead searches each top-level element, or each of the roots in the options,
+	 * with its own request, several at a time. The results are in the order of the roots, each element only once.
+	 * <p>
+	 * The roots themselves are included if they match, evaluated on the client as with Criteria.matches(): a root
+	 * is left out if the criteria use a property the client doesn't have for it.
+	 * Roots that go away during the search, such as windows closing, contribute nothing.
+	 * @param criteria the criteria to match, or null for all elements
+	 * @param options which roots to search, how many at once, and whether to stop at the first match
+	 * @return the matching elements, or with SearchOptions.setFirstMatch() at most one
+	 * @throws TwinException
+	 */
+	public <T extends Element> List<T> findAll(Criteria criteria, SearchOptions options) throws TwinException {
+		return ParallelSearch.findAll(this, criteria, options);
+	}
 	/**
 	 * Get the currently open menu. 
 	 * <p>
@@ -340,7 +621,7 @@ public class Application {
 	 */
 	public Attachment upload(File f) throws TwinException, IOException {
 		HashMap<String,Object> body = new HashMap<String,Object>();
-		body.put("data", Attachment.getBase64Contents(f));
+		body.put("data", new Base64Upload(f));
 		body.put("name", f.getName());
 		RemoteObject remote = (RemoteObject)request("POST", "/attachment", body);
 		return new Attachment(remote);
@@ -354,7 +635,7 @@ public class Application {
 	 */
 	public Attachment upload(InputStream stream, String filename) throws TwinException, IOException {
 		HashMap<String,Object> body = new HashMap<String,Object>();
-		body.put("data", Attachment.getBase64Contents(stream));
+		body.put("data", new Base64Upload(stream));
 		if(filename != null)
 			body.put("name", filename);
 		RemoteObject remote = (RemoteObject)request("POST", "/attachment", body);
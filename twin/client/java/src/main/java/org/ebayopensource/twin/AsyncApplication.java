@@ -0,0 +1,409 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+import org.ebayopensource.twin.element.Desktop;
+import org.ebayopensource.twin.json.JSON;
+
+/**
+ * A non-blocking view of an Application session: each operation is sent immediately and returns a TwinFuture, without
+ * waiting for the response.
+ * <p>
+ * Ordinary Twin calls block a thread for each round trip, so driving many sessions at once needs a thread for each.
+ * AsyncApplication instead sends every request through one shared I/O thread, so a single JVM can keep hundreds of
+ * sessions busy with a handful of threads of its own. Results are collected with TwinFuture.getResult(), or without
+ * blocking at all using TwinFuture.addCallback():
+ * <pre>
+ * final AsyncApplication app = new AsyncApplication(url);
+ * app.open("notepad", null).addCallback(new TwinCallback&lt;Void&gt;() {
+ *     public void onSuccess(Void result) {
+ *         app.getDescendant(app.getDesktop(), Criteria.type(Window.class)).addCallback(...);
+ *     }
+ *     public void onFailure(TwinException e) {
+ *         e.printStackTrace();
+ *     }
+ * });
+ * </pre>
+ * Callbacks run on the shared I/O thread, which serves every session, and must not block: see {@link TwinCallback}.
+ * <p>
+ * Waits such as onChildAppeared() and onGone() are watched for by the server, which responds as soon as the element
+ * appears or goes, so they cost neither polling requests nor a thread while pending.
+ * <p>
+ * Operations take and return ordinary Elements, so the two styles can be mixed: getApplication() returns the blocking
+ * Application for the same session. Operations sent without waiting for each other may be run by the server in any
+ * order; wait for one to complete before sending another that depends on it.
+ *
+ * @see Application#async()
+ */
+public class AsyncApplication {
+	private final Application session;
+	private final AsyncTransport transport;
+
+	/**
+	 * Create an asynchronous application proxy that will connect to the given automation server.
+	 * The application must be open()ed before being used.
+	 */
+	public AsyncApplication(URL url) {
+		this(new Application(url));
+	}
+	/** Create an asynchronous view of an application, which may already be open */
+	public AsyncApplication(Application session) {
+		this.session = session;
+		this.transport = AsyncTransport.get();
+	}
+
+	/** The blocking Application for this session */
+	public Application getApplication() {
+		return session;
+	}
+	/**
+	 * The desktop of this session, for searching from with getDescendant() etc.
+	 * @see Application#getDesktop()
+	 */
+	public Desktop getDesktop() {
+		return session.getDesktop();
+	}
+
+	/** @see Application#open(String, String) */
+	public TwinFuture<Void> open(String applicationName, String version) {
+		Map<String,String> desiredCapabilities = new HashMap<String,String>();
+		desiredCapabilities.put("applicationName", applicationName);
+		desiredCapabilities.put("version", version);
+		return open(desiredCapabilities);
+	}
+	/**
+	 * Launch the application on the remote server. The session can't be used until the returned TwinFuture completes.
+	 * @see Application#open(Map)
+	 */
+	public TwinFuture<Void> open(Map<String,String> desiredCapabilities) {
+		final TwinFuture<Void> future = new TwinFuture<Void>();
+		send("POST", "/session", session.openRequest(desiredCapabilities), true, new Completion() {
+			public void completed(Map<String,Object> result) {
+				session.opened(result);
+				future.set(null);
+			}
+			public void failed(TwinException e) {
+				future.fail(e);
+			}
+		});
+		return future;
+	}
+	/**
+	 * Tell the remote server to close the application and end the session.
+	 * @see Application#close()
+	 */
+	public TwinFuture<Void> close() {
+		if(session.sessionId == null)
+			throw new IllegalStateException("Session not open");
+		final TwinFuture<Void> future = new TwinFuture<Void>();
+		send("DELETE", "/session/"+session.sessionId, null, true, new Completion() {
+			public void completed(Map<String,Object> result) {
+				session.closed(result);
+				future.set(null);
+			}
+			public void failed(TwinException e) {
+				try {
+					session.closed(null);
+				} catch (TwinException recording) {
+					// the failure to close the session matters more
+				}
+				future.fail(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Issue a low-level request.
+	 * @see Application#request(String, String, Map)
+	 */
+	public TwinFuture<Object> request(String method, String path, Map<String,Object> body) {
+		return request(method, path, body, Converter.IDENTITY);
+	}
+	/** @see Element#getName() */
+	public TwinFuture<String> getName(Element element) {
+		return request("GET", Batch.pathOf(element)+"/name", null, Converter.STRING);
+	}
+	/** @see Element#isEnabled() */
+	public TwinFuture<Boolean> isEnabled(Element element) {
+		return request("GET", Batch.pathOf(element)+"/enabled", null, Converter.BOOLEAN);
+	}
+	/** @see Element#exists() */
+	public TwinFuture<Boolean> exists(Element element) {
+		return request("GET", Batch.pathOf(element)+"/exists", null, Converter.BOOLEAN);
+	}
+	/** @see Element#getBounds() */
+	public TwinFuture<Rectangle> getBounds(Element element) {
+		return request("GET", Batch.pathOf(element)+"/bounds", null, Converter.RECTANGLE);
+	}
+	/** @see Element#getParent() */
+	public TwinFuture<Element> getParent(Element element) {
+		return request("GET", Batch.pathOf(element)+"/parent", null, Converter.ELEMENT);
+	}
+	/** @see Element#getChildren(Criteria) */
+	public TwinFuture<List<Element>> getChildren(Element element, Criteria criteria) {
+		return request("GET", Batch.pathOf(element)+"/children", search(criteria), Converter.ELEMENT_LIST);
+	}
+	/** @see Element#getDescendants(Criteria) */
+	public TwinFuture<List<Element>> getDescendants(Element element, Criteria criteria) {
+		return request("GET", Batch.pathOf(element)+"/descendants", search(criteria), Converter.ELEMENT_LIST);
+	}
+	/**
+	 * Find exactly one descendant. The TwinFuture fails with TwinNoSuchElementException if there is none.
+	 * @see Element#getDescendant(Criteria)
+	 */
+	public TwinFuture<Element> getDescendant(Element element, Criteria criteria) {
+		return request("GET", Batch.pathOf(element)+"/descendants", search(criteria), single("descendants", element, criteria));
+	}
+	/**
+	 * Wait for exactly one child matching the criteria to appear. The server watches for it and responds as soon as it
+	 * appears, so this neither polls nor ties up a thread while waiting.
+	 * The TwinFuture fails with TwinNoSuchElementException if none appears within the timeout.
+	 * @param timeout the duration to wait if no matches are immediately available (can be infinite or zero)
+	 * @see Element#waitForChild(Criteria, double)
+	 */
+	public TwinFuture<Element> onChildAppeared(Element element, Criteria criteria, double timeout) {
+		return watch(element, "child", criteria, timeout, single("children", element, criteria));
+	}
+	/**
+	 * Wait for exactly one descendant matching the criteria to appear, as onChildAppeared().
+	 * @see Element#waitForDescendant(Criteria, double)
+	 */
+	public TwinFuture<Element> onDescendantAppeared(Element element, Criteria criteria, double timeout) {
+		return watch(element, "descendant", criteria, timeout, single("descendants", element, criteria));
+	}
+	/**
+	 * Wait for the element to go away. The TwinFuture fails with TwinInvalidElementStateException if it still
+	 * exists after the timeout.
+	 * @see Element#waitForNotExists(double)
+	 */
+	public TwinFuture<Void> onGone(Element element, double timeout) {
+		return watch(element, "gone", null, timeout, Converter.VOID);
+	}
+	/** @see Element#click() */
+	public TwinFuture<Void> click(Element element) {
+		return request("POST", Batch.pathOf(element)+"/click", null, Converter.VOID);
+	}
+	/** @see org.ebayopensource.twin.pattern.Editable#getValue() */
+	public TwinFuture<String> getValue(Element element) {
+		return request("GET", Batch.pathOf(element)+"/value", null, Converter.STRING);
+	}
+	/** @see org.ebayopensource.twin.pattern.Editable#setValue(String) */
+	public TwinFuture<Void> setValue(Element element, String value) {
+		Map<String,Object> data = new HashMap<String,Object>();
+		data.put("value", value);
+		return request("POST", Batch.pathOf(element)+"/value", data, Converter.VOID);
+	}
+	/** @see org.ebayopensource.twin.pattern.Expandable#isExpanded() */
+	public TwinFuture<Boolean> isExpanded(Element element) {
+		return request("GET", Batch.pathOf(element)+"/expanded", null, Converter.BOOLEAN);
+	}
+	/** @see org.ebayopensource.twin.pattern.Selectable#isSelected() */
+	public TwinFuture<Boolean> isSelected(Element element) {
+		return request("GET", Batch.pathOf(element)+"/selected", null, Converter.BOOLEAN);
+	}
+	/** @see org.ebayopensource.twin.pattern.Toggle#getState() */
+	public TwinFuture<Boolean> getState(Element element) {
+		return request("GET", Batch.pathOf(element)+"/toggle", null, Converter.BOOLEAN);
+	}
+
+	private static Map<String,Object> search(Criteria criteria) {
+		Map<String,Object> data = new HashMap<String,Object>();
+		if(criteria != null)
+			data.put("criteria", criteria);
+		return data;
+	}
+
+	/** Convert a search result that should hold exactly one element */
+	private static Converter<Element> single(final String subpath, final Element element, final Criteria criteria) {
+		return new Converter<Element>() {
+			public Element convert(Object value) {
+				List<Element> result = Converter.ELEMENT_LIST.convert(value);
+				if(result.isEmpty())
+					throw TwinError.NoSuchElement.create("Found no "+subpath+" of "+element+(criteria == null ? "" : " matching "+criteria));
+				if(result.size() > 1)
+					throw new TwinException("Expected 1 result, found "+result.size());
+				return result.get(0);
+			}
+		};
+	}
+
+	/** Have the server tell us when something happens, falling back to having it poll if it can't */
+	private <T> TwinFuture<T> watch(Element element, final String event, final Criteria criteria, final double timeout, final Converter<T> converter) {
+		final String path = Batch.pathOf(element);
+		if(!session.watchSupported)
+			return poll(path, event, criteria, timeout, converter);
+
+		final TwinFuture<T> future = new TwinFuture<T>();
+		send("POST", session.sessionPath(path+"/watch"), Application.watchRequest(event, criteria, timeout), false, new Completion() {
+			public void completed(Map<String,Object> result) {
+				Object value = Application.valueOf(result);
+				future.set(convert(converter, value, "POST "+path+"/watch"));
+			}
+			public void failed(TwinException e) {
+				if(e.error != TwinError.UnknownCommand) {
+					future.fail(e);
+					return;
+				}
+				session.watchSupported = false; // an older server
+				poll(path, event, criteria, timeout, converter).addCallback(new TwinCallback<T>() {
+					public void onSuccess(T result) {
+						future.set(result);
+					}
+					public void onFailure(TwinException e) {
+						future.fail(e);
+					}
+				});
+			}
+		});
+		return future;
+	}
+	/** The equivalent of watch() for servers without /watch, which poll until the timeout */
+	private <T> TwinFuture<T> poll(String path, String event, Criteria criteria, double timeout, Converter<T> converter) {
+		Map<String,Object> data;
+		if(event.equals("gone")) {
+			data = new HashMap<String,Object>();
+			data.put("timeout", timeout);
+			data.put("value", false);
+			return request("POST", path+"/exists", data, converter);
+		}
+		data = search(criteria);
+		if(timeout > 0)
+			data.put("waitForResults", Double.isInfinite(timeout) ? (Object)true : (Object)timeout);
+		return request("GET", path+(event.equals("child") ? "/children" : "/descendants"), data, converter);
+	}
+
+	private <T> TwinFuture<T> request(final String method, final String path, Map<String,Object> body, final Converter<T> converter) {
+		final TwinFuture<T> future = new TwinFuture<T>();
+		send(method, session.sessionPath(path), body, Application.invalidatesCache(method, path), new Completion() {
+			public void completed(Map<String,Object> result) {
+				Object value = Application.valueOf(result);
+				future.set(convert(converter, value, method+" "+path));
+			}
+			public void failed(TwinException e) {
+				future.fail(e);
+			}
+		});
+		return future;
+	}
+
+	/** Convert a result, failing with a TwinException if it isn't what was expected, e.g. null or of the wrong type */
+	private static <T> T convert(Converter<T> converter, Object value, String request) {
+		try {
+			return converter.convert(value);
+		} catch (TwinException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw TwinError.UnknownError.create("Unexpected result from "+request+": "+value, e);
+		}
+	}
+
+	/**
+	 * What to do with a decoded response. A TwinException thrown from completed() is passed to failed(), as is any
+	 * other RuntimeException, wrapped in one, so that the future always completes.
+	 */
+	private interface Completion {
+		void completed(Map<String,Object> result);
+		void failed(TwinException e);
+	}
+
+	/** 
+	 * Encode the body on the calling thread, so that the I/O thread only does I/O and decoding 
+	 * @param invalidatesCache whether to discard cached property values when the request completes, as it might change something
+	 */
+	private void send(String method, String path, Map<String,Object> body, final boolean invalidatesCache, final Completion completion) {
+		final TwinMetrics metrics = session.connection.metrics;
+		final TwinTrace trace = session.connection.trace;
+		final String endpoint = (metrics == null && trace == null) ? null : TwinConnection.endpoint(method, path);
+		if(metrics != null)
+			metrics.requestStarted(endpoint);
+		final String requestId = TwinConnection.nextRequestId();
+		final long start = System.nanoTime();
+		final TwinTrace.Span span = trace == null ? null : new TwinTrace.Span(requestId, endpoint, start);
+		final byte[] data = body == null ? null : JSON.encodeToBytes(body);
+		final String uri = session.connection.url+path;
+		final Recording.Writer recorder = session.connection.recorder;
+		Recording.Replay replay = session.connection.replay;
+		final String key;
+		try {
+			key = (recorder == null && replay == null) ? null : Recording.key(method, path, data == null ? null : JSON.decode(data), null);
+		} catch (IOException e) {
+			throw new RuntimeException(e); // can't happen, the body is already in memory
+		}
+		if(span != null)
+			span.phase("encode", System.nanoTime());
+		AsyncTransport.Handler handler = new AsyncTransport.Handler() {
+			public void completed(int code, String contentType, String serverTiming, byte[] body) {
+				if(span != null) {
+					span.phase("exchange", System.nanoTime());
+					span.setServerTiming(serverTiming);
+				}
+				if(invalidatesCache)
+					session.cache.clear();
+				Map<String,Object> result;
+				try {
+					if(recorder != null)
+						recorder.write(key, new Recording.Response(code, contentType, body));
+					result = TwinConnection.decodeResponse(uri, code, contentType, body, session.recognizeRemoteObjects);
+					if(span != null)
+						span.phase("decode", System.nanoTime());
+				} catch (TwinException e) {
+					if(span != null)
+						span.phase("decode", System.nanoTime());
+					finished(body.length, TwinConnection.errorName(e));
+					e.requestId = requestId;
+					completion.failed(e);
+					return;
+				}
+				finished(body.length, null);
+				try {
+					completion.completed(result);
+				} catch (TwinException e) {
+					e.requestId = requestId;
+					completion.failed(e);
+				} catch (RuntimeException e) {
+					TwinException ex = TwinError.UnknownError.create("Couldn't handle the response from "+uri, e);
+					ex.requestId = requestId;
+					completion.failed(ex);
+				}
+			}
+			public void failed(IOException e) {
+				if(invalidatesCache)
+					session.cache.clear();
+				finished(0, TwinError.UnknownError.name());
+				TwinException ex = TwinError.UnknownError.create("IOException when accessing RC", e);
+				ex.requestId = requestId;
+				completion.failed(ex);
+			}
+			private void finished(long received, String error) {
+				long end = System.nanoTime();
+				if(metrics != null)
+					metrics.requestFinished(endpoint, end - start, data == null ? 0 : data.length, received, error);
+				if(span != null) {
+					span.finish(end, error);
+					trace.add(span);
+				}
+			}
+		};
+		if(replay == null) {
+			transport.send(session.connection.url, session.connection.config, method, path, data, requestId, handler);
+			return;
+		}
+		// answered here rather than on the I/O thread, which is fine as the response is already in memory
+		Recording.Response response;
+		try {
+			response = replay.get(key);
+		} catch (IOException e) {
+			handler.failed(e);
+			return;
+		}
+		handler.completed(response.code, response.contentType, null, response.body);
+	}
+}
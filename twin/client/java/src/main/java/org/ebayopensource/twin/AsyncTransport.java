@@ -0,0 +1,745 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A minimal non-blocking HTTP/1.1 client, used by AsyncApplication.
+ * <p>
+ * All connections are served by one shared I/O thread using a Selector, so a request in flight costs a socket and a
+ * few small buffers rather than a blocked thread. Connections are kept alive and reused, with at most
+ * ConnectionConfig.getMaxConnectionsPerRC() open to each server and getMaxConnections() in all; further requests wait
+ * for one to become free, or if pipelining is enabled, GETs are sent on a busy connection behind other GETs.
+ * <p>
+ * The connect, read and idle timeouts of the ConnectionConfig are enforced by the I/O thread, as the blocking client's
+ * sockets do: a connection that takes too long to connect, or has a request in flight and receives nothing for the
+ * read timeout, fails its requests with a SocketTimeoutException; one left idle for the idle timeout is closed.
+ * <p>
+ * Only what the RC needs is supported: Content-Length, chunked or connection-close response bodies, gzip or deflate
+ * compression, 303 redirects (which the RC answers a new session with), and no proxies or TLS.
+ * Handlers are called on the I/O thread, and must not block.
+ */
+class AsyncTransport {
+	/** Receives the outcome of a request. Exactly one method is called, on the I/O thread. */
+	interface Handler {
+		/** @param serverTiming the Server-Timing header, or null */
+		void completed(int code, String contentType, String serverTiming, byte[] body);
+		void failed(IOException e);
+	}
+
+	/** The most requests sent on a connection without their responses having been read */
+	static final int MAX_PIPELINE_DEPTH = 8;
+	/** The most 303s followed for one request */
+	static final int MAX_REDIRECTS = 5;
+
+	private static AsyncTransport shared;
+	/** Get the transport shared by all AsyncApplications, starting its thread if necessary */
+	static synchronized AsyncTransport get() throws TwinException {
+		if(shared == null) try {
+			shared = new AsyncTransport();
+		} catch (IOException e) {
+			throw TwinError.UnknownError.create("Couldn't start asynchronous I/O", e);
+		}
+		return shared;
+	}
+
+	private final Selector selector;
+	/** Requests from other threads, waiting for the I/O thread to pick them up */
+	private final Queue<Exchange> submitted = new ConcurrentLinkedQueue<Exchange>();
+	/** Connection state per host:port, only touched by the I/O thread */
+	private final Map<String,Route> routes = new HashMap<String,Route>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(16384);
+	/** Connections open over all routes */
+	private int openConnections = 0;
+	/** When the next connection may time out, as System.currentTimeMillis(), or Long.MAX_VALUE for none */
+	private long nextExpiry = Long.MAX_VALUE;
+
+	private AsyncTransport() throws IOException {
+		selector = Selector.open();
+		Thread thread = new Thread("Twin async I/O") {
+			public void run() {
+				loop();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Send a request. This returns immediately; the handler is called when the response has been read.
+	 * @param url the server, e.g. http://localhost:4444/ - its path is used as a prefix
+	 * @param config the connection limit and whether this may be pipelined
+	 * @param path the path within the server e.g. "/session/1234/desktop/name"
+	 * @param body the encoded JSON body, or null
+	 * @param requestId sent in the X-Twin-Request-Id header
+	 */
+	void send(URL url, ConnectionConfig config, String method, String path, byte[] body, String requestId, Handler handler) {
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		String prefix = url.getPath();
+		if(prefix.endsWith("/"))
+			prefix = prefix.substring(0, prefix.length()-1);
+		submitted.add(new Exchange(url.getHost(), port, config, method, prefix+path, body, requestId, handler));
+		selector.wakeup();
+	}
+
+	/** One request and its response handler */
+	private static class Exchange {
+		final String host;
+		final int port;
+		final ConnectionConfig config;
+		final String method;
+		final String requestId;
+		final byte[] request;
+		final int maxConnectionsPerRC, maxConnections;
+		/** Whether this may be sent behind other requests on a busy connection, which is only safe for reads */
+		final boolean pipeline;
+		final Handler handler;
+		/** True once this has been resent after a stale keep-alive connection failed */
+		boolean retried = false;
+		/** Where this request starts in the bytes sent on its connection */
+		long offset;
+		/** How many redirects led to this request */
+		int redirects = 0;
+		/** @param target the path on the server, including any prefix from its URL */
+		Exchange(String host, int port, ConnectionConfig config, String method, String target, byte[] body, String requestId, Handler handler) {
+			this.host = host;
+			this.port = port;
+			this.config = config;
+			this.method = method;
+			this.requestId = requestId;
+			this.request = encode(host, port, config, method, target, body, requestId);
+			this.maxConnectionsPerRC = config.getMaxConnectionsPerRC();
+			this.maxConnections = config.getMaxConnections();
+			this.pipeline = config.isPipelining() && method.equals("GET");
+			this.handler = handler;
+		}
+		/** The request that a redirect to the location leads to, which is a GET as for any 303 */
+		Exchange redirect(String location) throws MalformedURLException {
+			URL url = new URL(new URL("http", host, port, "/"), location);
+			int targetPort = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+			Exchange next = new Exchange(url.getHost(), targetPort, config, "GET", url.getFile(), null, requestId, handler);
+			next.redirects = redirects + 1;
+			return next;
+		}
+		private static byte[] encode(String host, int port, ConnectionConfig config, String method, String target, byte[] body, String requestId) {
+			StringBuilder head = new StringBuilder();
+			head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+			head.append("Host: ").append(host).append(':').append(port).append("\r\n");
+			head.append("Accept: application/json\r\n");
+			head.append(TwinConnection.REQUEST_ID_HEADER).append(": ").append(requestId).append("\r\n");
+			if(config.isCompression())
+				head.append("Accept-Encoding: ").append(Compression.ACCEPT_ENCODING).append("\r\n");
+			if(body != null) {
+				if(config.getRequestCompressionThreshold() > 0 && body.length >= config.getRequestCompressionThreshold()) {
+					body = Compression.gzip(body);
+					head.append("Content-Encoding: gzip\r\n");
+				}
+				head.append("Content-Type: application/json; charset=utf-8\r\n");
+				head.append("Content-Length: ").append(body.length).append("\r\n");
+			}
+			head.append("\r\n");
+			byte[] request;
+			try {
+				request = head.toString().getBytes("ISO-8859-1");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+			if(body != null) {
+				byte[] headBytes = request;
+				request = Arrays.copyOf(headBytes, headBytes.length + body.length);
+				System.arraycopy(body, 0, request, headBytes.length, body.length);
+			}
+			return request;
+		}
+	}
+
+	/** The connections to one host:port */
+	private static class Route {
+		final InetSocketAddress address;
+		final LinkedList<Connection> idle = new LinkedList<Connection>();
+		final LinkedList<Exchange> waiting = new LinkedList<Exchange>();
+		final List<Connection> open = new ArrayList<Connection>();
+		Route(InetSocketAddress address) {
+			this.address = address;
+		}
+	}
+
+	/** A socket and the exchanges it is serving, if any */
+	private static class Connection {
+		final Route route;
+		final SocketChannel channel;
+		SelectionKey key;
+		/** Requests sent or being sent, oldest first, whose responses haven't been read. The first is being read. */
+		final LinkedList<Exchange> exchanges = new LinkedList<Exchange>();
+		/** Request bytes still to be written */
+		ByteBuffer out;
+		Response response;
+		boolean connecting = false;
+		/** The settings of the request it last started, whose timeouts apply */
+		ConnectionConfig config;
+		/** When it connected, last sent or received data, or became idle */
+		long lastActivity;
+		/** Whether this connection has served a request before, so may have been closed by the server meanwhile */
+		boolean reused = false;
+		/** Request bytes given to this connection to send, and those actually written to the socket */
+		long queued, written;
+		Connection(Route route, SocketChannel channel) {
+			this.route = route;
+			this.channel = channel;
+		}
+	}
+
+	private void loop() {
+		while(true) {
+			try {
+				long now = System.currentTimeMillis();
+				if(nextExpiry == Long.MAX_VALUE)
+					selector.select();
+				else if(nextExpiry > now)
+					selector.select(nextExpiry - now);
+				else
+					selector.selectNow();
+				Exchange exchange;
+				while((exchange = submitted.poll()) != null)
+					dispatch(exchange);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection)key.attachment();
+					try {
+						if(!key.isValid())
+							continue;
+						if(key.isConnectable())
+							connected(connection);
+						else if(key.isWritable())
+							write(connection);
+						else if(key.isReadable())
+							read(connection);
+					} catch (IOException e) {
+						broken(connection, e);
+					}
+				}
+				if(System.currentTimeMillis() >= nextExpiry)
+					expire();
+			} catch (Throwable t) {
+				// never let the I/O thread die, or every async request from now on would hang
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+			}
+		}
+	}
+
+	private void dispatch(Exchange exchange) {
+		String name = exchange.host+":"+exchange.port;
+		Route route = routes.get(name);
+		if(route == null) {
+			InetSocketAddress address = new InetSocketAddress(exchange.host, exchange.port);
+			if(address.isUnresolved()) {
+				fail(exchange, new UnknownHostException(exchange.host));
+				return;
+			}
+			routes.put(name, route = new Route(address));
+		}
+		Connection busy;
+		if(!route.idle.isEmpty())
+			start(route.idle.removeFirst(), exchange);
+		else if(mayConnect(route, exchange))
+			connect(route, exchange);
+		else if(exchange.pipeline && (busy = pipelinable(route)) != null)
+			start(busy, exchange);
+		else
+			route.waiting.add(exchange);
+	}
+
+	/** The connection with the fewest requests in flight that only has pipelinable ones, or null */
+	private Connection pipelinable(Route route) {
+		Connection best = null;
+		outer:
+		for(Connection connection : route.open) {
+			if(connection.exchanges.size() >= MAX_PIPELINE_DEPTH)
+				continue;
+			if(best != null && connection.exchanges.size() >= best.exchanges.size())
+				continue;
+			for(Exchange exchange : connection.exchanges)
+				if(!exchange.pipeline)
+					continue outer;
+			best = connection;
+		}
+		return best;
+	}
+
+	/** Whether a connection may be opened for a request, closing an idle one to another server if that's all it needs */
+	private boolean mayConnect(Route route, Exchange exchange) {
+		if(route.open.size() >= exchange.maxConnectionsPerRC)
+			return false;
+		if(openConnections < exchange.maxConnections)
+			return true;
+		for(Route other : routes.values()) {
+			if(!other.idle.isEmpty()) {
+				remove(other.idle.removeLast());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void connect(Route route, Exchange exchange) {
+		SocketChannel channel = null;
+		Connection connection = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			connection = new Connection(route, channel);
+			connection.key = channel.register(selector, 0, connection);
+			route.open.add(connection);
+			openConnections++;
+			connection.lastActivity = System.currentTimeMillis();
+			connection.connecting = !channel.connect(route.address);
+			start(connection, exchange);
+		} catch (IOException e) {
+			if(connection != null && connection.key != null) {
+				connection.exchanges.clear();
+				discard(connection);
+			} else if(channel != null) {
+				close(channel);
+			}
+			fail(exchange, e);
+		}
+	}
+
+	private void connected(Connection connection) throws IOException {
+		connection.channel.finishConnect();
+		connection.connecting = false;
+		connection.lastActivity = System.currentTimeMillis();
+		connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/** Send a request on a connection, after any it is already sending */
+	private void start(Connection connection, Exchange exchange) {
+		if(connection.exchanges.isEmpty())
+			connection.lastActivity = System.currentTimeMillis(); // a pipelined request doesn't give those before it more time
+		connection.config = exchange.config;
+		connection.exchanges.add(exchange);
+		exchange.offset = connection.queued;
+		connection.queued += exchange.request.length;
+		if(connection.out == null) {
+			connection.out = ByteBuffer.wrap(exchange.request);
+		} else {
+			ByteBuffer out = ByteBuffer.allocate(connection.out.remaining() + exchange.request.length);
+			out.put(connection.out).put(exchange.request).flip();
+			connection.out = out;
+		}
+		if(connection.response == null)
+			connection.response = new Response();
+		connection.key.interestOps(connection.connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		schedule(connection);
+	}
+
+	private void write(Connection connection) throws IOException {
+		int written = connection.channel.write(connection.out);
+		if(written > 0) {
+			connection.written += written;
+			connection.lastActivity = System.currentTimeMillis();
+		}
+		if(!connection.out.hasRemaining()) {
+			connection.out = null;
+			connection.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void read(Connection connection) throws IOException {
+		readBuffer.clear();
+		int read = connection.channel.read(readBuffer);
+		if(connection.exchanges.isEmpty()) {
+			// an idle connection is readable only when the server has closed it
+			connection.route.idle.remove(connection);
+			discard(connection);
+			return;
+		}
+		if(read > 0)
+			connection.lastActivity = System.currentTimeMillis();
+		if(read < 0) {
+			if(!connection.response.endOfStream())
+				throw new EOFException("Connection closed by server before the response was complete");
+			finished(connection);
+			return;
+		}
+		// with pipelining, one read can hold the end of one response and the start of the next
+		int offset = 0;
+		while(offset < read && !connection.exchanges.isEmpty()) {
+			Response response = connection.response;
+			offset += response.feed(readBuffer.array(), offset, read - offset);
+			if(response.isDone())
+				finished(connection);
+		}
+	}
+
+	private void finished(Connection connection) {
+		Exchange exchange = connection.exchanges.removeFirst();
+		Response response = connection.response;
+		connection.response = connection.exchanges.isEmpty() ? null : new Response();
+		Route route = connection.route;
+		if(response.keepAlive && connection.channel.isOpen()) {
+			connection.reused = true;
+			if(!connection.exchanges.isEmpty()) {
+				// keep reading the pipelined responses
+			} else if(!route.waiting.isEmpty()) {
+				start(connection, route.waiting.removeFirst());
+			} else {
+				connection.key.interestOps(SelectionKey.OP_READ);
+				connection.lastActivity = System.currentTimeMillis();
+				route.idle.addFirst(connection); // most recently used first, so unneeded connections time out
+				schedule(connection);
+				admit(); // a request to another server may be waiting for a connection to close
+			}
+		} else {
+			// the server won't answer anything pipelined behind this, so send it again elsewhere
+			List<Exchange> unanswered = new ArrayList<Exchange>(connection.exchanges);
+			connection.exchanges.clear();
+			discard(connection);
+			for(Exchange next : unanswered) {
+				if(unsent(connection, next) || next.method.equals("GET"))
+					dispatch(next);
+				else
+					fail(next, new IOException("Connection closed by server without answering "+next.method+" request"));
+			}
+		}
+		if(response.code == 303 && response.location != null) {
+			if(exchange.redirects >= MAX_REDIRECTS) {
+				fail(exchange, new IOException("Too many redirects, the last to "+response.location));
+				return;
+			}
+			try {
+				dispatch(exchange.redirect(response.location));
+			} catch (MalformedURLException e) {
+				fail(exchange, e);
+			}
+			return;
+		}
+		byte[] body;
+		try {
+			body = Compression.decode(response.body.toByteArray(), response.contentEncoding);
+		} catch (IOException e) {
+			fail(exchange, e);
+			return;
+		}
+		try {
+			exchange.handler.completed(response.code, response.contentType, response.serverTiming, body);
+		} catch (RuntimeException e) {
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+		}
+	}
+
+	private void broken(Connection connection, IOException e) {
+		List<Exchange> exchanges = new ArrayList<Exchange>(connection.exchanges);
+		boolean started = connection.response != null && connection.response.started();
+		connection.exchanges.clear();
+		connection.route.idle.remove(connection);
+		discard(connection);
+		for(int i=0; i<exchanges.size(); i++) {
+			Exchange exchange = exchanges.get(i);
+			// A request none of which was sent can always go on a new connection. Otherwise the server may have acted
+			// on it, so only reads are sent again: a GET on a kept-alive connection that the server had closed, which
+			// is normal, or pipelined behind the first. Anything else, e.g. a click, would risk doing it twice.
+			boolean retry = !exchange.retried && (unsent(connection, exchange)
+				|| exchange.method.equals("GET") && (i > 0 || (connection.reused && !started)));
+			if(retry) {
+				exchange.retried = true;
+				dispatch(exchange);
+			} else {
+				fail(exchange, e);
+			}
+		}
+	}
+
+	/** Whether none of a request was written to its connection, so the server can't have seen it */
+	private static boolean unsent(Connection connection, Exchange exchange) {
+		return connection.written <= exchange.offset;
+	}
+
+	/** Close a connection and let a waiting request have its slot */
+	private void discard(Connection connection) {
+		remove(connection);
+		admit();
+	}
+	private void remove(Connection connection) {
+		connection.key.cancel();
+		close(connection.channel);
+		connection.route.open.remove(connection);
+		openConnections--;
+	}
+	/** Open connections for waiting requests, as far as the limits allow */
+	private void admit() {
+		for(Route route : routes.values())
+			while(!route.waiting.isEmpty() && mayConnect(route, route.waiting.getFirst()))
+				connect(route, route.waiting.removeFirst());
+	}
+
+	/** When a connection times out in its current state, or Long.MAX_VALUE if it doesn't */
+	private static long deadline(Connection connection) {
+		ConnectionConfig config = connection.config;
+		double timeout = connection.connecting ? config.getConnectTimeout()
+			: connection.exchanges.isEmpty() ? config.getIdleTimeout() : config.getReadTimeout();
+		return timeout == 0 ? Long.MAX_VALUE : connection.lastActivity + ConnectionConfig.millis(timeout);
+	}
+	/** Make sure the I/O thread wakes up in time for the connection's deadline */
+	private void schedule(Connection connection) {
+		nextExpiry = Math.min(nextExpiry, deadline(connection));
+	}
+	/** Close the connections that have timed out, failing their requests, and find when the next one may */
+	private void expire() {
+		long now = System.currentTimeMillis();
+		nextExpiry = Long.MAX_VALUE;
+		List<Connection> expired = new ArrayList<Connection>();
+		for(Route route : routes.values()) {
+			for(Connection connection : route.open) {
+				long deadline = deadline(connection);
+				if(deadline <= now)
+					expired.add(connection);
+				else
+					nextExpiry = Math.min(nextExpiry, deadline);
+			}
+		}
+		for(Connection connection : expired) {
+			if(!connection.route.open.contains(connection))
+				continue; // closed to make room for one that replaced an earlier expired connection
+			// a timed out request isn't sent again: the server may still be working on it, or not there at all
+			SocketTimeoutException e = new SocketTimeoutException(connection.connecting ? "Connect timed out" : "Read timed out");
+			List<Exchange> exchanges = new ArrayList<Exchange>(connection.exchanges);
+			connection.exchanges.clear();
+			connection.route.idle.remove(connection);
+			discard(connection);
+			for(Exchange exchange : exchanges)
+				fail(exchange, e);
+		}
+	}
+
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing more to do
+		}
+	}
+
+	private static void fail(Exchange exchange, IOException e) {
+		try {
+			exchange.handler.failed(e);
+		} catch (RuntimeException re) {
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, re);
+		}
+	}
+
+	/** An incremental HTTP/1.1 response parser */
+	static class Response {
+		private static final int HEAD = 0, BODY = 1, CHUNK_SIZE = 2, CHUNK_DATA = 3, CHUNK_END = 4, TRAILER = 5, UNTIL_CLOSE = 6, DONE = 7;
+		private int state = HEAD;
+		/** Bytes received but not yet parsed */
+		private byte[] pending = new byte[1024];
+		private int pendingLength = 0;
+		/** Body bytes still to come in the current chunk, or in the whole body if it has a Content-Length */
+		private long remaining;
+		private boolean started = false;
+
+		int code;
+		String contentType;
+		String contentEncoding;
+		String serverTiming;
+		String location;
+		boolean keepAlive;
+		ByteArrayOutputStream body;
+
+		boolean isDone() {
+			return state == DONE;
+		}
+		/** Whether any of the response has arrived */
+		boolean started() {
+			return started;
+		}
+		/** The server closed the connection. Returns true if that marks the end of the response. */
+		boolean endOfStream() {
+			if(state == UNTIL_CLOSE) {
+				state = DONE;
+				return true;
+			}
+			return state == DONE;
+		}
+
+		/**
+		 * Parse more of the response.
+		 * @return how many bytes were used, which is less than length if the response ended and the rest belongs to
+		 * the next one
+		 */
+		int feed(byte[] data, int offset, int length) throws IOException {
+			if(length > 0)
+				started = true;
+			if(state == UNTIL_CLOSE || (state == BODY && pendingLength == 0)) {
+				// the common case of body data: no need to go through pending
+				int take = state == BODY ? (int)Math.min(remaining, length) : length;
+				body.write(data, offset, take);
+				if(state == BODY && (remaining -= take) == 0)
+					state = DONE;
+				return take;
+			}
+			if(pendingLength + length > pending.length)
+				pending = Arrays.copyOf(pending, Math.max(pending.length*2, pendingLength + length));
+			System.arraycopy(data, offset, pending, pendingLength, length);
+			pendingLength += length;
+
+			int pos = 0;
+			while(state != DONE) {
+				int used = parse(pos);
+				if(used == 0)
+					break;
+				pos += used;
+			}
+			// anything left after the end of the response arrived in this call, as it was parsed as far as possible before
+			int unused = state == DONE ? pendingLength - pos : 0;
+			pendingLength -= pos + unused;
+			System.arraycopy(pending, pos, pending, 0, pendingLength);
+			return length - unused;
+		}
+
+		/** Parse what we can from pending[pos...], returning the number of bytes used, 0 if more are needed */
+		private int parse(int pos) throws IOException {
+			int available = pendingLength - pos;
+			switch(state) {
+			case HEAD: {
+				int end = find(pos, "\r\n\r\n");
+				if(end < 0)
+					return 0;
+				parseHead(new String(pending, pos, end - pos, "ISO-8859-1"));
+				return end + 4 - pos;
+			}
+			case BODY:
+			case CHUNK_DATA: {
+				if(available == 0)
+					return 0;
+				int take = (int)Math.min(remaining, available);
+				body.write(pending, pos, take);
+				remaining -= take;
+				if(remaining == 0)
+					state = state == BODY ? DONE : CHUNK_END;
+				return take;
+			}
+			case CHUNK_END:
+				if(available < 2)
+					return 0;
+				state = CHUNK_SIZE;
+				return 2;
+			case CHUNK_SIZE: {
+				int end = find(pos, "\r\n");
+				if(end < 0)
+					return 0;
+				String line = new String(pending, pos, end - pos, "ISO-8859-1");
+				int semicolon = line.indexOf(';');
+				if(semicolon >= 0)
+					line = line.substring(0, semicolon);
+				try {
+					remaining = Long.parseLong(line.trim(), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Bad chunk size: "+line);
+				}
+				state = remaining == 0 ? TRAILER : CHUNK_DATA;
+				return end + 2 - pos;
+			}
+			case TRAILER: {
+				int end = find(pos, "\r\n");
+				if(end < 0)
+					return 0;
+				if(end == pos)
+					state = DONE;
+				return end + 2 - pos;
+			}
+			case UNTIL_CLOSE:
+				body.write(pending, pos, available);
+				return available;
+			}
+			return 0;
+		}
+
+		private void parseHead(String head) throws IOException {
+			String[] lines = head.split("\r\n");
+			String[] status = lines[0].split(" ", 3);
+			if(status.length < 2 || !status[0].startsWith("HTTP/"))
+				throw new IOException("Bad HTTP status line: "+lines[0]);
+			try {
+				code = Integer.parseInt(status[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad HTTP status line: "+lines[0]);
+			}
+			if(code >= 100 && code < 200) {
+				return; // interim response, the real one follows
+			}
+			boolean http11 = !status[0].equals("HTTP/1.0");
+			long contentLength = -1;
+			boolean chunked = false;
+			String connection = null;
+			for(int i=1; i<lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if(colon < 0)
+					continue;
+				String name = lines[i].substring(0, colon).trim();
+				String value = lines[i].substring(colon+1).trim();
+				if(name.equalsIgnoreCase("Content-Type"))
+					contentType = value;
+				else if(name.equalsIgnoreCase("Content-Encoding"))
+					contentEncoding = value;
+				else if(name.equalsIgnoreCase("Server-Timing"))
+					serverTiming = value;
+				else if(name.equalsIgnoreCase("Location"))
+					location = value;
+				else if(name.equalsIgnoreCase("Content-Length")) {
+					try {
+						contentLength = Long.parseLong(value);
+					} catch (NumberFormatException e) {
+						throw new IOException("Bad Content-Length: "+value);
+					}
+				}
+				else if(name.equalsIgnoreCase("Transfer-Encoding"))
+					chunked = value.toLowerCase().contains("chunked");
+				else if(name.equalsIgnoreCase("Connection"))
+					connection = value.toLowerCase();
+			}
+			keepAlive = http11 ? !"close".equals(connection) : "keep-alive".equals(connection);
+			body = new ByteArrayOutputStream(contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int)contentLength : 256);
+
+			if(code == 204 || code == 304) {
+				state = DONE;
+			} else if(chunked) {
+				state = CHUNK_SIZE;
+			} else if(contentLength >= 0) {
+				remaining = contentLength;
+				state = contentLength == 0 ? DONE : BODY;
+			} else {
+				state = UNTIL_CLOSE;
+				keepAlive = false;
+			}
+		}
+
+		/** Find the index of a delimiter in pending, or -1 */
+		private int find(int from, String delimiter) {
+			int last = pendingLength - delimiter.length();
+			outer:
+			for(int i=from; i<=last; i++) {
+				for(int j=0; j<delimiter.length(); j++)
+					if(pending[i+j] != delimiter.charAt(j))
+						continue outer;
+				return i;
+			}
+			return -1;
+		}
+	}
+}
@@ -7,8 +7,6 @@ package org.ebayopensource.twin;
 import java.io.*;
 import java.util.HashMap;
 
-import org.apache.commons.codec.binary.*;
-
 /**
  * An Attachment represents a temporary file uploaded to the remote machine that can be used in a test.
  * <p>
@@ -18,6 +16,7 @@ import org.apache.commons.codec.binary.*;
  * <p>
  * Attachments are created via one of the Application.upload methods, which upload a local file, resource, or stream 
  * to the remote machine. You can then find the remote file path of the object with getFile(), or replace its contents.
+ * The data is streamed to the remote machine as it is read, so files of any size can be uploaded.
  * <p>
  * For our spreadsheet example:
  * <pre>
@@ -58,7 +57,7 @@ public class Attachment extends RemoteResource {
 		if(deleted)
 			throw new IllegalStateException("Attachment already deleted!");
 		HashMap<String,Object> body = new HashMap<String,Object>();
-		body.put("data", getBase64Contents(data));
+		body.put("data", new Base64Upload(data));
 		remote.session.request("POST", getPath(), body);
 	}
 	
@@ -70,7 +69,7 @@ public class Attachment extends RemoteResource {
 		if(deleted)
 			throw new IllegalStateException("Attachment already deleted!");
 		HashMap<String,Object> body = new HashMap<String,Object>();
-		body.put("data", getBase64Contents(f));
+		body.put("data", new Base64Upload(f));
 		remote.session.request("POST", getPath(), body);
 	}
 	
@@ -106,27 +105,6 @@ public class Attachment extends RemoteResource {
 		deleted = true;
 	}
 
-	static String getBase64Contents(File f) throws IOException {
-		InputStream in = new FileInputStream(f);
-		try {
-			return getBase64Contents(in);
-		} finally {
-			in.close();
-		}
-	}
-	static String getBase64Contents(InputStream in) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		Base64OutputStream out = new Base64OutputStream(bytes);
-
-		byte[] buf = new byte[1024];
-		int read;
-		while((read=in.read(buf))>=0)
-			out.write(buf, 0, read);
-		out.close();
-		
-		return bytes.toString("UTF-8");
-	}
-	
 	/**
 	 * Return the path to the file on the remote machine, e.g. "C:/temp/1234.png"
 	 */
@@ -0,0 +1,109 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+
+import org.ebayopensource.twin.json.JSONStreamable;
+
+/**
+ * Data to upload to the RC as a base64 JSON string, e.g. the contents of an Attachment.
+ * <p>
+ * The data is read and encoded as the request body is written, so memory use is constant however large the file is.
+ * A file is reopened if the request is resent; a stream can only be sent once, so a request with one isn't retried.
+ */
+class Base64Upload implements JSONStreamable {
+	private final File file;
+	private InputStream stream;
+
+	/** Upload the contents of a file, which must exist */
+	public Base64Upload(File file) throws FileNotFoundException {
+		if(!file.isFile())
+			throw new FileNotFoundException("No such file to upload: "+file);
+		this.file = file;
+	}
+	/** Upload the remaining contents of a stream, which is not closed afterward */
+	public Base64Upload(InputStream stream) {
+		if(stream == null)
+			throw new IllegalArgumentException("Stream may not be null");
+		this.file = null;
+		this.stream = stream;
+	}
+
+	/** Whether the data can be sent more than once, as it must be for the request to be retried */
+	public boolean isRepeatable() {
+		return file != null;
+	}
+
+	/**
+	 * This upload if it can be sent more than once, otherwise one of the rest of the stream copied to a temporary file,
+	 * which is added to spooled for the caller to delete
+	 */
+	Base64Upload repeatable(List<File> spooled) throws IOException {
+		if(file != null)
+			return this;
+		if(stream == null)
+			throw new IOException("Upload data was a stream and has already been sent");
+		File copy = File.createTempFile("twin", ".upload");
+		spooled.add(copy);
+		InputStream in = stream;
+		stream = null;
+		OutputStream out = new FileOutputStream(copy);
+		try {
+			byte[] buf = new byte[8192];
+			int read;
+			while((read=in.read(buf))>=0)
+				out.write(buf, 0, read);
+		} finally {
+			out.close();
+		}
+		return new Base64Upload(copy);
+	}
+
+	public void writeJSON(OutputStream out) throws IOException {
+		if(file != null) {
+			InputStream in = new FileInputStream(file);
+			try {
+				write(in, out);
+			} finally {
+				in.close();
+			}
+		} else {
+			if(stream == null)
+				throw new IOException("Upload data was a stream and has already been sent");
+			InputStream in = stream;
+			stream = null;
+			write(in, out);
+		}
+	}
+
+	private static void write(InputStream in, OutputStream out) throws IOException {
+		out.write('"');
+		// no line breaks, so the output never needs escaping
+		OutputStream base64 = new Base64OutputStream(new NonClosingOutputStream(out), true, 0, new byte[0]);
+		byte[] buf = new byte[8192];
+		int read;
+		while((read=in.read(buf))>=0)
+			base64.write(buf, 0, read);
+		base64.close(); // writes the final block and padding
+		out.write('"');
+	}
+
+	/** Base64OutputStream has to be closed to finish encoding, but that mustn't close the request body */
+	private static class NonClosingOutputStream extends FilterOutputStream {
+		public NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len); // FilterOutputStream would write a byte at a time
+		}
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
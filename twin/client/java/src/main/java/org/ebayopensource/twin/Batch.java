@@ -0,0 +1,224 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.util.*;
+
+import org.ebayopensource.twin.element.Desktop;
+
+/**
+ * A group of operations sent to the server in a single request.
+ * <p>
+ * Each Element getter is normally a separate HTTP round trip. When the server is far away, reading several properties
+ * is dominated by latency rather than by work done on the server. A Batch queues operations and sends them together
+ * when execute() is called. Each queued operation returns a TwinFuture, which completes when the batch is executed.
+ * <pre>
+ * Batch batch = app.batch();
+ * TwinFuture&lt;String&gt; name = batch.getName(element);
+ * TwinFuture&lt;Boolean&gt; enabled = batch.isEnabled(element);
+ * TwinFuture&lt;Rectangle&gt; bounds = batch.getBounds(element);
+ * batch.execute(); // one round trip
+ * System.out.println(name.getResult()+" at "+bounds.getResult());
+ * </pre>
+ * Operations are run in order on the server, and each succeeds or fails independently: a failure is reported by its own
+ * TwinFuture, and later operations still run.
+ * <p>
+ * If the server does not support batches, execute() falls back to sending the operations one at a time.
+ * <p>
+ * A Batch is not thread-safe, and can only be executed once.
+ *
+ * @see Application#batch()
+ */
+public class Batch {
+	private static class Entry<T> {
+		final String method;
+		final String path;
+		final Map<String,Object> body;
+		final Converter<T> converter;
+		final TwinFuture<T> future = new TwinFuture<T>();
+		Entry(String method, String path, Map<String,Object> body, Converter<T> converter) {
+			this.method = method;
+			this.path = path;
+			this.body = body;
+			this.converter = converter;
+		}
+		void complete(Object value) {
+			try {
+				future.set(converter.convert(value));
+			} catch (RuntimeException e) {
+				// e.g. a ClassCastException, or a NullPointerException for a missing value, which mustn't leave later entries pending
+				future.fail(TwinError.UnknownError.create("Unexpected result from "+method+" "+path+": "+value, e));
+			}
+		}
+	}
+
+	private final Application session;
+	private final List<Entry<?>> entries = new ArrayList<Entry<?>>();
+	private boolean executed = false;
+
+	/** Internal use only, use Application.batch() */
+	Batch(Application session) {
+		this.session = session;
+	}
+
+	/** The number of operations queued */
+	public int size() {
+		return entries.size();
+	}
+
+	private <T> TwinFuture<T> add(String method, String path, Map<String,Object> body, Converter<T> converter) {
+		if(executed)
+			throw new IllegalStateException("Batch already executed");
+		Entry<T> entry = new Entry<T>(method, path, body, converter);
+		entries.add(entry);
+		return entry.future;
+	}
+
+	/**
+	 * Queue a low-level request.
+	 * @see Application#request(String, String, Map)
+	 */
+	public TwinFuture<Object> request(String method, String path, Map<String,Object> body) {
+		return add(method, path, body, Converter.IDENTITY);
+	}
+	/** @see Element#getName() */
+	public TwinFuture<String> getName(Element element) {
+		return add("GET", pathOf(element)+"/name", null, Converter.STRING);
+	}
+	/** @see Element#isEnabled() */
+	public TwinFuture<Boolean> isEnabled(Element element) {
+		return add("GET", pathOf(element)+"/enabled", null, Converter.BOOLEAN);
+	}
+	/** @see Element#exists() */
+	public TwinFuture<Boolean> exists(Element element) {
+		return add("GET", pathOf(element)+"/exists", null, Converter.BOOLEAN);
+	}
+	/** @see Element#getBounds() */
+	public TwinFuture<Rectangle> getBounds(Element element) {
+		return add("GET", pathOf(element)+"/bounds", null, Converter.RECTANGLE);
+	}
+	/** @see Element#getParent() */
+	public TwinFuture<Element> getParent(Element element) {
+		return add("GET", pathOf(element)+"/parent", null, Converter.ELEMENT);
+	}
+	/** @see Element#getChildren() */
+	public TwinFuture<List<Element>> getChildren(Element element) {
+		return add("GET", pathOf(element)+"/children", null, Converter.ELEMENT_LIST);
+	}
+	/** @see Element#click() */
+	public TwinFuture<Void> click(Element element) {
+		return add("POST", pathOf(element)+"/click", null, Converter.VOID);
+	}
+	/** @see org.ebayopensource.twin.pattern.Editable#getValue() */
+	public TwinFuture<String> getValue(Element element) {
+		return add("GET", pathOf(element)+"/value", null, Converter.STRING);
+	}
+	/** @see org.ebayopensource.twin.pattern.Editable#setValue(String) */
+	public TwinFuture<Void> setValue(Element element, String value) {
+		Map<String,Object> data = new HashMap<String,Object>();
+		data.put("value", value);
+		return add("POST", pathOf(element)+"/value", data, Converter.VOID);
+	}
+	/** @see org.ebayopensource.twin.pattern.Expandable#isExpanded() */
+	public TwinFuture<Boolean> isExpanded(Element element) {
+		return add("GET", pathOf(element)+"/expanded", null, Converter.BOOLEAN);
+	}
+	/** @see org.ebayopensource.twin.pattern.Selectable#isSelected() */
+	public TwinFuture<Boolean> isSelected(Element element) {
+		return add("GET", pathOf(element)+"/selected", null, Converter.BOOLEAN);
+	}
+	/** @see org.ebayopensource.twin.pattern.Toggle#getState() */
+	public TwinFuture<Boolean> getState(Element element) {
+		return add("GET", pathOf(element)+"/toggle", null, Converter.BOOLEAN);
+	}
+
+	/**
+	 * Send all queued operations to the server, and complete their TwinFutures.
+	 * <p>
+	 * Failures of individual operations are reported by their TwinFutures, not thrown from here.
+	 * @throws TwinException if the batch as a whole could not be sent, in which case all TwinFutures fail with the same exception
+	 */
+	public void execute() throws TwinException {
+		if(executed)
+			throw new IllegalStateException("Batch already executed");
+		executed = true;
+		if(entries.isEmpty())
+			return;
+
+		if(session.batchSupported) {
+			try {
+				executeBatch();
+				return;
+			} catch (TwinException e) {
+				if(e.error != TwinError.UnknownCommand) {
+					for(Entry<?> entry : entries)
+						entry.future.fail(e);
+					throw e;
+				}
+				session.batchSupported = false; // an older server, fall back to individual requests
+			}
+		}
+		for(Entry<?> entry : entries) {
+			try {
+				entry.complete(session.request(entry.method, entry.path, entry.body));
+			} catch (TwinException e) {
+				entry.future.fail(e);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void executeBatch() throws TwinException {
+		List<Object> requests = new ArrayList<Object>();
+		for(Entry<?> entry : entries) {
+			Map<String,Object> request = new HashMap<String,Object>();
+			request.put("method", entry.method);
+			request.put("path", entry.path);
+			if(entry.body != null)
+				request.put("body", entry.body);
+			requests.add(request);
+		}
+		Map<String,Object> body = new HashMap<String,Object>();
+		body.put("requests", requests);
+
+		boolean reads = true;
+		for(Entry<?> entry : entries)
+			reads &= entry.method.equals("GET");
+		Object result = session.request("POST", "/batch", body, !reads); // a batch of reads changes nothing
+		if(!(result instanceof List<?>))
+			throw new TwinException("Expected array from POST /batch but got "+result);
+		List<Object> responses = (List<Object>)result;
+		if(responses.size() != entries.size())
+			throw TwinError.UnknownError.create("Sent a batch of "+entries.size()+" requests but got "+responses.size()+" responses");
+		for(int i=0; i<responses.size(); i++) {
+			Entry<?> entry = entries.get(i);
+			if(!(responses.get(i) instanceof Map<?,?>)) {
+				entry.future.fail(TwinError.UnknownError.create("Expected object in response to "+entry.method+" "+entry.path+" but got "+responses.get(i)));
+				continue;
+			}
+			Map<String,Object> response = (Map<String,Object>)responses.get(i);
+			TwinError status = response.get("status") instanceof Number
+				? TwinError.get(((Number)response.get("status")).intValue())
+				: TwinError.UnknownError;
+			if(status == TwinError.Success)
+				entry.complete(response.get("value"));
+			else {
+				try {
+					entry.future.fail(TwinConnection.deserializeException(response));
+				} catch (RuntimeException e) {
+					entry.future.fail(TwinError.UnknownError.create("Couldn't parse error response to "+entry.method+" "+entry.path+": "+response, e));
+				}
+			}
+		}
+	}
+
+	/** Get the server path of an element, like ElementImpl.getPath() */
+	static String pathOf(Element element) {
+		if(element instanceof Desktop)
+			return "/desktop";
+		return "/element/"+((RemoteResourceInterface)element).getRemote().uuid;
+	}
+}
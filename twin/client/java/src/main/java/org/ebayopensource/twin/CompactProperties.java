@@ -0,0 +1,205 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The properties sent along with a remote object, e.g. an element's name, control type and control patterns,
+ * held compactly so that a client can keep large trees of elements.
+ * <p>
+ * The map the JSON decoder builds for an element, with a list of pattern name strings, costs several hundred bytes,
+ * most of it repeated from element to element. Here the properties the RC sends with every element are fields:
+ * the class and control type are interned, the control patterns are a bitset over the pattern names seen so far,
+ * and bounds are ints. Anything else is kept as decoded, in a map only created if there is something to put in it.
+ * <p>
+ * It is a read-only Map with the same entries as the decoded JSON, except that controlPatterns is an unmodifiable
+ * list shared by all objects with the same patterns, in the order the client first saw each pattern, and bounds is
+ * a Rectangle.
+ */
+final class CompactProperties extends AbstractMap<String,Object> {
+	private static final String[] KEYS = { "class", "uuid", "controlType", "name", "id", "className", "controlPatterns", "hCode", "bounds" };
+	private static final int CLASS = 0, UUID = 1, CONTROL_TYPE = 2, NAME = 3, ID = 4, CLASS_NAME = 5, CONTROL_PATTERNS = 6, HCODE = 7, BOUNDS = 8;
+	private static final Map<String,Integer> INDEX = new HashMap<String,Integer>();
+	static {
+		for(int i=0; i<KEYS.length; i++)
+			INDEX.put(KEYS[i], i);
+	}
+
+	/** The most strings interned, so that a server sending endless different class names can't fill the heap */
+	private static final int MAX_INTERNED = 10000;
+	private static final ConcurrentMap<String,String> interned = new ConcurrentHashMap<String,String>();
+	/** Pattern names by bit */
+	private static final List<String> patternNames = new CopyOnWriteArrayList<String>();
+	private static final Map<String,Integer> patternBits = new ConcurrentHashMap<String,Integer>();
+	/** The list of pattern names for each bitset, shared by all objects with those patterns */
+	private static final ConcurrentMap<Long,List<String>> patternLists = new ConcurrentHashMap<Long,List<String>>();
+
+	/** Bit i is set if KEYS[i] is in the map */
+	private int present;
+	private String type, uuid, controlType, name, id, className;
+	private long patterns;
+	private int hCode;
+	private int x, y, width, height;
+	/** Entries not held in fields, or null if there are none */
+	private Map<String,Object> extra;
+
+	CompactProperties(Map<String,Object> json) {
+		for(Map.Entry<String,Object> entry : json.entrySet()) {
+			Integer index = INDEX.get(entry.getKey());
+			if(index == null || !store(index, entry.getValue())) {
+				if(extra == null)
+					extra = new HashMap<String,Object>(4);
+				extra.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/** Put a known property in its field, returning false if the value is of a kind that doesn't fit there */
+	private boolean store(int index, Object value) {
+		if(index <= CLASS_NAME && value != null && !(value instanceof String))
+			return false;
+		switch(index) {
+		case CLASS: type = intern((String)value); break;
+		case UUID: uuid = (String)value; break;
+		case CONTROL_TYPE: controlType = intern((String)value); break;
+		case NAME: name = (String)value; break;
+		case ID: id = (String)value; break;
+		case CLASS_NAME: className = intern((String)value); break;
+		case CONTROL_PATTERNS: {
+			long bits = bits(value);
+			if(bits == -1)
+				return false;
+			patterns = bits;
+			break;
+		}
+		case HCODE:
+			if(!(value instanceof Integer))
+				return false;
+			hCode = (Integer)value;
+			break;
+		case BOUNDS: {
+			if(!(value instanceof Map<?,?>))
+				return false;
+			Map<?,?> bounds = (Map<?,?>)value;
+			if(!(bounds.get("x") instanceof Number && bounds.get("y") instanceof Number && bounds.get("width") instanceof Number && bounds.get("height") instanceof Number))
+				return false;
+			x = ((Number)bounds.get("x")).intValue();
+			y = ((Number)bounds.get("y")).intValue();
+			width = ((Number)bounds.get("width")).intValue();
+			height = ((Number)bounds.get("height")).intValue();
+			break;
+		}
+		}
+		present |= 1 << index;
+		return true;
+	}
+
+	/** The value of a known property, which must be present */
+	private Object value(int index) {
+		switch(index) {
+		case CLASS: return type;
+		case UUID: return uuid;
+		case CONTROL_TYPE: return controlType;
+		case NAME: return name;
+		case ID: return id;
+		case CLASS_NAME: return className;
+		case CONTROL_PATTERNS: return patternList(patterns);
+		case HCODE: return hCode;
+		case BOUNDS: return new Rectangle(x, y, width, height);
+		default: throw new IllegalArgumentException("No property "+index);
+		}
+	}
+
+	@Override
+	public Object get(Object key) {
+		Integer index = INDEX.get(key);
+		if(index != null && (present & (1 << index)) != 0)
+			return value(index);
+		return extra == null ? null : extra.get(key);
+	}
+	@Override
+	public boolean containsKey(Object key) {
+		Integer index = INDEX.get(key);
+		if(index != null && (present & (1 << index)) != 0)
+			return true;
+		return extra != null && extra.containsKey(key);
+	}
+	@Override
+	public int size() {
+		return Integer.bitCount(present) + (extra == null ? 0 : extra.size());
+	}
+	/** Built on each call, as it is rarely needed: the properties are usually read one at a time */
+	@Override
+	public Set<Map.Entry<String,Object>> entrySet() {
+		Map<String,Object> map = new LinkedHashMap<String,Object>();
+		for(int i=0; i<KEYS.length; i++)
+			if((present & (1 << i)) != 0)
+				map.put(KEYS[i], value(i));
+		if(extra != null)
+			map.putAll(extra);
+		return Collections.unmodifiableMap(map).entrySet();
+	}
+
+	/** A string equal to s, the same instance for every caller until the limit is reached */
+	static String intern(String s) {
+		if(s == null)
+			return null;
+		String result = interned.get(s);
+		if(result != null)
+			return result;
+		if(interned.size() >= MAX_INTERNED)
+			return s;
+		result = interned.putIfAbsent(s, s);
+		return result == null ? s : result;
+	}
+
+	/** The bitset for a list of pattern names, or -1 if it isn't one or there are too many different names for a long */
+	private static long bits(Object value) {
+		if(!(value instanceof List<?>))
+			return -1;
+		long bits = 0;
+		for(Object item : (List<?>)value) {
+			if(!(item instanceof String))
+				return -1;
+			int bit = patternBit((String)item);
+			if(bit < 0)
+				return -1;
+			bits |= 1L << bit;
+		}
+		return bits;
+	}
+	private static int patternBit(String name) {
+		Integer bit = patternBits.get(name);
+		if(bit != null)
+			return bit;
+		synchronized(patternNames) {
+			bit = patternBits.get(name);
+			if(bit != null)
+				return bit;
+			if(patternNames.size() >= Long.SIZE)
+				return -1;
+			patternNames.add(name);
+			patternBits.put(name, patternNames.size() - 1);
+			return patternNames.size() - 1;
+		}
+	}
+	private static List<String> patternList(long bits) {
+		List<String> list = patternLists.get(bits);
+		if(list == null) {
+			List<String> names = new ArrayList<String>(Long.bitCount(bits));
+			for(int bit=0; bit<Long.SIZE; bit++)
+				if((bits & (1L << bit)) != 0)
+					names.add(patternNames.get(bit));
+			list = Collections.unmodifiableList(names);
+			List<String> existing = patternLists.putIfAbsent(bits, list);
+			if(existing != null)
+				list = existing;
+		}
+		return list;
+	}
+}
@@ -0,0 +1,58 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Compression of request and response bodies, shared by TwinConnection and AsyncTransport.
+ * <p>
+ * Responses are compressed if the RC supports it and we ask with Accept-Encoding. Request bodies can only be
+ * compressed if the RC is known to support it, see ConnectionConfig.setRequestCompressionThreshold().
+ */
+class Compression {
+	/** What we send as Accept-Encoding */
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	/** gzip a request body */
+	static byte[] gzip(byte[] data) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+			GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+			gzip.write(data);
+			gzip.close();
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e); // can't happen writing to memory
+		}
+	}
+
+	/**
+	 * Undo the Content-Encoding of a response body.
+	 * @param encoding the Content-Encoding header, or null
+	 * @throws IOException if the body is corrupt, or the encoding isn't one we asked for
+	 */
+	static byte[] decode(byte[] body, String encoding) throws IOException {
+		if(encoding == null || encoding.trim().length() == 0 || encoding.trim().equalsIgnoreCase("identity"))
+			return body;
+		InputStream in;
+		if(encoding.trim().equalsIgnoreCase("gzip")) {
+			in = new GZIPInputStream(new ByteArrayInputStream(body));
+		} else if(encoding.trim().equalsIgnoreCase("deflate")) {
+			// should be zlib format, but some servers send raw deflate data
+			boolean zlib = body.length >= 2 && (body[0] & 0x0f) == 8 && (((body[0] & 0xff) << 8) | (body[1] & 0xff)) % 31 == 0;
+			in = new InflaterInputStream(new ByteArrayInputStream(body), new Inflater(!zlib));
+		} else {
+			throw new IOException("Unsupported Content-Encoding "+encoding);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+		byte[] buf = new byte[8192];
+		int read;
+		while((read=in.read(buf))>=0)
+			out.write(buf, 0, read);
+		return out.toByteArray();
+	}
+}
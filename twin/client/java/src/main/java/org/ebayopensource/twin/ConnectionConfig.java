@@ -0,0 +1,177 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.Arrays;
+
+/**
+ * How the client connects to an RC: timeouts, connection pool sizes, and keep-alive behaviour.
+ * <p>
+ * Applications with equal settings share a pool of kept-alive connections, which is closed once none of them has a
+ * session open. A config is copied when it is given to an
+ * Application, so changing it afterwards has no effect until it is set again.
+ * <p>
+ * The defaults keep the behaviour of earlier versions, apart from the connect timeout and closing connections that
+ * have been idle for a while.
+ * Under load, turning off the stale connection check saves a round trip on each request that reuses a connection;
+ * keep the idle timeout shorter than the server's so that connections it has closed are rarely picked up.
+ *
+ * @see Application#setConnectionConfig(ConnectionConfig)
+ */
+public class ConnectionConfig implements Cloneable {
+	private double connectTimeout = 30;
+	private double readTimeout = 0;
+	private int maxConnectionsPerRC = 50;
+	private int maxConnections = 200;
+	private double idleTimeout = 30;
+	private boolean staleCheck = true;
+	private boolean pipelining = false;
+	private boolean compression = true;
+	private int requestCompressionThreshold = 0;
+
+	/** Get how long to wait for a connection to the RC to be established, in seconds. The default is 30, 0 waits forever. */
+	public double getConnectTimeout() {
+		return connectTimeout;
+	}
+	/** Set how long to wait for a connection to the RC to be established, in seconds. 0 waits forever. */
+	public void setConnectTimeout(double connectTimeout) {
+		this.connectTimeout = checkTimeout(connectTimeout);
+	}
+	/** Get how long to wait for data from the RC before failing a request, in seconds. The default is 0: wait forever. */
+	public double getReadTimeout() {
+		return readTimeout;
+	}
+	/**
+	 * Set how long to wait for data from the RC before failing a request, in seconds. 0 waits forever.
+	 * <p>
+	 * This must be longer than any wait done on the server that doesn't report progress, e.g. getChildren() with
+	 * waitForResults on an RC that doesn't support watching for elements.
+	 */
+	public void setReadTimeout(double readTimeout) {
+		this.readTimeout = checkTimeout(readTimeout);
+	}
+	/** Get the most connections kept open to each RC. The default is 50. */
+	public int getMaxConnectionsPerRC() {
+		return maxConnectionsPerRC;
+	}
+	/** Set the most connections kept open to each RC. Further requests wait for a connection to become free. */
+	public void setMaxConnectionsPerRC(int maxConnectionsPerRC) {
+		if(maxConnectionsPerRC < 1)
+			throw new IllegalArgumentException("Need at least 1 connection per RC: "+maxConnectionsPerRC);
+		this.maxConnectionsPerRC = maxConnectionsPerRC;
+	}
+	/** Get the most connections kept open in total, over all RCs. The default is 200. */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+	/** Set the most connections kept open in total, over all RCs. */
+	public void setMaxConnections(int maxConnections) {
+		if(maxConnections < 1)
+			throw new IllegalArgumentException("Need at least 1 connection: "+maxConnections);
+		this.maxConnections = maxConnections;
+	}
+	/** Get how long a kept-alive connection may be unused before it is closed, in seconds. The default is 30. */
+	public double getIdleTimeout() {
+		return idleTimeout;
+	}
+	/** Set how long a kept-alive connection may be unused before it is closed, in seconds. 0 keeps them forever. */
+	public void setIdleTimeout(double idleTimeout) {
+		this.idleTimeout = checkTimeout(idleTimeout);
+	}
+	/** Get whether a kept-alive connection is checked before it is reused. The default is true. */
+	public boolean isStaleCheck() {
+		return staleCheck;
+	}
+	/**
+	 * Set whether a kept-alive connection is checked before it is reused, in case the server has closed it.
+	 * The check costs up to a millisecond per request. Without it, a request the server never saw is retried
+	 * on a new connection, but one that may have been seen fails.
+	 */
+	public void setStaleCheck(boolean staleCheck) {
+		this.staleCheck = staleCheck;
+	}
+	/** Get whether asynchronous requests may be pipelined. The default is false. */
+	public boolean isPipelining() {
+		return pipelining;
+	}
+	/**
+	 * Set whether asynchronous requests may be pipelined: once maxConnectionsPerRC connections are busy, further reads
+	 * are sent on a busy connection rather than waiting for one to become free.
+	 * <p>
+	 * This only affects AsyncApplication, as blocking requests never have more than one in flight per thread.
+	 * Only GET requests are pipelined, and only behind other GETs. Responses come back in order, so a slow request
+	 * delays those sent after it on the same connection.
+	 */
+	public void setPipelining(boolean pipelining) {
+		this.pipelining = pipelining;
+	}
+
+	/** Get whether the RC is asked to compress responses. The default is true. */
+	public boolean isCompression() {
+		return compression;
+	}
+	/**
+	 * Set whether the RC is asked to compress responses with gzip or deflate. RCs that don't support compression
+	 * ignore this. Compression is well worth it over a slow link: JSON, XML structure dumps and base64 screenshots
+	 * shrink several times. On a fast local network it may cost more CPU time than it saves.
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+	/** Get the size in bytes from which request bodies are gzipped. The default is 0: never. */
+	public int getRequestCompressionThreshold() {
+		return requestCompressionThreshold;
+	}
+	/**
+	 * Set the size in bytes from which request bodies, e.g. uploads and setValue() text, are gzipped. 0 never compresses.
+	 * Only use this with RCs that support compressed requests, which older ones don't: they reject every
+	 * request that is compressed.
+	 */
+	public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+		if(requestCompressionThreshold < 0)
+			throw new IllegalArgumentException("Threshold must be positive, or 0 for none: "+requestCompressionThreshold);
+		this.requestCompressionThreshold = requestCompressionThreshold;
+	}
+
+	private static double checkTimeout(double timeout) {
+		if(timeout < 0 || Double.isNaN(timeout) || Double.isInfinite(timeout))
+			throw new IllegalArgumentException("Timeout must be positive, or 0 for none: "+timeout);
+		return timeout;
+	}
+	/** A timeout in milliseconds, as used by sockets: 0 for none */
+	static int millis(double timeout) {
+		return (int)Math.min(Integer.MAX_VALUE, Math.ceil(timeout * 1000));
+	}
+
+	@Override
+	public ConnectionConfig clone() {
+		try {
+			return (ConnectionConfig)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof ConnectionConfig))
+			return false;
+		ConnectionConfig c = (ConnectionConfig)other;
+		return connectTimeout == c.connectTimeout && readTimeout == c.readTimeout
+			&& maxConnectionsPerRC == c.maxConnectionsPerRC && maxConnections == c.maxConnections
+			&& idleTimeout == c.idleTimeout && staleCheck == c.staleCheck && pipelining == c.pipelining
+			&& compression == c.compression && requestCompressionThreshold == c.requestCompressionThreshold;
+	}
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(new Object[] { connectTimeout, readTimeout, maxConnectionsPerRC, maxConnections, idleTimeout, staleCheck, pipelining,
+			compression, requestCompressionThreshold });
+	}
+	public String toString() {
+		return "ConnectionConfig(connectTimeout="+connectTimeout+" readTimeout="+readTimeout+
+			" maxConnectionsPerRC="+maxConnectionsPerRC+" maxConnections="+maxConnections+
+			" idleTimeout="+idleTimeout+" staleCheck="+staleCheck+" pipelining="+pipelining+
+			" compression="+compression+" requestCompressionThreshold="+requestCompressionThreshold+")";
+	}
+}
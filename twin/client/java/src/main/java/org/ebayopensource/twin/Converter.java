@@ -0,0 +1,60 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.util.*;
+
+/**
+ * Converts the raw "value" of a response into the type returned to the caller.
+ * Used where a result is produced after the request is made, e.g. by Batch and AsyncApplication.
+ */
+interface Converter<T> {
+	T convert(Object value);
+
+	static final Converter<Object> IDENTITY = new Converter<Object>() {
+		public Object convert(Object value) {
+			return value;
+		}
+	};
+	static final Converter<Void> VOID = new Converter<Void>() {
+		public Void convert(Object value) {
+			return null;
+		}
+	};
+	static final Converter<String> STRING = new Converter<String>() {
+		public String convert(Object value) {
+			return (String)value;
+		}
+	};
+	static final Converter<Boolean> BOOLEAN = new Converter<Boolean>() {
+		public Boolean convert(Object value) {
+			return (Boolean)value;
+		}
+	};
+	static final Converter<Rectangle> RECTANGLE = new Converter<Rectangle>() {
+		public Rectangle convert(Object value) {
+			Map<?,?> results = (Map<?,?>)value;
+			int width = ((Number)results.get("width")).intValue();
+			int height = ((Number)results.get("height")).intValue();
+			int x = ((Number)results.get("x")).intValue();
+			int y = ((Number)results.get("y")).intValue();
+			return new Rectangle(x, y, width, height);
+		}
+	};
+	static final Converter<Element> ELEMENT = new Converter<Element>() {
+		public Element convert(Object value) {
+			return ElementImpl.create((RemoteObject)value);
+		}
+	};
+	static final Converter<List<Element>> ELEMENT_LIST = new Converter<List<Element>>() {
+		public List<Element> convert(Object value) {
+			List<Element> result = new ArrayList<Element>();
+			for(Object remote : (List<?>)value)
+				result.add(ElementImpl.create((RemoteObject)remote));
+			return result;
+		}
+	};
+}
@@ -4,7 +4,11 @@
 
 package org.ebayopensource.twin;
 
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.util.*;
+import java.util.regex.Pattern;
+
 import org.ebayopensource.twin.json.JSONable;
 import org.ebayopensource.twin.element.*;
 import org.ebayopensource.twin.pattern.*;
@@ -13,6 +17,8 @@ import org.ebayopensource.twin.pattern.*;
  * A set of conditions that an element might match, which can be used for searching the element tree.
  * <p>
  * Criteria are evaluated on the server as part of a search, and determine what elements you will get back.
+ * They can also be evaluated on the client with matches() and select(), against the properties it already has
+ * for the elements, which needs no requests: useful for repeated queries against elements that have already been found.
  * <p>
  * There are two basic type of criteria: <ul>
  * <li>Property criteria, that check whether a property of an element (like controlType) has a certain value (like Window)</li>
@@ -23,9 +29,49 @@ import org.ebayopensource.twin.pattern.*;
  * For easiest use of these, you should <code>static import org.ebayopensource.twin.Critera.*;</code> 
  * This allows you to write criteria like name("foo").and(type(ControlType.Button)).
  * <p>
- * TODO we could evaluate these clientside too - is there any need?
+ * Some criteria, like regex() and within(), can only be evaluated on the client: the server's searches don't support them.
+ * Use them with matches(), select() and ElementSnapshot, or combine a server search with select() to narrow it down.
  */
 public abstract class Criteria implements JSONable {
+	/**
+	 * Evaluate this against an element's properties, as sent by the server: name, id, controlType, className, 
+	 * controlPatterns (a list of pattern names) and any others fetched. 
+	 * The built-in criteria all override this; subclasses from elsewhere can only be evaluated by the server.
+	 * @throws TwinException if a property needed isn't present, or these criteria can't be evaluated locally at all
+	 */
+	boolean matches(Map<String,Object> properties) throws TwinException {
+		throw new TwinException(getClass().getName()+" criteria can't be evaluated locally");
+	}
+	/** Get a property for evaluation */
+	static Object require(Map<String,Object> properties, String name) throws TwinException {
+		if(!properties.containsKey(name))
+			throw new TwinException("Can't evaluate criteria on "+name+" locally, it wasn't fetched");
+		return properties.get(name);
+	}
+	
+	/**
+	 * Whether the element matches, evaluated on the client without making any requests.
+	 * <p>
+	 * The element's name, id, className, controlType and control patterns are those sent with it when it was found.
+	 * Other properties, like enabled or value, can be used if they are in the session's property cache.
+	 * @throws TwinException if the criteria use a property the client doesn't have for the element
+	 * @see Application#setCacheTimeout(double)
+	 */
+	public boolean matches(Element element) throws TwinException {
+		return matches(ElementImpl.knownProperties(element));
+	}
+	/**
+	 * The elements that match, in order, evaluated on the client without making any requests.
+	 * @see #matches(Element)
+	 */
+	public <T extends Element> List<T> select(Collection<T> elements) throws TwinException {
+		List<T> result = new ArrayList<T>();
+		for(T element : elements)
+			if(matches(element))
+				result.add(element);
+		return result;
+	}
+
 	/** Internal class to represent an AND and OR criterion */
 	private static class Conjunction extends Criteria {
 		public Conjunction(boolean and, Criteria... criteria) {
@@ -34,6 +80,12 @@ public abstract class Criteria implements JSONable {
 		}
 		boolean and;
 		Criteria[] criteria;
+		boolean matches(Map<String,Object> properties) {
+			for(Criteria c : criteria)
+				if(c.matches(properties) != and)
+					return !and;
+			return and;
+		}
 
 		public Object toJSON() {
 			Map<String,Object> data = new HashMap<String,Object>();
@@ -64,6 +116,18 @@ public abstract class Criteria implements JSONable {
 		}
 		String propertyName;
 		Object propertyValue;
+		boolean matches(Map<String,Object> properties) {
+			if(propertyName.equals("controlPattern")) {
+				for(Object name : (List<?>)require(properties, "controlPatterns")) {
+					Class<?> pattern = NameMappings.getPatternInterface((String)name);
+					if(pattern != null && pattern.getSimpleName().equals(propertyValue))
+						return true;
+				}
+				return false;
+			}
+			Object actual = require(properties, propertyName);
+			return propertyValue == null ? actual == null : propertyValue.equals(actual);
+		}
 		public Object toJSON() {
 			Map<String,Object> data = new HashMap<String,Object>();
 			data.put("type","property");
@@ -75,12 +139,74 @@ public abstract class Criteria implements JSONable {
 			return propertyName + "=" + propertyValue;
 		}
 	}
+	/** Internal class to represent a criterion the server can't evaluate */
+	private static abstract class LocalCriteria extends Criteria {
+		public Object toJSON() {
+			throw new TwinException("Criteria "+this+" can only be evaluated on the client, e.g. with Criteria.select()");
+		}
+	}
+	/** Internal class to represent a property~regex criterion */
+	private static class PropertyMatches extends LocalCriteria {
+		public PropertyMatches(String propertyName, Pattern pattern) {
+			this.propertyName = propertyName;
+			this.pattern = pattern;
+		}
+		String propertyName;
+		Pattern pattern;
+		boolean matches(Map<String,Object> properties) {
+			Object actual = require(properties, propertyName);
+			return actual != null && pattern.matcher(actual.toString()).matches();
+		}
+		public String toString() {
+			return propertyName + "~/" + pattern + "/";
+		}
+	}
+	/** Internal class to represent a property-contains-substring criterion */
+	private static class PropertyContains extends LocalCriteria {
+		public PropertyContains(String propertyName, String substring) {
+			this.propertyName = propertyName;
+			this.substring = substring;
+		}
+		String propertyName;
+		String substring;
+		boolean matches(Map<String,Object> properties) {
+			Object actual = require(properties, propertyName);
+			return actual != null && actual.toString().contains(substring);
+		}
+		public String toString() {
+			return propertyName + " contains \"" + substring + "\"";
+		}
+	}
+	/** Internal class to represent a criterion on the element's bounds */
+	private static class BoundsContainment extends LocalCriteria {
+		/** Either the area the bounds must be within, or the point they must contain */
+		public BoundsContainment(Rectangle area, Point point) {
+			this.area = area == null ? null : new Rectangle(area);
+			this.point = point == null ? null : new Point(point);
+		}
+		Rectangle area;
+		Point point;
+		boolean matches(Map<String,Object> properties) {
+			Rectangle bounds = (Rectangle)require(properties, "bounds");
+			if(bounds == null)
+				return false;
+			return area != null ? area.contains(bounds) : bounds.contains(point);
+		}
+		public String toString() {
+			if(area != null)
+				return "bounds within ("+area.x+","+area.y+" "+area.width+"x"+area.height+")";
+			return "bounds contain ("+point.x+","+point.y+")";
+		}
+	}
 	/** Internal class to represent a NOT criterion */
 	private static class Negate extends Criteria {
 		public Negate(Criteria c) {
 			this.criteria = c;
 		}
 		Criteria criteria;
+		boolean matches(Map<String,Object> properties) {
+			return !criteria.matches(properties);
+		}
 		public Object toJSON() {
 			Map<String,Object> data = new HashMap<String,Object>();
 			data.put("type","not");
@@ -153,4 +279,33 @@ public abstract class Criteria implements JSONable {
 	public static Criteria equals(String property, Object value) {
 		return new PropertyEquals(property, value);
 	}
+	
+	/** A criterion that matches if the element's whole name matches the regular expression. Client only. */
+	public static Criteria nameMatches(String regex) {
+		return regex("name", regex);
+	}
+	/** A criterion that matches if the element's name contains <code>substring</code>. Client only. */
+	public static Criteria nameContains(String substring) {
+		return contains("name", substring);
+	}
+	/**
+	 * A criterion that matches if the element's whole <code>property</code> property matches the regular expression.
+	 * The regex is compiled once, here. Client only.
+	 * @throws java.util.regex.PatternSyntaxException if the regex is invalid
+	 */
+	public static Criteria regex(String property, String regex) {
+		return new PropertyMatches(property, Pattern.compile(regex));
+	}
+	/** A criterion that matches if the element's <code>property</code> property contains <code>substring</code>. Client only. */
+	public static Criteria contains(String property, String substring) {
+		return new PropertyContains(property, substring);
+	}
+	/** A criterion that matches if the element's bounds lie entirely within <code>area</code>. Client only. */
+	public static Criteria within(Rectangle area) {
+		return new BoundsContainment(area, null);
+	}
+	/** A criterion that matches if the element's bounds contain <code>point</code>. Client only. */
+	public static Criteria containing(Point point) {
+		return new BoundsContainment(null, point);
+	}
 }
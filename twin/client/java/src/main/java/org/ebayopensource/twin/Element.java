@@ -7,6 +7,7 @@ package org.ebayopensource.twin;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 
 import java.util.*;
 
@@ -86,6 +87,14 @@ public interface Element {
 	 * @return an in-memory screenshot of the element's region
 	 */
 	public Screenshot getBoundsScreenshot() throws TwinException;
+	/**
+	 * Find where an image appears within this element, e.g. to click on a custom-drawn control that can't be found any other way.
+	 * A screenshot of the element is taken and searched; the search tolerates changes of brightness and contrast.
+	 * @param template the image to look for
+	 * @param threshold how similar an area must be to count as a match, from 0 to 1 (identical). 0.9 is a good start.
+	 * @return the element-relative areas that match, best first, which can be passed on to click(int, int). Empty if there are none.
+	 */
+	public List<Rectangle> findImage(BufferedImage template, double threshold) throws TwinException;
 	
 	/** 
 	 * Get an XML dump of the tree rooted at this element.
@@ -104,6 +113,14 @@ public interface Element {
 	 * which contain XML elements representing their children. 
 	 */
 	public String getStructure(boolean verbose) throws TwinException;
+	/**
+	 * Fetch the tree rooted at this element in a single request, as an ElementSnapshot that can be explored and searched
+	 * without further requests.
+	 * @param depth how many levels of descendants to include: 0 for just this element, 1 for its children too, and so on.
+	 * Integer.MAX_VALUE includes the whole tree.
+	 * @param properties extra properties to fetch for every node, see the constants in ElementSnapshot
+	 */
+	public ElementSnapshot snapshot(int depth, String... properties) throws TwinException;
 	
 	/**
 	 * Get a list of all the element's descendants matching the given criteria.
@@ -164,6 +181,34 @@ public interface Element {
 	 * @throws TwinException if multiple children match
 	 */
 	public <T extends Element> T waitForChild(Criteria criteria, double timeout) throws TwinException;
+	/**
+	 * Wait in the background for a single descendant matching the given criteria to appear, for up to the
+	 * application's default timeout period. The server reports it as soon as it appears, rather than being polled.
+	 * @return a TwinFuture for the descendant, which fails with TwinNoSuchElementException if none appears in time
+	 * @see AsyncApplication#onDescendantAppeared(Element, Criteria, double)
+	 */
+	public TwinFuture<Element> onDescendantAppeared(Criteria criteria);
+	/**
+	 * Wait in the background for a single descendant matching the given criteria to appear, for up to the given duration.
+	 * @param timeout the duration to wait if no matches are immediately available (can be infinite or zero)
+	 * @return a TwinFuture for the descendant, which fails with TwinNoSuchElementException if none appears in time
+	 * @see AsyncApplication#onDescendantAppeared(Element, Criteria, double)
+	 */
+	public TwinFuture<Element> onDescendantAppeared(Criteria criteria, double timeout);
+	/**
+	 * Wait in the background for a single immediate child matching the given criteria to appear, for up to the
+	 * application's default timeout period. The server reports it as soon as it appears, rather than being polled.
+	 * @return a TwinFuture for the child, which fails with TwinNoSuchElementException if none appears in time
+	 * @see AsyncApplication#onChildAppeared(Element, Criteria, double)
+	 */
+	public TwinFuture<Element> onChildAppeared(Criteria criteria);
+	/**
+	 * Wait in the background for a single immediate child matching the given criteria to appear, for up to the given duration.
+	 * @param timeout the duration to wait if no matches are immediately available (can be infinite or zero)
+	 * @return a TwinFuture for the child, which fails with TwinNoSuchElementException if none appears in time
+	 * @see AsyncApplication#onChildAppeared(Element, Criteria, double)
+	 */
+	public TwinFuture<Element> onChildAppeared(Criteria criteria, double timeout);
 	/**
 	 * Get all 'closest' descendants of the element that match the given criteria. 
 	 * <p>
@@ -204,6 +249,18 @@ public interface Element {
 	public String getCachedName();
 	/** Get the name of this element. This is commonly the displayed text, if the element displays text. */
 	@IDE(attribute=true) public String getName() throws TwinException;
+
+	/**
+	 * Discard this element's cached property values, so the next read of each goes to the server.
+	 * This only matters if caching is enabled with Application.setCacheTimeout().
+	 */
+	public void invalidate();
+	/**
+	 * Read this element's cached property values from the server again, in a single round trip.
+	 * Properties that are not currently cached are not read.
+	 * This only matters if caching is enabled with Application.setCacheTimeout().
+	 */
+	public void refresh() throws TwinException;
 	/** Get the id of this element. */
 	@IDE(attribute=true) public String getId() throws TwinException;
 	/** Get the win32 class name of this element. */
@@ -353,4 +410,19 @@ public interface Element {
 	 * @throws TwinInvalidElementStateException if the element still exists after the specified timeout
 	 */ 
 	public void waitForNotExists(double timeout) throws TwinException;
+	
+	/**
+	 * Wait in the background for this element to disappear, for up to the default timeout duration.
+	 * @return a TwinFuture that completes when the element has gone, or fails with TwinInvalidElementStateException 
+	 * if it still exists after the timeout
+	 * @see AsyncApplication#onGone(Element, double)
+	 */
+	public TwinFuture<Void> onGone();
+	/**
+	 * Wait in the background for this element to disappear, for up to the specified timeout.
+	 * @return a TwinFuture that completes when the element has gone, or fails with TwinInvalidElementStateException 
+	 * if it still exists after the timeout
+	 * @see AsyncApplication#onGone(Element, double)
+	 */
+	public TwinFuture<Void> onGone(double timeout);
 }
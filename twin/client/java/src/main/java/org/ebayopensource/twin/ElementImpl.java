@@ -6,10 +6,12 @@ package org.ebayopensource.twin;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import java.awt.Point;
 import java.awt.Dimension;
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 
 import org.apache.commons.codec.binary.Base64;
 
@@ -39,58 +41,164 @@ class ElementImpl extends RemoteResource implements Element {
 		if(o == null)
 			return null;
 		
-		List<Class<?>> interfaces = new ArrayList<Class<?>>();
-		interfaces.add(Element.class);
-		interfaces.add(RemoteResourceInterface.class);
-
-		final Class<? extends ControlType> controlTypeInterface = NameMappings.getTypeInterface((String)o.properties.get("controlType"));
-		if(controlTypeInterface.equals(Desktop.class))
+		Class<? extends ControlType> controlTypeInterface = NameMappings.getTypeInterface((String)o.properties.get("controlType"));
+		if(Desktop.class.equals(controlTypeInterface))
 			return new DesktopImpl(o.session);
-		if(controlTypeInterface != null)
-			interfaces.add(controlTypeInterface);
-		
 		List<Class<? extends ControlPattern>> controlPatternInterfaces = getControlPatternInterfaces(o);
-		interfaces.addAll(controlPatternInterfaces);
 		
-		final ElementImpl impl = new ElementImpl(o, controlTypeInterface, controlPatternInterfaces);
-		if(interfaces.isEmpty())
-			return impl;
+		ProxyType type = ProxyType.get(controlTypeInterface, controlPatternInterfaces);
+		ElementImpl impl = new ElementImpl(o, controlTypeInterface, type.controlPatterns);
+		return type.newInstance(impl);
+	}
+	
+	/**
+	 * The proxy class for one combination of control type and control patterns, and how to dispatch each of its methods.
+	 * Searches return many elements of the same few kinds, so these are worked out once and shared: creating an element
+	 * is then one constructor call, and calling a method is one map lookup with the @Require checks already resolved.
+	 */
+	private static class ProxyType {
+		private static final Map<List<Class<?>>,ProxyType> types = new ConcurrentHashMap<List<Class<?>>,ProxyType>();
 		
-		final HashSet<Class<?>> implementedPatterns = new HashSet<Class<?>>();
-		for(Class<?> iface : interfaces)
-			if(isInterfaceExtending(iface,ControlPattern.class))
-				implementedPatterns.add(iface);
+		static ProxyType get(Class<? extends ControlType> controlType, List<Class<? extends ControlPattern>> controlPatterns) {
+			List<Class<?>> key = new ArrayList<Class<?>>(controlPatterns.size()+1);
+			key.add(controlType);
+			key.addAll(controlPatterns);
+			ProxyType type = types.get(key);
+			if(type == null) {
+				// two threads may both build one, that's harmless
+				type = new ProxyType(controlType, controlPatterns);
+				types.put(key, type);
+			}
+			return type;
+		}
 		
-		return (Element)Proxy.newProxyInstance(
-				ElementImpl.class.getClassLoader(), 
-				interfaces.toArray(new Class[interfaces.size()]),
-				new InvocationHandler() {
-					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-						Method implMethod = null;
-						try {
-							implMethod = impl.getClass().getMethod(method.getName(), method.getParameterTypes());
-						} catch (NoSuchMethodException e) {
-							implMethod = impl.getClass().getDeclaredMethod(method.getName(), method.getParameterTypes());							
-						}
-						Require requirement = implMethod.getAnnotation(Require.class);
-						if(requirement != null) {
-							for(Class<?> pattern : requirement.pattern())
-								if(!implementedPatterns.contains(pattern))
-									throw new TwinException("This "+(impl.getControlType() == null ? "Unknown" : impl.getControlType())+ 
-											" does not implement the control pattern "+pattern.getSimpleName());
-							if(requirement.type() != Void.class)
-								if(controlTypeInterface != requirement.type())
-									throw new TwinException("This "+(impl.getControlType() == null ? "Unknown" : impl.getControlType())+ 
-											" is not of ControlType "+requirement.type().getSimpleName());									
-						}
-						try {
-							return implMethod.invoke(impl, args);
-						} catch (InvocationTargetException e) {
-							throw e.getCause();
-						}
+		final Class<? extends ControlType> controlType;
+		/** Shared by all elements of this type, so must not be modified */
+		final List<Class<? extends ControlPattern>> controlPatterns;
+		private final Set<Class<?>> implementedPatterns = new HashSet<Class<?>>();
+		private final Constructor<?> constructor;
+		/** Methods are added lazily, e.g. those of Object, which the proxy also passes to the handler */
+		private final Map<Method,Dispatch> dispatch = new ConcurrentHashMap<Method,Dispatch>();
+		
+		private ProxyType(Class<? extends ControlType> controlType, List<Class<? extends ControlPattern>> controlPatterns) {
+			this.controlType = controlType;
+			this.controlPatterns = Collections.unmodifiableList(new ArrayList<Class<? extends ControlPattern>>(controlPatterns));
+			
+			List<Class<?>> interfaces = new ArrayList<Class<?>>();
+			interfaces.add(Element.class);
+			interfaces.add(RemoteResourceInterface.class);
+			if(controlType != null)
+				interfaces.add(controlType);
+			interfaces.addAll(controlPatterns);
+			for(Class<?> iface : interfaces)
+				if(isInterfaceExtending(iface,ControlPattern.class))
+					implementedPatterns.add(iface);
+			
+			Class<?> proxyClass = Proxy.getProxyClass(ElementImpl.class.getClassLoader(), interfaces.toArray(new Class[interfaces.size()]));
+			try {
+				constructor = proxyClass.getConstructor(InvocationHandler.class);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException(e); // all proxy classes have one
+			}
+			for(Class<?> iface : interfaces)
+				for(Method method : iface.getMethods()) {
+					Dispatch target = resolve(method);
+					if(target != null)
+						dispatch.put(method, target);
+				}
+		}
+		
+		Element newInstance(final ElementImpl impl) {
+			InvocationHandler handler = new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					Dispatch target = dispatch.get(method);
+					if(target == null) {
+						target = resolve(method);
+						if(target == null)
+							throw new NoSuchMethodException(method.toString());
+						dispatch.put(method, target);
+					}
+					if(target.failure != null)
+						throw new TwinException(target.failure);
+					try {
+						return target.method.invoke(impl, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
 					}
 				}
-			);
+			};
+			try {
+				return (Element)constructor.newInstance(handler);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException(e.getCause());
+			} catch (InstantiationException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		/** Find the ElementImpl method for an interface method, and whether its @Require is met by this type. Null if there isn't one. */
+		private Dispatch resolve(Method method) {
+			Method implMethod;
+			try {
+				implMethod = ElementImpl.class.getMethod(method.getName(), method.getParameterTypes());
+			} catch (NoSuchMethodException e) {
+				try {
+					implMethod = ElementImpl.class.getDeclaredMethod(method.getName(), method.getParameterTypes());
+				} catch (NoSuchMethodException e2) {
+					return null;
+				}
+			}
+			implMethod.setAccessible(true); // skip the access check on every call
+			
+			String failure = null;
+			Require requirement = implMethod.getAnnotation(Require.class);
+			if(requirement != null) {
+				for(Class<?> pattern : requirement.pattern())
+					if(!implementedPatterns.contains(pattern)) {
+						failure = "This "+(controlType == null ? "Unknown" : controlType)+ 
+								" does not implement the control pattern "+pattern.getSimpleName();
+						break;
+					}
+				if(failure == null && requirement.type() != Void.class)
+					if(controlType != requirement.type())
+						failure = "This "+(controlType == null ? "Unknown" : controlType)+ 
+								" is not of ControlType "+requirement.type().getSimpleName();
+			}
+			return new Dispatch(implMethod, failure);
+		}
+	}
+	/** How a proxy method call is handled */
+	private static class Dispatch {
+		/** The ElementImpl method to call */
+		final Method method;
+		/** If non-null, the method isn't supported by this element and calling it throws a TwinException with this message */
+		final String failure;
+		Dispatch(Method method, String failure) {
+			this.method = method;
+			this.failure = failure;
+		}
+	}
+	
+	/** Properties that can be read from the session's cache as well as the ones sent with the element */
+	private static final String[] CACHEABLE_PROPERTIES = { "name", "enabled", "value", "bounds", "expanded", "selected", "toggle" };
+	/**
+	 * The properties of an element the client has without making a request, for evaluating Criteria locally:
+	 * those sent along with the element, and any still in the session's property cache.
+	 */
+	static Map<String,Object> knownProperties(Element element) {
+		RemoteObject o = ((RemoteResourceInterface)element).getRemote();
+		if(o == null) // the desktop
+			return Collections.<String,Object>singletonMap("controlType", "Desktop");
+		Map<String,Object> properties = new HashMap<String,Object>(o.properties);
+		for(String name : CACHEABLE_PROPERTIES) {
+			Object value = o.session.cache.get("/element/"+o.uuid+"/"+name);
+			if(value == PropertyCache.MISSING)
+				continue;
+			properties.put(name, "bounds".equals(name) && value != null ? Converter.RECTANGLE.convert(value) : value);
+		}
+		return properties;
 	}
 	
 	private static List<Class<? extends ControlPattern>> getControlPatternInterfaces(RemoteObject o) {
@@ -145,8 +253,28 @@ class ElementImpl extends RemoteResource implements Element {
 	public String getCachedName() {
 		return cachedName;
 	}
+	public void invalidate() {
+		session.cache.clear(getPath()+"/");
+	}
+	public void refresh() throws TwinException {
+		List<String> paths = session.cache.clear(getPath()+"/");
+		if(paths.isEmpty())
+			return;
+		int generation = session.cache.generation();
+		Batch batch = session.batch();
+		List<TwinFuture<Object>> values = new ArrayList<TwinFuture<Object>>();
+		for(String path : paths)
+			values.add(batch.request("GET", path, null));
+		batch.execute();
+		for(int i=0; i<paths.size(); i++) {
+			Object value = values.get(i).getResult();
+			session.cache.put(paths.get(i), value, generation);
+			if(paths.get(i).endsWith("/name"))
+				cachedName = (String)value;
+		}
+	}
 	public String getName() throws TwinException {
-		return cachedName = (String)session.request("GET", getPath()+"/name", null);
+		return cachedName = (String)session.cachedRequest(getPath()+"/name");
 	}
 	public String getId() throws TwinException {
 		return id;
@@ -187,7 +315,7 @@ class ElementImpl extends RemoteResource implements Element {
 	
 	@Require(pattern=Editable.class)
 	public String getValue() throws TwinException {
-		return (String)session.request("GET", getPath()+"/value", null);
+		return (String)session.cachedRequest(getPath()+"/value");
 	}
 	@Require(pattern=Editable.class)
 	public void setValue(String s) throws TwinException {
@@ -201,12 +329,12 @@ class ElementImpl extends RemoteResource implements Element {
 	}
 	
 	public boolean isEnabled() throws TwinException {
-		return (boolean)(Boolean)session.request("GET", getPath()+"/enabled", null);
+		return (boolean)(Boolean)session.cachedRequest(getPath()+"/enabled");
 	}
 	
 	@Require(pattern=Expandable.class)
 	public boolean isExpanded() throws TwinException {
-		return (boolean)(Boolean)session.request("GET", getPath()+"/expanded", null);
+		return (boolean)(Boolean)session.cachedRequest(getPath()+"/expanded");
 	}
 	@Require(pattern=Expandable.class)
 	public void setExpanded(boolean expanded) throws TwinException {
@@ -217,7 +345,7 @@ class ElementImpl extends RemoteResource implements Element {
 
 	@Require(pattern=Selectable.class)
 	public boolean isSelected() throws TwinException {
-		return (boolean)(Boolean)session.request("GET", getPath()+"/selected", null);
+		return (boolean)(Boolean)session.cachedRequest(getPath()+"/selected");
 	}
 	@Require(pattern=Selectable.class)
 	public void setSelected(boolean selected) throws TwinException {
@@ -233,12 +361,12 @@ class ElementImpl extends RemoteResource implements Element {
 	
 	@Require(pattern=SelectionContainer.class)
 	public boolean isMultipleSelectionAllowed() throws TwinException {
-		Map<String,Object> result = session.requestObject("GET", getPath()+"/selection", null);
+		Map<?,?> result = (Map<?,?>)session.cachedRequest(getPath()+"/selection");
 		return (boolean)(Boolean)result.get("multiple");
 	}
 	@Require(pattern=SelectionContainer.class)
 	public boolean isSelectionRequired() throws TwinException {
-		Map<String,Object> result = session.requestObject("GET", getPath()+"/selection", null);
+		Map<?,?> result = (Map<?,?>)session.cachedRequest(getPath()+"/selection");
 		return (boolean)(Boolean)result.get("required");
 	}
 	@Require(pattern=SelectionContainer.class)
@@ -264,24 +392,13 @@ class ElementImpl extends RemoteResource implements Element {
 	}
 	
 	public Dimension getSize() throws TwinException {
-		Map<String,Object> results = session.requestObject("GET", getPath()+"/bounds", null);
-		int width = ((Number)results.get("width")).intValue();
-		int height = ((Number)results.get("height")).intValue();
-		return new Dimension(width, height);
+		return getBounds().getSize();
 	}
 	public Point getLocation() throws TwinException {
-		Map<String,Object> results = session.requestObject("GET", getPath()+"/bounds", null);
-		int x = ((Number)results.get("x")).intValue();
-		int y = ((Number)results.get("y")).intValue();
-		return new Point(x, y);
+		return getBounds().getLocation();
 	}
 	public Rectangle getBounds() throws TwinException {
-		Map<String,Object> results = session.requestObject("GET", getPath()+"/bounds", null);
-		int width = ((Number)results.get("width")).intValue();
-		int height = ((Number)results.get("height")).intValue();
-		int x = ((Number)results.get("x")).intValue();
-		int y = ((Number)results.get("y")).intValue();
-		return new Rectangle(x, y, width, height);
+		return Converter.RECTANGLE.convert(session.cachedRequest(getPath()+"/bounds"));
 	}
 	
 	@Require(pattern=Transformable.class)
@@ -310,7 +427,7 @@ class ElementImpl extends RemoteResource implements Element {
 	
 	@Require(pattern=Toggle.class)
 	public boolean getState() throws TwinException {
-		return (boolean)(Boolean)session.request("GET", getPath()+"/toggle", null);
+		return (boolean)(Boolean)session.cachedRequest(getPath()+"/toggle");
 	}
 	@Require(pattern=Toggle.class)
 	public void setState(boolean b) throws TwinException {
@@ -355,12 +472,19 @@ class ElementImpl extends RemoteResource implements Element {
 		data.put("verbose", verbose);
 		return (String)session.request("GET", getPath()+"/structure", data);
 	}
+	@SuppressWarnings("unchecked")
+	public ElementSnapshot snapshot(int depth, String... properties) throws TwinException {
+		Map<String,Object> data = new HashMap<String,Object>();
+		data.put("depth", depth);
+		data.put("properties", properties);
+		return new ElementSnapshot(null, (Map<String,Object>)session.request("GET", getPath()+"/snapshot", data), Arrays.asList(properties));
+	}
 	public String getStructure() throws TwinException {
 		return getStructure(false);
 	}
 	
 	public Screenshot getScreenshot() throws TwinException {
-		return decodeScreenshot(session.requestObject("GET", getPath()+"/screenshot", null));
+		return requestScreenshot(null);
 	}
 	public Screenshot getScreenshot(Rectangle bounds) throws TwinException {
 		Map<String,Object> data = new HashMap<String,Object>();
@@ -368,11 +492,14 @@ class ElementImpl extends RemoteResource implements Element {
 		data.put("y", bounds.y);
 		data.put("width", bounds.width);
 		data.put("height", bounds.height);
-		return decodeScreenshot(session.requestObject("GET", getPath()+"/screenshot", data));
+		return requestScreenshot(data);
 	}
 	public Screenshot getBoundsScreenshot() throws TwinException {
 		return getApplication().getDesktop().getScreenshot(getBounds());
 	}
+	public List<Rectangle> findImage(BufferedImage template, double threshold) throws TwinException {
+		return TemplateMatcher.find(getScreenshot().getImage(), template, threshold);
+	}
 	
 	public void sendKeys(String text) throws TwinException {
 		Map<String,Object> keys = new HashMap<String,Object>();
@@ -393,7 +520,7 @@ class ElementImpl extends RemoteResource implements Element {
 		return cachedParent;
 	}
 	public Element getParent() throws TwinException { 
-		return cachedParent = ElementImpl.create((RemoteObject)session.request("GET", getPath()+"/parent", null));
+		return cachedParent = ElementImpl.create((RemoteObject)session.cachedRequest(getPath()+"/parent"));
 	}
 	public List<Element> getChildren() throws TwinException {
 		return getChildren(null);
@@ -411,7 +538,13 @@ class ElementImpl extends RemoteResource implements Element {
 		return this.<T>waitForChild(criteria, getApplication().getTimeout());
 	}
 	public <T extends Element> T waitForChild(Criteria criteria, double timeout) throws TwinException {
-		return single(this.<T>getElements("children", criteria, 0, timeout, true));		
+		return single(this.<T>waitForElements("child", "children", criteria, timeout));
+	}
+	public TwinFuture<Element> onChildAppeared(Criteria criteria) {
+		return onChildAppeared(criteria, getApplication().getTimeout());
+	}
+	public TwinFuture<Element> onChildAppeared(Criteria criteria, double timeout) {
+		return session.async().onChildAppeared(this, criteria, timeout);
 	}
 	public <T extends Element> T getDescendant(Criteria criteria) throws TwinException {
 		return single(this.<T>getElements("descendants", criteria, 0, 0, true));
@@ -420,7 +553,13 @@ class ElementImpl extends RemoteResource implements Element {
 		return this.<T>waitForDescendant(criteria, getApplication().getTimeout());	
 	}
 	public <T extends Element> T waitForDescendant(Criteria criteria, double timeout) throws TwinException {
-		return single(this.<T>getElements("descendants", criteria, 0, timeout, true));
+		return single(this.<T>waitForElements("descendant", "descendants", criteria, timeout));
+	}
+	public TwinFuture<Element> onDescendantAppeared(Criteria criteria) {
+		return onDescendantAppeared(criteria, getApplication().getTimeout());
+	}
+	public TwinFuture<Element> onDescendantAppeared(Criteria criteria, double timeout) {
+		return session.async().onDescendantAppeared(this, criteria, timeout);
 	}
 	public <T extends Element> List<T> getClosestDescendants(Criteria criteria) throws TwinException {
 		return getElements("descendants", criteria, 1, 0, false);
@@ -466,6 +605,29 @@ class ElementImpl extends RemoteResource implements Element {
 		}
 		return result;
 	}
+	/**
+	 * Wait for matching elements to appear. The server watches for them and responds as soon as they do,
+	 * or if it is too old to do that, polls for them.
+	 * @param event what to watch for, "child" or "descendant"
+	 * @param subpath the equivalent search, "children" or "descendants"
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends Element> List<T> waitForElements(String event, String subpath, Criteria criteria, double timeout) throws TwinException {
+		if(session.watchSupported) {
+			try {
+				List<Object> searchResults = (List<Object>)session.request("POST", getPath()+"/watch", Application.watchRequest(event, criteria, timeout), false);
+				List<T> result = new ArrayList<T>();
+				for(Object remote : searchResults)
+					result.add((T)ElementImpl.create((RemoteObject)remote));
+				return result;
+			} catch (TwinException e) {
+				if(e.error != TwinError.UnknownCommand)
+					throw e;
+				session.watchSupported = false; // an older server, let it poll
+			}
+		}
+		return getElements(subpath, criteria, 0, timeout, true);
+	}
 	/** Return the single element in a single list, null for an empty list, and throw for a list with multiple entries */
 	private <T> T single(List<T> list) throws TwinException {
 		if(list.size() == 1)
@@ -477,6 +639,18 @@ class ElementImpl extends RemoteResource implements Element {
 		data.put("focusedElement", remote);
 		session.request("POST", "/element/active", data);
 	}
+	/** Request a screenshot as a PNG, falling back to base64 JSON if the RC doesn't support sending it as it is */
+	@SuppressWarnings("unchecked")
+	private Screenshot requestScreenshot(Map<String,Object> data) throws TwinException {
+		Object result = session.requestBinary("GET", getPath()+"/screenshot", data, "image/png");
+		if(result instanceof TwinConnection.Binary) {
+			TwinConnection.Binary binary = (TwinConnection.Binary)result;
+			return new Screenshot(binary.data, "image/png");
+		}
+		if(!(result instanceof Map<?,?>))
+			throw new TwinException("Expected object from GET "+getPath()+"/screenshot but got "+result);
+		return decodeScreenshot((Map<String,Object>)result);
+	}
 	/** Decode a screenshot from the result object */
 	private Screenshot decodeScreenshot(Map<String,Object> results) {
 		String contentType = (String) results.get("contentType");
@@ -524,12 +698,28 @@ class ElementImpl extends RemoteResource implements Element {
 		waitForNotExists(getApplication().getTimeout());
 	}
 	public void waitForNotExists(double timeout) throws TwinException {
+		if(session.watchSupported) {
+			try {
+				session.request("POST", getPath()+"/watch", Application.watchRequest("gone", null, timeout), false);
+				return;
+			} catch (TwinException e) {
+				if(e.error != TwinError.UnknownCommand)
+					throw e;
+				session.watchSupported = false;
+			}
+		}
 		Map<String,Object> data = new HashMap<String,Object>();
 		data.put("timeout", timeout);
 		data.put("value", false);
 
 		session.request("POST", getPath()+"/exists", data);
 	}
+	public TwinFuture<Void> onGone() {
+		return onGone(getApplication().getTimeout());
+	}
+	public TwinFuture<Void> onGone(double timeout) {
+		return session.async().onGone(this, timeout);
+	}
 	public void scrollVisible(Element child) throws TwinException {
 		Rectangle bounds = getBounds();
 		Rectangle childBounds = child.getBounds();
@@ -616,11 +806,11 @@ class ElementImpl extends RemoteResource implements Element {
 	}
 	@Require(type=Window.class)
 	public boolean isMaximized() throws TwinException {
-		return "maximized".equalsIgnoreCase((String)remote.session.request("GET", getPath()+"/window-state", null));
+		return "maximized".equalsIgnoreCase((String)session.cachedRequest(getPath()+"/window-state"));
 	}
 	@Require(type=Window.class)
 	public boolean isMinimized() throws TwinException {
-		return "minimized".equalsIgnoreCase((String)remote.session.request("GET", getPath()+"/window-state", null));		
+		return "minimized".equalsIgnoreCase((String)session.cachedRequest(getPath()+"/window-state"));		
 	}
 	@Require(type=Window.class)
 	public void maximize() throws TwinException {
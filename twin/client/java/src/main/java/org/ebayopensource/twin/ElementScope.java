@@ -0,0 +1,45 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.Closeable;
+
+/**
+ * The elements an application receives while the scope is open, all released on the RC when it is closed.
+ * <p>
+ * The RC holds every element it sends until the client releases it. The client does that by itself once an element
+ * is garbage collected, but a scope releases a step's elements as soon as the step is done:
+ * <pre>
+ * ElementScope scope = app.openScope();
+ * try {
+ *     app.getWindow().getDescendant(Criteria.name("OK")).click();
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * A scope covers the elements received from any thread while it is open, and they can't be used after it is closed.
+ * @see Application#openScope()
+ */
+public class ElementScope implements Closeable {
+	private final ElementTracker elements;
+	private final long start;
+	private boolean closed = false;
+
+	ElementScope(ElementTracker elements) {
+		this.elements = elements;
+		this.start = elements.mark();
+	}
+
+	/**
+	 * Release the elements received since the scope was opened. Does nothing if it is already closed.
+	 * @throws TwinException if the RC couldn't release them
+	 */
+	public void close() throws TwinException {
+		if(closed)
+			return;
+		closed = true;
+		elements.releaseSince(start);
+	}
+}
@@ -0,0 +1,197 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.util.*;
+
+import org.ebayopensource.twin.element.ControlType;
+import org.ebayopensource.twin.pattern.ControlPattern;
+
+/**
+ * A copy of part of the element tree, with its properties as they were when it was taken.
+ * <p>
+ * Snapshots are fetched with Element.snapshot() in a single request however large the tree is, and can then be
+ * explored and searched with Criteria without any further requests. They don't change when the application does:
+ * take another snapshot to see changes. getElement() gives the live Element for a node, to act on it.
+ * <p>
+ * Name, id, controlType, className and control patterns are always included. Other properties are included if they were
+ * asked for when the snapshot was taken, see the constants in this class.
+ *
+ * @see Element#snapshot(int, String...)
+ */
+public final class ElementSnapshot {
+	/** Property name for whether the element is enabled, a Boolean */
+	public static final String ENABLED = "enabled";
+	/** Property name for the element's value (Editable), a String */
+	public static final String VALUE = "value";
+	/** Property name for the element's bounds, a Rectangle */
+	public static final String BOUNDS = "bounds";
+	/** Property name for whether the element is expanded (Expandable), a Boolean */
+	public static final String EXPANDED = "expanded";
+	/** Property name for whether the element is selected (Selectable), a Boolean */
+	public static final String SELECTED = "selected";
+	/** Property name for the element's toggle state (Toggle), a Boolean */
+	public static final String TOGGLE = "toggle";
+
+	private final RemoteObject remote;
+	private final ElementSnapshot parent;
+	/** Properties for Criteria evaluation, as in RemoteObject.properties but including the fetched ones */
+	private final Map<String,Object> properties;
+	private final List<ElementSnapshot> children;
+	private final boolean childrenFetched;
+	private volatile Element element;
+
+	/** Build a snapshot from the server's response to GET .../snapshot */
+	@SuppressWarnings("unchecked")
+	ElementSnapshot(ElementSnapshot parent, Map<String,Object> json, Collection<String> fetched) {
+		this.parent = parent;
+		this.remote = (RemoteObject)json.get("element");
+		Map<String,Object> properties = new HashMap<String,Object>(remote.properties);
+		Map<String,Object> values = (Map<String,Object>)json.get("properties");
+		for(String name : fetched) {
+			Object value = values == null ? null : values.get(name);
+			if(BOUNDS.equals(name) && value != null)
+				value = Converter.RECTANGLE.convert(value);
+			properties.put(name, value); // null if unsupported, but still known
+		}
+		this.properties = Collections.unmodifiableMap(properties);
+
+		List<Object> childrenJSON = (List<Object>)json.get("children");
+		childrenFetched = childrenJSON != null;
+		List<ElementSnapshot> children = new ArrayList<ElementSnapshot>(childrenFetched ? childrenJSON.size() : 0);
+		if(childrenFetched)
+			for(Object child : childrenJSON)
+				children.add(new ElementSnapshot(this, (Map<String,Object>)child, fetched));
+		this.children = Collections.unmodifiableList(children);
+	}
+
+	/** The live element this is a snapshot of. The element may no longer exist. */
+	public Element getElement() {
+		if(element == null) // two may get created, which doesn't matter
+			element = ElementImpl.create(remote);
+		return element;
+	}
+	/** The parent of this node, or null if this is the root of the snapshot */
+	public ElementSnapshot getParent() {
+		return parent;
+	}
+	/**
+	 * The children of this node. This is empty if the node was at the depth limit of the snapshot,
+	 * see hasChildrenFetched().
+	 */
+	public List<ElementSnapshot> getChildren() {
+		return children;
+	}
+	/** False if this node was at the depth limit of the snapshot, so its children weren't fetched */
+	public boolean hasChildrenFetched() {
+		return childrenFetched;
+	}
+
+	public String getName() {
+		return (String)properties.get("name");
+	}
+	public String getId() {
+		return (String)properties.get("id");
+	}
+	public String getClassName() {
+		return (String)properties.get("className");
+	}
+	/** The control type, or null if the client doesn't know it */
+	public Class<? extends ControlType> getControlType() {
+		return NameMappings.getTypeInterface((String)properties.get("controlType"));
+	}
+	/** The control patterns the element supports, leaving out any the client doesn't know */
+	public List<Class<? extends ControlPattern>> getControlPatterns() {
+		List<Class<? extends ControlPattern>> result = new ArrayList<Class<? extends ControlPattern>>();
+		for(Object name : (List<?>)properties.get("controlPatterns")) {
+			Class<? extends ControlPattern> pattern = NameMappings.getPatternInterface((String)name);
+			if(pattern != null)
+				result.add(pattern);
+		}
+		return result;
+	}
+	/**
+	 * A property fetched with the snapshot, e.g. ElementSnapshot.VALUE.
+	 * @return the value, or null if the element doesn't support the property
+	 * @throws TwinException if the property wasn't asked for when the snapshot was taken
+	 */
+	public Object getProperty(String name) throws TwinException {
+		return Criteria.require(properties, name);
+	}
+	/** @see #ENABLED */
+	public Boolean isEnabled() throws TwinException {
+		return (Boolean)getProperty(ENABLED);
+	}
+	/** @see #VALUE */
+	public String getValue() throws TwinException {
+		return (String)getProperty(VALUE);
+	}
+	/** @see #BOUNDS */
+	public Rectangle getBounds() throws TwinException {
+		return (Rectangle)getProperty(BOUNDS);
+	}
+
+	/** Whether this node matches the criteria, which may only use properties in the snapshot */
+	public boolean matches(Criteria criteria) throws TwinException {
+		return criteria == null || criteria.matches(properties);
+	}
+	/** The children matching the criteria */
+	public List<ElementSnapshot> getChildren(Criteria criteria) throws TwinException {
+		List<ElementSnapshot> result = new ArrayList<ElementSnapshot>();
+		for(ElementSnapshot child : children)
+			if(child.matches(criteria))
+				result.add(child);
+		return result;
+	}
+	/** The descendants matching the criteria, in document order */
+	public List<ElementSnapshot> getDescendants(Criteria criteria) throws TwinException {
+		List<ElementSnapshot> result = new ArrayList<ElementSnapshot>();
+		collect(criteria, result);
+		return result;
+	}
+	private void collect(Criteria criteria, List<ElementSnapshot> result) {
+		for(ElementSnapshot child : children) {
+			if(child.matches(criteria))
+				result.add(child);
+			child.collect(criteria, result);
+		}
+	}
+	/**
+	 * The single child matching the criteria
+	 * @throws TwinNoSuchElementException if none match
+	 * @throws TwinException if several match
+	 */
+	public ElementSnapshot getChild(Criteria criteria) throws TwinException {
+		return single(getChildren(criteria), "children", criteria);
+	}
+	/**
+	 * The single descendant matching the criteria
+	 * @throws TwinNoSuchElementException if none match
+	 * @throws TwinException if several match
+	 */
+	public ElementSnapshot getDescendant(Criteria criteria) throws TwinException {
+		return single(getDescendants(criteria), "descendants", criteria);
+	}
+	private ElementSnapshot single(List<ElementSnapshot> list, String what, Criteria criteria) {
+		if(list.isEmpty())
+			throw TwinError.NoSuchElement.create("Found no "+what+" of "+this+(criteria == null ? "" : " matching "+criteria)+" in snapshot");
+		if(list.size() > 1)
+			throw new TwinException("Expected 1 result, found "+list.size());
+		return list.get(0);
+	}
+
+	/** Return a string including the controltype, name, className, and id */
+	public String toString() {
+		StringBuffer sb = new StringBuffer(String.valueOf(properties.get("controlType")));
+		sb.append("(");
+		if(getName() != null)
+			sb.append("name=").append(getName()).append(' ');
+		if(getClassName() != null)
+			sb.append("class=").append(getClassName()).append(' ');
+		sb.append("id=").append(getId()).append(")");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,146 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the RC which elements the client no longer has, so that it can stop holding on to them.
+ * <p>
+ * The RC keeps every element it sends until it is released or the session ends, counting how many times it has sent
+ * each one. Every element the client decodes is tracked here with a PhantomReference to its RemoteObject. Once nothing
+ * refers to one any more, the garbage collector queues it, and the application releases the queued elements in a
+ * single request, once there are BATCH_SIZE of them, after its next request. Elements can also be released while
+ * still referenced, with releaseAll() or an ElementScope, after which they can't be used.
+ */
+final class ElementTracker {
+	/** How many unreachable elements to collect before releasing them */
+	static final int BATCH_SIZE = 100;
+
+	/** One element sent by the RC, i.e. one RemoteObject: the RC counts an element sent twice as held twice */
+	private static class Handle extends PhantomReference<RemoteObject> {
+		final String uuid;
+		/** Tracked elements are numbered in order, so a scope can find the ones received since it was opened */
+		final long sequence;
+		Handle(RemoteObject o, long sequence, ReferenceQueue<RemoteObject> queue) {
+			super(o, queue);
+			this.uuid = o.uuid;
+			this.sequence = sequence;
+		}
+	}
+
+	private final Application session;
+	private final ReferenceQueue<RemoteObject> queue = new ReferenceQueue<RemoteObject>();
+	/** The handles of elements not yet released, which must be reachable themselves to be queued */
+	private final Set<Handle> live = Collections.newSetFromMap(new ConcurrentHashMap<Handle,Boolean>());
+	private final AtomicLong sequence = new AtomicLong();
+	/** The uuids of elements that are unreachable but not yet released, guarded by this */
+	private List<String> unreachable = new ArrayList<String>();
+	/** False once we've found the server doesn't support /release */
+	volatile boolean supported = true;
+
+	ElementTracker(Application session) {
+		this.session = session;
+	}
+
+	/** Start tracking an element as it is decoded */
+	void track(RemoteObject o) {
+		if(!supported || session.connection.replay != null) // a replay has no RC to release them on
+			return;
+		live.add(new Handle(o, sequence.incrementAndGet(), queue));
+		poll();
+	}
+	/** The number of elements tracked so far, so that those tracked after now can be released by releaseSince() */
+	long mark() {
+		return sequence.get();
+	}
+	/** The number of elements the RC is holding for the client, reachable or not */
+	int size() {
+		synchronized(this) {
+			return live.size() + unreachable.size();
+		}
+	}
+
+	/** Move elements the garbage collector has found unreachable from live to unreachable */
+	private void poll() {
+		Reference<? extends RemoteObject> reference;
+		while((reference = queue.poll()) != null) {
+			Handle handle = (Handle)reference;
+			if(live.remove(handle)) {
+				synchronized(this) {
+					unreachable.add(handle.uuid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Release the unreachable elements if there are enough of them to be worth a request. Called after each request,
+	 * and never throws: if the release fails, the RC keeps holding them, as it would have without this.
+	 */
+	void releaseUnreachable() {
+		if(!supported || session.sessionId == null)
+			return;
+		poll();
+		List<String> batch;
+		synchronized(this) {
+			if(unreachable.size() < BATCH_SIZE)
+				return;
+			batch = unreachable;
+			unreachable = new ArrayList<String>();
+		}
+		try {
+			release(batch);
+		} catch (TwinException e) {
+			// dropped, see above
+		}
+	}
+
+	/** Release every element tracked after the given mark, reachable or not, along with any unreachable ones */
+	void releaseSince(long mark) throws TwinException {
+		if(!supported || session.sessionId == null)
+			return;
+		poll();
+		List<String> batch = new ArrayList<String>();
+		for(Iterator<Handle> i = live.iterator(); i.hasNext(); ) {
+			Handle handle = i.next();
+			if(handle.sequence > mark && live.remove(handle)) {
+				handle.clear(); // so it isn't queued later and released twice
+				batch.add(handle.uuid);
+			}
+		}
+		synchronized(this) {
+			batch.addAll(unreachable);
+			unreachable = new ArrayList<String>();
+		}
+		release(batch);
+	}
+
+	/** Forget all the elements, e.g. because the session has ended and the RC has released them itself */
+	void clear() {
+		live.clear();
+		synchronized(this) {
+			unreachable = new ArrayList<String>();
+		}
+	}
+
+	private void release(List<String> uuids) throws TwinException {
+		if(uuids.isEmpty())
+			return;
+		Map<String,Object> body = new HashMap<String,Object>();
+		body.put("elements", uuids);
+		try {
+			session.request("POST", "/release", body, false);
+		} catch (TwinException e) {
+			if(e.error != TwinError.UnknownCommand)
+				throw e;
+			supported = false; // an older server, which holds elements until the session ends
+			clear();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+
+import org.ebayopensource.twin.json.*;
+
+/**
+ * A request body that is JSON-encoded straight onto the connection as it is sent.
+ * <p>
+ * The body is never materialized as a String or byte[], so large values (attachments, setValue text)
+ * are not copied. The length isn't known up front, so the request is sent chunked.
+ * It can also be gzipped as it is written, see create().
+ * <p>
+ * The body can be written again if the request is retried, unless it has an upload from a stream, which can't.
+ */
+class JSONEntity extends AbstractHttpEntity {
+	private final Object body;
+	private final boolean gzip;
+	private final boolean repeatable;
+	/** The size of the JSON last written, before compression */
+	private volatile long written;
+	/** When the body was last completely written, as a System.nanoTime(), for tracing */
+	private volatile long sentAt;
+
+	public JSONEntity(Object body) {
+		this(body, false);
+	}
+	/** A body that is gzipped as it is sent if gzip is true */
+	public JSONEntity(Object body, boolean gzip) {
+		this.body = body;
+		this.gzip = gzip;
+		this.repeatable = !hasParts(body, true);
+		setContentType("application/json; charset=utf-8");
+		if(gzip)
+			setContentEncoding("gzip");
+		setChunked(true);
+	}
+
+	/**
+	 * The entity for a request body, gzipped if it is at least threshold bytes long.
+	 * <p>
+	 * Only the first threshold bytes are encoded to find out, and bodies with streamed parts (uploads) are assumed
+	 * to be long, as a stream can only be read once. Short bodies are sent with a Content-Length.
+	 * @param threshold the smallest body to compress, 0 to never compress
+	 */
+	static HttpEntity create(Object body, int threshold) {
+		if(threshold <= 0)
+			return new JSONEntity(body);
+		if(hasParts(body, false))
+			return new JSONEntity(body, true);
+		LimitedOutputStream out = new LimitedOutputStream(threshold);
+		try {
+			JSON.encode(body, out);
+		} catch (LimitedOutputStream.Full e) {
+			return new JSONEntity(body, true);
+		} catch (IOException e) {
+			throw new RuntimeException(e); // can't happen writing to memory
+		}
+		ByteArrayEntity entity = new ByteArrayEntity(out.toByteArray());
+		entity.setContentType("application/json; charset=utf-8");
+		return entity;
+	}
+	/**
+	 * Whether the value has streamed parts (uploads)
+	 * @param oneShot only count parts that can't be written twice, i.e. uploads from a stream
+	 */
+	private static boolean hasParts(Object value, boolean oneShot) {
+		while(value instanceof JSONable)
+			value = ((JSONable)value).toJSON();
+		if(value instanceof JSONStreamable)
+			return !oneShot || !(value instanceof Base64Upload && ((Base64Upload)value).isRepeatable());
+		if(value instanceof Map<?,?>)
+			return hasParts(((Map<?,?>)value).values(), oneShot);
+		if(value instanceof Object[])
+			return hasParts(Arrays.asList((Object[])value), oneShot);
+		if(value instanceof Collection<?>)
+			for(Object item : (Collection<?>)value)
+				if(hasParts(item, oneShot))
+					return true;
+		return false;
+	}
+	/** Collects up to a limit, then gives up */
+	private static class LimitedOutputStream extends OutputStream {
+		static class Full extends IOException {
+			private static final long serialVersionUID = 1L;
+		}
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final int limit;
+		LimitedOutputStream(int limit) {
+			this.limit = limit;
+		}
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(buffer.size() + len >= limit)
+				throw new Full();
+			buffer.write(b, off, len);
+		}
+		byte[] toByteArray() {
+			return buffer.toByteArray();
+		}
+	}
+
+	public boolean isRepeatable() {
+		return repeatable;
+	}
+	public long getContentLength() {
+		return -1;
+	}
+	public boolean isStreaming() {
+		return false;
+	}
+	/** Only used if something wants to read the body back; normal sending uses writeTo */
+	public InputStream getContent() throws IOException {
+		byte[] data = JSON.encodeToBytes(body);
+		return new ByteArrayInputStream(gzip ? Compression.gzip(data) : data);
+	}
+	public void writeTo(OutputStream out) throws IOException {
+		if(out == null)
+			throw new IllegalArgumentException("Output stream may not be null");
+		GZIPOutputStream compressed = gzip ? new GZIPOutputStream(out, 8192) : null;
+		CountingOutputStream counter = new CountingOutputStream(gzip ? compressed : out);
+		JSON.encode(body, counter);
+		written = counter.count;
+		if(gzip)
+			compressed.finish(); // not close(), which would close the connection's stream
+		sentAt = System.nanoTime();
+	}
+	/** The size of the JSON body last sent, before any compression */
+	long getBytesWritten() {
+		return written;
+	}
+	/** When the body was last completely written, as a System.nanoTime() */
+	long getSentAt() {
+		return sentAt;
+	}
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Searches several subtrees at once, one request for each, and merges the results.
+ * <p>
+ * The RC searches a single root at a time, so a search of the desktop walks every window in turn. Here each root is
+ * searched by its own request, at most SearchOptions.getParallelism() at a time for one search, on threads shared by
+ * all searches. Results are merged in the order of the roots, leaving out elements already found under an earlier
+ * one, so that overlapping roots don't return an element twice.
+ */
+final class ParallelSearch {
+	/** The most threads searching at once, over all searches */
+	static final int MAX_THREADS = 32;
+
+	/** Shared by all searches, so that repeated searches don't start threads; idle threads end after a while */
+	private static final ThreadPoolExecutor executor;
+	static {
+		executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Twin parallel search");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private final Criteria criteria;
+	private final boolean firstMatch;
+	private final List<Element> roots;
+	/** The elements found under each root, in the same order, null until it has been searched */
+	private final AtomicReferenceArray<List<Element>> found;
+	/** The index of the next root to search */
+	private final AtomicInteger next = new AtomicInteger();
+	/** Roots not yet searched or skipped */
+	private final AtomicInteger remaining;
+	/** Set once the search is over, either because it is done or it has failed, or it has a first match */
+	private volatile boolean stopped = false;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicReference<Element> match = new AtomicReference<Element>();
+	private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+	private ParallelSearch(Criteria criteria, SearchOptions options, List<Element> roots) {
+		this.criteria = criteria;
+		this.firstMatch = options.isFirstMatch();
+		this.roots = roots;
+		this.found = new AtomicReferenceArray<List<Element>>(roots.size());
+		this.remaining = new AtomicInteger(roots.size());
+	}
+
+	/** @see Application#findAll(Criteria, SearchOptions) */
+	@SuppressWarnings("unchecked")
+	static <T extends Element> List<T> findAll(Application session, Criteria criteria, SearchOptions options) throws TwinException {
+		List<Element> roots = options.getRoots();
+		if(roots == null)
+			roots = session.getDesktop().getChildren(null);
+		if(roots.isEmpty())
+			return new ArrayList<T>();
+		ParallelSearch search = new ParallelSearch(criteria, options, roots);
+		return (List<T>)search.run(Math.min(options.getParallelism(), roots.size()));
+	}
+
+	/** Start the workers and wait for them to finish, or for a first match or failure. Workers never throw. */
+	private List<Element> run(int workers) throws TwinException {
+		for(int i=0; i<workers; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+		}
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			stopped = true;
+			Thread.currentThread().interrupt();
+			throw TwinError.UnknownError.create("Interrupted while searching", e);
+		}
+		if(failure.get() != null)
+			throw failure.get();
+		List<Element> result = new ArrayList<Element>();
+		if(firstMatch) {
+			if(match.get() != null)
+				result.add(match.get());
+			return result;
+		}
+		Set<Object> seen = new HashSet<Object>();
+		for(int i=0; i<roots.size(); i++) {
+			List<Element> elements = found.get(i);
+			if(elements == null) // it had gone
+				continue;
+			for(Element element : elements)
+				if(seen.add(key(element)))
+					result.add(element);
+		}
+		return result;
+	}
+
+	/** Search roots until there are none left or the search stops */
+	private void work() {
+		int index;
+		while(!stopped && (index = next.getAndIncrement()) < roots.size()) {
+			try {
+				List<Element> elements = search(roots.get(index));
+				found.set(index, elements);
+				if(firstMatch && !elements.isEmpty() && match.compareAndSet(null, elements.get(0)))
+					finish();
+			} catch (TwinStaleElementException e) {
+				// the root has gone, e.g. a window that closed during the search, so has nothing to find
+			} catch (TwinNoSuchElementException e) {
+				// likewise
+			} catch (RuntimeException e) {
+				if(failure.compareAndSet(null, e))
+					finish();
+			}
+			if(remaining.decrementAndGet() == 0)
+				finish();
+		}
+	}
+	private void finish() {
+		stopped = true;
+		done.countDown();
+	}
+
+	/** The root, if it matches, followed by its matching descendants */
+	private List<Element> search(Element root) throws TwinException {
+		List<Element> result = new ArrayList<Element>();
+		if(matchesLocally(root)) {
+			result.add(root);
+			if(firstMatch)
+				return result;
+		}
+		if(firstMatch) {
+			// the server stops at the nearest layer with a match, rather than walking the whole subtree
+			List<Element> closest = root.getClosestDescendants(criteria);
+			if(!closest.isEmpty())
+				result.add(closest.get(0));
+		} else {
+			result.addAll(root.<Element>getDescendants(criteria));
+		}
+		return result;
+	}
+	/** Whether the root matches, as far as the client can tell without asking the server */
+	private boolean matchesLocally(Element root) {
+		if(criteria == null)
+			return true;
+		try {
+			return criteria.matches(root);
+		} catch (TwinException e) {
+			return false; // uses a property the client doesn't have
+		}
+	}
+
+	/** The identity of an element on the server */
+	private static Object key(Element element) {
+		RemoteObject remote = ((RemoteResourceInterface)element).getRemote();
+		return remote == null ? element : remote.uuid; // the desktop has no uuid, but there's only one
+	}
+}
@@ -0,0 +1,94 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Element property values read from the server, keyed by request path (e.g. "/element/1234/bounds"),
+ * and reused until they are older than the timeout or something may have changed them.
+ * <p>
+ * The cache is cleared whenever anything is changed through the session, since e.g. a click can change any element.
+ * A generation count makes sure a read that was in progress when the cache was cleared doesn't store its value.
+ */
+class PropertyCache {
+	/** Returned by get() when there is no usable value. Cached values can be null. */
+	static final Object MISSING = new Object();
+
+	private static class Entry {
+		final Object value;
+		final long expires;
+		Entry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private final Map<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+	private volatile long timeoutNanos = 0;
+	private volatile int generation = 0;
+
+	/** Get the timeout in seconds, 0 if caching is disabled */
+	double getTimeout() {
+		return timeoutNanos / 1e9;
+	}
+	/** Set the timeout in seconds, 0 to disable caching */
+	void setTimeout(double timeout) {
+		if(timeout < 0 || Double.isNaN(timeout))
+			throw new IllegalArgumentException("Timeout must be positive or 0: "+timeout);
+		timeoutNanos = Double.isInfinite(timeout) ? Long.MAX_VALUE : (long)(timeout * 1e9);
+		clear();
+	}
+	boolean isEnabled() {
+		return timeoutNanos > 0;
+	}
+
+	/** The current generation, to pass to put() after reading from the server */
+	int generation() {
+		return generation;
+	}
+	/** Get the cached value for a path, or MISSING */
+	Object get(String path) {
+		Entry entry = entries.get(path);
+		if(entry == null)
+			return MISSING;
+		if(System.nanoTime() - entry.expires >= 0) {
+			entries.remove(path);
+			return MISSING;
+		}
+		return entry.value;
+	}
+	/** Cache a value read from the server, unless the cache was cleared since the read started */
+	void put(String path, Object value, int generation) {
+		long timeout = timeoutNanos;
+		if(timeout == 0)
+			return;
+		long now = System.nanoTime();
+		long expires = timeout == Long.MAX_VALUE ? now + (Long.MAX_VALUE >> 1) : now + timeout;
+		synchronized(this) {
+			if(generation == this.generation)
+				entries.put(path, new Entry(value, expires));
+		}
+	}
+	/** Forget everything */
+	synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+	/** Forget the properties under a path, e.g. "/element/1234/". Returns the paths that were cached. */
+	synchronized List<String> clear(String prefix) {
+		generation++;
+		List<String> removed = new ArrayList<String>();
+		for(Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+			String path = it.next();
+			if(path.startsWith(prefix)) {
+				removed.add(path);
+				it.remove();
+			}
+		}
+		return removed;
+	}
+}
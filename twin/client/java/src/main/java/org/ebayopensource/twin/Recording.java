@@ -0,0 +1,207 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.security.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.apache.commons.codec.binary.Hex;
+
+import org.ebayopensource.twin.json.*;
+
+/**
+ * Requests and the responses the RC gave them, saved to a file so that a session can be replayed without an RC.
+ * <p>
+ * The file is gzipped, and holds one record per exchange: the request's method, path, Accept type and a SHA-256
+ * digest of its canonical body (its JSON with object keys sorted, so that key order doesn't matter), then the
+ * response's status, content type and body as received, after any decompression. Request bodies are digested as
+ * they are encoded, never held, so recording an upload takes no more memory however large it is.
+ *
+ * @see Application#startRecording(File)
+ * @see Application#replay(File)
+ */
+class Recording {
+	private static final int MAGIC = 0x5457524e; // "TWRN"
+	private static final int VERSION = 2;
+
+	/** A response as received from the RC */
+	static class Response {
+		final int code;
+		final String contentType;
+		final byte[] body;
+		Response(int code, String contentType, byte[] body) {
+			this.code = code;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * The key a request is matched on: method, path, wanted binary type, and a digest of the body with object keys sorted.
+	 * The body is digested as it is encoded, so uploads are read through rather than held in memory.
+	 * @param body the body, or null
+	 * @throws IOException if an upload in the body can't be read
+	 */
+	static String key(String method, String path, Object body, String accept) throws IOException {
+		StringBuilder key = new StringBuilder(method).append(' ').append(path);
+		if(accept != null)
+			key.append(" accept=").append(accept);
+		if(body != null) {
+			Digester digest = new Digester();
+			JSON.encode(sorted(body, null), digest);
+			key.append(" sha256=").append(Hex.encodeHexString(digest.digest.digest()));
+		}
+		return key.toString();
+	}
+	/**
+	 * A body that can be both digested for its key and sent: the same, except that uploads from a stream are copied
+	 * to temporary files, which are added to spooled for the caller to delete once the request is done
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String,Object> repeatable(Map<String,Object> body, List<File> spooled) throws IOException {
+		return (Map<String,Object>)sorted(body, spooled);
+	}
+	/** The value with object keys sorted, and if spooled isn't null, uploads from a stream copied to files */
+	private static Object sorted(Object value, List<File> spooled) throws IOException {
+		while(value instanceof JSONable)
+			value = ((JSONable)value).toJSON();
+		if(value instanceof Base64Upload && spooled != null)
+			return ((Base64Upload)value).repeatable(spooled);
+		if(value instanceof Map<?,?>) {
+			Map<String,Object> result = new TreeMap<String,Object>();
+			for(Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet())
+				result.put(String.valueOf(entry.getKey()), sorted(entry.getValue(), spooled));
+			return result;
+		}
+		if(value != null && value.getClass().isArray()) {
+			List<Object> result = new ArrayList<Object>();
+			for(int i=0; i<Array.getLength(value); i++)
+				result.add(sorted(Array.get(value, i), spooled));
+			return result;
+		}
+		if(value instanceof Collection<?>) {
+			List<Object> result = new ArrayList<Object>();
+			for(Object item : (Collection<?>)value)
+				result.add(sorted(item, spooled));
+			return result;
+		}
+		return value;
+	}
+	/** Digests what is written to it, and keeps none of it */
+	private static class Digester extends OutputStream {
+		final MessageDigest digest;
+		Digester() {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e); // every JVM has SHA-256
+			}
+		}
+		public void write(int b) {
+			digest.update((byte)b);
+		}
+		public void write(byte[] b, int off, int len) {
+			digest.update(b, off, len);
+		}
+	}
+
+	/** Appends exchanges to a recording file. Safe for use by several threads. */
+	static class Writer {
+		private final File file;
+		private final DataOutputStream out;
+		Writer(File file) throws IOException {
+			this.file = file;
+			this.out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file), 8192));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+		/** Save an exchange. Recording can't be allowed to fail silently, or a replay would miss responses. */
+		synchronized void write(String key, Response response) throws TwinException {
+			try {
+				writeBytes(key.getBytes("UTF-8"));
+				out.writeInt(response.code);
+				out.writeUTF(response.contentType == null ? "" : response.contentType);
+				writeBytes(response.body);
+			} catch (IOException e) {
+				throw TwinError.UnknownError.create("Couldn't write to recording "+file, e);
+			}
+		}
+		private void writeBytes(byte[] data) throws IOException {
+			out.writeInt(data.length);
+			out.write(data);
+		}
+		synchronized void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/** Answers requests from a recording file */
+	static class Replay {
+		private final File file;
+		private final Map<String,List<Response>> responses = new HashMap<String,List<Response>>();
+		/** How many of each key's responses have been given out */
+		private final Map<String,Integer> served = new HashMap<String,Integer>();
+
+		Replay(File file) throws IOException {
+			this.file = file;
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+			try {
+				if(in.readInt() != MAGIC)
+					throw new IOException(file+" is not a Twin recording");
+				int version = in.readInt();
+				if(version != VERSION)
+					throw new IOException(file+" is a version "+version+" recording, only version "+VERSION+" can be read");
+				while(true) {
+					String key;
+					Response response;
+					try {
+						key = new String(readBytes(in), "UTF-8");
+						int code = in.readInt();
+						String contentType = in.readUTF();
+						response = new Response(code, contentType.length() == 0 ? null : contentType, readBytes(in));
+					} catch (EOFException e) {
+						break; // the end, or as far as a recording that was never closed got
+					}
+					List<Response> list = responses.get(key);
+					if(list == null)
+						responses.put(key, list = new ArrayList<Response>());
+					list.add(response);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		private static byte[] readBytes(DataInputStream in) throws IOException {
+			byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			return data;
+		}
+
+		/**
+		 * The response to a request. A request made several times gets the responses recorded for it in order,
+		 * then the last one again, so that polling loops settle on the final state.
+		 * @throws IOException if there is no response to the request, which is reported like an RC that can't be reached
+		 */
+		synchronized Response get(String key) throws IOException {
+			List<Response> list = responses.get(key);
+			if(list == null)
+				throw new IOException("No response to "+key+" in recording "+file);
+			Integer count = served.get(key);
+			int index = count == null ? 0 : count;
+			served.put(key, index + 1);
+			return list.get(Math.min(index, list.size() - 1));
+		}
+		/** The number of exchanges recorded */
+		synchronized int size() {
+			int size = 0;
+			for(List<Response> list : responses.values())
+				size += list.size();
+			return size;
+		}
+	}
+}
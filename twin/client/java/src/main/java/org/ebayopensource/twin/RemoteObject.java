@@ -20,7 +20,7 @@ class RemoteObject implements JSONable {
 	public final String uuid;
 	/** The application session that this object is part of */
 	public final Application session;
-	/** The extra properties passed to the client along with the object */
+	/** The extra properties passed to the client along with the object, read-only. See CompactProperties. */
 	public final Map<String,Object> properties;
 	/** Internal only */
 	public RemoteObject(Application session, String type, String uuid, Map<String,Object> properties) {
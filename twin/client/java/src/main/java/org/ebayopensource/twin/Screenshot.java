@@ -4,10 +4,12 @@
 
 package org.ebayopensource.twin;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
 import javax.imageio.*;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 /** An image captured from the remote screen, stored in memory */
 public class Screenshot {
@@ -15,6 +17,11 @@ public class Screenshot {
 	byte[] data;
 	/** The MIME type of the image data */
 	String contentType;
+	/** The decoded image, once getImage() has been called */
+	private volatile BufferedImage image;
+	/** Tile hashes of the image, for the tile size last asked for */
+	private long[] tileHashes;
+	private int tileHashSize;
 	/** 
 	 * Creates a new screenshot with the given data
 	 * @param data the encoded image data
@@ -67,20 +74,58 @@ public class Screenshot {
 		OutputStream fileOut = null;
 		try {
 			fileOut = new FileOutputStream(target);
-			fileOut.write(data);
+			writeTo(fileOut);
 		} finally {
 			if(fileOut != null) try { fileOut.close(); } catch (Exception ex) {}
 		}
 	}
+	/**
+	 * Write the encoded image data to a stream, e.g. to send it elsewhere without copying it.
+	 * The stream is not closed.
+	 * @param out the stream to write to
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(data);
+	}
 	/**
 	 * Get the screenshot as a BufferedImage.
+	 * <p>
+	 * The image is decoded the first time this is called, and the same image is returned afterwards.
+	 * Copy it before drawing on it if the screenshot will be used again.
 	 */
 	public BufferedImage getImage() {
-		ByteArrayInputStream input = new ByteArrayInputStream(data);
-		try {
-			return ImageIO.read(input);
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
+		BufferedImage result = image;
+		if(result == null) {
+			// decoded from memory, rather than through ImageIO's default temporary file cache
+			try {
+				result = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(data)));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			image = result;
+		}
+		return result;
+	}
+	/** The size of the image, read from the header if it hasn't been decoded and is a PNG */
+	Dimension getSize() {
+		BufferedImage result = image;
+		if(result == null && contentType.equalsIgnoreCase("image/png") && data.length >= 24)
+			return new Dimension(readInt(16), readInt(20)); // IHDR chunk, after the 8 byte signature and chunk header
+		result = getImage();
+		return new Dimension(result.getWidth(), result.getHeight());
+	}
+	private int readInt(int offset) {
+		return ((data[offset] & 0xff) << 24) | ((data[offset+1] & 0xff) << 16) | ((data[offset+2] & 0xff) << 8) | (data[offset+3] & 0xff);
+	}
+	/** Hashes of the image's tiles, computed once for each tile size */
+	long[] getTileHashes(int tileSize) {
+		synchronized(this) {
+			if(tileHashes == null || tileHashSize != tileSize) {
+				tileHashes = ScreenshotDiff.tileHashes(getImage(), tileSize);
+				tileHashSize = tileSize;
+			}
+			return tileHashes;
 		}
 	}
 	/**
@@ -0,0 +1,217 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * The parts of the screen that changed between two screenshots of the same area.
+ * <p>
+ * The images are divided into square tiles, and a hash of each tile's pixels is compared rather than the pixels
+ * themselves. The hashes are computed from the raw raster data once per screenshot, and kept with it, so comparing
+ * a series of screenshots against each other decodes and hashes each of them only once.
+ * Identical encoded images are recognised without decoding them at all.
+ * <p>
+ * Coordinates are relative to the screenshots, which for Element.getScreenshot(Rectangle) is the requested area.
+ *
+ * @see VisualWatcher
+ */
+public class ScreenshotDiff {
+	/** The tile size used unless another is given, in pixels */
+	public static final int DEFAULT_TILE_SIZE = 16;
+
+	private final int width;
+	private final int height;
+	private final int tileSize;
+	private final int columns;
+	private final int rows;
+	/** Changed tiles, by row then column */
+	private final boolean[] changed;
+	private final int changedCount;
+
+	private ScreenshotDiff(int width, int height, int tileSize, boolean[] changed) {
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		this.columns = (width + tileSize - 1) / tileSize;
+		this.rows = (height + tileSize - 1) / tileSize;
+		this.changed = changed;
+		int count = 0;
+		for(boolean c : changed)
+			if(c) count++;
+		this.changedCount = count;
+	}
+
+	/** Compare two screenshots using the default tile size */
+	public static ScreenshotDiff compare(Screenshot before, Screenshot after) {
+		return compare(before, after, DEFAULT_TILE_SIZE);
+	}
+	/**
+	 * Compare two screenshots. If they are different sizes, everything has changed.
+	 * @param tileSize the width and height of the tiles compared, in pixels. Smaller tiles find changes more exactly.
+	 */
+	public static ScreenshotDiff compare(Screenshot before, Screenshot after, int tileSize) {
+		if(tileSize < 1)
+			throw new IllegalArgumentException("Tile size must be at least 1: "+tileSize);
+		if(before.contentType.equalsIgnoreCase(after.contentType) && Arrays.equals(before.data, after.data)) {
+			Dimension size = after.getSize();
+			return new ScreenshotDiff(size.width, size.height, tileSize, new boolean[tiles(size.width, size.height, tileSize)]);
+		}
+		BufferedImage a = before.getImage(), b = after.getImage();
+		if(a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+			boolean[] all = new boolean[tiles(b.getWidth(), b.getHeight(), tileSize)];
+			Arrays.fill(all, true);
+			return new ScreenshotDiff(b.getWidth(), b.getHeight(), tileSize, all);
+		}
+		long[] hashesA = before.getTileHashes(tileSize), hashesB = after.getTileHashes(tileSize);
+		boolean[] changed = new boolean[hashesB.length];
+		for(int i=0; i<changed.length; i++)
+			changed[i] = hashesA[i] != hashesB[i];
+		return new ScreenshotDiff(b.getWidth(), b.getHeight(), tileSize, changed);
+	}
+	private static int tiles(int width, int height, int tileSize) {
+		return ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+	}
+
+	/**
+	 * A 64 bit FNV-1a hash of the pixels of each tile of an image, by row then column.
+	 * Rows are read from the raster in its own format, without converting each pixel to RGB.
+	 */
+	static long[] tileHashes(BufferedImage image, int tileSize) {
+		int width = image.getWidth(), height = image.getHeight();
+		int columns = (width + tileSize - 1) / tileSize;
+		int rows = (height + tileSize - 1) / tileSize;
+		long[] hashes = new long[columns * rows];
+		Arrays.fill(hashes, 0xcbf29ce484222325L);
+		Raster raster = image.getRaster();
+		Object row = null;
+		for(int y=0; y<height; y++) {
+			row = raster.getDataElements(0, y, width, 1, row);
+			int offset = (y / tileSize) * columns;
+			if(row instanceof byte[]) {
+				byte[] data = (byte[])row;
+				int perPixel = data.length / width;
+				for(int column=0; column<columns; column++) {
+					long hash = hashes[offset+column];
+					int end = Math.min(width, (column+1) * tileSize) * perPixel;
+					for(int i=column * tileSize * perPixel; i<end; i++)
+						hash = (hash ^ (data[i] & 0xff)) * 0x100000001b3L;
+					hashes[offset+column] = hash;
+				}
+			} else if(row instanceof int[]) {
+				int[] data = (int[])row;
+				int perPixel = data.length / width;
+				for(int column=0; column<columns; column++) {
+					long hash = hashes[offset+column];
+					int end = Math.min(width, (column+1) * tileSize) * perPixel;
+					for(int i=column * tileSize * perPixel; i<end; i++)
+						hash = (hash ^ data[i]) * 0x100000001b3L;
+					hashes[offset+column] = hash;
+				}
+			} else if(row instanceof short[]) {
+				short[] data = (short[])row;
+				int perPixel = data.length / width;
+				for(int column=0; column<columns; column++) {
+					long hash = hashes[offset+column];
+					int end = Math.min(width, (column+1) * tileSize) * perPixel;
+					for(int i=column * tileSize * perPixel; i<end; i++)
+						hash = (hash ^ (data[i] & 0xffff)) * 0x100000001b3L;
+					hashes[offset+column] = hash;
+				}
+			} else {
+				// some other layout, compare colours
+				for(int x=0; x<width; x++) {
+					int i = offset + x / tileSize;
+					hashes[i] = (hashes[i] ^ image.getRGB(x, y)) * 0x100000001b3L;
+				}
+			}
+		}
+		return hashes;
+	}
+
+	/** Whether anything changed */
+	public boolean isChanged() {
+		return changedCount > 0;
+	}
+	/** Whether anything changed within the given area */
+	public boolean isChanged(Rectangle area) {
+		for(Rectangle tile : getChangedTiles())
+			if(tile.intersects(area))
+				return true;
+		return false;
+	}
+	/** The fraction of the area that changed, from 0 to 1, counted in whole tiles */
+	public double getChangedFraction() {
+		return changed.length == 0 ? 0 : (double)changedCount / changed.length;
+	}
+	/** Each tile that changed, clipped to the screenshot */
+	public List<Rectangle> getChangedTiles() {
+		List<Rectangle> result = new ArrayList<Rectangle>(changedCount);
+		for(int i=0; i<changed.length; i++)
+			if(changed[i])
+				result.add(tile(i % columns, i / columns, 1, 1));
+		return result;
+	}
+	/**
+	 * The areas that changed: the bounds of each group of changed tiles that touch each other, including diagonally.
+	 * Largest first.
+	 */
+	public List<Rectangle> getChangedRegions() {
+		List<Rectangle> result = new ArrayList<Rectangle>();
+		boolean[] seen = new boolean[changed.length];
+		int[] stack = new int[changed.length];
+		for(int start=0; start<changed.length; start++) {
+			if(!changed[start] || seen[start])
+				continue;
+			int minColumn = columns, minRow = rows, maxColumn = -1, maxRow = -1;
+			int size = 0;
+			stack[size++] = start;
+			seen[start] = true;
+			while(size > 0) {
+				int i = stack[--size];
+				int column = i % columns, row = i / columns;
+				minColumn = Math.min(minColumn, column);
+				maxColumn = Math.max(maxColumn, column);
+				minRow = Math.min(minRow, row);
+				maxRow = Math.max(maxRow, row);
+				for(int r=Math.max(0, row-1); r<=Math.min(rows-1, row+1); r++) {
+					for(int c=Math.max(0, column-1); c<=Math.min(columns-1, column+1); c++) {
+						int j = r * columns + c;
+						if(changed[j] && !seen[j]) {
+							seen[j] = true;
+							stack[size++] = j;
+						}
+					}
+				}
+			}
+			result.add(tile(minColumn, minRow, maxColumn-minColumn+1, maxRow-minRow+1));
+		}
+		Collections.sort(result, new Comparator<Rectangle>() {
+			public int compare(Rectangle a, Rectangle b) {
+				return Long.signum((long)b.width * b.height - (long)a.width * a.height);
+			}
+		});
+		return result;
+	}
+	/** The bounds of a block of tiles, clipped to the image */
+	private Rectangle tile(int column, int row, int columnCount, int rowCount) {
+		int x = column * tileSize, y = row * tileSize;
+		return new Rectangle(x, y, Math.min(columnCount * tileSize, width - x), Math.min(rowCount * tileSize, height - y));
+	}
+
+	/** The size of the screenshots compared */
+	public Rectangle getBounds() {
+		return new Rectangle(0, 0, width, height);
+	}
+	public int getTileSize() {
+		return tileSize;
+	}
+	public String toString() {
+		return "ScreenshotDiff("+changedCount+" of "+changed.length+" tiles changed: "+getChangedRegions()+")";
+	}
+}
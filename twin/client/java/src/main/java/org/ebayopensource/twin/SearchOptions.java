@@ -0,0 +1,61 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+
+/**
+ * How Application.findAll() searches: which subtrees, how many at once, and whether to stop at the first match.
+ * <p>
+ * The defaults search every top-level element of the application, up to 8 at a time, for all matches.
+ *
+ * @see Application#findAll(Criteria, SearchOptions)
+ */
+public class SearchOptions {
+	private int parallelism = 8;
+	private boolean firstMatch = false;
+	private List<Element> roots = null;
+
+	/** Get the most subtrees searched at once. The default is 8. */
+	public int getParallelism() {
+		return parallelism;
+	}
+	/**
+	 * Set the most subtrees searched at once, each with its own request to the RC. 1 searches them one after another.
+	 * All searches share a pool of {@value ParallelSearch#MAX_THREADS} threads, so more than that only queues.
+	 */
+	public void setParallelism(int parallelism) {
+		if(parallelism < 1)
+			throw new IllegalArgumentException("Need to search at least 1 subtree at a time: "+parallelism);
+		this.parallelism = parallelism;
+	}
+	/** Get whether the search stops at the first match. The default is false. */
+	public boolean isFirstMatch() {
+		return firstMatch;
+	}
+	/**
+	 * Set whether the search stops at the first match, returning it alone. Subtrees not yet searched are skipped, and
+	 * those being searched are left to finish in the background.
+	 * The match is whichever is found first, not necessarily the first in the order of the roots.
+	 */
+	public void setFirstMatch(boolean firstMatch) {
+		this.firstMatch = firstMatch;
+	}
+	/** Get the elements whose subtrees are searched, or null for the application's top-level elements. The default is null. */
+	public List<Element> getRoots() {
+		return roots;
+	}
+	/**
+	 * Set the elements whose subtrees are searched, e.g. the windows of interest or a few large panes of one window.
+	 * null searches the application's top-level elements, the children of the desktop.
+	 */
+	public void setRoots(List<? extends Element> roots) {
+		this.roots = roots == null ? null : new ArrayList<Element>(roots);
+	}
+
+	public String toString() {
+		return "SearchOptions(parallelism="+parallelism+" firstMatch="+firstMatch+" roots="+roots+")";
+	}
+}
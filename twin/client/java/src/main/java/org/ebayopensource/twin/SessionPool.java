@@ -0,0 +1,461 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Hands out open sessions from several RCs to parallel tests.
+ * <p>
+ * Opening a session launches the application, which takes seconds. A SessionPool opens sessions ahead of time on
+ * background threads, spreads them over every RC offering a matching configuration, and reuses them once a test is
+ * done if they can be reset:
+ * <pre>
+ * SessionPool pool = new SessionPool(rc1, rc2);
+ * pool.setResetter(new SessionPool.Resetter() {
+ *     public void reset(Application application) {
+ *         application.getWindow().sendKeys("^n"); // File/New
+ *     }
+ * });
+ * pool.prewarm(capabilities, 4);
+ *
+ * // in each test thread
+ * Application app = pool.lease(capabilities);
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(app);
+ * }
+ * </pre>
+ * Capabilities are matched as the RC does: every non-null capability asked for must equal the configuration's.
+ * All methods are thread-safe.
+ */
+public class SessionPool {
+	/** Returns an application to a known state so that its session can be leased again */
+	public interface Resetter {
+		/** Reset the application. If this throws, the session is closed rather than reused. */
+		void reset(Application application) throws Exception;
+	}
+
+	/** An RC and what we know of it */
+	private static class RC {
+		final URL url;
+		final TwinConnection connection;
+		/** The "configurations" from /status, or null if it hasn't been read yet */
+		List<Map<String,Object>> configurations;
+		/** Sessions idle, leased or being opened */
+		int sessions;
+		RC(URL url) {
+			this.url = url;
+			this.connection = new TwinConnection(url);
+		}
+		public String toString() {
+			return url.toString();
+		}
+	}
+	/** A session being opened in the background */
+	private static class Pending {
+		final Map<String,String> capabilities;
+		final TwinFuture<Application> future = new TwinFuture<Application>();
+		/** Whether a lease() is waiting for this session, or it should go to the idle list */
+		boolean claimed;
+		Pending(Map<String,String> capabilities) {
+			this.capabilities = capabilities;
+		}
+	}
+
+	private final List<RC> rcs = new ArrayList<RC>();
+	private final Map<Application,RC> owners = new HashMap<Application,RC>();
+	private final LinkedList<Application> idle = new LinkedList<Application>();
+	private final Set<Application> leased = new HashSet<Application>();
+	private final List<Pending> pending = new ArrayList<Pending>();
+	/** How many idle sessions prewarm() asked us to keep for each set of capabilities */
+	private final Map<Map<String,String>,Integer> warm = new HashMap<Map<String,String>,Integer>();
+	private int maxSessionsPerRC = 4;
+	private Resetter resetter;
+	private ConnectionConfig connectionConfig = new ConnectionConfig();
+	private TwinMetrics metrics;
+	private TwinTrace trace;
+	private boolean closed;
+	/** Idle sessions being closed by evictIdle() */
+	private int evicting;
+	private final ExecutorService opener = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Twin session pool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** Create a pool of sessions on the given RCs */
+	public SessionPool(URL... rcs) {
+		this(Arrays.asList(rcs));
+	}
+	/** Create a pool of sessions on the given RCs */
+	public SessionPool(Collection<URL> rcs) {
+		if(rcs.isEmpty())
+			throw new IllegalArgumentException("No RCs given");
+		for(URL url : rcs)
+			this.rcs.add(new RC(url));
+	}
+
+	/** The most sessions open at once on each RC, counting idle ones. The default is 4. */
+	public synchronized int getMaxSessionsPerRC() {
+		return maxSessionsPerRC;
+	}
+	/** Set the most sessions open at once on each RC, counting idle ones. The default is 4. */
+	public synchronized void setMaxSessionsPerRC(int maxSessionsPerRC) {
+		if(maxSessionsPerRC < 1)
+			throw new IllegalArgumentException("maxSessionsPerRC must be at least 1");
+		this.maxSessionsPerRC = maxSessionsPerRC;
+		notifyAll();
+	}
+	/**
+	 * Set how released sessions are reset for reuse. If there is none (the default), released sessions are closed
+	 * and every lease gets a freshly launched application.
+	 */
+	public synchronized void setResetter(Resetter resetter) {
+		this.resetter = resetter;
+	}
+	/** Set the metrics that sessions opened from now on report their requests to, or null for none */
+	public synchronized void setMetrics(TwinMetrics metrics) {
+		this.metrics = metrics;
+	}
+	/** Set the trace that sessions opened from now on record their requests in, or null for none */
+	public synchronized void setTrace(TwinTrace trace) {
+		this.trace = trace;
+	}
+	/** Set the connection settings for sessions opened from now on */
+	public synchronized void setConnectionConfig(ConnectionConfig connectionConfig) {
+		this.connectionConfig = connectionConfig.clone();
+	}
+
+	/**
+	 * The configurations offered by all RCs, as listed by their /status. Each has an "rc" entry added, the URL of the
+	 * RC offering it. This is read once and then remembered, refresh() reads it again.
+	 * @throws TwinException if an RC can't be reached
+	 */
+	public List<Map<String,Object>> getConfigurations() throws TwinException {
+		List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+		for(RC rc : rcs) {
+			for(Map<String,Object> configuration : configurations(rc)) {
+				Map<String,Object> copy = new HashMap<String,Object>(configuration);
+				copy.put("rc", rc.url.toString());
+				result.add(copy);
+			}
+		}
+		return result;
+	}
+	/** Forget what each RC offers, so that it is read again from /status */
+	public synchronized void refresh() {
+		for(RC rc : rcs)
+			rc.configurations = null;
+	}
+
+	/**
+	 * Open sessions in the background until there are count idle ones with the given capabilities, and keep
+	 * opening more as they are leased so that there are always count ready. A count of 0 stops this.
+	 * <p>
+	 * No more than maxSessionsPerRC are opened on any RC, so fewer may be ready.
+	 * @throws TwinException if no RC offers a configuration with these capabilities
+	 */
+	public void prewarm(Map<String,String> capabilities, int count) throws TwinException {
+		capabilities = new HashMap<String,String>(capabilities);
+		List<RC> candidates = candidates(capabilities);
+		synchronized(this) {
+			if(count > 0)
+				warm.put(capabilities, count);
+			else
+				warm.remove(capabilities);
+			topUp(capabilities, candidates);
+		}
+	}
+
+	/**
+	 * Lease a session with the given capabilities, waiting as long as it takes for one.
+	 * @see #lease(Map, double)
+	 */
+	public Application lease(Map<String,String> capabilities) throws TwinException {
+		return lease(capabilities, Double.POSITIVE_INFINITY);
+	}
+	/**
+	 * Lease a session with the given capabilities for the calling thread's exclusive use, until it is given back with
+	 * release() or discard().
+	 * <p>
+	 * An idle session is used if there is one. Otherwise a new one is opened on the least busy RC that offers a
+	 * matching configuration, waiting for a session to be released if they are all full.
+	 * @param timeout how long to wait for an RC to have room, in seconds. This doesn't include opening the session.
+	 * @throws TwinException if no RC offers a matching configuration, the timeout expires, or opening the session fails
+	 */
+	public Application lease(Map<String,String> capabilities, double timeout) throws TwinException {
+		capabilities = new HashMap<String,String>(capabilities);
+		List<RC> candidates = candidates(capabilities);
+		long deadline = System.nanoTime() + (Double.isInfinite(timeout) ? 0 : (long)(timeout * 1e9));
+		Pending claim = null;
+		synchronized(this) {
+			while(claim == null) {
+				if(closed)
+					throw new IllegalStateException("Pool is closed");
+				Application application = takeIdle(capabilities);
+				if(application != null) {
+					leased.add(application);
+					topUp(capabilities, candidates);
+					return application;
+				}
+				claim = claimPending(capabilities);
+				if(claim == null) {
+					RC rc = leastBusy(candidates);
+					if(rc != null) {
+						claim = open(rc, capabilities);
+						claim.claimed = true;
+					}
+				}
+				if(claim == null) {
+					evictIdle(candidates);
+					long wait = deadline - System.nanoTime();
+					if(!Double.isInfinite(timeout) && wait <= 0)
+						throw new TwinException("Timed out waiting for an RC with room for a session matching "+capabilities);
+					try {
+						if(Double.isInfinite(timeout))
+							wait();
+						else
+							TimeUnit.NANOSECONDS.timedWait(this, wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new TwinException("Interrupted waiting for a session");
+					}
+				}
+			}
+			topUp(capabilities, candidates);
+		}
+		return claim.future.getResult();
+	}
+
+	/**
+	 * Give back a leased session. It is reset with the Resetter and kept for reuse, or closed if there is no
+	 * Resetter or resetting fails.
+	 */
+	public void release(Application application) {
+		Resetter resetter;
+		synchronized(this) {
+			if(!leased.remove(application))
+				throw new IllegalArgumentException("Not leased from this pool: "+application);
+			resetter = closed ? null : this.resetter;
+		}
+		if(resetter != null) {
+			try {
+				resetter.reset(application);
+				application.invalidateCache();
+				synchronized(this) {
+					if(!closed) {
+						idle.addFirst(application); // most recently used first, so spare sessions are the ones closed
+						notifyAll();
+						return;
+					}
+				}
+			} catch (Exception e) {
+				// fall through and close it
+			}
+		}
+		close(application);
+	}
+	/** Give back a leased session that shouldn't be reused, e.g. because the test left it in a bad state. It is closed. */
+	public void discard(Application application) {
+		synchronized(this) {
+			if(!leased.remove(application))
+				throw new IllegalArgumentException("Not leased from this pool: "+application);
+		}
+		close(application);
+	}
+
+	/** Close all idle sessions, and leased ones as they are released. The pool can't be used afterwards. */
+	public void close() {
+		List<Application> toClose;
+		synchronized(this) {
+			closed = true;
+			warm.clear();
+			toClose = new ArrayList<Application>(idle);
+			idle.clear();
+			notifyAll();
+		}
+		for(Application application : toClose)
+			close(application);
+		opener.shutdown();
+	}
+
+	/** The RCs offering a configuration with these capabilities */
+	private List<RC> candidates(Map<String,String> capabilities) throws TwinException {
+		List<RC> result = new ArrayList<RC>();
+		for(RC rc : rcs) {
+			for(Map<String,Object> configuration : configurations(rc)) {
+				if(matches(capabilities, (Map<?,?>)configuration.get("capabilities"))) {
+					result.add(rc);
+					break;
+				}
+			}
+		}
+		if(result.isEmpty())
+			throw new TwinException("No RC offers a configuration matching "+capabilities);
+		return result;
+	}
+	@SuppressWarnings("unchecked")
+	private List<Map<String,Object>> configurations(RC rc) throws TwinException {
+		synchronized(this) {
+			if(rc.configurations != null)
+				return rc.configurations;
+		}
+		Map<String,Object> status = rc.connection.request("GET", "/status", null);
+		List<Map<String,Object>> configurations = (List<Map<String,Object>>)status.get("configurations");
+		if(configurations == null)
+			throw new TwinException("RC "+rc+" didn't list its configurations");
+		synchronized(this) {
+			rc.configurations = configurations;
+		}
+		return configurations;
+	}
+	/** Whether every non-null capability wanted has the same value in actual, the RC's own matching rule */
+	private static boolean matches(Map<String,String> wanted, Map<?,?> actual) {
+		if(actual == null)
+			return false;
+		for(Map.Entry<String,String> entry : wanted.entrySet())
+			if(entry.getValue() != null && (actual.get(entry.getKey()) == null || !entry.getValue().equals(actual.get(entry.getKey()).toString())))
+				return false;
+		return true;
+	}
+
+	// the following must be called with the lock held
+
+	private Application takeIdle(Map<String,String> capabilities) {
+		for(Iterator<Application> it = idle.iterator(); it.hasNext(); ) {
+			Application application = it.next();
+			if(matches(capabilities, application.capabilities)) {
+				it.remove();
+				return application;
+			}
+		}
+		return null;
+	}
+	private Pending claimPending(Map<String,String> capabilities) {
+		for(Pending p : pending) {
+			if(!p.claimed && matches(capabilities, p.capabilities)) {
+				p.claimed = true;
+				return p;
+			}
+		}
+		return null;
+	}
+	private RC leastBusy(List<RC> candidates) {
+		RC best = null;
+		for(RC rc : candidates)
+			if(rc.sessions < maxSessionsPerRC && (best == null || rc.sessions < best.sessions))
+				best = rc;
+		return best;
+	}
+	/** Close an idle session (which didn't match) on one of these RCs, to make room for one that does */
+	private void evictIdle(List<RC> candidates) {
+		if(evicting > 0)
+			return; // wait for that to make room first
+		for(Iterator<Application> it = idle.descendingIterator(); it.hasNext(); ) {
+			final Application application = it.next();
+			if(candidates.contains(owners.get(application))) {
+				it.remove();
+				evicting++;
+				opener.execute(new Runnable() {
+					public void run() {
+						try {
+							close(application);
+						} finally {
+							synchronized(SessionPool.this) {
+								evicting--;
+							}
+						}
+					}
+				});
+				return;
+			}
+		}
+	}
+	/** Open sessions until the prewarm() target for these capabilities is met, or there's no room */
+	private void topUp(Map<String,String> capabilities, List<RC> candidates) {
+		Integer target = warm.get(capabilities);
+		if(target == null || closed)
+			return;
+		int ready = 0;
+		for(Application application : idle)
+			if(matches(capabilities, application.capabilities))
+				ready++;
+		for(Pending p : pending)
+			if(!p.claimed && matches(capabilities, p.capabilities))
+				ready++;
+		for(; ready < target; ready++) {
+			RC rc = leastBusy(candidates);
+			if(rc == null)
+				return;
+			open(rc, capabilities);
+		}
+	}
+	/** Start opening a session in the background */
+	private Pending open(final RC rc, Map<String,String> capabilities) {
+		final Pending p = new Pending(capabilities);
+		final ConnectionConfig config = connectionConfig;
+		final TwinMetrics metrics = this.metrics;
+		final TwinTrace trace = this.trace;
+		pending.add(p);
+		rc.sessions++;
+		opener.execute(new Runnable() {
+			public void run() {
+				Application application = new Application(rc.url, config);
+				application.setMetrics(metrics);
+				application.setTrace(trace);
+				try {
+					application.open(p.capabilities);
+				} catch (RuntimeException e) {
+					synchronized(SessionPool.this) {
+						pending.remove(p);
+						rc.sessions--;
+						SessionPool.this.notifyAll();
+					}
+					p.future.fail(e instanceof TwinException ? (TwinException)e : TwinError.UnknownError.create("Failed to open session on "+rc, e));
+					return;
+				}
+				boolean unwanted = false;
+				synchronized(SessionPool.this) {
+					pending.remove(p);
+					owners.put(application, rc);
+					if(p.claimed)
+						leased.add(application);
+					else if(closed)
+						unwanted = true;
+					else
+						idle.addLast(application);
+					SessionPool.this.notifyAll();
+				}
+				if(unwanted)
+					close(application);
+				else
+					p.future.set(application);
+			}
+		});
+		return p;
+	}
+
+	/** Close a session we're no longer tracking, making room on its RC */
+	private void close(Application application) {
+		try {
+			application.close();
+		} catch (RuntimeException e) {
+			// it's going anyway
+		} finally {
+			synchronized(this) {
+				RC rc = owners.remove(application);
+				if(rc != null)
+					rc.sessions--;
+				notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,270 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Finds where a small image (the template) appears in a larger one, e.g. a custom-drawn button in a screenshot.
+ * <p>
+ * Similarity is the normalized cross-correlation of the brightness of the two images: 1 for a perfect match,
+ * and unaffected by uniform changes of brightness or contrast. The sums over each window of the image that it needs
+ * come from integral images, so only the correlation itself costs time per pixel of the template.
+ * <p>
+ * To keep that affordable on a large screen, the search is done on a pyramid of images halved in size at each level.
+ * Every position is only tried at the smallest level, where the search is split across the available processors.
+ * Promising positions are then followed down, level by level, searching only a few pixels around each.
+ */
+class TemplateMatcher {
+	/** Levels aren't halved further once the template's smaller side would be below this */
+	private static final int MIN_TEMPLATE_SIZE = 8;
+	private static final int MAX_LEVELS = 5;
+	/** How much lower similarity may be at a smaller level than the threshold, per level, for a position to be followed */
+	private static final double SLACK_PER_LEVEL = 0.1;
+	/** At most this many positions are followed down from the smallest level */
+	private static final int MAX_CANDIDATES = 2000;
+
+	/** Shared by all searches, so that repeated searches in a loop don't start threads */
+	private static final ExecutorService executor;
+	private static final int threads = Runtime.getRuntime().availableProcessors();
+	static {
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Twin template matcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** A brightness image with integral images of its values and squared values */
+	private static class Level {
+		final int width, height;
+		final float[] pixels;
+		/** Sums over [0,x) x [0,y), (width+1) x (height+1) */
+		double[] sum, squares;
+
+		Level(int width, int height, float[] pixels) {
+			this.width = width;
+			this.height = height;
+			this.pixels = pixels;
+		}
+		static Level of(BufferedImage image) {
+			int width = image.getWidth(), height = image.getHeight();
+			float[] pixels = new float[width * height];
+			int[] row = new int[width];
+			for(int y=0; y<height; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for(int x=0; x<width; x++) {
+					int rgb = row[x];
+					pixels[y*width + x] = 0.299f * ((rgb >> 16) & 0xff) + 0.587f * ((rgb >> 8) & 0xff) + 0.114f * (rgb & 0xff);
+				}
+			}
+			return new Level(width, height, pixels);
+		}
+		/** Half the size, averaging each 2x2 block */
+		Level half() {
+			int w = width / 2, h = height / 2;
+			float[] result = new float[w * h];
+			for(int y=0; y<h; y++) {
+				int top = 2*y*width, bottom = top + width;
+				for(int x=0; x<w; x++)
+					result[y*w + x] = (pixels[top + 2*x] + pixels[top + 2*x+1] + pixels[bottom + 2*x] + pixels[bottom + 2*x+1]) / 4;
+			}
+			return new Level(w, h, result);
+		}
+		void integrate() {
+			int stride = width + 1;
+			sum = new double[stride * (height + 1)];
+			squares = new double[stride * (height + 1)];
+			for(int y=0; y<height; y++) {
+				double rowSum = 0, rowSquares = 0;
+				for(int x=0; x<width; x++) {
+					double v = pixels[y*width + x];
+					rowSum += v;
+					rowSquares += v*v;
+					sum[(y+1)*stride + x+1] = sum[y*stride + x+1] + rowSum;
+					squares[(y+1)*stride + x+1] = squares[y*stride + x+1] + rowSquares;
+				}
+			}
+		}
+		private double area(double[] table, int x, int y, int w, int h) {
+			int stride = width + 1;
+			return table[(y+h)*stride + x+w] - table[y*stride + x+w] - table[(y+h)*stride + x] + table[y*stride + x];
+		}
+	}
+
+	/** A template at one level: its values less their mean, and their sum of squares */
+	private static class Template {
+		final int width, height;
+		final float[] centered;
+		final double mean, variance;
+		Template(Level level) {
+			width = level.width;
+			height = level.height;
+			double total = 0;
+			for(float v : level.pixels)
+				total += v;
+			mean = total / level.pixels.length;
+			centered = new float[level.pixels.length];
+			double squares = 0;
+			for(int i=0; i<centered.length; i++) {
+				centered[i] = (float)(level.pixels[i] - mean);
+				squares += centered[i] * centered[i];
+			}
+			variance = squares;
+		}
+	}
+
+	/** A position and its similarity */
+	private static class Match implements Comparable<Match> {
+		final int x, y;
+		final double score;
+		Match(int x, int y, double score) {
+			this.x = x;
+			this.y = y;
+			this.score = score;
+		}
+		public int compareTo(Match other) {
+			return Double.compare(other.score, score);
+		}
+	}
+
+	/**
+	 * Find where the template appears in the image.
+	 * @param threshold the lowest similarity that counts as a match, from 0 to 1
+	 * @return the areas of the image that match, best first. Matches that overlap a better one by more than half are left out.
+	 */
+	static List<Rectangle> find(BufferedImage image, BufferedImage template, double threshold) {
+		if(threshold <= 0 || threshold > 1 || Double.isNaN(threshold))
+			throw new IllegalArgumentException("Threshold must be above 0, and at most 1: "+threshold);
+		if(template.getWidth() > image.getWidth() || template.getHeight() > image.getHeight())
+			return new ArrayList<Rectangle>();
+
+		List<Level> images = new ArrayList<Level>();
+		List<Template> templates = new ArrayList<Template>();
+		Level imageLevel = Level.of(image), templateLevel = Level.of(template);
+		while(true) {
+			imageLevel.integrate();
+			images.add(imageLevel);
+			templates.add(new Template(templateLevel));
+			if(images.size() == MAX_LEVELS || Math.min(templateLevel.width, templateLevel.height) / 2 < MIN_TEMPLATE_SIZE)
+				break;
+			imageLevel = imageLevel.half();
+			templateLevel = templateLevel.half();
+		}
+
+		int top = images.size() - 1;
+		List<Match> candidates = searchAll(images.get(top), templates.get(top), threshold - SLACK_PER_LEVEL * top);
+		for(int level=top-1; level>=0; level--) {
+			Level current = images.get(level);
+			Template t = templates.get(level);
+			double minimum = threshold - SLACK_PER_LEVEL * level;
+			List<Match> refined = new ArrayList<Match>();
+			for(Match candidate : candidates) {
+				Match best = null;
+				for(int y=Math.max(0, 2*candidate.y-1); y<=Math.min(current.height-t.height, 2*candidate.y+2); y++) {
+					for(int x=Math.max(0, 2*candidate.x-1); x<=Math.min(current.width-t.width, 2*candidate.x+2); x++) {
+						double score = score(current, t, x, y);
+						if(best == null || score > best.score)
+							best = new Match(x, y, score);
+					}
+				}
+				if(best != null && best.score >= minimum)
+					refined.add(best);
+			}
+			candidates = refined;
+		}
+
+		Collections.sort(candidates);
+		List<Rectangle> result = new ArrayList<Rectangle>();
+		int w = template.getWidth(), h = template.getHeight();
+		outer:
+		for(Match match : candidates) {
+			Rectangle area = new Rectangle(match.x, match.y, w, h);
+			for(Rectangle better : result) {
+				Rectangle overlap = better.intersection(area);
+				if(!overlap.isEmpty() && 2L * overlap.width * overlap.height > (long)w * h)
+					continue outer;
+			}
+			result.add(area);
+		}
+		return result;
+	}
+
+	/** Try every position, keeping those that are at least minimum and as good as any next to them */
+	private static List<Match> searchAll(final Level image, final Template template, final double minimum) {
+		final int rows = image.height - template.height + 1, columns = image.width - template.width + 1;
+		final float[] scores = new float[rows * columns];
+		int bands = Math.min(rows, threads * 4);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(int band=0; band<bands; band++) {
+			final int from = band * rows / bands, to = (band+1) * rows / bands;
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					for(int y=from; y<to; y++)
+						for(int x=0; x<columns; x++)
+							scores[y*columns + x] = (float)score(image, template, x, y);
+				}
+			}));
+		}
+		for(Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while matching", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Failed matching", e.getCause());
+			}
+		}
+
+		List<Match> result = new ArrayList<Match>();
+		for(int y=0; y<rows; y++) {
+			for(int x=0; x<columns; x++) {
+				float score = scores[y*columns + x];
+				if(score < minimum)
+					continue;
+				boolean peak = true;
+				for(int ny=Math.max(0, y-1); peak && ny<=Math.min(rows-1, y+1); ny++)
+					for(int nx=Math.max(0, x-1); peak && nx<=Math.min(columns-1, x+1); nx++)
+						if(scores[ny*columns + nx] > score)
+							peak = false;
+				if(peak)
+					result.add(new Match(x, y, score));
+			}
+		}
+		if(result.size() > MAX_CANDIDATES) {
+			Collections.sort(result);
+			result = new ArrayList<Match>(result.subList(0, MAX_CANDIDATES));
+		}
+		return result;
+	}
+
+	/** The similarity of the template to the window of the image at x, y */
+	private static double score(Level image, Template template, int x, int y) {
+		int n = template.width * template.height;
+		double sum = image.area(image.sum, x, y, template.width, template.height);
+		double variance = image.area(image.squares, x, y, template.width, template.height) - sum * sum / n;
+		if(template.variance < 1e-6 * n) {
+			// a flat template only matches flat areas of the same brightness
+			if(variance > 1e-6 * n)
+				return 0;
+			return Math.max(0, 1 - Math.abs(sum / n - template.mean) / 255);
+		}
+		if(variance <= 1e-6 * n)
+			return 0;
+		double product = 0;
+		for(int j=0; j<template.height; j++) {
+			int row = (y+j) * image.width + x, t = j * template.width;
+			for(int i=0; i<template.width; i++)
+				product += image.pixels[row+i] * template.centered[t+i];
+		}
+		return product / Math.sqrt(variance * template.variance);
+	}
+}
@@ -0,0 +1,24 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+/**
+ * Receives the result of a TwinFuture when it completes.
+ * <p>
+ * Callbacks for operations started by an AsyncApplication are run on the shared I/O thread, so they must not block:
+ * in particular they must not call TwinFuture.get() or make ordinary (synchronous) Twin calls. 
+ * Starting further asynchronous operations is fine.
+ * <p>
+ * That one thread reads the responses of every AsyncApplication in the JVM, so while a callback runs, no other
+ * session's operations complete. Hand anything slow, e.g. checking a screenshot, to an executor of your own.
+ *
+ * @see TwinFuture#addCallback(TwinCallback)
+ */
+public interface TwinCallback<T> {
+	/** Called with the result of a successful operation */
+	public void onSuccess(T result);
+	/** Called with the exception of a failed operation */
+	public void onFailure(TwinException exception);
+}
@@ -8,15 +8,21 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.regex.Pattern;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.*;
 import org.apache.http.client.*;
-import org.apache.http.conn.params.*;
-import org.apache.http.entity.*;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.apache.http.impl.client.*;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.*;
 import org.apache.http.params.*;
+import org.apache.http.protocol.*;
+import org.apache.http.util.EntityUtils;
 
 import org.ebayopensource.twin.json.*;
 
@@ -25,13 +31,53 @@ import org.ebayopensource.twin.json.*;
  */
 class TwinConnection {
 	URL url;
+	/** A private copy of the settings this connection was made with */
+	final ConnectionConfig config;
+	/** The pool held while a session is open, or null */
+	private volatile Pool held;
+	/** Told about every request, or null */
+	volatile TwinMetrics metrics;
+	/** Records the phases of every request, or null */
+	volatile TwinTrace trace;
+	/** Saves every exchange, or null */
+	volatile Recording.Writer recorder;
+	/** Answers every request instead of the server, or null */
+	volatile Recording.Replay replay;
 	public TwinConnection(URL url) {
+		this(url, new ConnectionConfig());
+	}
+	public TwinConnection(URL url, ConnectionConfig config) {
 		if(url.getPath().endsWith("/")) try {
 			url = new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getPath().substring(0, url.getPath().length()-1));
 		} catch (MalformedURLException e) {
 			throw new RuntimeException(e);
 		}
 		this.url = url;
+		this.config = config.clone();
+	}
+	/** Hold on to the pool for these settings while a session is open, so that it keeps its connections alive */
+	synchronized void sessionOpened() {
+		if(held == null && replay == null)
+			held = Pool.acquire(config);
+	}
+	/** Let go of the pool once the session is closed, stopping it if no other session uses it */
+	synchronized void sessionClosed() {
+		if(held != null) {
+			Pool.release(held);
+			held = null;
+		}
+	}
+	/** How many connection pools are in use, for tests */
+	static int poolCount() {
+		return Pool.count();
+	}
+	/** The pool to send a request with: the one held for the session, or one acquired for the request alone */
+	private Pool pool(boolean[] acquired) {
+		Pool pool = held;
+		if(pool != null)
+			return pool;
+		acquired[0] = true;
+		return Pool.acquire(config);
 	}
 	/**
 	 * Send an OPTIONS request to the server.
@@ -40,18 +86,39 @@ class TwinConnection {
 	 * @throws TwinException
 	 */
 	List<String> options(String path) throws TwinException {
+		String allow;
+		Recording.Replay replay = this.replay;
 		try {
+			if(replay != null) {
+				allow = toText(replay.get(Recording.key("OPTIONS", path, null, null)).body);
+				return split(allow);
+			}
 			BasicHttpRequest request = new BasicHttpRequest("OPTIONS", url+path);
-			HttpClient client = getClient();
-			HttpResponse response = client.execute(new HttpHost(url.getHost(), url.getPort()), request);
+			HttpResponse response;
+			boolean[] acquired = new boolean[1];
+			Pool pool = pool(acquired);
+			try {
+				response = pool.client.execute(new HttpHost(url.getHost(), url.getPort()), request);
+				EntityUtils.consume(response.getEntity()); // so the connection can be reused
+			} finally {
+				if(acquired[0])
+					Pool.release(pool);
+			}
 			Header hdr = response.getFirstHeader("Allow");
-			if(hdr == null || hdr.getValue().isEmpty())
-				return Collections.emptyList();
-			return Arrays.asList(hdr.getValue().split("\\s*,\\s*"));
+			allow = hdr == null ? "" : hdr.getValue();
+			Recording.Writer recorder = this.recorder;
+			if(recorder != null)
+				recorder.write(Recording.key("OPTIONS", path, null, null), new Recording.Response(response.getStatusLine().getStatusCode(), "text/plain", allow.getBytes("UTF-8")));
+			return split(allow);
 		} catch (IOException e) {
 			throw TwinError.UnknownError.create("IOException when accessing RC", e);
 		}
 	}
+	private static List<String> split(String allow) {
+		if(allow.isEmpty())
+			return Collections.emptyList();
+		return Arrays.asList(allow.split("\\s*,\\s*"));
+	}
 	/** 
 	 * Send a request to the server.
 	 * @param method the HTTP method e.g. "GET"/"POST"/"DELETE" etc
@@ -61,104 +128,418 @@ class TwinConnection {
 	 * @return the decoded response as a Map (javascript object)
 	 * @throws TwinException
 	 */
+	@SuppressWarnings("unchecked")
 	Map<String,Object> request(String method, String path, Map<String,Object> body, JSONRecognizer... recognizers) throws TwinException {
+		return (Map<String,Object>)measuredRequest(method, path, body, null, recognizers);
+	}
+	/**
+	 * Send a request that the server may answer with a binary body, e.g. an image, rather than JSON.
+	 * Servers that can't send the type asked for answer in JSON as usual, and errors are always sent as JSON.
+	 * @param accept the binary content type wanted, e.g. "image/png"
+	 * @return a Binary if the server sent the type asked for, otherwise the decoded JSON response as a Map
+	 * @throws TwinException
+	 */
+	Object requestBinary(String method, String path, Map<String,Object> body, String accept, JSONRecognizer... recognizers) throws TwinException {
+		return measuredRequest(method, path, body, accept, recognizers);
+	}
+	/** Send a request, reporting it to the metrics and trace if there are any */
+	private Object measuredRequest(String method, String path, Map<String,Object> body, String accept, JSONRecognizer... recognizers) throws TwinException {
+		TwinMetrics metrics = this.metrics;
+		TwinTrace trace = this.trace;
+		String endpoint = (metrics == null && trace == null) ? null : endpoint(method, path);
+		if(metrics != null)
+			metrics.requestStarted(endpoint);
+		String requestId = nextRequestId();
+		long start = System.nanoTime();
+		TwinTrace.Span span = trace == null ? null : new TwinTrace.Span(requestId, endpoint, start);
+		long[] traffic = new long[2];
+		String error = TwinError.UnknownError.name();
 		try {
-			return _request(method, path, body, recognizers);
+			Object result = _request(method, path, body, accept, requestId, traffic, span, recognizers);
+			error = null;
+			return result;
 		} catch (IOException e) {
-			throw TwinError.UnknownError.create("IOException when accessing RC", e);
+			TwinException ex = TwinError.UnknownError.create("IOException when accessing RC", e);
+			ex.requestId = requestId;
+			throw ex;
+		} catch (TwinException e) {
+			e.requestId = requestId;
+			error = errorName(e);
+			throw e;
+		} finally {
+			long end = System.nanoTime();
+			if(metrics != null)
+				metrics.requestFinished(endpoint, end - start, traffic[0], traffic[1], error);
+			if(span != null) {
+				span.finish(end, error);
+				trace.add(span);
+			}
+		}
+	}
+	/** 
+	 * A new id for a request, unique within this JVM and very likely across the JVMs using an RC, 
+	 * so that a request can be found in the RC's log
+	 */
+	static String nextRequestId() {
+		return REQUEST_ID_PREFIX + requestCount.incrementAndGet();
+	}
+	private static final String REQUEST_ID_PREFIX = String.format("%08x-", new Random().nextInt());
+	private static final AtomicLong requestCount = new AtomicLong();
+	/** The header a request's id is sent in */
+	static final String REQUEST_ID_HEADER = "X-Twin-Request-Id";
+	/** 
+	 * The endpoint a request is reported under: the method and path, with ids replaced by placeholders
+	 * e.g. "GET /session/:session/element/:id/children"
+	 */
+	static String endpoint(String method, String path) {
+		StringBuilder result = new StringBuilder(method).append(' ');
+		String previous = null;
+		for(String segment : path.split("/")) {
+			if(segment.length() == 0)
+				continue;
+			result.append('/');
+			if("session".equals(previous))
+				result.append(":session");
+			else if(ID.matcher(segment).matches())
+				result.append(":id");
+			else
+				result.append(segment);
+			previous = segment;
+		}
+		return result.toString();
+	}
+	private static final Pattern ID = Pattern.compile("[0-9a-fA-F]{8}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{12}|\\d+");
+	/** The name metrics report an error under */
+	static String errorName(TwinException e) {
+		return e.getErrorName();
+	}
+	/** A response body that isn't JSON */
+	static class Binary {
+		final String contentType;
+		final byte[] data;
+		Binary(String contentType, byte[] data) {
+			this.contentType = contentType;
+			this.data = data;
 		}
 	}
 	
-	private static ThreadSafeClientConnManager connManager;
-	private static HttpParams params;
-	private HttpClient getClient() {
-		synchronized(TwinConnection.class) {
-			if(connManager == null) {
-				DefaultHttpClient client = new DefaultHttpClient();
-				params = client.getParams().copy();
-				params.setParameter(ConnManagerPNames.MAX_CONNECTIONS_PER_ROUTE, new ConnPerRouteBean(50));
-				params.setIntParameter(ConnManagerPNames.MAX_TOTAL_CONNECTIONS, 200);
-				connManager = new ThreadSafeClientConnManager(
-						params,
-						client.getConnectionManager().getSchemeRegistry()
-				);
+	/**
+	 * A pool of kept-alive connections and the client using it, shared by all connections with equal settings.
+	 * <p>
+	 * A pool lasts while it has users: open sessions, and requests sent outside a session. Once the last has gone it
+	 * is stopped, closing its connections, so that settings made for a short while, e.g. by each test, don't leave
+	 * pools behind. Idle connections in every pool are closed by one shared reaper thread, which runs while any pool
+	 * has an idle timeout.
+	 */
+	private static class Pool {
+		/** The pools in use, by their settings. These and the fields below are guarded by Pool.class. */
+		private static final Map<ConnectionConfig,Pool> pools = new HashMap<ConnectionConfig,Pool>();
+		private static Thread reaper;
+		static synchronized Pool acquire(ConnectionConfig config) {
+			Pool pool = pools.get(config);
+			if(pool == null) {
+				pools.put(config, pool = new Pool(config));
+				if(pool.idleMillis > 0) {
+					if(reaper == null)
+						startReaper();
+					else
+						Pool.class.notifyAll(); // it may need to reap more often
+				}
 			}
+			pool.users++;
+			return pool;
+		}
+		static synchronized void release(Pool pool) {
+			if(--pool.users > 0)
+				return;
+			pools.remove(pool.config);
+			pool.stopped = true;
+			pool.connManager.shutdown();
+		}
+		static synchronized int count() {
+			return pools.size();
+		}
+		
+		final ConnectionConfig config;
+		final HttpClient client;
+		private final ThreadSafeClientConnManager connManager;
+		private final long idleMillis;
+		private int users = 0;
+		private volatile boolean stopped = false;
+		/** HttpContext attributes holding when a request's connection was ready, and when its response headers arrived */
+		static final String CONNECTED = "twin.connected", RESPONDED = "twin.responded";
+		private Pool(ConnectionConfig config) {
+			this.config = config;
+			connManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+			connManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRC());
+			connManager.setMaxTotal(config.getMaxConnections());
+			DefaultHttpClient client = new DefaultHttpClient(connManager);
+			HttpParams params = client.getParams();
+			HttpConnectionParams.setConnectionTimeout(params, ConnectionConfig.millis(config.getConnectTimeout()));
+			HttpConnectionParams.setSoTimeout(params, ConnectionConfig.millis(config.getReadTimeout()));
+			HttpConnectionParams.setStaleCheckingEnabled(params, config.isStaleCheck());
+			HttpConnectionParams.setTcpNoDelay(params, true);
+			client.setRedirectHandler(new DefaultRedirectHandler());
+			// note when a request is sent and its response starts to arrive, for tracing
+			client.addRequestInterceptor(new HttpRequestInterceptor() {
+				public void process(HttpRequest request, HttpContext context) {
+					context.setAttribute(CONNECTED, System.nanoTime());
+				}
+			});
+			client.addResponseInterceptor(new HttpResponseInterceptor() {
+				public void process(HttpResponse response, HttpContext context) {
+					context.setAttribute(RESPONDED, System.nanoTime());
+				}
+			});
+			this.client = client;
+			this.idleMillis = ConnectionConfig.millis(config.getIdleTimeout());
+		}
+		/** How often to close this pool's idle connections: at least every few seconds, so none is left much longer */
+		private long reapInterval() {
+			return Math.min(idleMillis/2 + 1, 5000);
+		}
+		private void reap() {
+			if(stopped)
+				return;
+			connManager.closeExpiredConnections();
+			connManager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+		}
+		
+		private static void startReaper() {
+			reaper = new Thread("Twin idle connection reaper") {
+				public void run() {
+					while(true) {
+						long interval = Long.MAX_VALUE;
+						List<Pool> reaped = new ArrayList<Pool>();
+						synchronized(Pool.class) {
+							for(Pool pool : pools.values()) {
+								if(pool.idleMillis > 0) {
+									interval = Math.min(interval, pool.reapInterval());
+									reaped.add(pool);
+								}
+							}
+							if(reaped.isEmpty()) {
+								reaper = null; // until a pool needs it again
+								return;
+							}
+							try {
+								Pool.class.wait(interval);
+							} catch (InterruptedException e) {
+								reaper = null;
+								return;
+							}
+						}
+						for(Pool pool : reaped)
+							pool.reap();
+					}
+				}
+			};
+			reaper.setDaemon(true);
+			reaper.start();
 		}
-		DefaultHttpClient client = new DefaultHttpClient(connManager, params);
-		client.setRedirectHandler(new DefaultRedirectHandler());				
-		return client;
 	}
 	
-	@SuppressWarnings("unchecked")
-	private Map<String,Object> _request(String method, String path, Map<String,Object> body, JSONRecognizer... recognizers) throws IOException, TwinException {
+	/** 
+	 * @param traffic set to the size of the request and response bodies, for metrics
+	 * @param span the span to record the phases of the request in, or null 
+	 */
+	private Object _request(String method, String path, Map<String,Object> body, String accept, String requestId, long[] traffic, TwinTrace.Span span, JSONRecognizer... recognizers) throws IOException, TwinException {
+		Recording.Replay replay = this.replay;
+		Recording.Writer recorder = this.recorder;
+		if(replay == null && recorder == null)
+			return exchange(method, path, body, accept, null, replay, recorder, requestId, traffic, span, recognizers);
+		// uploads from a stream are read for the key, then again to be sent, so they are copied to files first
+		List<File> spooled = new ArrayList<File>();
+		try {
+			if(body != null && recorder != null)
+				body = Recording.repeatable(body, spooled);
+			String key = Recording.key(method, path, body, accept);
+			return exchange(method, path, body, accept, key, replay, recorder, requestId, traffic, span, recognizers);
+		} finally {
+			for(File file : spooled)
+				file.delete();
+		}
+	}
+	/** Send a request, or answer it from the replay, and save the exchange to the recording if there is one */
+	private Object exchange(String method, String path, Map<String,Object> body, String accept, String key, Recording.Replay replay, Recording.Writer recorder, 
+			String requestId, long[] traffic, TwinTrace.Span span, JSONRecognizer... recognizers) throws IOException, TwinException {
 		String uri = url+path;
+		if(replay != null) {
+			if(span != null)
+				span.phase("encode", System.nanoTime());
+			Recording.Response response = replay.get(key);
+			traffic[1] = response.body.length;
+			if(span != null)
+				span.phase("replay", System.nanoTime());
+			try {
+				return interpret(uri, accept, response.code, response.contentType, response.body, recognizers);
+			} finally {
+				if(span != null)
+					span.phase("decode", System.nanoTime());
+			}
+		}
 		HttpRequest request;
+		HttpEntity sent = null;
 		if(body == null) {
 			BasicHttpRequest r = new BasicHttpRequest(method, uri);
 			request = r;
 		} else {
 			BasicHttpEntityEnclosingRequest r = new BasicHttpEntityEnclosingRequest(method, uri);
-			StringEntity entity;
-			try {
-				entity = new StringEntity(JSON.encode(body), "utf-8");
-			} catch (UnsupportedEncodingException e) {
-				throw new RuntimeException(e);
-			}
-			entity.setContentType("application/json; charset=utf-8");
-			r.setEntity(entity);
+			r.setEntity(sent = JSONEntity.create(body, config.getRequestCompressionThreshold()));
 			request = r;
 		}
+		if(config.isCompression())
+			request.setHeader("Accept-Encoding", Compression.ACCEPT_ENCODING);
+		if(accept != null)
+			request.setHeader("Accept", accept+", application/json;q=0.5");
+		request.setHeader(REQUEST_ID_HEADER, requestId);
 		
-		HttpClient client = getClient();
+		HttpContext context = null;
+		if(span != null) {
+			span.phase("encode", System.nanoTime());
+			context = new BasicHttpContext();
+		}
+		boolean[] acquired = new boolean[1];
+		Pool pool = pool(acquired);
 		try {
-			HttpResponse response = client.execute(new HttpHost(url.getHost(), url.getPort()), request);
+			HttpResponse response = pool.client.execute(new HttpHost(url.getHost(), url.getPort()), request, context);
+			if(sent != null)
+				traffic[0] = sent instanceof JSONEntity ? ((JSONEntity)sent).getBytesWritten() : sent.getContentLength();
+			if(span != null) {
+				span.phase("connect", (Long)context.getAttribute(Pool.CONNECTED));
+				if(sent instanceof JSONEntity)
+					span.phase("send", ((JSONEntity)sent).getSentAt());
+				span.phase("wait", (Long)context.getAttribute(Pool.RESPONDED));
+				Header timing = response.getFirstHeader("Server-Timing");
+				span.setServerTiming(timing == null ? null : timing.getValue());
+			}
 			HttpEntity entity = response.getEntity();
 			if(entity == null)
 				return null;
-			String contentType = entity.getContentType().getValue();
-			boolean isJson = (contentType!=null) && ("application/json".equals(contentType) || contentType.startsWith("application/json;"));
-			String result = null;
-			
-			InputStream in = entity.getContent();
+			byte[] result = Compression.decode(readBody(entity), entity.getContentEncoding() == null ? null : entity.getContentEncoding().getValue());
+			traffic[1] = result.length;
+			if(span != null)
+				span.phase("read", System.nanoTime());
+			String contentType = entity.getContentType() == null ? null : entity.getContentType().getValue();
+			int code = response.getStatusLine().getStatusCode();
+			if(recorder != null)
+				recorder.write(key, new Recording.Response(code, contentType, result));
 			try {
-				Reader r = new InputStreamReader(in, "UTF-8");
-				StringBuilder sb = new StringBuilder();
-				char[] buf = new char[256];
-				int read;
-				while((read=r.read(buf,0,buf.length))>=0)
-					sb.append(buf,0,read);
-				r.close();	
-				
-				result = sb.toString();
+				return interpret(uri, accept, code, contentType, result, recognizers);
 			} finally {
-				try { in.close(); } catch (Exception e) {}
+				if(span != null)
+					span.phase("decode", System.nanoTime());
 			}
-
-			int code = response.getStatusLine().getStatusCode();
-			if(code >= 400) {
-				if(isJson) {
-					try {
-						throw deserializeException((Map<String,Object>)JSON.decode(result));
-					} catch (IllegalArgumentException e) {
-						throw TwinError.UnknownError.create("Couldn't parse error response: \n"+result, e);
-					}
+		} catch (ClientProtocolException e) {
+			throw new IOException(e);
+		} finally {
+			if(acquired[0])
+				Pool.release(pool);
+		}
+	}
+	
+	/** Interpret a response as a Binary if it is of the type asked for, otherwise as JSON */
+	private static Object interpret(String uri, String accept, int code, String contentType, byte[] result, JSONRecognizer... recognizers) throws TwinException {
+		if(accept != null && code < 400 && isType(contentType, accept))
+			return new Binary(contentType, result);
+		return decodeResponse(uri, code, contentType, result, recognizers);
+	}
+	/**
+	 * Interpret a response from the server: decode the JSON body, or throw an appropriate exception for an error response.
+	 * This is shared with AsyncTransport so that both report failures the same way.
+	 * <p>
+	 * Streamed responses (application/x-ndjson, one JSON object per line) are decoded as their last line, which holds
+	 * the outcome; the lines before it are only progress reports.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String,Object> decodeResponse(String uri, int code, String contentType, byte[] result, JSONRecognizer... recognizers) throws TwinException {
+		if(code < 400 && isType(contentType, "application/x-ndjson")) {
+			result = lastLine(result);
+			contentType = "application/json";
+		}
+		boolean isJson = isType(contentType, "application/json");
+		if(code >= 400) {
+			if(isJson) {
+				try {
+					throw deserializeException((Map<String,Object>)JSON.decode(result));
+				} catch (IllegalArgumentException e) {
+					throw TwinError.UnknownError.create("Couldn't parse error response: \n"+toText(result), e);
 				}
-				if(code == 404)
-					throw TwinError.UnknownCommand.create("Got server response "+code+" for request "+uri);
-				else 
-					throw TwinError.UnknownError.create("Got server response "+code+" for request "+uri+"\nBody is "+result);
 			}
-			
-			if(!isJson)
-				throw TwinError.UnknownError.create("Got wrong content type "+contentType+" for request "+uri+"\nBody is "+result);
-			
-			try {
-				return (Map<String,Object>)JSON.decode(result, recognizers);
-			} catch (Exception e) {
-				throw TwinError.UnknownError.create("Malformed JSON result for request "+uri+": \nBody is "+result, e);
+			if(code == 404)
+				throw TwinError.UnknownCommand.create("Got server response "+code+" for request "+uri);
+			else 
+				throw TwinError.UnknownError.create("Got server response "+code+" for request "+uri+"\nBody is "+toText(result));
+		}
+		
+		if(!isJson)
+			throw TwinError.UnknownError.create("Got wrong content type "+contentType+" for request "+uri+"\nBody is "+toText(result));
+		
+		try {
+			return (Map<String,Object>)JSON.decode(result, recognizers);
+		} catch (Exception e) {
+			throw TwinError.UnknownError.create("Malformed JSON result for request "+uri+": \nBody is "+toText(result), e);
+		}
+	}
+	
+	/** 
+	 * Read the whole response body. It is kept as UTF-8 bytes, which JSON can decode directly, 
+	 * and is only converted to a String if it has to appear in an error message.
+	 * If the length is known, it is read straight into an array of that size, so that large bodies such as images aren't copied.
+	 * <p>
+	 * The connection is always returned to the pool: for reuse once the body has been read, or closed if reading failed
+	 * part way, as the rest of the response may still arrive and can't be skipped safely.
+	 */
+	private static byte[] readBody(HttpEntity entity) throws IOException {
+		InputStream in = entity.getContent();
+		boolean complete = false;
+		try {
+			long length = entity.getContentLength();
+			if(length >= 0 && length < Integer.MAX_VALUE) {
+				byte[] data = new byte[(int)length];
+				int offset = 0, read;
+				while(offset < data.length && (read=in.read(data, offset, data.length-offset))>=0)
+					offset += read;
+				if(offset < data.length)
+					throw new EOFException("Response body ended after "+offset+" of "+length+" bytes");
+				complete = true;
+				return data;
 			}
-		} catch (ClientProtocolException e) {
-			throw new IOException(e);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+			byte[] buf = new byte[4096];
+			int read;
+			while((read=in.read(buf))>=0)
+				out.write(buf, 0, read);
+			complete = true;
+			return out.toByteArray();
+		} finally {
+			if(!complete && in instanceof ConnectionReleaseTrigger) {
+				try { ((ConnectionReleaseTrigger)in).abortConnection(); } catch (Exception e) {}
+			} else {
+				try { in.close(); } catch (Exception e) {}
+			}
+		}
+	}
+	private static boolean isType(String contentType, String type) {
+		return (contentType!=null) && (type.equals(contentType) || contentType.startsWith(type+";"));
+	}
+	/** The last non-blank line of a streamed response */
+	private static byte[] lastLine(byte[] body) {
+		int end = body.length;
+		while(end > 0 && (body[end-1] == '\n' || body[end-1] == '\r'))
+			end--;
+		int start = end;
+		while(start > 0 && body[start-1] != '\n')
+			start--;
+		byte[] line = new byte[end-start];
+		System.arraycopy(body, start, line, 0, line.length);
+		return line;
+	}
+	private static String toText(byte[] body) {
+		try {
+			return new String(body, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
 		}
 	}
 	
@@ -40,6 +40,10 @@ enum TwinError {
 	/** The type of exception to be instantiated */
 	private Class<? extends TwinException> exceptionType;
 
+	/** The numeric code sent on the wire */
+	int getCode() {
+		return code;
+	}
 	/** Get a status code from its numeric code */
 	public static TwinError get(int code) {
 		for(TwinError responseCode : values())
@@ -57,6 +61,7 @@ enum TwinError {
 		try {
 			Constructor<? extends TwinException> c = exceptionType.getConstructor(String.class);
 			TwinException ex = c.newInstance(message);
+			ex.error = this;
 			if(cause != null)
 				ex.initCause(cause);
 			return ex;
@@ -20,6 +20,24 @@ public class TwinException extends RuntimeException {
 	// We allow overriding the class name for remote exceptions.
 	/** The remote class name */
 	String className;
+	/** The status code this exception was created for, if it came from TwinError.create() */
+	TwinError error;
+	/** The id of the request this was thrown for */
+	String requestId;
+	/** 
+	 * The id of the request this was thrown for, as sent in its X-Twin-Request-Id header and logged by the RC,
+	 * or null if it wasn't thrown for a request
+	 */
+	public String getRequestId() {
+		return requestId;
+	}
+	/** 
+	 * The name of the status code this was thrown for, e.g. "NoSuchElement", or "UnknownError" if it has none. 
+	 * These are the names TwinMetrics reports errors by.
+	 */
+	public String getErrorName() {
+		return (error == null ? TwinError.UnknownError : error).name();
+	}
 	public String toString() {
 		if(className == null)
 			return super.toString();
@@ -0,0 +1,140 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The result of a Twin operation that completes later, such as one queued in a {@link Batch}.
+ * <p>
+ * As well as the standard Future methods, getResult() waits for the result and throws any failure
+ * as the original TwinException rather than wrapping it in an ExecutionException.
+ * addCallback() arranges to be told of the result without waiting for it.
+ * <p>
+ * Twin operations can't be cancelled once queued, so cancel() always returns false.
+ */
+public class TwinFuture<T> implements Future<T> {
+	private final CountDownLatch done = new CountDownLatch(1);
+	private T value;
+	private TwinException exception;
+	/** Callbacks to run on completion, null once completed */
+	private List<TwinCallback<? super T>> callbacks = new ArrayList<TwinCallback<? super T>>(1);
+
+	/** Internal use only */
+	TwinFuture() {
+	}
+
+	/** Complete successfully. Only the first completion has any effect. */
+	void set(T value) {
+		List<TwinCallback<? super T>> toRun;
+		synchronized(this) {
+			if(isDone())
+				return;
+			this.value = value;
+			toRun = complete();
+		}
+		for(TwinCallback<? super T> callback : toRun)
+			run(callback);
+	}
+	/** Complete with a failure. Only the first completion has any effect. */
+	void fail(TwinException exception) {
+		List<TwinCallback<? super T>> toRun;
+		synchronized(this) {
+			if(isDone())
+				return;
+			this.exception = exception;
+			toRun = complete();
+		}
+		for(TwinCallback<? super T> callback : toRun)
+			run(callback);
+	}
+	/** Mark as done and take the callbacks to run, which happens outside the lock. Call with the lock held. */
+	private List<TwinCallback<? super T>> complete() {
+		List<TwinCallback<? super T>> toRun = callbacks;
+		callbacks = null;
+		done.countDown();
+		return toRun;
+	}
+
+	/**
+	 * Call the callback when the operation completes. If it has already completed, the callback is called immediately
+	 * on this thread; otherwise it is called on the thread that completes the operation, which for an AsyncApplication
+	 * is the I/O thread shared by all sessions: see {@link TwinCallback}.
+	 * Callbacks are called in the order they were added.
+	 */
+	public void addCallback(TwinCallback<? super T> callback) {
+		if(callback == null)
+			throw new IllegalArgumentException("Callback may not be null");
+		synchronized(this) {
+			if(!isDone()) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		run(callback);
+	}
+	private void run(TwinCallback<? super T> callback) {
+		try {
+			if(exception != null)
+				callback.onFailure(exception);
+			else
+				callback.onSuccess(value);
+		} catch (RuntimeException e) {
+			// one broken callback mustn't stop the others, or the thread completing the operation
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+		}
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+	public boolean isCancelled() {
+		return false;
+	}
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if(!done.await(timeout, unit))
+			throw new TimeoutException();
+		return result();
+	}
+	private T result() throws ExecutionException {
+		if(exception != null)
+			throw new ExecutionException(exception);
+		return value;
+	}
+
+	/**
+	 * Wait for the operation to complete and return its result.
+	 * @throws TwinException if the operation failed, or the thread was interrupted while waiting
+	 */
+	public T getResult() throws TwinException {
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw TwinError.UnknownError.create("Interrupted while waiting for result", e);
+		}
+		if(exception != null)
+			throw exception;
+		return value;
+	}
+
+	public String toString() {
+		if(!isDone())
+			return "TwinFuture(pending)";
+		if(exception != null)
+			return "TwinFuture(failed: "+exception+")";
+		return "TwinFuture("+value+")";
+	}
+}
@@ -0,0 +1,33 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+/**
+ * Receives a report of every request an Application sends to the RC, to measure where the time goes.
+ * <p>
+ * Requests are identified by endpoint: the method and path with session, element and other ids replaced by
+ * placeholders, e.g. "GET /session/:session/element/:id/children", so that all calls of a kind are counted together.
+ * <p>
+ * Methods are called on the thread making the request, or for an AsyncApplication on the shared I/O thread, so they
+ * must be quick and thread-safe. See org.ebayopensource.twin.metrics for ready-made implementations.
+ *
+ * @see Application#setMetrics(TwinMetrics)
+ */
+public interface TwinMetrics {
+	/**
+	 * Called just before a request is sent
+	 * @param endpoint e.g. "GET /session/:session/element/:id/children"
+	 */
+	public void requestStarted(String endpoint);
+	/**
+	 * Called when a request has finished, successfully or not
+	 * @param endpoint as passed to requestStarted()
+	 * @param nanos the time from sending the request to decoding the response, in nanoseconds
+	 * @param bytesSent the size of the request body, before any compression
+	 * @param bytesReceived the size of the response body, after any decompression. 0 if it failed before one arrived.
+	 * @param error the name of the error it failed with, e.g. "NoSuchElement" or "UnknownError", or null if it succeeded
+	 */
+	public void requestFinished(String endpoint, long nanos, long bytesSent, long bytesReceived, String error);
+}
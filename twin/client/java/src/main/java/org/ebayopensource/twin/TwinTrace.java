@@ -0,0 +1,273 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.util.*;
+
+import org.ebayopensource.twin.json.JSON;
+
+/**
+ * Records where the time of each request an Application sends goes: this JVM, the wire, or the RC.
+ * <p>
+ * Each request is a Span, split into consecutive client-side phases:
+ * <ul>
+ * <li>encode - encoding the JSON body before it is sent. Large bodies are encoded as they are sent, under send.</li>
+ * <li>connect - getting a connection from the pool, opening it if necessary</li>
+ * <li>send - writing the request body</li>
+ * <li>wait - until the response headers arrive, which includes the RC handling the request</li>
+ * <li>read - reading the response body</li>
+ * <li>decode - decoding the JSON response</li>
+ * </ul>
+ * Requests made through an AsyncApplication have encode, exchange (everything on the I/O thread) and decode phases.
+ * Requests answered from a recording (see Application.replay(File)) have encode, replay and decode phases.
+ * <p>
+ * Every request carries an X-Twin-Request-Id header, which the RC logs, and which is available from a failed request
+ * as TwinException.getRequestId(). RCs that support it also report how long they took: handler is the whole of their
+ * handling, sta-wait the time spent queued for the STA thread that all UI Automation calls go through, and sta the
+ * time spent running on it.
+ * <p>
+ * Spans are kept in memory, the oldest being dropped beyond a limit. They can be written in the Chrome trace event
+ * format, to be opened in chrome://tracing or Perfetto:
+ * <pre>
+ * TwinTrace trace = new TwinTrace();
+ * application.setTrace(trace);
+ * ... run the test ...
+ * trace.writeChromeTrace(new File("twin-trace.json"));
+ * </pre>
+ */
+public class TwinTrace {
+	/** The number of spans kept by default */
+	public static final int DEFAULT_CAPACITY = 100000;
+
+	private final int capacity;
+	private final LinkedList<Span> spans = new LinkedList<Span>();
+	/** Times in the Chrome trace are relative to this */
+	private final long origin = System.nanoTime();
+
+	public TwinTrace() {
+		this(DEFAULT_CAPACITY);
+	}
+	/** @param capacity the most spans to keep; older ones are dropped */
+	public TwinTrace(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive: "+capacity);
+		this.capacity = capacity;
+	}
+
+	synchronized void add(Span span) {
+		spans.add(span);
+		if(spans.size() > capacity)
+			spans.removeFirst();
+	}
+	/** The spans recorded so far, oldest first */
+	public synchronized List<Span> getSpans() {
+		return new ArrayList<Span>(spans);
+	}
+	/** Forget all spans recorded so far */
+	public synchronized void clear() {
+		spans.clear();
+	}
+
+	/** Write the spans recorded so far to a file in the Chrome trace event format */
+	public void writeChromeTrace(File file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			writeChromeTrace(out);
+		} finally {
+			out.close();
+		}
+	}
+	/**
+	 * Write the spans recorded so far in the Chrome trace event format.
+	 * <p>
+	 * Requests appear in process "Twin client", on the thread that made them, with their phases nested inside.
+	 * What the RC reported appears in process "RC" on a matching thread. The two machines' clocks can't be compared,
+	 * so the RC's handling is drawn in the middle of the wait phase; the gaps either side of it are the wire.
+	 */
+	public void writeChromeTrace(OutputStream out) throws IOException {
+		List<Object> events = new ArrayList<Object>();
+		events.add(metadata("process_name", CLIENT_PID, null, "Twin client"));
+		events.add(metadata("process_name", RC_PID, null, "RC"));
+		Set<Long> threads = new HashSet<Long>();
+		for(Span span : getSpans()) {
+			if(threads.add(span.threadId)) {
+				events.add(metadata("thread_name", CLIENT_PID, span.threadId, span.threadName));
+				events.add(metadata("thread_name", RC_PID, span.threadId, span.threadName));
+			}
+			Map<String,Object> args = new LinkedHashMap<String,Object>();
+			args.put("requestId", span.requestId);
+			if(span.error != null)
+				args.put("error", span.error);
+			for(Map.Entry<String,Double> timing : span.serverMillis.entrySet())
+				args.put("server."+timing.getKey(), timing.getValue());
+			events.add(event(span.endpoint, "request", CLIENT_PID, span.threadId, micros(span.start - origin), micros(span.nanos), args));
+
+			long phaseStart = span.start;
+			long waitStart = -1, waitNanos = 0;
+			for(Map.Entry<String,Long> phase : span.phases.entrySet()) {
+				events.add(event(phase.getKey(), "phase", CLIENT_PID, span.threadId, micros(phaseStart - origin), micros(phase.getValue()), null));
+				if(phase.getKey().equals("wait") || phase.getKey().equals("exchange")) {
+					waitStart = phaseStart;
+					waitNanos = phase.getValue();
+				}
+				phaseStart += phase.getValue();
+			}
+
+			Double handler = span.serverMillis.get("handler");
+			if(handler != null && waitStart >= 0) {
+				long handlerNanos = Math.min((long)(handler * 1e6), waitNanos);
+				long handlerStart = waitStart + (waitNanos - handlerNanos) / 2;
+				Map<String,Object> rcArgs = Collections.<String,Object>singletonMap("requestId", span.requestId);
+				events.add(event(span.endpoint, "rc", RC_PID, span.threadId, micros(handlerStart - origin), micros(handlerNanos), rcArgs));
+				// the STA thread is waited for, then run on, possibly several times; drawn as one of each
+				long staStart = handlerStart;
+				for(String name : new String[] { "sta-wait", "sta" }) {
+					Double millis = span.serverMillis.get(name);
+					if(millis == null)
+						continue;
+					long nanos = Math.min((long)(millis * 1e6), handlerStart + handlerNanos - staStart);
+					events.add(event(name, "rc", RC_PID, span.threadId, micros(staStart - origin), micros(nanos), null));
+					staStart += nanos;
+				}
+			}
+		}
+		Map<String,Object> trace = new LinkedHashMap<String,Object>();
+		trace.put("traceEvents", events);
+		trace.put("displayTimeUnit", "ms");
+		JSON.encode(trace, out);
+		out.flush();
+	}
+	private static final int CLIENT_PID = 1, RC_PID = 2;
+	private static Map<String,Object> event(String name, String category, int pid, long tid, double ts, double dur, Map<String,Object> args) {
+		Map<String,Object> event = new LinkedHashMap<String,Object>();
+		event.put("name", name);
+		event.put("cat", category);
+		event.put("ph", "X");
+		event.put("pid", pid);
+		event.put("tid", tid);
+		event.put("ts", ts);
+		event.put("dur", dur);
+		if(args != null)
+			event.put("args", args);
+		return event;
+	}
+	private static Map<String,Object> metadata(String name, int pid, Long tid, String value) {
+		Map<String,Object> event = new LinkedHashMap<String,Object>();
+		event.put("name", name);
+		event.put("ph", "M");
+		event.put("pid", pid);
+		if(tid != null)
+			event.put("tid", tid);
+		event.put("args", Collections.singletonMap("name", value));
+		return event;
+	}
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	/**
+	 * Parse a Server-Timing header, e.g. "handler;dur=12.5, sta-wait;dur=0.1, sta;dur=11.9"
+	 * @return the duration of each metric in milliseconds, empty if there is no header. Metrics without one are left out.
+	 */
+	static Map<String,Double> parseServerTiming(String header) {
+		Map<String,Double> result = new LinkedHashMap<String,Double>();
+		if(header == null)
+			return result;
+		for(String metric : header.split(",")) {
+			String[] params = metric.split(";");
+			for(int i=1; i<params.length; i++) {
+				String param = params[i].trim();
+				if(!param.startsWith("dur="))
+					continue;
+				try {
+					result.put(params[0].trim(), Double.valueOf(param.substring(4).trim()));
+				} catch (NumberFormatException e) {
+					// ignore a malformed metric rather than fail the request
+				}
+			}
+		}
+		return result;
+	}
+
+	/** One request, with the time taken by each of its phases */
+	public static class Span {
+		private final String requestId;
+		private final String endpoint;
+		private final String threadName;
+		private final long threadId;
+		private final long start;
+		private long phaseEnd;
+		private long nanos;
+		private String error;
+		private final Map<String,Long> phases = new LinkedHashMap<String,Long>();
+		private Map<String,Double> serverMillis = Collections.emptyMap();
+
+		/** Start a span on the current thread */
+		Span(String requestId, String endpoint, long start) {
+			this.requestId = requestId;
+			this.endpoint = endpoint;
+			this.start = this.phaseEnd = start;
+			this.threadName = Thread.currentThread().getName();
+			this.threadId = Thread.currentThread().getId();
+		}
+		/** Record that the named phase, which began when the previous one ended, ended at the given System.nanoTime() */
+		void phase(String name, long end) {
+			phases.put(name, Math.max(0, end - phaseEnd));
+			phaseEnd = Math.max(phaseEnd, end);
+		}
+		void setServerTiming(String header) {
+			serverMillis = parseServerTiming(header);
+		}
+		void finish(long end, String error) {
+			this.nanos = end - start;
+			this.error = error;
+		}
+
+		/** The value of the X-Twin-Request-Id header the request was sent with */
+		public String getRequestId() {
+			return requestId;
+		}
+		/** e.g. "GET /session/:session/element/:id/children", as reported to TwinMetrics */
+		public String getEndpoint() {
+			return endpoint;
+		}
+		/** The name of the thread that made the request */
+		public String getThreadName() {
+			return threadName;
+		}
+		/** When the request was started, as a System.nanoTime() */
+		public long getStartNanos() {
+			return start;
+		}
+		/** The time from starting the request to decoding the response, in nanoseconds */
+		public long getNanos() {
+			return nanos;
+		}
+		/** The name of the error the request failed with, e.g. "NoSuchElement", or null if it succeeded */
+		public String getError() {
+			return error;
+		}
+		/** The time taken by each phase that was reached, in nanoseconds, in the order they happened */
+		public Map<String,Long> getPhases() {
+			return Collections.unmodifiableMap(phases);
+		}
+		/** The times the RC reported, in milliseconds, e.g. "handler" and "sta". Empty if the RC didn't report any. */
+		public Map<String,Double> getServerMillis() {
+			return Collections.unmodifiableMap(serverMillis);
+		}
+		public String toString() {
+			StringBuilder result = new StringBuilder();
+			result.append(requestId).append(' ').append(endpoint).append(String.format(" %.2fms", nanos / 1e6));
+			for(Map.Entry<String,Long> phase : phases.entrySet())
+				result.append(String.format(" %s=%.2f", phase.getKey(), phase.getValue() / 1e6));
+			for(Map.Entry<String,Double> timing : serverMillis.entrySet())
+				result.append(String.format(" rc.%s=%.2f", timing.getKey(), timing.getValue()));
+			if(error != null)
+				result.append(' ').append(error);
+			return result.toString();
+		}
+	}
+}
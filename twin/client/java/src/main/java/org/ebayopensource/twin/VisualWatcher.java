@@ -0,0 +1,150 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+
+/**
+ * Waits for an element, or an area of it, to change on screen or to stop changing, by comparing screenshots.
+ * <p>
+ * The watcher remembers the last screenshot it took, and compares new ones against it. Create the watcher (or call
+ * capture()) before doing whatever should change the screen, then wait:
+ * <pre>
+ * VisualWatcher watcher = new VisualWatcher(window);
+ * button.click();
+ * watcher.waitForVisualChange(null, 5);
+ * watcher.waitForVisualStability(0.5);
+ * </pre>
+ * Each screenshot is decoded and hashed once however often it is compared, see ScreenshotDiff.
+ */
+public class VisualWatcher {
+	private final Element element;
+	private final Rectangle area;
+	private int tileSize = ScreenshotDiff.DEFAULT_TILE_SIZE;
+	private double pollInterval = 0.1;
+	private Screenshot last;
+
+	/** Watch the whole of an element. A screenshot is taken straight away to compare against. */
+	public VisualWatcher(Element element) throws TwinException {
+		this(element, null);
+	}
+	/**
+	 * Watch an area of an element. A screenshot is taken straight away to compare against.
+	 * @param area the area relative to the element, or null for all of it
+	 */
+	public VisualWatcher(Element element, Rectangle area) throws TwinException {
+		this.element = element;
+		this.area = area == null ? null : new Rectangle(area);
+		capture();
+	}
+
+	/** Set the width and height of the tiles compared, in pixels. Smaller tiles find changes more exactly. */
+	public void setTileSize(int tileSize) {
+		if(tileSize < 1)
+			throw new IllegalArgumentException("Tile size must be at least 1: "+tileSize);
+		this.tileSize = tileSize;
+	}
+	/** Set how long to wait between screenshots, in seconds. The default is 0.1. */
+	public void setPollInterval(double pollInterval) {
+		if(!(pollInterval > 0) || Double.isInfinite(pollInterval))
+			throw new IllegalArgumentException("Poll interval must be positive: "+pollInterval);
+		this.pollInterval = pollInterval;
+	}
+	/** The last screenshot taken, which changes are measured against */
+	public Screenshot getLastScreenshot() {
+		return last;
+	}
+	/** Take a new screenshot to compare against */
+	public Screenshot capture() throws TwinException {
+		return last = area == null ? element.getScreenshot() : element.getScreenshot(area);
+	}
+
+	/**
+	 * Wait for anything in the watched area to change, using the application's timeout.
+	 * @see #waitForVisualChange(Rectangle, double)
+	 */
+	public ScreenshotDiff waitForVisualChange() throws TwinException {
+		return waitForVisualChange(null, element.getApplication().getTimeout());
+	}
+	/**
+	 * Wait for the screen to change from the last screenshot taken. Once it has, the new screenshot becomes the one
+	 * compared against.
+	 * @param region the part of the watched area to look at, relative to it, or null for all of it
+	 * @param timeout how long to wait in seconds
+	 * @return what changed. Only the tiles touching region are certain to be included.
+	 * @throws TwinException if nothing changed within the timeout
+	 */
+	public ScreenshotDiff waitForVisualChange(Rectangle region, double timeout) throws TwinException {
+		long deadline = deadline(timeout);
+		while(true) {
+			Screenshot before = last;
+			Screenshot after = capture();
+			ScreenshotDiff diff = ScreenshotDiff.compare(before, after, tileSize);
+			if(region == null ? diff.isChanged() : diff.isChanged(region))
+				return diff;
+			last = before; // changes outside the region build up until one inside it is seen
+			if(System.currentTimeMillis() >= deadline)
+				throw TwinError.UnknownError.create("No visual change in "+describe(region)+" after waiting "+timeout);
+			sleep(deadline);
+		}
+	}
+
+	/**
+	 * Wait until the watched area has stopped changing for the given time, using the application's timeout.
+	 * @see #waitForVisualStability(double, double)
+	 */
+	public Screenshot waitForVisualStability(double duration) throws TwinException {
+		return waitForVisualStability(duration, element.getApplication().getTimeout());
+	}
+	/**
+	 * Wait until the watched area has stopped changing: until screenshots taken over the given time are all the same.
+	 * This is useful after an animation, or while a window is still drawing.
+	 * @param duration how long the screen must stay the same, in seconds
+	 * @param timeout how long to wait in total, in seconds
+	 * @return the final screenshot, which becomes the one compared against
+	 * @throws TwinException if the screen didn't stay the same for long enough within the timeout
+	 */
+	public Screenshot waitForVisualStability(double duration, double timeout) throws TwinException {
+		long deadline = deadline(timeout);
+		long stableSince = System.currentTimeMillis();
+		long needed = ConnectionConfig.millis(duration);
+		while(true) {
+			Screenshot before = last;
+			Screenshot after = capture();
+			long now = System.currentTimeMillis();
+			if(ScreenshotDiff.compare(before, after, tileSize).isChanged())
+				stableSince = now;
+			else if(now - stableSince >= needed)
+				return after;
+			if(now >= deadline)
+				throw TwinError.UnknownError.create(describe(null)+" didn't stop changing for "+duration+" after waiting "+timeout);
+			sleep(deadline);
+		}
+	}
+
+	private static long deadline(double timeout) {
+		long now = System.currentTimeMillis();
+		return Double.isInfinite(timeout) ? Long.MAX_VALUE : now + ConnectionConfig.millis(timeout);
+	}
+	private void sleep(long deadline) throws TwinException {
+		long millis = Math.min(ConnectionConfig.millis(pollInterval), deadline - System.currentTimeMillis());
+		if(millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw TwinError.UnknownError.create("Interrupted while waiting for "+describe(null), e);
+		}
+	}
+	private String describe(Rectangle region) {
+		String description = element.toString();
+		if(area != null)
+			description += " area "+area;
+		if(region != null)
+			description += " region "+region;
+		return description;
+	}
+}
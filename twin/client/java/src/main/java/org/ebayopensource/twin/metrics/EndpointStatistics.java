@@ -0,0 +1,72 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.metrics;
+
+/**
+ * A summary of the requests made to one endpoint, as it was when it was taken. Times are in milliseconds.
+ * @see HistogramMetrics#getEndpointStatistics()
+ */
+public class EndpointStatistics {
+	private final String endpoint;
+	private final long requests, errors, bytesSent, bytesReceived;
+	private final double totalMillis, meanMillis, medianMillis, p90Millis, p99Millis, maxMillis;
+
+	EndpointStatistics(String endpoint, LatencyHistogram latency, long errors, long bytesSent, long bytesReceived) {
+		this.endpoint = endpoint;
+		this.requests = latency.getCount();
+		this.errors = errors;
+		this.bytesSent = bytesSent;
+		this.bytesReceived = bytesReceived;
+		this.totalMillis = millis(latency.getTotal());
+		this.meanMillis = latency.getMean() / 1e6;
+		this.medianMillis = millis(latency.getValueAtPercentile(50));
+		this.p90Millis = millis(latency.getValueAtPercentile(90));
+		this.p99Millis = millis(latency.getValueAtPercentile(99));
+		this.maxMillis = millis(latency.getMax());
+	}
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	/** e.g. "GET /session/:session/element/:id/children" */
+	public String getEndpoint() {
+		return endpoint;
+	}
+	public long getRequests() {
+		return requests;
+	}
+	/** The number of requests that failed, including those the RC reported an error for */
+	public long getErrors() {
+		return errors;
+	}
+	public long getBytesSent() {
+		return bytesSent;
+	}
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+	/** The time spent on all requests, which is what to look at first to make a suite faster */
+	public double getTotalMillis() {
+		return totalMillis;
+	}
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+	public double getMedianMillis() {
+		return medianMillis;
+	}
+	public double getP90Millis() {
+		return p90Millis;
+	}
+	public double getP99Millis() {
+		return p99Millis;
+	}
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+	public String toString() {
+		return String.format("%-60s %8d %6d %10.1f %8.2f %8.2f %8.2f %8.2f %8.2f", endpoint, requests, errors, totalMillis, meanMillis, medianMillis, p90Millis, p99Millis, maxMillis);
+	}
+}
@@ -0,0 +1,127 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.metrics;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.ebayopensource.twin.TwinMetrics;
+
+/**
+ * Metrics kept in memory: a latency histogram, error count and traffic for each endpoint, and the number of requests
+ * in flight. Recording is lock-free, so one instance can be shared by every Application in a test run.
+ * <pre>
+ * HistogramMetrics metrics = new HistogramMetrics();
+ * application.setMetrics(metrics);
+ * ... run the suite ...
+ * System.out.println(metrics.getReport());
+ * </pre>
+ */
+public class HistogramMetrics implements TwinMetrics, TwinMetricsMXBean {
+	/** What is recorded for each endpoint */
+	private static class Endpoint {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong bytesSent = new AtomicLong();
+		final AtomicLong bytesReceived = new AtomicLong();
+	}
+	private final ConcurrentMap<String,Endpoint> endpoints = new ConcurrentHashMap<String,Endpoint>();
+	private final ConcurrentMap<String,AtomicLong> errors = new ConcurrentHashMap<String,AtomicLong>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private Endpoint endpoint(String name) {
+		Endpoint endpoint = endpoints.get(name);
+		if(endpoint == null) {
+			Endpoint created = new Endpoint();
+			endpoint = endpoints.putIfAbsent(name, created);
+			if(endpoint == null)
+				endpoint = created;
+		}
+		return endpoint;
+	}
+
+	public void requestStarted(String endpoint) {
+		inFlight.incrementAndGet();
+	}
+	public void requestFinished(String name, long nanos, long bytesSent, long bytesReceived, String error) {
+		inFlight.decrementAndGet();
+		Endpoint endpoint = endpoint(name);
+		endpoint.latency.record(nanos);
+		endpoint.bytesSent.addAndGet(bytesSent);
+		endpoint.bytesReceived.addAndGet(bytesReceived);
+		if(error != null) {
+			endpoint.errors.incrementAndGet();
+			AtomicLong count = errors.get(error);
+			if(count == null) {
+				AtomicLong created = new AtomicLong();
+				count = errors.putIfAbsent(error, created);
+				if(count == null)
+					count = created;
+			}
+			count.incrementAndGet();
+		}
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	public long getRequests() {
+		long total = 0;
+		for(Endpoint endpoint : endpoints.values())
+			total += endpoint.latency.getCount();
+		return total;
+	}
+	public Map<String,Long> getErrors() {
+		Map<String,Long> result = new TreeMap<String,Long>();
+		for(Map.Entry<String,AtomicLong> entry : errors.entrySet())
+			result.put(entry.getKey(), entry.getValue().get());
+		return result;
+	}
+	public long getBytesSent() {
+		long total = 0;
+		for(Endpoint endpoint : endpoints.values())
+			total += endpoint.bytesSent.get();
+		return total;
+	}
+	public long getBytesReceived() {
+		long total = 0;
+		for(Endpoint endpoint : endpoints.values())
+			total += endpoint.bytesReceived.get();
+		return total;
+	}
+	/** The latency histogram of an endpoint, or null if no requests have been made to it */
+	public LatencyHistogram getLatency(String endpoint) {
+		Endpoint e = endpoints.get(endpoint);
+		return e == null ? null : e.latency;
+	}
+	public List<EndpointStatistics> getEndpointStatistics() {
+		List<EndpointStatistics> result = new ArrayList<EndpointStatistics>();
+		for(Map.Entry<String,Endpoint> entry : endpoints.entrySet()) {
+			Endpoint e = entry.getValue();
+			result.add(new EndpointStatistics(entry.getKey(), e.latency, e.errors.get(), e.bytesSent.get(), e.bytesReceived.get()));
+		}
+		Collections.sort(result, new Comparator<EndpointStatistics>() {
+			public int compare(EndpointStatistics a, EndpointStatistics b) {
+				return Double.compare(b.getTotalMillis(), a.getTotalMillis());
+			}
+		});
+		return result;
+	}
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-60s %8s %6s %10s %8s %8s %8s %8s %8s%n", "endpoint", "requests", "errors", "total ms", "mean", "median", "p90", "p99", "max"));
+		for(EndpointStatistics statistics : getEndpointStatistics())
+			report.append(statistics).append(String.format("%n"));
+		return report.toString();
+	}
+	public void reset() {
+		endpoints.clear();
+		errors.clear();
+	}
+	public String toString() {
+		return getReport();
+	}
+}
@@ -0,0 +1,47 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.*;
+
+/**
+ * HistogramMetrics that can be watched over JMX, e.g. with JConsole while a long suite runs.
+ * <p>
+ * It is registered with the platform MBean server as org.ebayopensource.twin:type=TwinMetrics,name={name}.
+ * Call unregister() when it is no longer needed.
+ */
+public class JmxMetrics extends HistogramMetrics {
+	private final ObjectName objectName;
+
+	/**
+	 * Create metrics and register them
+	 * @param name distinguishes these metrics from others in the same JVM, e.g. the name of the suite
+	 * @throws IllegalStateException if metrics with this name are already registered
+	 */
+	public JmxMetrics(String name) {
+		try {
+			objectName = new ObjectName("org.ebayopensource.twin:type=TwinMetrics,name="+ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, TwinMetricsMXBean.class, true), objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException("Couldn't register metrics "+name, e);
+		}
+	}
+	/** The name these metrics are registered under */
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+	/** Remove these metrics from the MBean server. They can still be used. */
+	public void unregister() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (InstanceNotFoundException e) {
+			// already gone
+		} catch (JMException e) {
+			throw new IllegalStateException("Couldn't unregister metrics "+objectName, e);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of durations in nanoseconds, accurate to within 2%, in constant space.
+ * <p>
+ * As in HdrHistogram, values are counted in buckets that double in width with each power of two, each split into
+ * 64 equal sub-buckets. Recording is lock-free and never allocates, so it can be done on every request.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKETS = 128;
+	private static final int HALF = SUB_BUCKETS / 2;
+	private static final int SHIFT = 6; // log2(HALF)
+	/** Enough buckets for any positive long */
+	private static final int SIZE = SUB_BUCKETS + (63 - SHIFT - 1) * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	private static int index(long value) {
+		if(value < SUB_BUCKETS)
+			return (int)value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SHIFT;
+		return SUB_BUCKETS + (shift-1) * HALF + (int)(value >> shift) - HALF;
+	}
+	/** The largest value counted in a bucket */
+	private static long highest(int index) {
+		if(index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/** Count a duration. Negative durations are counted as 0. */
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(index(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current;
+		while(nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+			// another thread raised it, try again
+		}
+	}
+	/** The number of durations counted */
+	public long getCount() {
+		return count.get();
+	}
+	/** The sum of all durations counted, in nanoseconds */
+	public long getTotal() {
+		return total.get();
+	}
+	/** The mean duration in nanoseconds, 0 if there are none */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double)total.get() / n;
+	}
+	/** The longest duration counted, in nanoseconds */
+	public long getMax() {
+		return max.get();
+	}
+	/**
+	 * The duration that the given percentage of those counted were no longer than, in nanoseconds.
+	 * @param percentile from 0 to 100, e.g. 99 for the 99th percentile
+	 * @return the value, rounded up to the end of its bucket but never above the maximum. 0 if there are none.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if(n == 0)
+			return 0;
+		long wanted = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n));
+		long seen = 0;
+		for(int i=0; i<SIZE; i++) {
+			seen += counts.get(i);
+			if(seen >= wanted)
+				return Math.min(highest(i), max.get());
+		}
+		return max.get(); // counts were added while we looked
+	}
+	/** Forget all durations counted so far */
+	public void reset() {
+		for(int i=0; i<SIZE; i++)
+			counts.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+}
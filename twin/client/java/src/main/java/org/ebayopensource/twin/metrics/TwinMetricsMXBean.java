@@ -0,0 +1,28 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.metrics;
+
+import java.util.*;
+
+/**
+ * The management interface of JmxMetrics, as seen in JConsole or VisualVM.
+ * @see JmxMetrics
+ */
+public interface TwinMetricsMXBean {
+	/** The number of requests sent and not yet finished */
+	public int getInFlight();
+	/** The number of requests finished */
+	public long getRequests();
+	/** The number of failed requests, by error name */
+	public Map<String,Long> getErrors();
+	public long getBytesSent();
+	public long getBytesReceived();
+	/** A summary of each endpoint, the one that has taken the most time in total first */
+	public List<EndpointStatistics> getEndpointStatistics();
+	/** getEndpointStatistics() as a table */
+	public String getReport();
+	/** Forget everything counted so far */
+	public void reset();
+}
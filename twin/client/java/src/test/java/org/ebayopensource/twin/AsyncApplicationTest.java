@@ -0,0 +1,341 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.element.*;
+import org.ebayopensource.twin.pattern.Editable;
+
+public class AsyncApplicationTest {
+	private StubRC rc;
+	private StubRC.Node window;
+	private StubRC.Node edit;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		window = rc.addWindow("Main");
+		edit = rc.add(window, "Edit", "Search", "edit");
+		edit.properties.put("value", "hello");
+		edit.bounds = new Rectangle(10, 20, 300, 25);
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	private AsyncApplication open() {
+		AsyncApplication app = new AsyncApplication(rc.getURL());
+		app.open("stub", null).getResult();
+		return app;
+	}
+	private static AsyncApplication open(StubRC rc, ConnectionConfig config) {
+		Application session = new Application(rc.getURL());
+		session.setConnectionConfig(config);
+		AsyncApplication app = new AsyncApplication(session);
+		app.open("stub", null).getResult();
+		return app;
+	}
+
+	@Test
+	public void testOperations() {
+		AsyncApplication app = open();
+		Element element = app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+		TwinFuture<String> name = app.getName(element);
+		TwinFuture<String> value = app.getValue(element);
+		TwinFuture<Rectangle> bounds = app.getBounds(element);
+		TwinFuture<Element> parent = app.getParent(element);
+		TwinFuture<List<Element>> children = app.getChildren(app.getDesktop(), null);
+		assertEquals("Search", name.getResult());
+		assertEquals("hello", value.getResult());
+		assertEquals(new Rectangle(10, 20, 300, 25), bounds.getResult());
+		assertTrue(parent.getResult() instanceof Window);
+		assertEquals(1, children.getResult().size());
+
+		app.setValue(element, "world").getResult();
+		assertEquals("world", edit.properties.get("value"));
+		app.close().getResult();
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		File file = File.createTempFile("twin", ".recording");
+		try {
+			Application session = new Application(rc.getURL());
+			session.startRecording(file);
+			AsyncApplication app = new AsyncApplication(session);
+			app.open("stub", null).getResult();
+			app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+			assertTrue(session.elements.size() > 0);
+			app.close().getResult();
+			// as Application.close() does
+			assertNull(session.sessionId);
+			assertEquals(0, session.elements.size());
+			assertNull(session.connection.recorder);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testChunkedResponses() {
+		rc.setChunkedResponses(true);
+		AsyncApplication app = open();
+		Element element = app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+		assertEquals("hello", app.getValue(element).getResult());
+		rc.remove(edit);
+		try {
+			app.getName(element).getResult();
+			fail("Expected failure for removed element");
+		} catch (TwinNoSuchElementException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMixedWithBlockingCalls() {
+		Application app = rc.open();
+		Element element = app.getDesktop().getDescendant(Criteria.name("Search"));
+		app.async().setValue(element, "async").getResult();
+		assertEquals("async", ((Editable)element).getValue());
+	}
+
+	@Test
+	public void testCallbacks() throws Exception {
+		final AsyncApplication app = open();
+		final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+		final BlockingQueue<String> threads = new LinkedBlockingQueue<String>();
+		rc.setResponseDelay(100); // so the callback is added before the response arrives
+		app.getDescendant(app.getDesktop(), Criteria.name("Search")).addCallback(new TwinCallback<Element>() {
+			public void onSuccess(Element element) {
+				threads.add(Thread.currentThread().getName());
+				// chain the next operation without blocking
+				app.getValue(element).addCallback(new TwinCallback<String>() {
+					public void onSuccess(String value) {
+						results.add(value);
+					}
+					public void onFailure(TwinException e) {
+						results.add(e);
+					}
+				});
+			}
+			public void onFailure(TwinException e) {
+				results.add(e);
+			}
+		});
+		assertEquals("hello", results.poll(10, TimeUnit.SECONDS));
+		assertFalse(Thread.currentThread().getName().equals(threads.poll()));
+
+		// added after completion, runs immediately on this thread
+		TwinFuture<Element> done = app.getDescendant(app.getDesktop(), Criteria.name("Missing"));
+		try {
+			done.getResult();
+			fail("Expected no such element");
+		} catch (TwinNoSuchElementException e) {
+			// expected
+		}
+		done.addCallback(new TwinCallback<Element>() {
+			public void onSuccess(Element element) {
+				results.add(element);
+			}
+			public void onFailure(TwinException e) {
+				threads.add(Thread.currentThread().getName());
+				results.add(e);
+			}
+		});
+		assertTrue(results.poll() instanceof TwinNoSuchElementException);
+		assertEquals(Thread.currentThread().getName(), threads.poll());
+	}
+
+	@Test
+	public void testConcurrentRequestsDontNeedThreads() {
+		int sessions = 20, requestsPerSession = 10;
+		long delay = 200;
+		List<AsyncApplication> apps = new ArrayList<AsyncApplication>();
+		List<Element> elements = new ArrayList<Element>();
+		for(int i=0; i<sessions; i++) {
+			AsyncApplication app = open();
+			apps.add(app);
+			elements.add(app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult());
+		}
+		rc.setResponseDelay(delay);
+
+		long start = System.currentTimeMillis();
+		List<TwinFuture<String>> futures = new ArrayList<TwinFuture<String>>();
+		for(int i=0; i<requestsPerSession; i++)
+			for(int j=0; j<sessions; j++)
+				futures.add(apps.get(j).getName(elements.get(j)));
+		for(TwinFuture<String> future : futures)
+			assertEquals("Search", future.getResult());
+		long elapsed = System.currentTimeMillis() - start;
+
+		// 200 requests of 200ms each, at most 50 at a time to one server: ~800ms, not 40s
+		int total = sessions * requestsPerSession;
+		int limit = new ConnectionConfig().getMaxConnectionsPerRC();
+		int waves = (total + limit - 1) / limit;
+		assertTrue("took "+elapsed+"ms", elapsed < waves * delay * 4);
+	}
+
+	@Test
+	public void testErrors() {
+		AsyncApplication app = open();
+		try {
+			app.request("GET", "/no-such-thing", null).getResult();
+			fail("Expected failure for unknown command");
+		} catch (TwinException e) {
+			assertEquals(TwinError.UnknownCommand, e.error);
+		}
+		Element element = app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+		rc.stop();
+		TwinFuture<String> name = app.getName(element);
+		try {
+			name.get();
+			fail("Expected failure with server stopped");
+		} catch (ExecutionException e) {
+			assertEquals(TwinError.UnknownError, ((TwinException)e.getCause()).error);
+		} catch (InterruptedException e) {
+			fail("Interrupted");
+		}
+	}
+
+	@Test
+	public void testOnlyReadsResent() {
+		AsyncApplication app = open();
+		Element element = app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+		// the RC drops the connection after reading the request, as it would a kept-alive one it had closed
+		rc.dropNextRequests(1);
+		int before = rc.getRequestCount();
+		assertEquals("Search", app.getName(element).getResult());
+		assertEquals(2, rc.getRequestCount() - before);
+
+		// but it may have acted on a click, so that isn't sent again
+		rc.dropNextRequests(1);
+		before = rc.getRequestCount();
+		try {
+			app.click(element).getResult();
+			fail("Expected failure for dropped click");
+		} catch (TwinException e) {
+			assertEquals(TwinError.UnknownError, e.error);
+		}
+		assertEquals(1, rc.getRequestCount() - before);
+	}
+
+	@Test
+	public void testUnexpectedResult() throws Exception {
+		AsyncApplication app = open();
+		Element element = app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+		edit.bounds = null; // so the server answers with a null value
+		try {
+			app.getBounds(element).get(10, TimeUnit.SECONDS);
+			fail("Expected failure for null bounds");
+		} catch (ExecutionException e) {
+			assertEquals(TwinError.UnknownError, ((TwinException)e.getCause()).error);
+			assertTrue(e.getCause().getCause() instanceof NullPointerException);
+		}
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setReadTimeout(0.2);
+		AsyncApplication app = open(rc, config);
+		Element element = app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+		rc.stall();
+		long start = System.currentTimeMillis();
+		try {
+			app.getName(element).get(10, TimeUnit.SECONDS);
+			fail("Expected read timeout");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().getCause() instanceof SocketTimeoutException);
+		}
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setIdleTimeout(0.1);
+		AsyncApplication app = open(rc, config);
+		app.getName(app.getDesktop()).getResult();
+		int connections = rc.getConnectionCount();
+		app.getName(app.getDesktop()).getResult();
+		assertEquals(connections, rc.getConnectionCount());
+		Thread.sleep(500);
+		app.getName(app.getDesktop()).getResult();
+		assertEquals(connections + 1, rc.getConnectionCount());
+	}
+
+	@Test
+	public void testMaxConnections() throws Exception {
+		StubRC other = new StubRC();
+		try {
+			ConnectionConfig config = new ConnectionConfig();
+			config.setMaxConnections(1);
+			AsyncApplication app = open(rc, config);
+			AsyncApplication otherApp = open(other, config);
+			// the one connection allowed is busy with the slow server, so the other has to wait for it
+			rc.setResponseDelay(300);
+			TwinFuture<String> slow = app.getName(app.getDesktop());
+			otherApp.getName(otherApp.getDesktop()).getResult();
+			assertTrue(slow.isDone());
+			// and the idle connection to each server is closed to make room for the other
+			int connections = rc.getConnectionCount();
+			app.getName(app.getDesktop()).getResult();
+			assertEquals(connections + 1, rc.getConnectionCount());
+		} finally {
+			other.stop();
+		}
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void testNotOpen() {
+		AsyncApplication app = new AsyncApplication(rc.getURL());
+		app.getName(app.getDesktop());
+	}
+
+	@Test
+	public void testResponseParser() throws Exception {
+		String raw = "HTTP/1.1 100 Continue\r\n\r\n"
+			+ "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n"
+			+ "5;ext=1\r\n{\"a\":\r\n3\r\n12}\r\n0\r\nX-Trailer: y\r\n\r\n";
+		byte[] bytes = raw.getBytes("ISO-8859-1");
+		// feed a byte at a time to exercise every partial state
+		AsyncTransport.Response response = new AsyncTransport.Response();
+		for(int i=0; i<bytes.length; i++) {
+			assertFalse(response.isDone());
+			assertEquals(1, response.feed(new byte[] { bytes[i] }, 0, 1));
+		}
+		assertTrue(response.isDone());
+		assertEquals(200, response.code);
+		assertTrue(response.keepAlive);
+		assertEquals("{\"a\":12}", new String(response.body.toByteArray(), "UTF-8"));
+
+		response = new AsyncTransport.Response();
+		bytes = "HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\nuntil close".getBytes("ISO-8859-1");
+		response.feed(bytes, 0, bytes.length);
+		assertFalse(response.isDone());
+		assertTrue(response.endOfStream());
+		assertFalse(response.keepAlive);
+		assertEquals("until close", new String(response.body.toByteArray(), "UTF-8"));
+
+		// reported as an IOException, so that the connection is treated as broken
+		response = new AsyncTransport.Response();
+		bytes = "HTTP/1.1 200 OK\r\nContent-Length: lots\r\n\r\n".getBytes("ISO-8859-1");
+		try {
+			response.feed(bytes, 0, bytes.length);
+			fail("Expected IOException for bad Content-Length");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("Content-Length"));
+		}
+	}
+}
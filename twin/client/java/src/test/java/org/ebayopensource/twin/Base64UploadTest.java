@@ -0,0 +1,117 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class Base64UploadTest {
+	private StubRC rc;
+	private Application app;
+	private File file;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		app = rc.open();
+		file = File.createTempFile("twin", ".csv");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data(10000));
+		} finally {
+			out.close();
+		}
+	}
+	@AfterMethod
+	public void tearDown() {
+		file.delete();
+		rc.stop();
+	}
+
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+	private byte[] uploaded(Attachment attachment) {
+		return rc.getAttachment(attachment.remote.uuid);
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		Attachment attachment = app.upload(file);
+		assertTrue(Arrays.equals(data(10000), uploaded(attachment)));
+	}
+
+	@Test
+	public void testMissingFile() throws Exception {
+		File missing = new File(file.getPath()+".missing");
+		int before = rc.getRequestCount();
+		try {
+			app.upload(missing);
+			fail("Expected FileNotFoundException");
+		} catch (FileNotFoundException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(missing.getName()));
+		}
+		// found before anything was sent
+		assertEquals(before, rc.getRequestCount());
+	}
+
+	@Test
+	public void testLargeStream() throws Exception {
+		byte[] data = data(5 * 1024 * 1024 + 1); // not a whole number of base64 blocks
+		Attachment attachment = app.upload(new ByteArrayInputStream(data), "large.bin");
+		assertTrue(Arrays.equals(data, uploaded(attachment)));
+	}
+
+	@Test
+	public void testRepeatable() throws Exception {
+		Map<String,Object> body = new HashMap<String,Object>();
+		body.put("data", new Base64Upload(file));
+		assertTrue(new JSONEntity(body).isRepeatable());
+		body.put("data", new Base64Upload(new ByteArrayInputStream(data(100))));
+		assertFalse(new JSONEntity(body).isRepeatable());
+		assertFalse(new JSONEntity(Collections.singletonList(body), true).isRepeatable());
+	}
+
+	@Test
+	public void testResent() throws Exception {
+		// as httpclient does when it retries a request
+		Map<String,Object> body = new HashMap<String,Object>();
+		body.put("data", new Base64Upload(file));
+		JSONEntity entity = new JSONEntity(body);
+		ByteArrayOutputStream first = new ByteArrayOutputStream(), second = new ByteArrayOutputStream();
+		entity.writeTo(first);
+		entity.writeTo(second);
+		assertTrue(Arrays.equals(first.toByteArray(), second.toByteArray()));
+
+		body.put("data", new Base64Upload(new ByteArrayInputStream(data(100))));
+		entity = new JSONEntity(body);
+		entity.writeTo(new ByteArrayOutputStream());
+		try {
+			entity.writeTo(new ByteArrayOutputStream());
+			fail("Expected IOException");
+		} catch (IOException e) {
+			// which is why it isn't repeatable
+		}
+	}
+
+	@Test
+	public void testStreamNotRetried() throws Exception {
+		// the RC drops the connection after reading the request
+		rc.dropNextRequests(1);
+		int before = rc.getRequestCount();
+		try {
+			app.upload(new ByteArrayInputStream(data(10000)));
+			fail("Expected TwinException");
+		} catch (TwinException e) {
+			// the stream has been read, so can't be sent again
+		}
+		assertEquals(1, rc.getRequestCount() - before);
+	}
+}
@@ -0,0 +1,196 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.element.*;
+
+public class BatchTest {
+	private StubRC rc;
+	private Application app;
+	private StubRC.Node window;
+	private StubRC.Node edit;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		window = rc.addWindow("Main");
+		edit = rc.add(window, "Edit", "Search", "edit", "expand");
+		edit.properties.put("value", "hello");
+		edit.properties.put("expanded", false);
+		edit.bounds = new Rectangle(10, 20, 300, 25);
+		app = rc.open();
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	private Element find(String name) {
+		return app.getDesktop().getDescendant(Criteria.name(name));
+	}
+
+	@Test
+	public void testOneRoundTrip() throws Exception {
+		Element element = find("Search");
+		int before = rc.getRequestCount();
+
+		Batch batch = app.batch();
+		TwinFuture<String> name = batch.getName(element);
+		TwinFuture<Boolean> enabled = batch.isEnabled(element);
+		TwinFuture<String> value = batch.getValue(element);
+		TwinFuture<Boolean> expanded = batch.isExpanded(element);
+		TwinFuture<Rectangle> bounds = batch.getBounds(element);
+		TwinFuture<Element> parent = batch.getParent(element);
+		assertEquals(6, batch.size());
+		assertFalse(name.isDone());
+		batch.execute();
+
+		assertEquals(before + 1, rc.getRequestCount());
+		assertEquals("Search", name.get());
+		assertEquals(Boolean.TRUE, enabled.get());
+		assertEquals("hello", value.getResult());
+		assertEquals(Boolean.FALSE, expanded.getResult());
+		assertEquals(new Rectangle(10, 20, 300, 25), bounds.getResult());
+		assertTrue(parent.getResult() instanceof Window);
+		assertEquals("Main", parent.getResult().getName());
+	}
+
+	@Test
+	public void testWritesAreOrdered() {
+		Element element = find("Search");
+		Batch batch = app.batch();
+		TwinFuture<Void> set = batch.setValue(element, "world");
+		TwinFuture<String> get = batch.getValue(element);
+		batch.execute();
+		assertNull(set.getResult());
+		assertEquals("world", get.getResult());
+		assertEquals("world", edit.properties.get("value"));
+	}
+
+	@Test
+	public void testFailuresAreIndependent() throws Exception {
+		Element element = find("Search");
+		StubRC.Node ok = rc.add(window, "Button", "OK");
+		Element button = find("OK");
+		rc.remove(ok);
+
+		Batch batch = app.batch();
+		TwinFuture<String> gone = batch.getName(button);
+		TwinFuture<String> name = batch.getName(element);
+		TwinFuture<Object> unknown = batch.request("GET", "/element/"+((RemoteResourceInterface)element).getRemote().uuid+"/no-such-thing", null);
+		batch.execute();
+
+		try {
+			gone.get();
+			fail("Expected failure for removed element");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TwinNoSuchElementException);
+		}
+		try {
+			gone.getResult();
+			fail("Expected failure for removed element");
+		} catch (TwinNoSuchElementException e) {
+			// expected
+		}
+		assertEquals("Search", name.getResult());
+		try {
+			unknown.getResult();
+			fail("Expected failure for unknown command");
+		} catch (TwinException e) {
+			assertEquals(TwinError.UnknownCommand, e.error);
+		}
+	}
+
+	@Test
+	public void testUnexpectedResult() throws Exception {
+		Element element = find("Search");
+		edit.bounds = null; // so the server answers with a null value
+		for(boolean batchSupported : new boolean[] { true, false }) {
+			rc.setBatchSupported(batchSupported);
+			app.batchSupported = batchSupported;
+			Batch batch = app.batch();
+			TwinFuture<String> name = batch.getName(element);
+			TwinFuture<Rectangle> bounds = batch.getBounds(element);
+			TwinFuture<String> value = batch.getValue(element);
+			batch.execute();
+			assertEquals("Search", name.getResult());
+			try {
+				bounds.get(10, TimeUnit.SECONDS);
+				fail("Expected failure for null bounds");
+			} catch (ExecutionException e) {
+				assertEquals(TwinError.UnknownError, ((TwinException)e.getCause()).error);
+				assertTrue(e.getCause().getCause() instanceof NullPointerException);
+			}
+			// and the entries after it still complete
+			assertEquals("hello", value.get(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testFallbackForOlderServer() {
+		rc.setBatchSupported(false);
+		Element element = find("Search");
+		int before = rc.getRequestCount();
+
+		Batch batch = app.batch();
+		TwinFuture<String> name = batch.getName(element);
+		TwinFuture<String> value = batch.getValue(element);
+		batch.execute();
+		assertEquals("Search", name.getResult());
+		assertEquals("hello", value.getResult());
+		assertEquals(before + 3, rc.getRequestCount()); // the failed batch, then one each
+		assertFalse(app.batchSupported);
+
+		// once we know, don't try again
+		before = rc.getRequestCount();
+		batch = app.batch();
+		name = batch.getName(element);
+		batch.execute();
+		assertEquals("Search", name.getResult());
+		assertEquals(before + 1, rc.getRequestCount());
+	}
+
+	@Test
+	public void testEmptyBatchSendsNothing() {
+		int before = rc.getRequestCount();
+		app.batch().execute();
+		assertEquals(before, rc.getRequestCount());
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void testExecuteTwice() {
+		Batch batch = app.batch();
+		batch.getName(find("Search"));
+		batch.execute();
+		batch.execute();
+	}
+
+	@Test
+	public void testWholeBatchFailure() {
+		Element element = find("Search");
+		Batch batch = app.batch();
+		TwinFuture<String> name = batch.getName(element);
+		rc.stop();
+		try {
+			batch.execute();
+			fail("Expected failure with server stopped");
+		} catch (TwinException e) {
+			assertTrue(name.isDone());
+			try {
+				name.getResult();
+				fail("Expected future to fail");
+			} catch (TwinException e2) {
+				assertSame(e, e2);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.json.JSON;
+
+public class CompactPropertiesTest {
+	@SuppressWarnings("unchecked")
+	private static Map<String,Object> decode(String json) {
+		return (Map<String,Object>)JSON.decode(json);
+	}
+	private static final String ELEMENT = "{\"class\":\"Twin.Model.Element\",\"uuid\":\"3f2504e0-4f89-11d3-9a0c-0305e82c3301\",\"hCode\":12345,"
+		+ "\"controlType\":\"TreeItem\",\"name\":\"Item\",\"id\":null,\"className\":\"SysTreeView32\",\"controlPatterns\":[\"select\",\"expand\"]}";
+
+	@Test
+	public void testSameEntries() {
+		Map<String,Object> json = decode(ELEMENT);
+		CompactProperties properties = new CompactProperties(json);
+		assertEquals(json.size(), properties.size());
+		for(Map.Entry<String,Object> entry : json.entrySet()) {
+			assertTrue(entry.getKey(), properties.containsKey(entry.getKey()));
+			if(entry.getKey().equals("controlPatterns"))
+				assertEquals(new HashSet<Object>((List<?>)entry.getValue()), new HashSet<Object>((List<?>)properties.get("controlPatterns")));
+			else
+				assertEquals(entry.getKey(), entry.getValue(), properties.get(entry.getKey()));
+		}
+		assertEquals(json.keySet(), new HashMap<String,Object>(properties).keySet());
+		assertNull(properties.get("id"));
+		assertFalse(properties.containsKey("value"));
+	}
+
+	@Test
+	public void testShared() {
+		CompactProperties a = new CompactProperties(decode(ELEMENT));
+		CompactProperties b = new CompactProperties(decode(ELEMENT.replace("\"select\",\"expand\"", "\"expand\",\"select\"")));
+		assertSame(a.get("controlPatterns"), b.get("controlPatterns"));
+		assertSame(a.get("className"), b.get("className"));
+		assertSame(a.get("controlType"), b.get("controlType"));
+		assertSame(a.get("class"), b.get("class"));
+		try {
+			((List<?>)a.get("controlPatterns")).clear();
+			fail("Expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			a.put("name", "other");
+			fail("Expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testOtherEntries() {
+		Map<String,Object> json = decode("{\"class\":\"Twin.Model.Attachment\",\"uuid\":\"1\",\"path\":\"C:\\\\temp\\\\a.csv\",\"name\":7,"
+			+ "\"bounds\":{\"x\":1,\"y\":2,\"width\":3,\"height\":4},\"controlPatterns\":\"odd\"}");
+		CompactProperties properties = new CompactProperties(json);
+		assertEquals("C:\\temp\\a.csv", properties.get("path"));
+		assertEquals(7, properties.get("name")); // not a string, so kept as it came
+		assertEquals("odd", properties.get("controlPatterns"));
+		assertEquals(new Rectangle(1, 2, 3, 4), properties.get("bounds"));
+		assertEquals(json.size(), properties.size());
+	}
+
+	@Test
+	public void testElementsFromRC() throws Exception {
+		StubRC rc = new StubRC();
+		try {
+			StubRC.Node window = rc.addWindow("Main");
+			rc.add(window, "Edit", "field", "edit").id = "f1";
+			Application app = rc.open();
+			Element field = app.getDesktop().getChild(Criteria.name("Main")).getChild(Criteria.id("f1"));
+			RemoteObject remote = ((RemoteResourceInterface)field).getRemote();
+			assertTrue(remote.properties instanceof CompactProperties);
+			assertEquals("f1", field.getId());
+			assertTrue(field.is(org.ebayopensource.twin.pattern.Editable.class));
+			app.close();
+		} finally {
+			rc.stop();
+		}
+	}
+}
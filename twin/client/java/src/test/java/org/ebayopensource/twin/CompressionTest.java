@@ -0,0 +1,90 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.pattern.Editable;
+
+public class CompressionTest {
+	private StubRC rc;
+	private String text;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		StubRC.Node main = rc.addWindow("Main");
+		for(int i=0; i<100; i++)
+			rc.add(main, "Edit", "Field "+i, "edit").properties.put("value", "");
+		StringBuilder b = new StringBuilder();
+		for(int i=0; i<1000; i++)
+			b.append("line ").append(i).append('\n');
+		text = b.toString();
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	private Application open(ConnectionConfig config) {
+		Application app = new Application(rc.getURL(), config);
+		app.open("stub", null);
+		return app;
+	}
+
+	@Test
+	public void testResponses() {
+		Application app = open(new ConnectionConfig());
+		assertEquals(100, app.getDesktop().getChild(Criteria.name("Main")).getChildren().size());
+		assertTrue(rc.getCompressedResponses() > 0);
+
+		int before = rc.getCompressedResponses();
+		ConnectionConfig config = new ConnectionConfig();
+		config.setCompression(false);
+		app.setConnectionConfig(config);
+		assertEquals(100, app.getDesktop().getChild(Criteria.name("Main")).getChildren().size());
+		assertEquals(before, rc.getCompressedResponses());
+	}
+
+	@Test
+	public void testRequests() {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setRequestCompressionThreshold(1024);
+		Application app = open(config);
+		Editable field = (Editable)app.getDesktop().getDescendant(Criteria.name("Field 7"));
+		field.setValue("short");
+		assertEquals(0, rc.getCompressedRequests());
+		field.setValue(text);
+		assertEquals(1, rc.getCompressedRequests());
+		assertEquals(text, field.getValue());
+	}
+
+	@Test
+	public void testAsync() {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setRequestCompressionThreshold(1024);
+		AsyncApplication app = new AsyncApplication(new Application(rc.getURL(), config));
+		app.open("stub", null).getResult();
+		Element main = app.getDescendant(app.getDesktop(), Criteria.name("Main")).getResult();
+		List<Element> fields = app.getChildren(main, null).getResult();
+		assertEquals(100, fields.size());
+		assertTrue(rc.getCompressedResponses() > 0);
+		app.setValue(fields.get(3), text).getResult();
+		assertEquals(1, rc.getCompressedRequests());
+		assertEquals(text, app.getValue(fields.get(3)).getResult());
+	}
+
+	@Test
+	public void testOldRC() {
+		rc.setCompressionSupported(false);
+		Application app = open(new ConnectionConfig());
+		assertEquals(100, app.getDesktop().getChild(Criteria.name("Main")).getChildren().size());
+		((Editable)app.getDesktop().getDescendant(Criteria.name("Field 7"))).setValue(text);
+		assertEquals(0, rc.getCompressedResponses());
+	}
+}
@@ -0,0 +1,152 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class ConnectionConfigTest {
+	private StubRC rc;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		rc.add(rc.addWindow("Main"), "Edit", "Search", "edit").properties.put("value", "");
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	private Application open(ConnectionConfig config) {
+		Application app = new Application(rc.getURL(), config);
+		app.open("stub", null);
+		return app;
+	}
+
+	@Test
+	public void testConfigIsCopied() {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setReadTimeout(5);
+		Application app = new Application(rc.getURL(), config);
+		config.setReadTimeout(10);
+		assertEquals(5.0, app.getConnectionConfig().getReadTimeout());
+		app.getConnectionConfig().setReadTimeout(20);
+		assertEquals(5.0, app.getConnectionConfig().getReadTimeout());
+		try {
+			config.setConnectTimeout(-1);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void testReadTimeout() {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setReadTimeout(0.2);
+		Application app = open(config);
+		rc.setResponseDelay(2000);
+		long start = System.currentTimeMillis();
+		try {
+			app.getDesktop().getChildren();
+			fail("Expected TwinException");
+		} catch (TwinException e) {
+			assertEquals(TwinError.UnknownError, e.error);
+		}
+		assertTrue(System.currentTimeMillis() - start < 1500);
+	}
+
+	@Test(timeOut=10000)
+	public void testErrorsDontLeakConnections() {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setMaxConnectionsPerRC(1);
+		config.setIdleTimeout(0);
+		Application app = open(config);
+		for(int i=0; i<5; i++) {
+			try {
+				app.request("GET", "/no-such-thing", null);
+				fail("Expected TwinException");
+			} catch (TwinException expected) {
+			}
+			app.options("/desktop");
+		}
+		// with the only connection leaked, this would wait forever
+		assertEquals("Search", app.getDesktop().getDescendant(Criteria.name("Search")).getName());
+		assertEquals(1, rc.getConnectionCount());
+	}
+
+	@Test
+	public void testIdleConnectionsAreClosed() throws Exception {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setIdleTimeout(0.1);
+		Application app = open(config);
+		app.getDesktop().getChildren();
+		int connections = rc.getConnectionCount();
+		app.getDesktop().getChildren();
+		assertEquals(connections, rc.getConnectionCount());
+		Thread.sleep(500);
+		app.getDesktop().getChildren();
+		assertEquals(connections + 1, rc.getConnectionCount());
+	}
+
+	@Test
+	public void testPoolsAreStopped() {
+		int pools = TwinConnection.poolCount();
+		for(int i=0; i<5; i++) {
+			ConnectionConfig config = new ConnectionConfig();
+			config.setReadTimeout(100 + i); // so each has a pool of its own
+			config.setIdleTimeout(1 + i);
+			Application app = open(config);
+			app.getDesktop().getChildren();
+			assertEquals(pools + 1, TwinConnection.poolCount());
+			app.close();
+			assertEquals(pools, TwinConnection.poolCount());
+		}
+		int reapers = 0;
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+			if(thread.getName().equals("Twin idle connection reaper"))
+				reapers++;
+		assertTrue("reapers: "+reapers, reapers <= 1);
+	}
+
+	@Test
+	public void testSessionMovesPool() {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setReadTimeout(99);
+		int pools = TwinConnection.poolCount();
+		Application app = open(config);
+		assertEquals(pools + 1, TwinConnection.poolCount());
+		ConnectionConfig other = config.clone();
+		other.setReadTimeout(98);
+		app.setConnectionConfig(other);
+		assertEquals(pools + 1, TwinConnection.poolCount());
+		assertEquals("Search", app.getDesktop().getDescendant(Criteria.name("Search")).getName());
+		app.close();
+		assertEquals(pools, TwinConnection.poolCount());
+	}
+
+	@Test
+	public void testPipelining() {
+		ConnectionConfig config = new ConnectionConfig();
+		config.setMaxConnectionsPerRC(2);
+		config.setPipelining(true);
+		AsyncApplication app = new AsyncApplication(new Application(rc.getURL(), config));
+		app.open("stub", null).getResult();
+		Element search = app.getDescendant(app.getDesktop(), Criteria.name("Search")).getResult();
+		int before = rc.getConnectionCount();
+
+		rc.setResponseDelay(50);
+		List<TwinFuture<String>> names = new ArrayList<TwinFuture<String>>();
+		for(int i=0; i<40; i++)
+			names.add(app.getName(i % 2 == 0 ? search : app.getDesktop()));
+		TwinFuture<Void> write = app.setValue(search, "x"); // not pipelined, waits for a free connection
+		for(int i=0; i<names.size(); i++)
+			assertEquals(i % 2 == 0 ? "Search" : "Desktop", names.get(i).getResult());
+		write.getResult();
+		assertTrue(rc.getConnectionCount() - before <= 2);
+	}
+}
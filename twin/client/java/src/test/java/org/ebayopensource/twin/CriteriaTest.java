@@ -0,0 +1,113 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import static org.ebayopensource.twin.Criteria.*;
+import org.ebayopensource.twin.element.*;
+import org.ebayopensource.twin.pattern.*;
+
+public class CriteriaTest {
+	private StubRC rc;
+	private Application app;
+	private List<Element> fields;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		StubRC.Node main = rc.addWindow("Main");
+		for(int i=0; i<10; i++) {
+			StubRC.Node edit = rc.add(main, "Edit", "Field "+i, "edit");
+			edit.properties.put("value", "value "+i);
+			edit.bounds = new Rectangle(0, i*30, 200, 25);
+		}
+		rc.add(main, "Button", "Submit").properties.put("enabled", false);
+		app = rc.open();
+		fields = app.getDesktop().getChild(name("Main")).getChildren();
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	@Test
+	public void testNoRequests() {
+		int before = rc.getRequestCount();
+		assertEquals(10, type(Edit.class).select(fields).size());
+		assertEquals(10, type(Editable.class).and(nameMatches("Field \\d")).select(fields).size());
+		assertEquals(Arrays.asList(fields.get(7)), nameContains("7").select(fields));
+		assertTrue(not(type(Button.class)).matches(fields.get(0)));
+		assertTrue(name("Submit").or(className("x")).matches(fields.get(10)));
+		assertEquals(0, rc.getRequestCount() - before);
+	}
+
+	@Test
+	public void testOperators() {
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("name", "Save As...");
+		properties.put("value", null);
+		properties.put("bounds", new Rectangle(10, 10, 50, 20));
+		assertTrue(regex("name", "Save.*").matches(properties));
+		assertFalse(regex("name", "Save").matches(properties)); // the whole value must match
+		assertFalse(regex("value", ".*").matches(properties));
+		assertTrue(contains("name", "As").matches(properties));
+		assertFalse(contains("name", "as").matches(properties));
+		assertTrue(within(new Rectangle(0, 0, 100, 100)).matches(properties));
+		assertFalse(within(new Rectangle(20, 0, 100, 100)).matches(properties));
+		assertTrue(containing(new Point(59, 29)).matches(properties));
+		assertFalse(containing(new Point(60, 10)).matches(properties));
+		assertEquals("(name~/Save.*/ and bounds within (0,0 100x100))", regex("name", "Save.*").and(within(new Rectangle(0, 0, 100, 100))).toString());
+	}
+
+	@Test
+	public void testCachedProperties() {
+		try {
+			enabled(false).select(fields);
+			fail("Expected TwinException: enabled isn't known");
+		} catch (TwinException expected) {
+		}
+
+		app.setCacheTimeout(60);
+		for(Element field : fields) {
+			field.isEnabled();
+			field.getBounds();
+		}
+		int before = rc.getRequestCount();
+		assertEquals(Arrays.asList(fields.get(10)), enabled(false).select(fields));
+		assertEquals(4, type(Edit.class).and(within(new Rectangle(0, 0, 200, 120))).select(fields).size());
+		assertEquals(1, containing(new Point(100, 100)).select(fields).size());
+		assertEquals(0, rc.getRequestCount() - before);
+	}
+
+	@Test
+	public void testClientOnlyCriteria() {
+		try {
+			app.getDesktop().getDescendant(nameContains("Field"));
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+	}
+
+	@Test
+	public void testOtherSubclasses() {
+		// as code outside this package would write, which can't override matches(Map)
+		Criteria custom = new Criteria() {
+			public Object toJSON() {
+				return Collections.singletonMap("name", "Field 1");
+			}
+		};
+		try {
+			custom.select(fields);
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+	}
+}
@@ -0,0 +1,83 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.net.URL;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.element.*;
+import org.ebayopensource.twin.pattern.*;
+
+public class ElementProxyTest {
+	private Application session;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		session = new Application(new URL("http://localhost:1/")); // never contacted
+	}
+
+	private Element create(String uuid, String controlType, String... patterns) {
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("class", "element");
+		properties.put("uuid", uuid);
+		properties.put("controlType", controlType);
+		properties.put("name", "name of "+uuid);
+		properties.put("controlPatterns", new ArrayList<Object>(Arrays.asList(patterns)));
+		return ElementImpl.create(new RemoteObject(session, "element", uuid, properties));
+	}
+
+	@Test
+	public void testProxyClassIsShared() {
+		Element a = create("a", "TreeItem", "select", "expand");
+		Element b = create("b", "TreeItem", "select", "expand");
+		Element c = create("c", "TreeItem", "select");
+		assertSame(a.getClass(), b.getClass());
+		assertNotSame(a.getClass(), c.getClass());
+		assertTrue(a instanceof TreeItem);
+		assertEquals(TreeItem.class, a.getControlType());
+		assertEquals(Arrays.asList(Selectable.class, Expandable.class), a.getControlPatterns());
+		assertEquals(Arrays.asList(Selectable.class), c.getControlPatterns());
+	}
+
+	@Test
+	public void testDispatch() {
+		Element a = create("a", "Edit", "edit");
+		assertEquals("name of a", a.getCachedName());
+		assertTrue(a.is(Editable.class));
+		assertFalse(a.is(Toggle.class));
+		assertEquals("element:a", ((RemoteResourceInterface)a).getRemote().toString());
+
+		// Object methods go through the handler too
+		Element again = create("a", "Edit", "edit");
+		assertEquals(a, again);
+		assertEquals(a.hashCode(), again.hashCode());
+		assertFalse(a.equals(create("b", "Edit", "edit")));
+		assertTrue(a.toString().startsWith("Edit(name=name of a "));
+	}
+
+	@Test
+	public void testRequirementsAreChecked() {
+		TreeItem item = (TreeItem)create("a", "TreeItem", "select");
+		try {
+			item.isExpanded(); // statically Expandable, but this one isn't
+			fail("Expected TwinException");
+		} catch (TwinException e) {
+			assertEquals("This "+TreeItem.class+" does not implement the control pattern Expandable", e.getMessage());
+		}
+		// checks are per type, not per element
+		assertTrue(((TreeItem)create("b", "TreeItem", "select", "expand")).is(Expandable.class));
+	}
+
+	@Test
+	public void testDesktopAndUnknownTypes() {
+		assertTrue(create("d", "Desktop") instanceof Desktop);
+		Element unknown = create("u", "NoSuchControlType", "no-such-pattern");
+		assertNull(unknown.getControlType());
+		assertTrue(unknown.getControlPatterns().isEmpty());
+	}
+}
@@ -0,0 +1,134 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import javax.management.MBeanServer;
+import javax.management.openmbean.CompositeData;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.metrics.*;
+
+public class MetricsTest {
+	private static final String CHILDREN = "GET /session/:session/element/:id/children";
+	private StubRC rc;
+	private Application app;
+	private Element main;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		StubRC.Node window = rc.addWindow("Main");
+		for(int i=0; i<5; i++)
+			rc.add(window, "Button", "Button "+i);
+		app = rc.open();
+		main = app.getDesktop().getChild(Criteria.name("Main"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	@Test
+	public void testEndpoints() {
+		assertEquals(CHILDREN, TwinConnection.endpoint("GET", "/session/abc/element/0c4bd1b9-9d1c-4c4a-a6b3-6dd4a5e2c9f1/children"));
+		assertEquals("POST /session/:session/element/:id/value", TwinConnection.endpoint("POST", "/session/12/element/0c4bd1b99d1c4c4aa6b36dd4a5e2c9f1/value"));
+		assertEquals("GET /status", TwinConnection.endpoint("GET", "/status"));
+		assertEquals("GET /session/:session/attachment/:id", TwinConnection.endpoint("GET", "//session/x/attachment/42/"));
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		for(int i=1; i<=100000; i++)
+			histogram.record(i * 1000L);
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000000L, histogram.getMax());
+		assertEquals(50000500.0, histogram.getMean(), 1);
+		assertEquals(50000000.0, histogram.getValueAtPercentile(50), 50000000 * 0.02);
+		assertEquals(99000000.0, histogram.getValueAtPercentile(99), 99000000 * 0.02);
+		assertEquals(100000000L, histogram.getValueAtPercentile(100));
+		assertEquals(1000.0, histogram.getValueAtPercentile(0), 1000 * 0.02);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testRequests() {
+		HistogramMetrics metrics = new HistogramMetrics();
+		app.setMetrics(metrics);
+		for(int i=0; i<3; i++)
+			main.getChildren();
+		try {
+			app.request("GET", "/no-such-thing", null);
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+		app.setConnectionConfig(new ConnectionConfig()); // keeps the metrics
+
+		AsyncApplication async = new AsyncApplication(app);
+		assertEquals(5, async.getChildren(main, null).getResult().size());
+
+		Map<String,EndpointStatistics> endpoints = new HashMap<String,EndpointStatistics>();
+		for(EndpointStatistics statistics : metrics.getEndpointStatistics())
+			endpoints.put(statistics.getEndpoint(), statistics);
+		EndpointStatistics children = endpoints.get(CHILDREN);
+		assertEquals(4, children.getRequests());
+		assertEquals(0, children.getErrors());
+		assertTrue(children.getBytesReceived() > 4 * 5 * 50);
+		assertTrue(children.getMaxMillis() >= children.getMedianMillis());
+		assertEquals(1, endpoints.get("GET /session/:session/no-such-thing").getErrors());
+		assertEquals(Collections.singletonMap("UnknownCommand", 1L), metrics.getErrors());
+		assertEquals(5, metrics.getRequests());
+		assertEquals(0, metrics.getInFlight());
+		assertTrue(metrics.getReport().contains(CHILDREN));
+
+		app.setMetrics(null);
+		main.getChildren();
+		assertEquals(5, metrics.getRequests());
+	}
+
+	@Test
+	public void testBytesSent() {
+		HistogramMetrics metrics = new HistogramMetrics();
+		app.setMetrics(metrics);
+		Map<String,Object> body = new HashMap<String,Object>();
+		body.put("value", "0123456789");
+		try {
+			app.request("POST", "/no-such-thing", body);
+		} catch (TwinException expected) {
+		}
+		assertEquals("{\"value\":\"0123456789\"}".length(), metrics.getBytesSent());
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+		JmxMetrics metrics = new JmxMetrics("MetricsTest");
+		try {
+			app.setMetrics(metrics);
+			main.getChildren();
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(1L, server.getAttribute(metrics.getObjectName(), "Requests"));
+			CompositeData[] endpoints = (CompositeData[])server.getAttribute(metrics.getObjectName(), "EndpointStatistics");
+			assertEquals(1, endpoints.length);
+			assertEquals(CHILDREN, endpoints[0].get("endpoint"));
+			server.invoke(metrics.getObjectName(), "reset", null, null);
+			assertEquals(0L, metrics.getRequests());
+			try {
+				new JmxMetrics("MetricsTest");
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException expected) {
+			}
+		} finally {
+			metrics.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics.getObjectName()));
+	}
+}
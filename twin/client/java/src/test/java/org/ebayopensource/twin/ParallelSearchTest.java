@@ -0,0 +1,102 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.element.*;
+
+public class ParallelSearchTest {
+	private static final int WINDOWS = 12;
+	private StubRC rc;
+	private Application app;
+	private List<StubRC.Node> windows = new ArrayList<StubRC.Node>();
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		windows.clear();
+		for(int w=0; w<WINDOWS; w++) {
+			StubRC.Node window = rc.addWindow("Window "+w);
+			windows.add(window);
+			StubRC.Node pane = rc.add(window, "Pane", "Pane");
+			for(int b=0; b<3; b++)
+				rc.add(pane, "Button", "Button "+w+"."+b);
+		}
+		rc.add(rc.add(windows.get(7), "Pane", "Orders"), "Edit", "Quantity");
+		app = rc.open();
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	@Test
+	public void testFindAll() {
+		List<Element> buttons = app.findAll(Criteria.type(Button.class));
+		assertEquals(WINDOWS * 3, buttons.size());
+		// in the order of the windows
+		assertEquals("Button 0.0", buttons.get(0).getName());
+		assertEquals("Button 11.2", buttons.get(buttons.size()-1).getName());
+
+		// the roots themselves match too, as with the desktop
+		assertEquals(WINDOWS, app.findAll(Criteria.type(Window.class)).size());
+		assertEquals(app.getDesktop().getDescendants(null).size(), app.findAll(null).size());
+	}
+
+	@Test
+	public void testParallel() {
+		rc.setResponseDelay(200);
+		SearchOptions options = new SearchOptions();
+		options.setRoots(app.getWindows());
+		options.setParallelism(WINDOWS);
+		long start = System.currentTimeMillis();
+		List<Element> found = app.findAll(Criteria.name("Quantity"), options);
+		long elapsed = System.currentTimeMillis() - start;
+		assertEquals(1, found.size());
+		assertTrue("Took "+elapsed+"ms", elapsed < 200 * WINDOWS / 3);
+	}
+
+	@Test
+	public void testDuplicatesRemoved() {
+		Window window = (Window)app.getDesktop().getChild(Criteria.name("Window 3"));
+		Element pane = window.getChild(Criteria.name("Pane"));
+		SearchOptions options = new SearchOptions();
+		options.setRoots(Arrays.asList(window, pane));
+		List<Element> found = app.findAll(Criteria.type(Button.class), options);
+		assertEquals(3, found.size());
+		Set<String> uuids = new HashSet<String>();
+		for(Element element : found)
+			uuids.add(((RemoteResourceInterface)element).getRemote().uuid);
+		assertEquals(3, uuids.size());
+	}
+
+	@Test
+	public void testFirstMatch() {
+		SearchOptions options = new SearchOptions();
+		options.setFirstMatch(true);
+		options.setParallelism(2);
+		int before = rc.getRequestCount();
+		List<Element> found = app.findAll(Criteria.name("Pane"), options);
+		assertEquals(1, found.size());
+		assertEquals("Pane", found.get(0).getName());
+		// stopped long before searching every window: the desktop's children, then at most one window per worker
+		assertTrue(rc.getRequestCount() - before <= 1 + 2 + 1);
+
+		assertTrue(app.findAll(Criteria.name("Nothing"), options).isEmpty());
+	}
+
+	@Test
+	public void testRootGone() {
+		SearchOptions options = new SearchOptions();
+		options.setRoots(app.getWindows());
+		rc.remove(windows.get(0));
+		List<Element> found = app.findAll(Criteria.type(Button.class), options);
+		assertEquals((WINDOWS-1) * 3, found.size());
+	}
+}
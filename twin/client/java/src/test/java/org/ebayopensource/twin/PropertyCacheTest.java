@@ -0,0 +1,163 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.pattern.Editable;
+
+public class PropertyCacheTest {
+	private StubRC rc;
+	private Application app;
+	private StubRC.Node window;
+	private StubRC.Node edit;
+	private Element element;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		window = rc.addWindow("Main");
+		edit = rc.add(window, "Edit", "Search", "edit");
+		edit.properties.put("value", "hello");
+		edit.bounds = new Rectangle(10, 20, 300, 25);
+		app = rc.open();
+		element = app.getDesktop().getDescendant(Criteria.name("Search"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	/** Run the reads and return how many requests they made */
+	private int requests(Runnable reads) {
+		int before = rc.getRequestCount();
+		reads.run();
+		return rc.getRequestCount() - before;
+	}
+	private final Runnable readAll = new Runnable() {
+		public void run() {
+			element.getName();
+			element.getName();
+			element.getSize();
+			element.getLocation();
+			element.getBounds();
+			((Editable)element).getValue();
+		}
+	};
+
+	@Test
+	public void testDisabledByDefault() {
+		assertEquals(0.0, app.getCacheTimeout());
+		assertEquals(6, requests(readAll));
+	}
+
+	@Test
+	public void testReadsAreShared() {
+		app.setCacheTimeout(60);
+		assertEquals(3, requests(readAll)); // name, bounds, value
+		assertEquals(0, requests(readAll));
+		assertEquals(new Rectangle(10, 20, 300, 25), element.getBounds());
+	}
+
+	@Test
+	public void testChangesInvalidate() {
+		app.setCacheTimeout(60);
+		Editable editable = (Editable)element;
+		assertEquals("hello", editable.getValue());
+		editable.setValue("world");
+		assertEquals("world", editable.getValue());
+
+		// a click could change anything, including other elements
+		element.getName();
+		app.getWindow().click();
+		edit.name = "Renamed";
+		assertEquals("Renamed", element.getName());
+	}
+
+	@Test
+	public void testBatchOfReadsKeepsCache() {
+		app.setCacheTimeout(60);
+		requests(readAll);
+		Batch batch = app.batch();
+		batch.getName(element);
+		batch.execute();
+		assertEquals(0, requests(readAll));
+
+		batch = app.batch();
+		batch.click(element);
+		batch.execute();
+		assertEquals(3, requests(readAll));
+	}
+
+	@Test
+	public void testWaitingKeepsCache() {
+		app.setCacheTimeout(60);
+		rc.setWatchSupported(false); // so waitForNotExists() polls POST .../exists
+		requests(readAll);
+		final StubRC.Node node = rc.add(window, "Button", "Gone");
+		Element gone = app.getDesktop().getDescendant(Criteria.name("Gone"));
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				rc.remove(node);
+			}
+		}.start();
+		gone.waitForNotExists(5);
+		assertEquals(0, requests(readAll));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		app.setCacheTimeout(0.05);
+		assertEquals(1, requests(new Runnable() {
+			public void run() {
+				element.getName();
+				element.getName();
+			}
+		}));
+		Thread.sleep(100);
+		edit.name = "Later";
+		assertEquals("Later", element.getName());
+	}
+
+	@Test
+	public void testInvalidate() {
+		app.setCacheTimeout(Double.POSITIVE_INFINITY);
+		element.getName();
+		edit.name = "Changed";
+		assertEquals("Search", element.getName());
+		element.invalidate();
+		assertEquals("Changed", element.getName());
+
+		edit.name = "Again";
+		app.invalidateCache();
+		assertEquals("Again", element.getName());
+	}
+
+	@Test
+	public void testRefresh() {
+		app.setCacheTimeout(Double.POSITIVE_INFINITY);
+		requests(readAll);
+		edit.name = "Changed";
+		edit.bounds = new Rectangle(1, 2, 3, 4);
+		edit.properties.put("value", "new");
+
+		assertEquals(1, requests(new Runnable() {
+			public void run() {
+				element.refresh();
+			}
+		}));
+		assertEquals("Changed", element.getCachedName());
+		assertEquals(0, requests(readAll));
+		assertEquals(new Rectangle(1, 2, 3, 4), element.getBounds());
+		assertEquals("new", ((Editable)element).getValue());
+	}
+}
@@ -0,0 +1,133 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class RecordingTest {
+	private StubRC rc;
+	private StubRC.Node window;
+	private File file;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		window = rc.addWindow("Main");
+		for(int i=0; i<5; i++)
+			rc.add(window, "Button", "Button "+i);
+		file = File.createTempFile("twin", ".recording");
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+		file.delete();
+	}
+
+	/** What a test might do, returning what it saw */
+	private List<String> session(Application app) {
+		List<String> seen = new ArrayList<String>();
+		app.open("stub", null);
+		Element main = app.getDesktop().getChild(Criteria.name("Main"));
+		for(Element child : main.getChildren())
+			seen.add(child.getName());
+		main.getChildren().get(2).click();
+		seen.add(new AsyncApplication(app).getChildren(main, null).getResult().get(4).getName());
+		try {
+			app.request("GET", "/no-such-thing", null);
+		} catch (TwinException e) {
+			seen.add(TwinConnection.errorName(e));
+		}
+		app.close();
+		return seen;
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		Application app = new Application(rc.getURL());
+		app.startRecording(file);
+		List<String> recorded = session(app);
+		int requests = rc.getRequestCount();
+		assertEquals(Arrays.asList("Button 0", "Button 1", "Button 2", "Button 3", "Button 4", "Button 4", "UnknownCommand"), recorded);
+
+		rc.stop();
+		Application replay = Application.replay(file);
+		TwinTrace trace = new TwinTrace();
+		replay.setTrace(trace);
+		assertEquals(recorded, session(replay));
+		assertEquals(requests - 1, trace.getSpans().size()); // the open's redirect is followed within one request
+		assertEquals(Arrays.asList("encode", "replay", "decode"), new ArrayList<String>(trace.getSpans().get(0).getPhases().keySet()));
+	}
+
+	@Test
+	public void testUnrecorded() throws IOException {
+		Application app = new Application(rc.getURL());
+		app.startRecording(file);
+		app.open("stub", null);
+		app.close();
+
+		Application replay = Application.replay(file);
+		try {
+			replay.open("other", null);
+			fail("Expected TwinException");
+		} catch (TwinException e) {
+			assertTrue(e.getCause().getMessage().contains("No response to POST /session"));
+		}
+	}
+
+	@Test
+	public void testKey() throws IOException {
+		Map<String,Object> a = new LinkedHashMap<String,Object>();
+		a.put("x", 1);
+		a.put("y", Collections.singletonMap("b", Arrays.asList(1, 2)));
+		Map<String,Object> b = new LinkedHashMap<String,Object>();
+		b.put("y", Collections.singletonMap("b", Arrays.asList(1, 2)));
+		b.put("x", 1);
+		assertEquals(Recording.key("POST", "/p", a, null), Recording.key("POST", "/p", b, null));
+		assertFalse(Recording.key("POST", "/p", a, null).equals(Recording.key("POST", "/p", a, "image/png")));
+		assertFalse(Recording.key("POST", "/p", a, null).equals(Recording.key("POST", "/q", a, null)));
+		// the body is digested, so keys stay short however large it is
+		a.put("data", new String(new char[100000]).replace('\0', 'x'));
+		assertTrue(Recording.key("POST", "/p", a, null).length() < 100);
+	}
+
+	@Test
+	public void testUploadFromStream() throws IOException {
+		byte[] data = new byte[1000000];
+		new Random(1).nextBytes(data);
+		Application app = new Application(rc.getURL());
+		app.startRecording(file);
+		app.open("stub", null);
+		Attachment recorded = app.upload(new ByteArrayInputStream(data), "data.bin");
+		app.close();
+		assertTrue(Arrays.equals(data, rc.getAttachment(recorded.remote.uuid)));
+
+		Application replay = Application.replay(file);
+		replay.open("stub", null);
+		assertEquals(recorded.getFile(), replay.upload(new ByteArrayInputStream(data), "data.bin").getFile());
+	}
+
+	@Test
+	public void testRepeatedRequests() throws IOException {
+		Application app = new Application(rc.getURL());
+		app.startRecording(file);
+		app.open("stub", null);
+		Element main = app.getDesktop().getChild(Criteria.name("Main"));
+		assertEquals(5, main.getChildren().size());
+		rc.add(window, "Button", "Button 5");
+		assertEquals(6, main.getChildren().size());
+		app.stopRecording();
+
+		Application replay = Application.replay(file);
+		replay.open("stub", null);
+		Element replayed = replay.getDesktop().getChild(Criteria.name("Main"));
+		assertEquals(5, replayed.getChildren().size());
+		assertEquals(6, replayed.getChildren().size());
+		assertEquals(6, replayed.getChildren().size()); // the last response again
+	}
+}
@@ -0,0 +1,101 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class ReleaseTest {
+	private StubRC rc;
+	private Application app;
+	private Element window;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		StubRC.Node main = rc.addWindow("Main");
+		for(int i=0; i<10; i++)
+			rc.add(main, "Button", "button"+i);
+		app = rc.open();
+		window = app.getDesktop().getChild(Criteria.name("Main"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		try {
+			app.close();
+		} finally {
+			rc.stop();
+		}
+	}
+
+	private static String uuid(Element element) {
+		return ((RemoteResourceInterface)element).getRemote().uuid;
+	}
+
+	@Test
+	public void testReleaseAll() throws Exception {
+		List<Element> first = window.getChildren(null);
+		Element again = window.getChild(Criteria.name("button0"));
+		assertEquals(12, app.elements.size());
+		app.releaseAll();
+
+		List<String> released = rc.getReleased();
+		assertEquals(12, released.size());
+		assertTrue(released.contains(uuid(window)));
+		for(Element button : first)
+			assertTrue(released.contains(uuid(button)));
+		// sent twice, so held twice
+		assertEquals(2, Collections.frequency(released, uuid(again)));
+		assertEquals(0, app.elements.size());
+
+		app.releaseAll();
+		assertEquals(12, released.size());
+	}
+
+	@Test
+	public void testScope() throws Exception {
+		ElementScope scope = app.openScope();
+		try {
+			window.getChildren(null);
+		} finally {
+			scope.close();
+		}
+		assertEquals(10, rc.getReleased().size());
+		assertFalse(rc.getReleased().contains(uuid(window)));
+		assertEquals(1, app.elements.size());
+		scope.close();
+		assertEquals(10, rc.getReleased().size());
+	}
+
+	@Test
+	public void testUnreachableReleased() throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while(rc.getReleased().size() < ElementTracker.BATCH_SIZE && System.currentTimeMillis() < deadline) {
+			for(int i=0; i<5; i++)
+				window.getChildren(null);
+			System.gc();
+			Thread.sleep(10);
+		}
+		List<String> released = rc.getReleased();
+		assertTrue("Expected a batch to be released, got "+released.size(), released.size() >= ElementTracker.BATCH_SIZE);
+		assertEquals(0, released.size() % ElementTracker.BATCH_SIZE);
+		// the window is still referenced
+		assertFalse(released.contains(uuid(window)));
+		assertEquals("Main", window.getName());
+	}
+
+	@Test
+	public void testOlderServer() throws Exception {
+		rc.setReleaseSupported(false);
+		window.getChildren(null);
+		app.releaseAll();
+		assertTrue(rc.getReleased().isEmpty());
+		assertFalse(app.elements.supported);
+		window.getChildren(null);
+		assertEquals(0, app.elements.size());
+	}
+}
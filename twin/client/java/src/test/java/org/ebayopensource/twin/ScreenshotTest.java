@@ -0,0 +1,87 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class ScreenshotTest {
+	private StubRC rc;
+	private Application app;
+	private Element window;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		StubRC.Node main = rc.addWindow("Main");
+		main.image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+		main.image.setRGB(120, 80, Color.RED.getRGB());
+		app = rc.open();
+		window = app.getDesktop().getChild(Criteria.name("Main"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	private static void assertImage(Screenshot screenshot, int width, int height, int redX, int redY) {
+		assertEquals("image/png", screenshot.getContentType());
+		BufferedImage image = screenshot.getImage();
+		assertEquals(width, image.getWidth());
+		assertEquals(height, image.getHeight());
+		assertEquals(Color.RED.getRGB(), image.getRGB(redX, redY));
+		assertEquals(Color.BLACK.getRGB(), image.getRGB(0, 0));
+	}
+
+	@Test
+	public void testBinary() {
+		assertImage(window.getScreenshot(), 300, 200, 120, 80);
+		assertImage(window.getScreenshot(new Rectangle(100, 50, 40, 40)), 40, 40, 20, 30);
+	}
+
+	@Test
+	public void testOldRC() {
+		rc.setBinaryScreenshotsSupported(false);
+		assertImage(window.getScreenshot(), 300, 200, 120, 80);
+		assertImage(window.getScreenshot(new Rectangle(100, 50, 40, 40)), 40, 40, 20, 30);
+	}
+
+	@Test
+	public void testErrors() {
+		try {
+			window.getScreenshot(new Rectangle(400, 400, 10, 10));
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+	}
+
+	@Test
+	public void testImageIsDecodedOnce() {
+		Screenshot screenshot = window.getScreenshot();
+		assertSame(screenshot.getImage(), screenshot.getImage());
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		Screenshot screenshot = window.getScreenshot();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		screenshot.writeTo(out);
+		assertTrue(Arrays.equals(screenshot.getData(), out.toByteArray()));
+
+		File file = File.createTempFile("screenshot", ".png");
+		try {
+			screenshot.save(file);
+			assertEquals(screenshot.getData().length, file.length());
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class SessionPoolTest {
+	private StubRC rc1;
+	private StubRC rc2;
+	private SessionPool pool;
+	private final Map<String,String> stub = Collections.singletonMap("applicationName", "stub");
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc1 = new StubRC();
+		rc2 = new StubRC();
+		rc2.addConfiguration("calc", Collections.singletonMap("applicationName", "calc"));
+		pool = new SessionPool(rc1.getURL(), rc2.getURL());
+	}
+	@AfterMethod
+	public void tearDown() {
+		pool.close();
+		rc1.stop();
+		rc2.stop();
+	}
+
+	private static void waitFor(Callable<Boolean> condition) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!condition.call()) {
+			if(System.currentTimeMillis() > deadline)
+				fail("Timed out");
+			Thread.sleep(10);
+		}
+	}
+	private static String rcOf(Application application) {
+		return application.connection.url.toString();
+	}
+
+	@Test
+	public void testConfigurationsAndMatching() {
+		assertEquals(3, pool.getConfigurations().size());
+		Application calc = pool.lease(Collections.singletonMap("applicationName", "calc"));
+		assertEquals(rcOf(new Application(rc2.getURL())), rcOf(calc));
+		assertEquals("calc", calc.getApplicationName());
+		pool.discard(calc);
+		try {
+			pool.lease(Collections.singletonMap("applicationName", "notepad"));
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+	}
+
+	@Test
+	public void testPrewarmedLeaseDoesNotWait() throws Exception {
+		rc1.setOpenDelay(300);
+		rc2.setOpenDelay(300);
+		pool.prewarm(stub, 2);
+		waitFor(new Callable<Boolean>() {
+			public Boolean call() {
+				return rc1.getSessionsOpened() + rc2.getSessionsOpened() == 2;
+			}
+		});
+		Thread.sleep(50); // let the pool see the response
+
+		long start = System.nanoTime();
+		Application app = pool.lease(stub);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+		assertNotNull(app.getDesktop());
+		assertEquals(1, rc1.getSessionsOpened()); // spread over both RCs
+		assertEquals(1, rc2.getSessionsOpened());
+
+		// the lease is replaced in the background
+		waitFor(new Callable<Boolean>() {
+			public Boolean call() {
+				return rc1.getSessionsOpened() + rc2.getSessionsOpened() == 3;
+			}
+		});
+		pool.release(app);
+	}
+
+	@Test
+	public void testReuse() {
+		Application app = pool.lease(stub);
+		pool.release(app); // no Resetter, so it's closed
+		assertEquals(0, rc1.getSessionCount() + rc2.getSessionCount());
+
+		final List<Application> reset = new ArrayList<Application>();
+		pool.setResetter(new SessionPool.Resetter() {
+			public void reset(Application application) {
+				reset.add(application);
+			}
+		});
+		app = pool.lease(stub);
+		pool.release(app);
+		assertSame(app, pool.lease(stub));
+		assertEquals(Arrays.asList(app), reset);
+		assertEquals(2, rc1.getSessionsOpened() + rc2.getSessionsOpened());
+
+		pool.setResetter(new SessionPool.Resetter() {
+			public void reset(Application application) throws Exception {
+				throw new Exception("can't");
+			}
+		});
+		pool.release(app);
+		assertEquals(0, rc1.getSessionCount() + rc2.getSessionCount());
+	}
+
+	@Test
+	public void testParallelLeasesWithinLimits() throws Exception {
+		rc1.setOpenDelay(300);
+		rc2.setOpenDelay(300);
+		pool.setMaxSessionsPerRC(1);
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		Callable<Application> lease = new Callable<Application>() {
+			public Application call() {
+				return pool.lease(stub);
+			}
+		};
+		long start = System.nanoTime();
+		Future<Application> a = threads.submit(lease);
+		Future<Application> b = threads.submit(lease);
+		Application first = a.get(), second = b.get();
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 550); // opened in parallel
+		assertFalse(rcOf(first).equals(rcOf(second)));
+		threads.shutdown();
+
+		try {
+			pool.lease(stub, 0.1);
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+		pool.release(first);
+		assertNotNull(pool.lease(stub, 5));
+	}
+
+	@Test
+	public void testIdleSessionsMakeRoom() {
+		pool.setMaxSessionsPerRC(1);
+		pool.setResetter(new SessionPool.Resetter() {
+			public void reset(Application application) {}
+		});
+		Application app = pool.lease(Collections.singletonMap("applicationName", "calc"));
+		pool.release(app); // idle, filling rc2
+		Application calc = pool.lease(Collections.singletonMap("applicationName", "calc"), 5);
+		assertSame(app, calc);
+		pool.release(calc);
+
+		pool.lease(stub);
+		Application other = pool.lease(stub, 5); // rc1 is full, so the idle calc session on rc2 is closed to make room
+		assertEquals(rcOf(new Application(rc2.getURL())), rcOf(other));
+		assertEquals("stub", other.getApplicationName());
+	}
+}
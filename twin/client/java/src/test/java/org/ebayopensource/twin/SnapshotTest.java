@@ -0,0 +1,111 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.element.*;
+import org.ebayopensource.twin.pattern.*;
+
+public class SnapshotTest {
+	private StubRC rc;
+	private Application app;
+	private Element window;
+	private StubRC.Node grid;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		StubRC.Node main = rc.addWindow("Main");
+		grid = rc.add(main, "DataGrid", "Grid");
+		for(int row=0; row<20; row++) {
+			StubRC.Node item = rc.add(grid, "DataItem", "Row "+row, "select");
+			for(int column=0; column<5; column++) {
+				StubRC.Node cell = rc.add(item, "Edit", "Cell "+row+","+column, "edit");
+				cell.properties.put("value", row+"x"+column);
+				cell.bounds = new Rectangle(column*50, row*20, 50, 20);
+			}
+		}
+		rc.add(main, "Button", "OK").properties.put("enabled", false);
+		app = rc.open();
+		window = app.getDesktop().getChild(Criteria.name("Main"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	@Test
+	public void testOneRequest() {
+		int before = rc.getRequestCount();
+		ElementSnapshot snapshot = window.snapshot(Integer.MAX_VALUE, ElementSnapshot.VALUE, ElementSnapshot.BOUNDS);
+		assertEquals(1, rc.getRequestCount() - before);
+
+		assertNull(snapshot.getParent());
+		assertEquals("Main", snapshot.getName());
+		assertEquals(Window.class, snapshot.getControlType());
+		assertEquals(2, snapshot.getChildren().size());
+		assertEquals(122, snapshot.getDescendants(null).size()); // grid, rows, cells, button
+
+		ElementSnapshot cell = snapshot.getDescendant(Criteria.name("Cell 3,4"));
+		assertEquals("3x4", cell.getValue());
+		assertEquals(new Rectangle(200, 60, 50, 20), cell.getBounds());
+		assertEquals(Arrays.asList(Editable.class), cell.getControlPatterns());
+		assertEquals("Row 3", cell.getParent().getName());
+		assertEquals(1, rc.getRequestCount() - before);
+	}
+
+	@Test
+	public void testLocalQueries() {
+		ElementSnapshot snapshot = window.snapshot(Integer.MAX_VALUE, ElementSnapshot.ENABLED, ElementSnapshot.VALUE);
+		int before = rc.getRequestCount();
+		assertEquals(20, snapshot.getDescendants(Criteria.type(DataItem.class)).size());
+		assertEquals(100, snapshot.getDescendants(Criteria.type(Editable.class).and(Criteria.enabled(true))).size());
+		assertEquals("OK", snapshot.getChild(Criteria.enabled(false)).getName());
+		assertEquals(1, snapshot.getDescendants(Criteria.value("7x2").or(Criteria.name("Nothing"))).size());
+		assertEquals(20, snapshot.getChild(Criteria.name("Grid")).getDescendants(Criteria.not(Criteria.type(Edit.class))).size());
+		// a property that doesn't apply is null, not missing
+		assertNull(snapshot.getChild(Criteria.name("OK")).getValue());
+		assertEquals(0, rc.getRequestCount() - before);
+
+		try {
+			snapshot.getDescendant(Criteria.name("Nothing"));
+			fail("Expected TwinNoSuchElementException");
+		} catch (TwinNoSuchElementException expected) {
+		}
+		assertTrue(snapshot.getDescendants(Criteria.id("x")).isEmpty()); // id is always present
+		try {
+			window.snapshot(1).getChildren(Criteria.enabled(true));
+			fail("Expected TwinException: enabled wasn't fetched");
+		} catch (TwinException expected) {
+		}
+	}
+
+	@Test
+	public void testDepthLimit() {
+		ElementSnapshot snapshot = window.snapshot(1);
+		assertEquals(2, snapshot.getChildren().size());
+		ElementSnapshot gridSnapshot = snapshot.getChild(Criteria.name("Grid"));
+		assertFalse(gridSnapshot.hasChildrenFetched());
+		assertTrue(gridSnapshot.getChildren().isEmpty());
+		assertTrue(window.snapshot(0).getChildren().isEmpty());
+	}
+
+	@Test
+	public void testLiveElements() {
+		ElementSnapshot snapshot = window.snapshot(Integer.MAX_VALUE, ElementSnapshot.VALUE);
+		Element cell = snapshot.getDescendant(Criteria.name("Cell 0,0")).getElement();
+		assertTrue(cell instanceof Edit);
+		((Editable)cell).setValue("changed");
+		assertEquals("changed", ((Editable)cell).getValue());
+		// the snapshot doesn't change
+		assertEquals("0x0", snapshot.getDescendant(Criteria.name("Cell 0,0")).getValue());
+		assertEquals(grid.uuid, ((RemoteResourceInterface)snapshot.getDescendant(Criteria.name("Grid")).getElement()).getRemote().uuid);
+	}
+}
@@ -0,0 +1,771 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.sun.net.httpserver.*;
+
+import org.ebayopensource.twin.json.JSON;
+
+/**
+ * A stand-in for the Twin RC, so the client can be tested without Windows.
+ * <p>
+ * It speaks the RC's wire protocol over real HTTP, and serves a tree of fake elements that tests build with add().
+ * Only the routes the tests need are implemented. Anything else gets a plain-text 404, as the real RC sends.
+ * <p>
+ * Tests run with -Dsun.net.httpserver.nodelay=true, set in the pom: without it every request takes ~40ms.
+ */
+public class StubRC {
+	/** A fake UI element */
+	public class Node {
+		public final String uuid = UUID.randomUUID().toString();
+		public final String controlType;
+		public volatile String name;
+		public volatile String id;
+		public volatile String className;
+		public final List<String> patterns;
+		public volatile Node parent;
+		public final List<Node> children = new CopyOnWriteArrayList<Node>();
+		/** Property values by route name, e.g. "enabled", "value", "expanded", "selected", "toggle" */
+		public final Map<String,Object> properties = new ConcurrentHashMap<String,Object>();
+		public volatile Rectangle bounds = new Rectangle(0, 0, 100, 20);
+		public volatile boolean exists = true;
+		/** What a screenshot of the element shows, or null for a blank image the size of its bounds */
+		public volatile BufferedImage image;
+
+		Node(String controlType, String name, String... patterns) {
+			this.controlType = controlType;
+			this.name = name;
+			this.patterns = Arrays.asList(patterns);
+			properties.put("enabled", true);
+		}
+		Map<String,Object> toJSON() {
+			Map<String,Object> json = new HashMap<String,Object>();
+			json.put("class", "Twin.Model.Element");
+			json.put("uuid", uuid);
+			json.put("controlType", controlType);
+			json.put("name", name);
+			json.put("id", id);
+			json.put("className", className);
+			json.put("controlPatterns", patterns);
+			return json;
+		}
+		public String toString() {
+			return controlType+"("+name+")";
+		}
+	}
+
+	/** Thrown by handlers to send an RC error response */
+	private static class Failure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final TwinError status;
+		Failure(TwinError status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+	/** Thrown by handlers to send a bare HTTP error, as sharpclaws does for unmapped paths */
+	private static class HttpFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final int code;
+		HttpFailure(int code, String message) {
+			super(message);
+			this.code = code;
+		}
+	}
+
+	/** A 303 to another resource, as the RC answers a new session with */
+	private static class Redirect extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final String location;
+		Redirect(String location) {
+			super(location);
+			this.location = location;
+		}
+	}
+
+	private final HttpServer server;
+	private final Node desktop = new Node("Desktop", "Desktop");
+	private final Map<String,Node> nodes = new ConcurrentHashMap<String,Node>();
+	/** The capabilities of each open session, by id */
+	private final Map<String,Map<String,String>> sessions = new ConcurrentHashMap<String,Map<String,String>>();
+	/** Capabilities of each configuration, by id */
+	private final Map<String,Map<String,String>> configurations = Collections.synchronizedMap(new LinkedHashMap<String,Map<String,String>>());
+	private final AtomicInteger sessionsOpened = new AtomicInteger();
+	private volatile long openDelay = 0;
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private volatile boolean stalled = false;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	/** The client end of every connection a request has been received on */
+	private final Set<InetSocketAddress> clients = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress,Boolean>());
+	private final List<String> requestLog = new CopyOnWriteArrayList<String>();
+	private final List<String> requestIds = new CopyOnWriteArrayList<String>();
+	private volatile boolean batchSupported = true;
+	private volatile boolean chunked = false;
+	private volatile boolean compressionSupported = true;
+	private volatile boolean binaryScreenshots = true;
+	private final AtomicInteger compressedRequests = new AtomicInteger();
+	private final AtomicInteger compressedResponses = new AtomicInteger();
+	private volatile long delay = 0;
+	private volatile boolean watchSupported = true;
+	private volatile boolean releaseSupported = true;
+	/** The uuid of each element released, once for each release */
+	private final List<String> released = new CopyOnWriteArrayList<String>();
+	/** The decoded contents of each attachment uploaded, by uuid */
+	private final Map<String,byte[]> attachments = new ConcurrentHashMap<String,byte[]>();
+	/** How many more requests to read and then drop the connection of, without responding */
+	private final AtomicInteger drops = new AtomicInteger();
+	private volatile long heartbeatInterval = 10000;
+	/** Incremented, and notified, whenever the tree changes */
+	private final Object changes = new Object();
+	private long version = 0;
+	/** How often the RC polls in a waitForResults search or POST exists */
+	private static final long POLL_INTERVAL = 1000;
+
+	public StubRC() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					throw e;
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		addConfiguration("stub", Collections.singletonMap("applicationName", "stub"));
+	}
+
+	public URL getURL() {
+		try {
+			return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/");
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	public void stop() {
+		stopped.countDown();
+		server.stop(0);
+	}
+	/** Create an Application connected to this server, with a session open */
+	public Application open() {
+		Application app = new Application(getURL());
+		app.open("stub", null);
+		return app;
+	}
+
+	/** Add a top-level window */
+	public Node addWindow(String name) {
+		return add(desktop, "Window", name);
+	}
+	/** Add an element with the given control type and pattern names, e.g. add(window, "Edit", "name", "edit") */
+	public Node add(Node parent, String controlType, String name, String... patterns) {
+		Node node = new Node(controlType, name, patterns);
+		node.parent = parent;
+		parent.children.add(node);
+		nodes.put(node.uuid, node);
+		changed();
+		return node;
+	}
+	/** Remove an element (and its descendants) so that further requests for it fail with NoSuchElement */
+	public void remove(Node node) {
+		node.exists = false;
+		if(node.parent != null)
+			node.parent.children.remove(node);
+		for(Node child : node.children)
+			remove(child);
+		changed();
+	}
+	/** Wake up any watches, e.g. after changing a Node's properties */
+	public void changed() {
+		synchronized(changes) {
+			version++;
+			changes.notifyAll();
+		}
+	}
+
+	/** Offer another configuration in /status, which sessions can be opened for */
+	public void addConfiguration(String id, Map<String,String> capabilities) {
+		configurations.put(id, new HashMap<String,String>(capabilities));
+	}
+	/** Take this long to open each session, like an application being launched */
+	public void setOpenDelay(long millis) {
+		this.openDelay = millis;
+	}
+	/** The number of sessions opened so far */
+	public int getSessionsOpened() {
+		return sessionsOpened.get();
+	}
+	/** The number of sessions open now */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/** The number of HTTP requests received so far */
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+	/** The number of different connections requests have been received on so far */
+	public int getConnectionCount() {
+		return clients.size();
+	}
+	/** The X-Twin-Request-Id header of each request received, "null" if there wasn't one */
+	public List<String> getRequestIds() {
+		return requestIds;
+	}
+	/** "METHOD path" of every HTTP request received so far, path relative to the session (or server for non-session requests) */
+	public List<String> getRequestLog() {
+		return requestLog;
+	}
+	/** If false, behave like an older RC without the /batch endpoint */
+	public void setBatchSupported(boolean batchSupported) {
+		this.batchSupported = batchSupported;
+	}
+
+	/** If true, send JSON responses with chunked transfer encoding rather than a Content-Length */
+	public void setChunkedResponses(boolean chunked) {
+		this.chunked = chunked;
+	}
+	/** If false, behave like an older RC that never compresses responses and rejects compressed requests */
+	public void setCompressionSupported(boolean compressionSupported) {
+		this.compressionSupported = compressionSupported;
+	}
+	/** The number of requests received with a compressed body */
+	public int getCompressedRequests() {
+		return compressedRequests.get();
+	}
+	/** The number of responses sent gzipped */
+	public int getCompressedResponses() {
+		return compressedResponses.get();
+	}
+	/** If false, behave like an older RC that always sends screenshots as base64 in JSON */
+	public void setBinaryScreenshotsSupported(boolean binaryScreenshots) {
+		this.binaryScreenshots = binaryScreenshots;
+	}
+	/** If false, behave like an older RC without the /watch endpoint */
+	public void setWatchSupported(boolean watchSupported) {
+		this.watchSupported = watchSupported;
+	}
+	public void setReleaseSupported(boolean releaseSupported) {
+		this.releaseSupported = releaseSupported;
+	}
+	public List<String> getReleased() {
+		return released;
+	}
+	/** The decoded contents of an attachment, or null if there is none with the uuid */
+	public byte[] getAttachment(String uuid) {
+		return attachments.get(uuid);
+	}
+	/** Read the next requests in full, then close their connections without responding, as if the RC had died */
+	public void dropNextRequests(int count) {
+		drops.set(count);
+	}
+	/** How often a watch reports that it is still waiting */
+	public void setHeartbeatInterval(long millis) {
+		this.heartbeatInterval = millis;
+	}
+	/** Never answer requests from now on, like a hung server. They are let go when it stops. */
+	public void stall() {
+		stalled = true;
+	}
+	/** Wait this long before answering each request, like a slow or distant server */
+	public void setResponseDelay(long millis) {
+		this.delay = millis;
+	}
+
+	private boolean takeDrop() {
+		int count;
+		do {
+			count = drops.get();
+			if(count <= 0)
+				return false;
+		} while(!drops.compareAndSet(count, count - 1));
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void serve(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		requestCount.incrementAndGet();
+		String requestId = exchange.getRequestHeaders().getFirst("X-Twin-Request-Id");
+		requestIds.add(String.valueOf(requestId));
+		if(requestId != null)
+			exchange.getResponseHeaders().set("X-Twin-Request-Id", requestId);
+		clients.add(exchange.getRemoteAddress());
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		Map<String,Object> body = null;
+		InputStream in = exchange.getRequestBody();
+		byte[] bytes = readFully(in);
+		if(takeDrop()) {
+			exchange.close(); // with no response sent, this closes the connection
+			return;
+		}
+		if(stalled) {
+			try {
+				stopped.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+			return;
+		}
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		if(encoding != null) {
+			if(!compressionSupported) {
+				byte[] text = ("Unsupported Content-Encoding "+encoding).getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain");
+				exchange.sendResponseHeaders(415, text.length);
+				exchange.getResponseBody().write(text);
+				return;
+			}
+			bytes = Compression.decode(bytes, encoding);
+			compressedRequests.incrementAndGet();
+		}
+		if(bytes.length > 0)
+			body = (Map<String,Object>)JSON.decode(bytes);
+
+		List<String> segments = new ArrayList<String>(Arrays.asList(path.replaceAll("^/+|/+$", "").split("/+")));
+		String sessionId = null;
+		if(segments.size() >= 2 && segments.get(0).equals("session")) {
+			sessionId = segments.get(1);
+			segments = segments.subList(2, segments.size());
+		}
+		requestLog.add(method+" "+join(segments));
+		if(delay > 0)
+			sleep(delay);
+
+		int code = 200;
+		Map<String,Object> response;
+		try {
+			if(watchSupported && sessionId != null && sessions.containsKey(sessionId) && method.equals("POST") && segments.size() > 0 && segments.get(segments.size()-1).equals("watch")) {
+				watch(exchange, sessionId, target(segments.subList(0, segments.size()-1)), body);
+				return;
+			}
+			String accept = exchange.getRequestHeaders().getFirst("Accept");
+			if(binaryScreenshots && accept != null && accept.contains("image/png") && sessionId != null && sessions.containsKey(sessionId) && method.equals("GET") && segments.size() > 0 && segments.get(segments.size()-1).equals("screenshot")) {
+				byte[] png = screenshot(target(segments.subList(0, segments.size()-1)), body);
+				exchange.getResponseHeaders().set("Content-Type", "image/png");
+				exchange.sendResponseHeaders(200, png.length);
+				exchange.getResponseBody().write(png);
+				return;
+			}
+			response = dispatch(method, path, sessionId, segments, body);
+		} catch (Redirect e) {
+			exchange.getResponseHeaders().set("Location", e.location);
+			exchange.sendResponseHeaders(303, -1);
+			return;
+		} catch (HttpFailure e) {
+			byte[] text = e.getMessage().getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "text/plain");
+			exchange.sendResponseHeaders(e.code, text.length);
+			exchange.getResponseBody().write(text);
+			return;
+		} catch (Failure e) {
+			code = 500;
+			response = errorResponse(e);
+		}
+		byte[] json = JSON.encodeToBytes(response);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if(compressionSupported && json.length >= 1024 && accept != null && accept.contains("gzip")) {
+			json = Compression.gzip(json);
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			compressedResponses.incrementAndGet();
+		}
+		exchange.getResponseHeaders().set("Server-Timing", String.format(Locale.ROOT, "handler;dur=%.3f", (System.nanoTime() - start) / 1e6));
+		exchange.sendResponseHeaders(code, chunked ? 0 : json.length);
+		exchange.getResponseBody().write(json);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String,Object> dispatch(String method, String path, String sessionId, List<String> segments, Map<String,Object> body) {
+		if(sessionId == null) {
+			if(path.equals("/session") && method.equals("POST")) {
+				Map<String,String> capabilities = configurationFor((Map<String,Object>)body.get("desiredCapabilities"));
+				if(openDelay > 0)
+					sleep(openDelay);
+				String id = UUID.randomUUID().toString();
+				sessions.put(id, capabilities);
+				sessionsOpened.incrementAndGet();
+				// as the RC does, redirect to the session, which the client then GETs
+				throw new Redirect(getURL()+"session/"+id);
+			}
+			if(path.equals("/status") && method.equals("GET")) {
+				Map<String,Object> status = new HashMap<String,Object>();
+				status.put("running", true);
+				List<Object> list = new ArrayList<Object>();
+				synchronized(configurations) {
+					for(Map.Entry<String,Map<String,String>> entry : configurations.entrySet()) {
+						Map<String,Object> configuration = new HashMap<String,Object>();
+						configuration.put("id", entry.getKey());
+						configuration.put("capabilities", entry.getValue());
+						configuration.put("path", entry.getKey()+".exe");
+						list.add(configuration);
+					}
+				}
+				status.put("configurations", list);
+				return status;
+			}
+			throw new HttpFailure(404, "No resource mapped to path "+path);
+		}
+		if(!sessions.containsKey(sessionId))
+			throw new Failure(TwinError.NoSuchSession, "No such session "+sessionId);
+		if(segments.isEmpty() && method.equals("GET"))
+			return success(sessionId, sessions.get(sessionId));
+		if(segments.isEmpty() && method.equals("DELETE")) {
+			sessions.remove(sessionId);
+			return success(sessionId, null);
+		}
+		return success(sessionId, handle(method, sessionId, segments, body));
+	}
+
+	/** The first configuration matching the desired capabilities, as SessionFactory.Create() picks it */
+	private Map<String,String> configurationFor(Map<String,Object> desired) {
+		synchronized(configurations) {
+			search: for(Map<String,String> capabilities : configurations.values()) {
+				for(Map.Entry<String,Object> entry : desired.entrySet())
+					if(entry.getValue() != null && !entry.getValue().equals(capabilities.get(entry.getKey())))
+						continue search;
+				return capabilities;
+			}
+		}
+		throw new Failure(TwinError.UnknownError, "Couldn't find any configuration matching the given capabilities "+desired);
+	}
+
+	/** Handle a request within a session, returning the "value" of the response */
+	@SuppressWarnings("unchecked")
+	private Object handle(String method, String sessionId, List<String> segments, Map<String,Object> body) {
+		String route = join(segments);
+		if(route.equals("batch") && method.equals("POST") && batchSupported) {
+			List<Object> results = new ArrayList<Object>();
+			for(Object item : (List<Object>)body.get("requests")) {
+				Map<String,Object> request = (Map<String,Object>)item;
+				String subPath = ((String)request.get("path")).replaceAll("^/+", "");
+				try {
+					Object value = handle((String)request.get("method"), sessionId, Arrays.asList(subPath.split("/+")), (Map<String,Object>)request.get("body"));
+					results.add(success(sessionId, value));
+				} catch (Failure e) {
+					results.add(errorResponse(e));
+				} catch (HttpFailure e) {
+					results.add(errorResponse(new Failure(TwinError.UnknownCommand, e.getMessage())));
+				}
+			}
+			return results;
+		}
+		if(route.equals("attachment") && method.equals("POST")) {
+			String uuid = UUID.randomUUID().toString();
+			attachments.put(uuid, Base64.decodeBase64((String)body.get("data")));
+			Map<String,Object> attachment = new HashMap<String,Object>();
+			attachment.put("class", "Twin.Model.Attachment");
+			attachment.put("uuid", uuid);
+			attachment.put("path", "C:\\Temp\\"+uuid+".tmp");
+			return attachment;
+		}
+		if(route.equals("release") && method.equals("POST") && releaseSupported) {
+			List<String> uuids = (List<String>)body.get("elements");
+			released.addAll(uuids);
+			return uuids.size();
+		}
+
+		Node node = target(segments);
+		List<String> rest = segments.subList(node == desktop ? 1 : 2, segments.size());
+		String property = rest.isEmpty() ? "" : join(rest);
+		if(property.equals("exists") && method.equals("GET"))
+			return node.exists;
+		if(property.equals("exists") && method.equals("POST")) {
+			boolean target = (Boolean)body.get("value");
+			long deadline = System.currentTimeMillis() + (long)(((Number)body.get("timeout")).doubleValue() * 1000);
+			while(node.exists != target && System.currentTimeMillis() < deadline)
+				sleep(POLL_INTERVAL);
+			if(node.exists != target)
+				throw new Failure(TwinError.InvalidElementState, "Element did not reach exists state "+target);
+			return null;
+		}
+		if(!node.exists)
+			throw new Failure(TwinError.NoSuchElement, "Element no longer exists");
+		return handleElement(node, method, property, body);
+	}
+
+	/** The node a path such as desktop/... or element/uuid/... refers to */
+	private Node target(List<String> segments) {
+		if(segments.size() >= 1 && segments.get(0).equals("desktop"))
+			return desktop;
+		if(segments.size() >= 2 && segments.get(0).equals("element")) {
+			Node node = nodes.get(segments.get(1));
+			if(node == null)
+				throw new Failure(TwinError.NoSuchElement, "No such element "+segments.get(1));
+			return node;
+		}
+		throw new HttpFailure(404, "No resource mapped to path "+join(segments));
+	}
+
+	/** 
+	 * Stream a POST .../watch response as the RC does: a "waiting" line straight away and then every heartbeat interval, 
+	 * then the outcome as soon as the tree changes to satisfy the watch
+	 */
+	@SuppressWarnings("unchecked")
+	private void watch(HttpExchange exchange, String sessionId, Node node, Map<String,Object> body) throws IOException {
+		String event = (String)body.get("event");
+		Map<String,Object> criteria = (Map<String,Object>)body.get("criteria");
+		long now = System.currentTimeMillis();
+		long deadline = body.get("timeout") == null ? Long.MAX_VALUE : now + (long)(((Number)body.get("timeout")).doubleValue() * 1000);
+		long nextHeartbeat = now + heartbeatInterval;
+
+		exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		writeLine(out, watchEvent(sessionId, "waiting"));
+		while(true) {
+			long seen;
+			synchronized(changes) {
+				seen = version;
+			}
+			Map<String,Object> outcome = null;
+			if(event.equals("gone")) {
+				if(!node.exists)
+					outcome = watchEvent(sessionId, "gone");
+			} else if(!node.exists) {
+				outcome = errorResponse(new Failure(TwinError.NoSuchElement, "Element no longer exists"));
+			} else {
+				List<Object> found = new ArrayList<Object>();
+				collect(node, event.equals("descendant"), criteria, found);
+				if(!found.isEmpty()) {
+					outcome = watchEvent(sessionId, "appeared");
+					outcome.put("value", found);
+				}
+			}
+			now = System.currentTimeMillis();
+			if(outcome == null && now >= deadline) {
+				outcome = event.equals("gone")
+					? errorResponse(new Failure(TwinError.InvalidElementState, "Element did not reach exists state False"))
+					: errorResponse(new Failure(TwinError.NoSuchElement, "No element matching "+criteria+" appeared"));
+			}
+			if(outcome != null) {
+				writeLine(out, outcome);
+				return;
+			}
+			if(now >= nextHeartbeat) {
+				writeLine(out, watchEvent(sessionId, "waiting"));
+				nextHeartbeat = now + heartbeatInterval;
+			}
+			synchronized(changes) {
+				if(version == seen) try {
+					changes.wait(Math.max(1, Math.min(deadline, nextHeartbeat) - now));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	private static Map<String,Object> watchEvent(String sessionId, String event) {
+		Map<String,Object> line = success(sessionId, null);
+		line.put("event", event);
+		return line;
+	}
+	private static void writeLine(OutputStream out, Map<String,Object> line) throws IOException {
+		out.write(JSON.encodeToBytes(line));
+		out.write('\n');
+		out.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object handleElement(Node node, String method, String property, Map<String,Object> body) {
+		if(method.equals("GET")) {
+			if(property.equals(""))
+				return node.toJSON();
+			if(property.equals("name"))
+				return node.name;
+			if(property.equals("bounds"))
+				return bounds(node);
+			if(property.equals("screenshot")) {
+				Map<String,Object> result = new HashMap<String,Object>();
+				result.put("contentType", "image/png");
+				result.put("data", new String(Base64.encodeBase64(screenshot(node, body))));
+				return result;
+			}
+			if(property.equals("snapshot")) {
+				int depth = body != null && body.containsKey("depth") ? ((Number)body.get("depth")).intValue() : Integer.MAX_VALUE;
+				List<Object> properties = body != null && body.containsKey("properties") ? (List<Object>)body.get("properties") : Collections.emptyList();
+				return snapshot(node, depth, properties);
+			}
+			if(property.equals("parent"))
+				return node.parent == null ? null : node.parent.toJSON();
+			if(property.equals("children") || property.equals("descendants")) {
+				Map<String,Object> criteria = body == null ? null : (Map<String,Object>)body.get("criteria");
+				Object wait = body == null ? null : body.get("waitForResults");
+				long deadline = System.currentTimeMillis() + (wait instanceof Number ? (long)(((Number)wait).doubleValue() * 1000) : Boolean.TRUE.equals(wait) ? Long.MAX_VALUE/2 : 0);
+				List<Object> result = new ArrayList<Object>();
+				collect(node, property.equals("descendants"), criteria, result);
+				while(result.isEmpty() && System.currentTimeMillis() < deadline) {
+					sleep(POLL_INTERVAL);
+					collect(node, property.equals("descendants"), criteria, result);
+				}
+				return result;
+			}
+			if(node.properties.containsKey(property))
+				return node.properties.get(property);
+		} else if(method.equals("POST")) {
+			if(property.equals("click"))
+				return null;
+			if(node.properties.containsKey(property) && body != null && body.containsKey(property.equals("toggle") ? "state" : property)) {
+				node.properties.put(property, body.get(property.equals("toggle") ? "state" : property));
+				return null;
+			}
+		}
+		throw new Failure(TwinError.UnknownCommand, "Stub doesn't support "+method+" "+property+" on "+node);
+	}
+	/** A PNG of the node's image, cropped to the area in the request body if there is one */
+	private static byte[] screenshot(Node node, Map<String,Object> body) {
+		BufferedImage image = node.image;
+		if(image == null)
+			image = new BufferedImage(node.bounds.width, node.bounds.height, BufferedImage.TYPE_INT_RGB);
+		if(body != null && body.containsKey("width")) {
+			Rectangle area = new Rectangle(((Number)body.get("x")).intValue(), ((Number)body.get("y")).intValue(),
+				((Number)body.get("width")).intValue(), ((Number)body.get("height")).intValue());
+			area = area.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+			if(area.isEmpty())
+				throw new Failure(TwinError.UnknownError, "Area is outside the element");
+			image = image.getSubimage(area.x, area.y, area.width, area.height);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	private static Map<String,Object> bounds(Node node) {
+		if(node.bounds == null)
+			return null;
+		Map<String,Object> bounds = new HashMap<String,Object>();
+		bounds.put("x", node.bounds.x);
+		bounds.put("y", node.bounds.y);
+		bounds.put("width", node.bounds.width);
+		bounds.put("height", node.bounds.height);
+		return bounds;
+	}
+	private Map<String,Object> snapshot(Node node, int depth, List<Object> properties) {
+		Map<String,Object> result = new HashMap<String,Object>();
+		result.put("element", node.toJSON());
+		Map<String,Object> values = new HashMap<String,Object>();
+		for(Object name : properties) {
+			if(name.equals("bounds"))
+				values.put("bounds", bounds(node));
+			else if(node.properties.containsKey(name))
+				values.put((String)name, node.properties.get(name));
+		}
+		result.put("properties", values);
+		if(depth > 0) {
+			List<Object> children = new ArrayList<Object>();
+			for(Node child : node.children)
+				children.add(snapshot(child, depth-1, properties));
+			result.put("children", children);
+		}
+		return result;
+	}
+	private void collect(Node node, boolean recursive, Map<String,Object> criteria, List<Object> result) {
+		for(Node child : node.children) {
+			if(criteria == null || matches(child, criteria))
+				result.add(child.toJSON());
+			if(recursive)
+				collect(child, recursive, criteria, result);
+		}
+	}
+	/** Evaluate the JSON form of a Criteria against a node */
+	@SuppressWarnings("unchecked")
+	private boolean matches(Node node, Map<String,Object> criteria) {
+		String type = (String)criteria.get("type");
+		if(type.equals("and") || type.equals("or")) {
+			boolean and = type.equals("and");
+			for(Object target : (List<Object>)criteria.get("target"))
+				if(matches(node, (Map<String,Object>)target) != and)
+					return !and;
+			return and;
+		}
+		if(type.equals("not"))
+			return !matches(node, (Map<String,Object>)criteria.get("target"));
+		String name = (String)criteria.get("name");
+		Object value = criteria.get("value");
+		if(name.equals("controlPattern")) {
+			for(String pattern : node.patterns)
+				if(NameMappings.getPatternInterface(pattern).getSimpleName().equals(value))
+					return true;
+			return false;
+		}
+		Object actual;
+		if(name.equals("name"))
+			actual = node.name;
+		else if(name.equals("controlType"))
+			actual = node.controlType;
+		else if(name.equals("id"))
+			actual = node.id;
+		else if(name.equals("className"))
+			actual = node.className;
+		else
+			actual = node.properties.get(name);
+		return value == null ? actual == null : value.equals(actual);
+	}
+
+	private static Map<String,Object> success(String sessionId, Object value) {
+		Map<String,Object> response = new HashMap<String,Object>();
+		response.put("sessionId", sessionId);
+		response.put("status", 0);
+		response.put("value", value);
+		return response;
+	}
+	private static Map<String,Object> errorResponse(Failure e) {
+		Map<String,Object> exception = new HashMap<String,Object>();
+		exception.put("message", e.getMessage());
+		exception.put("class", "Twin.TwinException");
+		Map<String,Object> response = new HashMap<String,Object>();
+		response.put("status", e.status.getCode());
+		response.put("value", exception);
+		return response;
+	}
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	private static String join(List<String> segments) {
+		StringBuilder sb = new StringBuilder();
+		for(String segment : segments) {
+			if(sb.length() > 0)
+				sb.append('/');
+			sb.append(segment);
+		}
+		return sb.toString();
+	}
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int read;
+		while((read=in.read(buf))>=0)
+			out.write(buf, 0, read);
+		in.close();
+		return out.toByteArray();
+	}
+}
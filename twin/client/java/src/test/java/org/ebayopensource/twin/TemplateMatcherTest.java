@@ -0,0 +1,99 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class TemplateMatcherTest {
+	private final Random random = new Random(42);
+
+	private BufferedImage noise(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for(int y=0; y<height; y++)
+			for(int x=0; x<width; x++)
+				image.setRGB(x, y, random.nextInt(0x1000000));
+		return image;
+	}
+	/** A button-like image: a gradient with a frame and some text */
+	private static BufferedImage button(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setPaint(new GradientPaint(0, 0, Color.WHITE, 0, height, new Color(0x6080c0)));
+		g.fillRect(0, 0, width, height);
+		g.setColor(Color.BLACK);
+		g.drawRect(0, 0, width-1, height-1);
+		g.fillOval(width/4, height/4, width/2, height/2);
+		g.dispose();
+		return image;
+	}
+	/** Draw a copy of the image at x, y with its brightness scaled */
+	private static void paste(BufferedImage target, BufferedImage image, int x, int y, double brightness) {
+		for(int j=0; j<image.getHeight(); j++) {
+			for(int i=0; i<image.getWidth(); i++) {
+				Color c = new Color(image.getRGB(i, j));
+				target.setRGB(x+i, y+j, new Color((int)(c.getRed()*brightness), (int)(c.getGreen()*brightness), (int)(c.getBlue()*brightness)).getRGB());
+			}
+		}
+	}
+
+	@Test
+	public void testFind() {
+		BufferedImage screen = noise(1200, 800);
+		BufferedImage template = button(75, 40);
+		paste(screen, template, 701, 453, 1);
+		paste(screen, template, 100, 100, 0.7); // dimmed, e.g. disabled
+		List<Rectangle> matches = TemplateMatcher.find(screen, template, 0.9);
+		assertEquals(Arrays.asList(new Rectangle(701, 453, 75, 40), new Rectangle(100, 100, 75, 40)), matches);
+		assertTrue(TemplateMatcher.find(screen, button(75, 41), 0.99).isEmpty());
+	}
+
+	@Test
+	public void testSmallAndFlatTemplates() {
+		BufferedImage screen = noise(300, 200);
+		BufferedImage template = noise(5, 5);
+		paste(screen, template, 30, 40, 1);
+		assertEquals(Arrays.asList(new Rectangle(30, 40, 5, 5)), TemplateMatcher.find(screen, template, 0.95));
+
+		BufferedImage grey = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+		Graphics g = grey.getGraphics();
+		g.setColor(Color.GRAY);
+		g.fillRect(0, 0, 20, 20);
+		paste(screen, grey, 200, 100, 1);
+		assertEquals(new Rectangle(200, 100, 20, 20), TemplateMatcher.find(screen, grey, 0.99).get(0));
+		assertTrue(TemplateMatcher.find(grey, screen, 0.5).isEmpty());
+	}
+
+	@Test
+	public void testLargeScreen() {
+		BufferedImage screen = noise(3840, 2160);
+		BufferedImage template = button(120, 60);
+		paste(screen, template, 3001, 1777, 1);
+		long start = System.currentTimeMillis();
+		assertEquals(Arrays.asList(new Rectangle(3001, 1777, 120, 60)), TemplateMatcher.find(screen, template, 0.9));
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("Took "+elapsed+"ms", elapsed < 10000);
+	}
+
+	@Test
+	public void testElement() throws Exception {
+		StubRC rc = new StubRC();
+		try {
+			StubRC.Node main = rc.addWindow("Main");
+			main.image = noise(400, 300);
+			BufferedImage template = button(40, 20);
+			paste(main.image, template, 250, 200, 1);
+			Element window = rc.open().getDesktop().getChild(Criteria.name("Main"));
+			assertEquals(Arrays.asList(new Rectangle(250, 200, 40, 20)), window.findImage(template, 0.9));
+		} finally {
+			rc.stop();
+		}
+	}
+}
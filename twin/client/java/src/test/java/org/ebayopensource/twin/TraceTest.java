@@ -0,0 +1,142 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.json.JSON;
+
+public class TraceTest {
+	private StubRC rc;
+	private Application app;
+	private Element main;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		StubRC.Node window = rc.addWindow("Main");
+		for(int i=0; i<5; i++)
+			rc.add(window, "Button", "Button "+i);
+		app = rc.open();
+		main = app.getDesktop().getChild(Criteria.name("Main"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	@Test
+	public void testRequestIds() {
+		main.getChildren();
+		main.getChildren();
+		List<String> ids = rc.getRequestIds();
+		assertFalse(ids.contains("null"));
+		// the GET the open is redirected to is part of the same request, so has the same id
+		assertEquals(ids.size() - 1, new HashSet<String>(ids).size());
+	}
+
+	@Test
+	public void testPhases() {
+		TwinTrace trace = new TwinTrace();
+		app.setTrace(trace);
+		rc.setResponseDelay(50);
+		Map<String,Object> body = new HashMap<String,Object>();
+		body.put("value", "text");
+		try {
+			app.request("POST", "/no-such-thing", body);
+		} catch (TwinException expected) {
+		}
+		main.getChildren();
+		app.setConnectionConfig(new ConnectionConfig()); // keeps the trace
+		assertEquals(5, new AsyncApplication(app).getChildren(main, null).getResult().size());
+
+		List<TwinTrace.Span> spans = trace.getSpans();
+		assertEquals(3, spans.size());
+		assertEquals("UnknownCommand", spans.get(0).getError());
+		assertEquals(Arrays.asList("encode", "connect", "send", "wait", "read", "decode"), new ArrayList<String>(spans.get(0).getPhases().keySet()));
+		assertTrue(rc.getRequestIds().contains(spans.get(0).getRequestId()));
+
+		TwinTrace.Span children = spans.get(1);
+		assertNull(children.getError());
+		assertEquals("GET /session/:session/element/:id/children", children.getEndpoint());
+		assertEquals(spans.get(0).getPhases().keySet(), children.getPhases().keySet());
+		assertTrue(children.getPhases().get("wait") >= 50000000L);
+		assertTrue(children.getServerMillis().get("handler") >= 50);
+		long total = 0;
+		for(long nanos : children.getPhases().values())
+			total += nanos;
+		assertTrue(total <= children.getNanos());
+
+		TwinTrace.Span async = spans.get(2);
+		assertEquals(Arrays.asList("encode", "exchange", "decode"), new ArrayList<String>(async.getPhases().keySet()));
+		assertTrue(async.getServerMillis().containsKey("handler"));
+
+		app.setTrace(null);
+		main.getChildren();
+		assertEquals(3, trace.getSpans().size());
+	}
+
+	@Test
+	public void testCapacity() {
+		TwinTrace trace = new TwinTrace(2);
+		app.setTrace(trace);
+		for(int i=0; i<3; i++)
+			main.getChildren();
+		assertEquals(2, trace.getSpans().size());
+		assertEquals(rc.getRequestIds().get(rc.getRequestIds().size()-1), trace.getSpans().get(1).getRequestId());
+		trace.clear();
+		assertTrue(trace.getSpans().isEmpty());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testChromeTrace() throws IOException {
+		TwinTrace trace = new TwinTrace();
+		app.setTrace(trace);
+		main.getChildren();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		trace.writeChromeTrace(out);
+		Map<String,Object> json = (Map<String,Object>)JSON.decode(out.toByteArray());
+		int requests = 0, phases = 0, rc = 0;
+		for(Object e : (List<Object>)json.get("traceEvents")) {
+			Map<String,Object> event = (Map<String,Object>)e;
+			if(!"X".equals(event.get("ph")))
+				continue;
+			assertTrue(((Number)event.get("dur")).doubleValue() >= 0);
+			if("request".equals(event.get("cat")))
+				requests++;
+			else if("phase".equals(event.get("cat")))
+				phases++;
+			else if("rc".equals(event.get("cat")))
+				rc++;
+		}
+		assertEquals(1, requests);
+		assertEquals(6, phases);
+		assertEquals(1, rc);
+	}
+
+	@Test
+	public void testServerTiming() {
+		Map<String,Double> timing = TwinTrace.parseServerTiming("handler;dur=12.5, sta-wait;dur=0.125;desc=\"queue\", cache, sta;dur=x");
+		assertEquals(2, timing.size());
+		assertEquals(12.5, timing.get("handler"), 0);
+		assertEquals(0.125, timing.get("sta-wait"), 0);
+		assertTrue(TwinTrace.parseServerTiming(null).isEmpty());
+	}
+
+	@Test
+	public void testExceptionRequestId() {
+		try {
+			app.request("GET", "/no-such-thing", null);
+			fail("Expected TwinException");
+		} catch (TwinException e) {
+			assertEquals(rc.getRequestIds().get(rc.getRequestIds().size()-1), e.getRequestId());
+		}
+	}
+}
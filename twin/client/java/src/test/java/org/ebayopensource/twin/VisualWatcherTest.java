@@ -0,0 +1,125 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class VisualWatcherTest {
+	private StubRC rc;
+	private StubRC.Node main;
+	private Element window;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		main = rc.addWindow("Main");
+		main.image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+		window = rc.open().getDesktop().getChild(Criteria.name("Main"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	private static Screenshot png(BufferedImage image) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return new Screenshot(out.toByteArray(), "image/png");
+	}
+	/** Paint a pixel of the stub window after a delay */
+	private void paintLater(final long delay, final int x, final int y) {
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					return;
+				}
+				main.image.setRGB(x, y, Color.RED.getRGB());
+			}
+		}.start();
+	}
+
+	@Test
+	public void testDiff() throws IOException {
+		BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_3BYTE_BGR);
+		Screenshot before = png(image);
+		image.setRGB(40, 40, Color.RED.getRGB());
+		image.setRGB(50, 50, Color.RED.getRGB());
+		image.setRGB(299, 199, Color.RED.getRGB());
+		Screenshot after = png(image);
+
+		ScreenshotDiff diff = ScreenshotDiff.compare(before, after);
+		assertTrue(diff.isChanged());
+		assertEquals(Arrays.asList(new Rectangle(32, 32, 32, 32), new Rectangle(288, 192, 12, 8)), diff.getChangedRegions());
+		assertEquals(3, diff.getChangedTiles().size());
+		assertTrue(diff.isChanged(new Rectangle(0, 0, 50, 50)));
+		assertFalse(diff.isChanged(new Rectangle(100, 0, 50, 50)));
+
+		assertFalse(ScreenshotDiff.compare(after, png(image)).isChanged());
+		assertFalse(ScreenshotDiff.compare(after, after, 7).isChanged());
+		assertEquals(1.0, ScreenshotDiff.compare(after, png(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB))).getChangedFraction());
+	}
+
+	@Test
+	public void testWaitForChange() {
+		VisualWatcher watcher = new VisualWatcher(window);
+		paintLater(300, 100, 100);
+		ScreenshotDiff diff = watcher.waitForVisualChange(null, 5);
+		assertEquals(Arrays.asList(new Rectangle(96, 96, 16, 16)), diff.getChangedRegions());
+		assertEquals(Color.RED.getRGB(), watcher.getLastScreenshot().getImage().getRGB(100, 100));
+
+		try {
+			watcher.waitForVisualChange(null, 0.3);
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+	}
+
+	@Test
+	public void testRegion() {
+		VisualWatcher watcher = new VisualWatcher(window, new Rectangle(100, 0, 200, 200));
+		paintLater(100, 10, 10); // outside the watched area
+		paintLater(200, 110, 10); // inside the area, outside the region
+		try {
+			watcher.waitForVisualChange(new Rectangle(0, 100, 200, 100), 0.6);
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+		paintLater(100, 150, 150);
+		ScreenshotDiff diff = watcher.waitForVisualChange(new Rectangle(0, 100, 200, 100), 5);
+		assertTrue(diff.isChanged(new Rectangle(0, 0, 32, 32))); // changes outside the region are reported too
+		assertTrue(diff.isChanged(new Rectangle(50, 150, 1, 1)));
+	}
+
+	@Test
+	public void testWaitForStability() {
+		final long start = System.currentTimeMillis();
+		for(int i=0; i<10; i++)
+			paintLater(i * 60, i, i);
+		VisualWatcher watcher = new VisualWatcher(window);
+		watcher.setPollInterval(0.02);
+		Screenshot stable = watcher.waitForVisualStability(0.3, 5);
+		assertTrue(System.currentTimeMillis() - start >= 840);
+		assertEquals(Color.RED.getRGB(), stable.getImage().getRGB(9, 9));
+
+		try {
+			for(int i=0; i<6; i++)
+				paintLater(50 + i * 100, 200, 100 + i);
+			watcher.waitForVisualStability(0.2, 0.5);
+			fail("Expected TwinException");
+		} catch (TwinException expected) {
+		}
+	}
+}
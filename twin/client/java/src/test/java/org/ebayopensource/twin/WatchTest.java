@@ -0,0 +1,141 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+public class WatchTest {
+	private StubRC rc;
+	private Application app;
+	private StubRC.Node window;
+	private Element element;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new StubRC();
+		window = rc.addWindow("Main");
+		app = rc.open();
+		element = app.getDesktop().getChild(Criteria.name("Main"));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	/** Run the action on another thread after a delay */
+	private void later(final long millis, final Runnable action) {
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(millis);
+				} catch (InterruptedException e) {
+					return;
+				}
+				action.run();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+	private Runnable addButton(final String name) {
+		return new Runnable() {
+			public void run() {
+				rc.add(window, "Button", name);
+			}
+		};
+	}
+
+	@Test
+	public void testAppearanceIsReportedPromptly() throws Exception {
+		TwinFuture<Element> future = element.onChildAppeared(Criteria.name("OK"), 10);
+		assertFalse(future.isDone());
+		long start = System.nanoTime();
+		rc.add(window, "Button", "OK");
+		Element ok = future.get(5, TimeUnit.SECONDS);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals("OK", ok.getCachedName());
+		assertTrue("took "+elapsed+"ms, no better than polling", elapsed < 500);
+		assertTrue(rc.getRequestLog().contains("POST element/"+((RemoteResourceInterface)element).getRemote().uuid+"/watch"));
+	}
+
+	@Test
+	public void testBlockingWaitsUseWatch() {
+		later(100, addButton("Later"));
+		Element button = element.waitForChild(Criteria.name("Later"), 10);
+		assertEquals("Later", button.getCachedName());
+
+		rc.add(rc.add(window, "Pane", "Pane"), "Edit", "Nested");
+		assertEquals("Nested", app.getDesktop().waitForDescendant(Criteria.name("Nested"), 1).getCachedName());
+		assertTrue(rc.getRequestLog().contains("POST desktop/watch"));
+		assertFalse(rc.getRequestLog().toString().contains("descendants"));
+	}
+
+	@Test
+	public void testAlreadyPresent() throws Exception {
+		rc.add(window, "Button", "Here");
+		assertEquals("Here", element.onChildAppeared(Criteria.name("Here"), 0).get(5, TimeUnit.SECONDS).getCachedName());
+	}
+
+	@Test
+	public void testTimeout() {
+		try {
+			element.onDescendantAppeared(Criteria.name("Never"), 0.1).getResult();
+			fail("Expected TwinNoSuchElementException");
+		} catch (TwinNoSuchElementException expected) {
+		}
+		try {
+			element.waitForChild(Criteria.name("Never"), 0.1);
+			fail("Expected TwinNoSuchElementException");
+		} catch (TwinNoSuchElementException expected) {
+		}
+	}
+
+	@Test
+	public void testGone() throws Exception {
+		TwinFuture<Void> gone = element.onGone(10);
+		later(100, new Runnable() {
+			public void run() {
+				rc.remove(window);
+			}
+		});
+		gone.get(5, TimeUnit.SECONDS);
+		element.waitForNotExists(0); // already gone
+
+		StubRC.Node other = rc.addWindow("Other");
+		Element otherElement = app.getDesktop().getChild(Criteria.name("Other"));
+		try {
+			otherElement.waitForNotExists(0.1);
+			fail("Expected TwinInvalidElementStateException");
+		} catch (TwinInvalidElementStateException expected) {
+		}
+		assertTrue(other.exists);
+	}
+
+	@Test
+	public void testHeartbeatsAreSkipped() {
+		rc.setHeartbeatInterval(10);
+		later(200, addButton("Slow"));
+		assertEquals("Slow", element.waitForChild(Criteria.name("Slow"), 10).getCachedName());
+	}
+
+	@Test
+	public void testFallbackWithoutWatch() throws Exception {
+		rc.setWatchSupported(false);
+		later(100, addButton("Polled"));
+		assertEquals("Polled", element.onChildAppeared(Criteria.name("Polled"), 10).get(5, TimeUnit.SECONDS).getCachedName());
+		assertFalse(app.watchSupported);
+
+		// the fallback is remembered
+		int watches = 0;
+		element.waitForChild(Criteria.name("Polled"), 10);
+		for(String request : rc.getRequestLog())
+			if(request.endsWith("/watch"))
+				watches++;
+		assertEquals(1, watches);
+	}
+}
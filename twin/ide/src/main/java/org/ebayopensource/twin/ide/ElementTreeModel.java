@@ -18,8 +18,19 @@ public class ElementTreeModel implements TreeModel, ResultConsumer {
 	private WeakHashMap<Element,List<Element>> childCache = new WeakHashMap<Element, List<Element>>();
 	private WeakHashMap<Element,Element> parents = new WeakHashMap<Element, Element>();
 	
+	private boolean snapshotSupported = true;
+	
 	private synchronized List<Element> getChildren(Element element) {
 		if(!childCache.containsKey(element)) try {
+			if(snapshotSupported) try {
+				// fetch grandchildren too, so expanding any of the children doesn't need another request
+				cacheChildren(element, element.snapshot(2));
+				return childCache.get(element);
+			} catch (TwinException e) {
+				if(!"UnknownCommand".equals(e.getErrorName()))
+					throw e; // e.g. the element has gone, which is reported below like any other failure
+				snapshotSupported = false; // an older RC, try the slow way
+			}
 			childCache.put(element, element.getChildren());
 			for(Element child : childCache.get(element))
 				parents.put(child, element);
@@ -29,6 +40,17 @@ public class ElementTreeModel implements TreeModel, ResultConsumer {
 		}
 		return childCache.get(element);
 	}
+	private void cacheChildren(Element element, ElementSnapshot snapshot) {
+		List<Element> children = new ArrayList<Element>();
+		for(ElementSnapshot childSnapshot : snapshot.getChildren()) {
+			Element child = childSnapshot.getElement();
+			children.add(child);
+			parents.put(child, element);
+			if(childSnapshot.hasChildrenFetched() && !childCache.containsKey(child))
+				cacheChildren(child, childSnapshot);
+		}
+		childCache.put(element, children);
+	}
 	private synchronized Element getParent(Element element) throws TwinException {
 		if(!parents.containsKey(element))
 			parents.put(element, element.getParent());
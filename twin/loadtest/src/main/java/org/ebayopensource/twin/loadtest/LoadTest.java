@@ -0,0 +1,379 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.loadtest;
+
+import java.io.PrintStream;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.ebayopensource.twin.*;
+import org.ebayopensource.twin.metrics.*;
+
+/**
+ * Drives many concurrent Application sessions against one or more RCs, each running a mix of operations, and
+ * measures throughput, latency percentiles and errors. Used to find how much load an RC, or a farm of them, takes.
+ * <p>
+ * Each session runs on its own thread, against the RCs in turn. It opens a session, finds its target window and
+ * the elements in it, then repeatedly picks an operation from the mix and runs it until the test ends.
+ * There are two ways of pacing them:
+ * <ul>
+ * <li>CLOSED - each session starts its next operation when the last finishes, no sooner than its share of the
+ * rate allows if there is one. This measures how much an RC can do, but not the latency users of a busy RC see:
+ * while an RC stalls, fewer operations are sent, so the stall is measured once rather than by every operation
+ * that would have waited for it.</li>
+ * <li>OPEN - each session's operations are scheduled at fixed intervals, its share of the rate, whatever happens
+ * to earlier ones. Latency is measured from when an operation was scheduled, so time spent waiting behind a slow
+ * operation counts, as do operations that were due but hadn't finished when the test ended.
+ * This is the latency a steady stream of tests would see, free of coordinated omission.</li>
+ * </ul>
+ * <pre>
+ * LoadTest test = new LoadTest(Arrays.asList(new URL("http://rc1:4444/"), new URL("http://rc2:4444/")));
+ * test.setSessions(20);
+ * test.setMode(LoadTest.Mode.OPEN);
+ * test.setRate(100);
+ * test.setDuration(60000);
+ * System.out.println(test.run().getReport());
+ * </pre>
+ * Or from the command line with java -jar loadtest.jar; see main() for its options.
+ */
+public class LoadTest {
+	public enum Mode { CLOSED, OPEN }
+
+	/** How long a session waits before trying again to set up after failing to */
+	private static final long SETUP_RETRY_DELAY = 1000;
+
+	private final List<URL> urls;
+	private int sessions = 1;
+	private long duration = 60000;
+	private long warmup = 0;
+	private double rate = 0;
+	private Mode mode = Mode.CLOSED;
+	private final Map<Operation,Integer> mix = new EnumMap<Operation,Integer>(Operation.class);
+	private Map<String,String> capabilities = new HashMap<String,String>();
+	private String window;
+	private long progressInterval = 0;
+	private PrintStream progress = System.out;
+	private final HistogramMetrics metrics = new HistogramMetrics();
+
+	public LoadTest(List<URL> urls) {
+		if(urls.isEmpty())
+			throw new IllegalArgumentException("At least one RC URL is needed");
+		this.urls = new ArrayList<URL>(urls);
+		setMix("search=4,click=2,keys=2,screenshot=1");
+	}
+
+	/** The number of concurrent sessions, spread over the RCs in turn */
+	public void setSessions(int sessions) {
+		if(sessions <= 0)
+			throw new IllegalArgumentException("There must be at least one session: "+sessions);
+		this.sessions = sessions;
+	}
+	/** How long to measure for, in milliseconds, after any warm-up */
+	public void setDuration(long millis) {
+		this.duration = millis;
+	}
+	/** How long to run before measuring, in milliseconds, so that results don't include sessions being set up */
+	public void setWarmup(long millis) {
+		this.warmup = millis;
+	}
+	/** The total operations per second to aim for over all sessions. 0, only allowed in CLOSED mode, for no limit. */
+	public void setRate(double perSecond) {
+		if(perSecond < 0)
+			throw new IllegalArgumentException("Rate can't be negative: "+perSecond);
+		this.rate = perSecond;
+	}
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+	/** How often each operation is picked relative to the others, e.g. SEARCH=4 and CLICK=1 for four searches per click */
+	public void setMix(Map<Operation,Integer> weights) {
+		int total = 0;
+		for(Integer weight : weights.values()) {
+			if(weight < 0)
+				throw new IllegalArgumentException("Weights can't be negative: "+weights);
+			total += weight;
+		}
+		if(total == 0)
+			throw new IllegalArgumentException("At least one operation must have a weight: "+weights);
+		mix.clear();
+		mix.putAll(weights);
+	}
+	/** Set the mix from a string such as "search=4,click=2,keys=2,screenshot=1" */
+	public void setMix(String weights) {
+		Map<Operation,Integer> map = new EnumMap<Operation,Integer>(Operation.class);
+		for(String item : weights.split(",")) {
+			String[] pair = item.trim().split("=", 2);
+			map.put(Operation.forName(pair[0].trim()), pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1);
+		}
+		setMix(map);
+	}
+	/** The capabilities to open sessions with, e.g. applicationName. Empty by default, which any RC configuration matches. */
+	public void setCapabilities(Map<String,String> capabilities) {
+		this.capabilities = new HashMap<String,String>(capabilities);
+	}
+	/** The name of the window sessions work in, or null (the default) for the first window on the desktop */
+	public void setWindow(String name) {
+		this.window = name;
+	}
+	/** Print a line of progress to the stream at this interval in milliseconds, or never if 0 (the default) */
+	public void setProgress(long intervalMillis, PrintStream out) {
+		this.progressInterval = intervalMillis;
+		this.progress = out;
+	}
+	/** Every request the sessions sent, by endpoint, over the measured part of the last run */
+	public HistogramMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Run the test: set up the sessions, warm up, measure, then close the sessions */
+	public Results run() throws InterruptedException {
+		if(mode == Mode.OPEN && rate <= 0)
+			throw new IllegalStateException("An open-loop test needs a rate");
+		final Results results = new Results();
+		metrics.reset();
+		long start = System.nanoTime();
+		final long end = start + TimeUnit.MILLISECONDS.toNanos(warmup + duration);
+		// each session's share of the rate, staggered so that they don't all send at once
+		final long interval = rate > 0 ? (long)(1e9 * sessions / rate) : 0;
+		final Operation[] table = table();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<sessions; i++) {
+			final URL url = urls.get(i % urls.size());
+			final long first = start + (interval * i) / sessions;
+			final Random random = new Random(i);
+			Thread thread = new Thread("loadtest-session-"+i) {
+				public void run() {
+					session(url, first, interval, end, table, random, results);
+				}
+			};
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+
+		if(warmup > 0) {
+			sleepUntil(start + TimeUnit.MILLISECONDS.toNanos(warmup));
+			results.reset();
+			metrics.reset();
+		}
+		long measured = System.nanoTime();
+		if(progressInterval > 0) {
+			long next = measured;
+			long lastOperations = 0;
+			while((next += TimeUnit.MILLISECONDS.toNanos(progressInterval)) < end) {
+				sleepUntil(next);
+				long operations = results.getOperations();
+				LatencyHistogram latency = results.getLatency(Results.ALL);
+				progress.println(String.format("[%6.1fs] %.1f/s, %d operations, %d errors, p99 %.2fms", (System.nanoTime() - measured) / 1e9,
+					(operations - lastOperations) / (progressInterval / 1000.0), operations, results.getErrors(), latency == null ? 0 : latency.getValueAtPercentile(99) / 1e6));
+				lastOperations = operations;
+			}
+		}
+		sleepUntil(end);
+		results.finish();
+		for(Thread thread : threads)
+			thread.join();
+		return results;
+	}
+
+	/** Each operation repeated by its weight, to pick from at random */
+	private Operation[] table() {
+		List<Operation> table = new ArrayList<Operation>();
+		for(Map.Entry<Operation,Integer> entry : mix.entrySet())
+			for(int i=0; i<entry.getValue(); i++)
+				table.add(entry.getKey());
+		return table.toArray(new Operation[table.size()]);
+	}
+
+	/** One session: set up, then run operations until the end */
+	private void session(URL url, long first, long interval, long end, Operation[] table, Random random, Results results) {
+		Application app = null;
+		Operation.Target target = null;
+		while(target == null && System.nanoTime() < end) {
+			long started = System.nanoTime();
+			try {
+				app = new Application(url);
+				app.setMetrics(metrics);
+				app.open(capabilities);
+				target = new Operation.Target(findWindow(app));
+				results.record(Results.SETUP, System.nanoTime() - started, System.nanoTime() - started, null);
+			} catch (RuntimeException e) {
+				long nanos = System.nanoTime() - started;
+				results.record(Results.SETUP, nanos, nanos, errorName(e));
+				close(app);
+				app = null;
+				sleepUntil(Math.min(end, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETUP_RETRY_DELAY)));
+			}
+		}
+		try {
+			long scheduled = Math.max(first, System.nanoTime());
+			while(target != null) {
+				if(interval > 0)
+					sleepUntil(scheduled);
+				long started = System.nanoTime();
+				if(started >= end)
+					break;
+				// closed-loop measures from when the operation was sent, open-loop from when it should have been
+				long from = mode == Mode.OPEN ? Math.min(scheduled, started) : started;
+				Operation operation = table[random.nextInt(table.length)];
+				String error = null;
+				try {
+					operation.run(target, random);
+				} catch (RuntimeException e) {
+					error = errorName(e);
+				}
+				long finished = System.nanoTime();
+				scheduled = mode == Mode.OPEN ? scheduled + interval : Math.max(scheduled + interval, finished);
+				if(finished > end) {
+					// it finished too late to count as done in the time measured. Open-loop counts the wait until the end;
+					// closed-loop, which measures what was done, leaves it out.
+					if(mode == Mode.OPEN)
+						results.recordUnfinished(operation.getName(), end - from, end - started);
+					break;
+				}
+				results.record(operation.getName(), finished - from, finished - started, error);
+			}
+			if(mode == Mode.OPEN && target != null) {
+				// Operations due before the end that never started, e.g. behind one that stalled, had waited until the
+				// end. Leaving them out would hide the stall, as closed-loop tests do.
+				for(; scheduled < end; scheduled += interval)
+					results.recordUnfinished(table[random.nextInt(table.length)].getName(), end - scheduled, -1);
+			}
+		} finally {
+			close(app);
+		}
+	}
+
+	private Element findWindow(Application app) {
+		Element desktop = app.getDesktop();
+		if(window != null)
+			return desktop.getChild(Criteria.name(window));
+		List<Element> windows = desktop.getChildren();
+		if(windows.isEmpty())
+			throw new TwinException("There are no windows on the desktop");
+		return windows.get(0);
+	}
+
+	/** The name an error is reported under: a TwinException's status, e.g. "NoSuchElement", or an exception's class */
+	static String errorName(RuntimeException e) {
+		if(e instanceof TwinException)
+			return ((TwinException)e).getErrorName();
+		return e.getClass().getSimpleName();
+	}
+	private static void close(Application app) {
+		if(app == null)
+			return;
+		try {
+			app.close();
+		} catch (RuntimeException e) {
+			// the session may already be gone, and this one's results don't depend on it
+		}
+	}
+	private static void sleepUntil(long nanoTime) {
+		long remaining;
+		while((remaining = nanoTime - System.nanoTime()) > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Run a load test and print its results. Options:
+	 * <ul>
+	 * <li>--rc url[,url...] - the RCs to open sessions on, in turn (required, may be repeated)</li>
+	 * <li>--sessions n - the number of concurrent sessions (default 1)</li>
+	 * <li>--duration s - how long to measure for, in seconds (default 60)</li>
+	 * <li>--warmup s - how long to run before measuring, in seconds (default 0)</li>
+	 * <li>--mode closed|open - how operations are paced (default closed)</li>
+	 * <li>--rate n - the total operations per second to aim for (default 0, no limit; needed for open)</li>
+	 * <li>--mix op=weight,... - the operations to run, of search, click, keys and screenshot (default search=4,click=2,keys=2,screenshot=1)</li>
+	 * <li>--capability name=value - a capability to open sessions with (may be repeated)</li>
+	 * <li>--window name - the window to work in (default the first on the desktop)</li>
+	 * <li>--progress s - how often to print progress, in seconds (default 10, 0 for never)</li>
+	 * <li>--endpoints - also print latencies of each kind of request sent to the RCs</li>
+	 * </ul>
+	 */
+	public static void main(String[] args) throws Exception {
+		List<URL> urls = new ArrayList<URL>();
+		Map<String,String> capabilities = new HashMap<String,String>();
+		int sessions = 1;
+		double duration = 60, warmup = 0, rate = 0, progress = 10;
+		Mode mode = Mode.CLOSED;
+		String mix = null, window = null;
+		boolean endpoints = false;
+		try {
+			for(int i=0; i<args.length; i++) {
+				String arg = args[i];
+				if(arg.equals("--endpoints")) {
+					endpoints = true;
+					continue;
+				}
+				if(i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for "+arg);
+				String value = args[++i];
+				if(arg.equals("--rc")) {
+					for(String url : value.split(","))
+						urls.add(new URL(url.trim()));
+				} else if(arg.equals("--sessions"))
+					sessions = Integer.parseInt(value);
+				else if(arg.equals("--duration"))
+					duration = Double.parseDouble(value);
+				else if(arg.equals("--warmup"))
+					warmup = Double.parseDouble(value);
+				else if(arg.equals("--mode"))
+					mode = Mode.valueOf(value.toUpperCase(Locale.ENGLISH));
+				else if(arg.equals("--rate"))
+					rate = Double.parseDouble(value);
+				else if(arg.equals("--mix"))
+					mix = value;
+				else if(arg.equals("--capability")) {
+					String[] pair = value.split("=", 2);
+					if(pair.length != 2)
+						throw new IllegalArgumentException("Expected name=value for --capability: "+value);
+					capabilities.put(pair[0], pair[1]);
+				} else if(arg.equals("--window"))
+					window = value;
+				else if(arg.equals("--progress"))
+					progress = Double.parseDouble(value);
+				else
+					throw new IllegalArgumentException("Unknown option "+arg);
+			}
+			if(urls.isEmpty())
+				throw new IllegalArgumentException("At least one --rc is needed");
+			if(mode == Mode.OPEN && rate <= 0)
+				throw new IllegalArgumentException("--mode open needs a --rate");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java -jar loadtest.jar --rc url[,url...] [--sessions n] [--duration s] [--warmup s] [--mode closed|open] [--rate n]");
+			System.err.println("       [--mix search=4,click=2,keys=2,screenshot=1] [--capability name=value]... [--window name] [--progress s] [--endpoints]");
+			System.exit(1);
+		} catch (MalformedURLException e) {
+			System.err.println("Invalid --rc URL: "+e.getMessage());
+			System.exit(1);
+		}
+		LoadTest test = new LoadTest(urls);
+		test.setSessions(sessions);
+		test.setDuration((long)(duration * 1000));
+		test.setWarmup((long)(warmup * 1000));
+		test.setMode(mode);
+		test.setRate(rate);
+		if(mix != null)
+			test.setMix(mix);
+		test.setCapabilities(capabilities);
+		test.setWindow(window);
+		test.setProgress((long)(progress * 1000), System.out);
+		System.out.println(String.format("%s-loop test: %d sessions on %d RCs for %.0fs%s", mode.name().toLowerCase(Locale.ENGLISH), sessions, urls.size(), duration,
+			rate > 0 ? String.format(", %.1f operations/s", rate) : ""));
+		Results results = test.run();
+		System.out.print(results.getReport());
+		if(endpoints)
+			System.out.print(test.getMetrics().getReport());
+	}
+}
@@ -0,0 +1,84 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.loadtest;
+
+import java.util.*;
+
+import org.ebayopensource.twin.*;
+import org.ebayopensource.twin.pattern.Editable;
+
+/**
+ * Something a load test session does over and over, as a test would. Each works within the session's target
+ * window, on elements found when the session was set up.
+ */
+public enum Operation {
+	/** Search the window's descendants for an element by name */
+	SEARCH {
+		void run(Target target, Random random) {
+			target.window.getDescendants(Criteria.name(pick(target.names, random)));
+		}
+	},
+	/** Click an element of the window */
+	CLICK {
+		void run(Target target, Random random) {
+			pick(target.elements, random).click();
+		}
+	},
+	/** Send keys to an editable element of the window, or the window if it has none */
+	KEYS {
+		void run(Target target, Random random) {
+			Element element = target.editables.isEmpty() ? target.window : pick(target.editables, random);
+			element.sendKeys("twin"+random.nextInt(1000));
+		}
+	},
+	/** Take a screenshot of the window */
+	SCREENSHOT {
+		void run(Target target, Random random) {
+			target.window.getScreenshot();
+		}
+	};
+
+	abstract void run(Target target, Random random) throws TwinException;
+
+	/** The name used in mixes and reports, e.g. "search" */
+	public String getName() {
+		return name().toLowerCase(Locale.ENGLISH);
+	}
+	/** The operation with the given name, e.g. "search" */
+	public static Operation forName(String name) {
+		for(Operation operation : values())
+			if(operation.getName().equals(name))
+				return operation;
+		throw new IllegalArgumentException("Unknown operation "+name+", expected one of "+Arrays.toString(values()).toLowerCase(Locale.ENGLISH));
+	}
+
+	private static <T> T pick(List<T> list, Random random) {
+		return list.get(random.nextInt(list.size()));
+	}
+
+	/** What a session's operations work on, found when it is set up */
+	static class Target {
+		final Element window;
+		/** The window and its descendants */
+		final List<Element> elements = new ArrayList<Element>();
+		/** The names of the window's descendants, to search for */
+		final List<String> names = new ArrayList<String>();
+		final List<Element> editables = new ArrayList<Element>();
+
+		Target(Element window) {
+			this.window = window;
+			elements.add(window);
+			for(Element element : window.getDescendants(null)) {
+				elements.add(element);
+				if(element.getCachedName() != null)
+					names.add(element.getCachedName());
+				if(element.is(Editable.class))
+					editables.add(element);
+			}
+			if(names.isEmpty())
+				names.add(window.getCachedName());
+		}
+	}
+}
@@ -0,0 +1,185 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.loadtest;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ebayopensource.twin.metrics.LatencyHistogram;
+
+/**
+ * What a LoadTest measured: for each operation, a histogram of latencies and a count of errors, and the errors
+ * by name. Recording is lock-free, so every session records into one instance.
+ * <p>
+ * Latency is measured from when an operation should have started, so in an open-loop test it includes time spent
+ * behind schedule; service time is measured from when it did start. In a closed-loop test they are the same.
+ * Sessions that fail to be set up are counted under "setup", which isn't included in throughput or the totals.
+ * <p>
+ * Operations due before the end of the test that hadn't finished by then, because they were still running or never
+ * started, are recorded as TIMEOUT errors with the latency they had reached at the end. They count towards the latency
+ * percentiles, so a stalled RC shows up as the tail it causes, but not towards throughput.
+ */
+public class Results {
+	/** The operation name that all operations are also recorded under */
+	public static final String ALL = "all";
+	/** The operation name that setting up sessions is recorded under */
+	public static final String SETUP = "setup";
+	/** The error operations that hadn't finished by the end of the test are recorded with */
+	public static final String TIMEOUT = "Timeout";
+
+	/** What is recorded for each operation */
+	private static class Stats {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LatencyHistogram service = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		/** Of the errors, those that hadn't finished */
+		final AtomicLong unfinished = new AtomicLong();
+	}
+	private final ConcurrentMap<String,Stats> operations = new ConcurrentHashMap<String,Stats>();
+	private final ConcurrentMap<String,AtomicLong> errors = new ConcurrentHashMap<String,AtomicLong>();
+	private volatile long start = System.nanoTime();
+	private volatile long end = 0;
+
+	private Stats stats(String operation) {
+		Stats stats = operations.get(operation);
+		if(stats == null) {
+			Stats created = new Stats();
+			stats = operations.putIfAbsent(operation, created);
+			if(stats == null)
+				stats = created;
+		}
+		return stats;
+	}
+
+	/**
+	 * Record an operation
+	 * @param latencyNanos from when it should have started to when it finished
+	 * @param serviceNanos from when it started to when it finished
+	 * @param error the name of the error it failed with, or null if it succeeded
+	 */
+	void record(String operation, long latencyNanos, long serviceNanos, String error) {
+		record(operation, latencyNanos, serviceNanos, error, false);
+	}
+	/**
+	 * Record an operation that was due before the end of the test but hadn't finished by then, as a TIMEOUT
+	 * @param latencyNanos from when it should have started to the end
+	 * @param serviceNanos from when it started to the end, or -1 if it never started
+	 */
+	void recordUnfinished(String operation, long latencyNanos, long serviceNanos) {
+		record(operation, latencyNanos, serviceNanos, TIMEOUT, true);
+	}
+	private void record(String operation, long latencyNanos, long serviceNanos, String error, boolean unfinished) {
+		List<Stats> targets = operation.equals(SETUP) ? Collections.singletonList(stats(operation)) : Arrays.asList(stats(operation), stats(ALL));
+		for(Stats stats : targets) {
+			stats.latency.record(latencyNanos);
+			if(serviceNanos >= 0)
+				stats.service.record(serviceNanos);
+			if(error != null)
+				stats.errors.incrementAndGet();
+			if(unfinished)
+				stats.unfinished.incrementAndGet();
+		}
+		if(error != null) {
+			AtomicLong count = errors.get(error);
+			if(count == null) {
+				AtomicLong created = new AtomicLong();
+				count = errors.putIfAbsent(error, created);
+				if(count == null)
+					count = created;
+			}
+			count.incrementAndGet();
+		}
+	}
+	/** Forget everything recorded so far, and start timing again, e.g. at the end of a warm-up */
+	void reset() {
+		operations.clear();
+		errors.clear();
+		start = System.nanoTime();
+	}
+	void finish() {
+		end = System.nanoTime();
+	}
+
+	/** The time measured over, in nanoseconds: from the start (or last reset) to the end, or now if still running */
+	public long getElapsedNanos() {
+		long end = this.end;
+		return (end == 0 ? System.nanoTime() : end) - start;
+	}
+	/** The number of operations finished, successfully or not */
+	public long getOperations() {
+		Stats all = operations.get(ALL);
+		return all == null ? 0 : all.latency.getCount() - all.unfinished.get();
+	}
+	/** The number of operations due before the end that hadn't finished by then, which are also counted as errors */
+	public long getUnfinished() {
+		Stats all = operations.get(ALL);
+		return all == null ? 0 : all.unfinished.get();
+	}
+	/** The number of operations that failed, including those that hadn't finished */
+	public long getErrors() {
+		Stats all = operations.get(ALL);
+		return all == null ? 0 : all.errors.get();
+	}
+	/** Operations finished per second */
+	public double getThroughput() {
+		return getOperations() / (getElapsedNanos() / 1e9);
+	}
+	/** The number of failures of each kind, e.g. "NoSuchElement" or "UnknownError", including failures to set up */
+	public Map<String,Long> getErrorCounts() {
+		Map<String,Long> result = new TreeMap<String,Long>();
+		for(Map.Entry<String,AtomicLong> entry : errors.entrySet())
+			result.put(entry.getKey(), entry.getValue().get());
+		return result;
+	}
+	/** Latencies of an operation by name (e.g. "search", ALL or SETUP), or null if there have been none */
+	public LatencyHistogram getLatency(String operation) {
+		Stats stats = operations.get(operation);
+		return stats == null ? null : stats.latency;
+	}
+	/** Service times of an operation by name, or null if there have been none */
+	public LatencyHistogram getServiceTime(String operation) {
+		Stats stats = operations.get(operation);
+		return stats == null ? null : stats.service;
+	}
+
+	/** A table of latency percentiles and errors by operation, then the errors by name */
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%d operations in %.1fs, %.1f/s, %d errors%s%n", getOperations(), getElapsedNanos() / 1e9, getThroughput(), getErrors(),
+			getUnfinished() > 0 ? String.format(", %d more unfinished at the end", getUnfinished()) : ""));
+		report.append(String.format("%-12s %10s %8s %9s %9s %9s %9s %9s %9s  (latency ms)%n", "operation", "count", "errors", "mean", "p50", "p90", "p99", "p99.9", "max"));
+		List<String> names = new ArrayList<String>(operations.keySet());
+		Collections.sort(names);
+		// the total last, and setup first as it happens first
+		if(names.remove(SETUP))
+			names.add(0, SETUP);
+		if(names.remove(ALL))
+			names.add(ALL);
+		for(String name : names) {
+			Stats stats = operations.get(name);
+			LatencyHistogram latency = stats.latency;
+			report.append(String.format("%-12s %10d %8d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, latency.getCount(), stats.errors.get(),
+				latency.getMean() / 1e6, millis(latency, 50), millis(latency, 90), millis(latency, 99), millis(latency, 99.9), latency.getMax() / 1e6));
+		}
+		LatencyHistogram all = getLatency(ALL), service = getServiceTime(ALL);
+		if(all != null && service.getValueAtPercentile(99) < all.getValueAtPercentile(99))
+			report.append(String.format("service time (all) p50 %.2f, p99 %.2f, max %.2f ms: the rest is time spent behind schedule%n",
+				millis(service, 50), millis(service, 99), service.getMax() / 1e6));
+		Map<String,Long> errorCounts = getErrorCounts();
+		if(!errorCounts.isEmpty()) {
+			report.append(String.format("errors:%n"));
+			for(Map.Entry<String,Long> entry : errorCounts.entrySet())
+				report.append(String.format("  %-24s %10d%n", entry.getKey(), entry.getValue()));
+		}
+		return report.toString();
+	}
+	private static double millis(LatencyHistogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / 1e6;
+	}
+	public String toString() {
+		return getReport();
+	}
+}
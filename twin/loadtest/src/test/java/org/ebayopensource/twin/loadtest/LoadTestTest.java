@@ -0,0 +1,129 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.loadtest;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.metrics.LatencyHistogram;
+import org.ebayopensource.twin.simulator.*;
+
+public class LoadTestTest {
+	private SimulatedRC rc;
+	private LoadTest test;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new SimulatedRC();
+		SyntheticTree.populate(rc.getDesktop(), 1, 2, 5);
+		rc.start();
+		test = new LoadTest(Collections.singletonList(rc.getURL()));
+	}
+	@AfterMethod
+	public void tearDown() {
+		rc.stop();
+	}
+
+	@Test
+	public void testClosedLoop() throws Exception {
+		test.setSessions(3);
+		// long enough for every operation to finish in time, however slow the first run of each is
+		test.setDuration(2000);
+		Results results = test.run();
+		assertTrue(results.getOperations() > 10);
+		assertEquals(0, results.getErrors());
+		assertEquals(3, results.getLatency(Results.SETUP).getCount());
+		for(Operation operation : Operation.values())
+			assertNotNull(operation.getName(), results.getLatency(operation.getName()));
+		assertTrue(test.getMetrics().getRequests() >= results.getOperations());
+		assertEquals(0, rc.getSessionCount());
+	}
+
+	@Test
+	public void testRate() throws Exception {
+		test.setSessions(2);
+		test.setRate(20);
+		test.setDuration(1000);
+		long operations = test.run().getOperations();
+		assertTrue("Expected about 20 operations, got "+operations, operations >= 15 && operations <= 22);
+	}
+
+	@Test
+	public void testOpenLoopCountsTimeBehindSchedule() throws Exception {
+		// each operation takes at least 100ms, but one is scheduled every 25ms
+		rc.setLatency(100, 100);
+		test.setMix("click=1");
+		test.setSessions(1);
+		test.setRate(40);
+		test.setDuration(1000);
+
+		test.setMode(LoadTest.Mode.CLOSED);
+		Results closed = test.run();
+		test.setMode(LoadTest.Mode.OPEN);
+		Results open = test.run();
+
+		LatencyHistogram closedLatency = closed.getLatency("click"), openLatency = open.getLatency("click");
+		assertTrue(closedLatency.getMax() < 300000000L);
+		assertTrue(open.getServiceTime("click").getMax() < 300000000L);
+		assertTrue("Expected the backlog to show, got "+openLatency.getMax()/1e6+"ms", openLatency.getMax() > 500000000L);
+		assertTrue(open.getReport().contains("behind schedule"));
+	}
+
+	@Test
+	public void testOpenLoopCountsUnfinishedOperations() throws Exception {
+		test.setMix("click=1");
+		test.setSessions(1);
+		test.setMode(LoadTest.Mode.OPEN);
+		test.setRate(20);
+		test.setDuration(1000);
+		// the RC stalls part way through, so the operations due after that never start
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+				}
+				rc.setLatency(5000, 5000);
+			}
+		}.start();
+		Results results = test.run();
+
+		long unfinished = results.getUnfinished();
+		assertTrue("Expected the operations after the stall, got "+unfinished, unfinished >= 10 && unfinished <= 16);
+		assertEquals(Long.valueOf(unfinished), results.getErrorCounts().get(Results.TIMEOUT));
+		assertEquals(results.getOperations() + unfinished, results.getLatency("click").getCount());
+		assertTrue("Expected the stall to show, got "+results.getLatency("click").getMax()/1e6+"ms", results.getLatency("click").getMax() > 500000000L);
+		assertTrue(results.getThroughput() < 10);
+		assertTrue(results.getReport().contains("unfinished"));
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		rc.setFailureRate(0.3);
+		test.setSessions(2);
+		test.setDuration(1500);
+		Results results = test.run();
+		assertTrue(results.getErrors() > 0);
+		assertEquals(Collections.singleton("UnknownError"), results.getErrorCounts().keySet());
+		assertTrue(results.getReport().contains("UnknownError"));
+	}
+
+	@Test
+	public void testMix() {
+		try {
+			test.setMix("search=0");
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			test.setMix("scroll=1");
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		test.setMix("search, keys=3");
+	}
+}
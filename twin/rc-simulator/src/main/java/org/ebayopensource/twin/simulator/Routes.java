@@ -0,0 +1,84 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.simulator;
+
+import java.util.*;
+
+/**
+ * A route table like the RC's: path templates such as /session/:session/element/:target/value, with a handler for
+ * each HTTP method. Segments starting with ':' match anything, and are passed to the handler as parameters.
+ * Where several templates match, the one with the most literal segments wins, so /element/active beats /element/:target.
+ */
+class Routes<T> {
+	/** What a request's path matched */
+	static class Match<T> {
+		final Map<String,String> parameters;
+		final Map<String,T> methods;
+		Match(Map<String,String> parameters, Map<String,T> methods) {
+			this.parameters = parameters;
+			this.methods = methods;
+		}
+	}
+
+	private static class Route<T> {
+		final String[] segments;
+		final int literals;
+		final Map<String,T> methods = new HashMap<String,T>();
+		Route(String[] segments) {
+			this.segments = segments;
+			int literals = 0;
+			for(String segment : segments)
+				if(!segment.startsWith(":"))
+					literals++;
+			this.literals = literals;
+		}
+	}
+	/** Routes by number of segments, so a request is only compared with templates that could match */
+	private final Map<Integer,List<Route<T>>> routes = new HashMap<Integer,List<Route<T>>>();
+	private final Map<String,Route<T>> byTemplate = new HashMap<String,Route<T>>();
+
+	void add(String template, String method, T handler) {
+		Route<T> route = byTemplate.get(template);
+		if(route == null) {
+			byTemplate.put(template, route = new Route<T>(split(template)));
+			List<Route<T>> list = routes.get(route.segments.length);
+			if(list == null)
+				routes.put(route.segments.length, list = new ArrayList<Route<T>>());
+			list.add(route);
+		}
+		route.methods.put(method, handler);
+	}
+
+	/** The route a path matches, or null if none does */
+	Match<T> match(String path) {
+		String[] segments = split(path);
+		List<Route<T>> candidates = routes.get(segments.length);
+		if(candidates == null)
+			return null;
+		Route<T> best = null;
+		search: for(Route<T> route : candidates) {
+			for(int i=0; i<segments.length; i++)
+				if(!route.segments[i].startsWith(":") && !route.segments[i].equals(segments[i]))
+					continue search;
+			if(best == null || route.literals > best.literals)
+				best = route;
+		}
+		if(best == null)
+			return null;
+		Map<String,String> parameters = new HashMap<String,String>();
+		for(int i=0; i<segments.length; i++)
+			if(best.segments[i].startsWith(":"))
+				parameters.put(best.segments[i].substring(1), segments[i]);
+		return new Match<T>(parameters, best.methods);
+	}
+
+	private static String[] split(String path) {
+		List<String> segments = new ArrayList<String>();
+		for(String segment : path.split("/"))
+			if(segment.length() > 0)
+				segments.add(segment);
+		return segments.toArray(new String[segments.size()]);
+	}
+}
@@ -0,0 +1,223 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.simulator;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An element in a SimulatedRC's tree. Safe to change while the simulator is serving requests.
+ * <p>
+ * Properties are kept by the name of their route: "enabled", "value", "expanded", "selected", "toggle" and
+ * "window-state", plus "value-readonly" which OPTIONS .../value reports. An element only answers for the properties
+ * it has, so an element without a "value" fails GET .../value as a real element without the Value pattern would.
+ */
+public class SimulatedElement {
+	/** Pattern names the client sends in criteria, mapped to the names the RC uses */
+	private static final Map<String,String> PATTERN_ALIASES = new HashMap<String,String>();
+	static {
+		PATTERN_ALIASES.put("editable", "edit");
+		PATTERN_ALIASES.put("expandable", "expand");
+		PATTERN_ALIASES.put("selectable", "select");
+		PATTERN_ALIASES.put("selectioncontainer", "select-container");
+		PATTERN_ALIASES.put("toggle", "toggle");
+		PATTERN_ALIASES.put("transformable", "transform");
+	}
+
+	private final String uuid = UUID.randomUUID().toString();
+	private final String controlType;
+	private final List<String> patterns;
+	private volatile String name;
+	private volatile String id;
+	private volatile String className;
+	private volatile SimulatedElement parent;
+	private final List<SimulatedElement> children = new CopyOnWriteArrayList<SimulatedElement>();
+	private final Map<String,Object> properties = new ConcurrentHashMap<String,Object>();
+	private volatile Rectangle bounds = new Rectangle(0, 0, 100, 20);
+	private volatile boolean exists = true;
+	private volatile BufferedImage image;
+	private final AtomicInteger clicks = new AtomicInteger();
+
+	/**
+	 * An element not yet in any tree, with the defaults its patterns imply: an empty value for edit, false for
+	 * expand, select and toggle, and a "Normal" window-state for a Window.
+	 * @param patterns the RC's names for its control patterns, e.g. "edit", "expand", "select", "select-container", "toggle", "transform"
+	 */
+	public SimulatedElement(String controlType, String name, String... patterns) {
+		this.controlType = controlType;
+		this.name = name;
+		this.patterns = Collections.unmodifiableList(Arrays.asList(patterns));
+		properties.put("enabled", true);
+		if(hasPattern("edit"))
+			properties.put("value", "");
+		if(hasPattern("expand"))
+			properties.put("expanded", false);
+		if(hasPattern("select"))
+			properties.put("selected", false);
+		if(hasPattern("toggle"))
+			properties.put("toggle", false);
+		if(controlType.equals("Window"))
+			properties.put("window-state", "Normal");
+	}
+
+	/** Add a new child element, returning it */
+	public SimulatedElement add(String controlType, String name, String... patterns) {
+		return add(new SimulatedElement(controlType, name, patterns));
+	}
+	/** Add an element as the last child of this one, returning it */
+	public SimulatedElement add(SimulatedElement child) {
+		child.parent = this;
+		children.add(child);
+		return child;
+	}
+	/** Remove this element and its descendants from the tree, so that further requests for them fail with NoSuchElement */
+	public void remove() {
+		exists = false;
+		SimulatedElement parent = this.parent;
+		if(parent != null)
+			parent.children.remove(this);
+		for(SimulatedElement child : children)
+			child.remove();
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+	public String getControlType() {
+		return controlType;
+	}
+	public List<String> getPatterns() {
+		return patterns;
+	}
+	/** Whether the element has the pattern, by the RC's name for it or the client's (e.g. "edit" or "Editable") */
+	public boolean hasPattern(String pattern) {
+		String lower = pattern.toLowerCase(Locale.ENGLISH);
+		String name = PATTERN_ALIASES.containsKey(lower) ? PATTERN_ALIASES.get(lower) : lower;
+		return patterns.contains(name);
+	}
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	public String getClassName() {
+		return className;
+	}
+	public void setClassName(String className) {
+		this.className = className;
+	}
+	/** The parent element, or null for the desktop and elements not yet added */
+	public SimulatedElement getParent() {
+		return parent;
+	}
+	public List<SimulatedElement> getChildren() {
+		return Collections.unmodifiableList(children);
+	}
+	/** False once the element has been removed */
+	public boolean exists() {
+		return exists;
+	}
+
+	/** A property by route name, e.g. "value", or null if the element doesn't have it */
+	public Object getProperty(String name) {
+		return properties.get(name);
+	}
+	/** Whether the element supports the property, by route name */
+	public boolean hasProperty(String name) {
+		return properties.containsKey(name);
+	}
+	/** Set a property by route name. Setting null removes it. */
+	public void setProperty(String name, Object value) {
+		if(value == null)
+			properties.remove(name);
+		else
+			properties.put(name, value);
+	}
+
+	/** Bounds in screen coordinates */
+	public Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+	public void setBounds(Rectangle bounds) {
+		this.bounds = new Rectangle(bounds);
+	}
+	/** What a screenshot of the element shows, or null for one drawn from its bounds and its children's */
+	public BufferedImage getImage() {
+		return image;
+	}
+	public void setImage(BufferedImage image) {
+		this.image = image;
+	}
+	/** The number of times the element has been clicked */
+	public int getClickCount() {
+		return clicks.get();
+	}
+	void clicked() {
+		clicks.incrementAndGet();
+	}
+
+	/** The element as the RC sends it */
+	Map<String,Object> toJSON() {
+		Map<String,Object> json = new HashMap<String,Object>();
+		json.put("class", "Twin.Model.Element");
+		json.put("uuid", uuid);
+		json.put("hCode", uuid.hashCode());
+		json.put("controlType", controlType);
+		json.put("name", name);
+		json.put("id", id);
+		json.put("className", className);
+		json.put("controlPatterns", patterns);
+		return json;
+	}
+
+	/** Evaluate the JSON form of a Criteria against this element, as the RC's Criteria classes do */
+	@SuppressWarnings("unchecked")
+	boolean matches(Map<String,Object> criteria) {
+		String type = (String)criteria.get("type");
+		if(type.equals("and") || type.equals("or")) {
+			boolean and = type.equals("and");
+			for(Object target : (List<Object>)criteria.get("target"))
+				if(matches((Map<String,Object>)target) != and)
+					return !and;
+			return and;
+		}
+		if(type.equals("not"))
+			return !matches((Map<String,Object>)criteria.get("target"));
+		if(!type.equals("property"))
+			throw new SimulatorException(Status.UnknownError, "Unknown criteria type "+type);
+		String name = ((String)criteria.get("name")).toLowerCase(Locale.ENGLISH);
+		Object value = criteria.get("value");
+		if(name.equals("controlpattern"))
+			return value != null && hasPattern(value.toString());
+		Object actual;
+		if(name.equals("name"))
+			actual = this.name;
+		else if(name.equals("controltype"))
+			actual = controlType;
+		else if(name.equals("id"))
+			actual = id;
+		else if(name.equals("classname"))
+			actual = className;
+		else if(name.equals("enabled") || name.equals("value"))
+			actual = properties.get(name);
+		else
+			throw new SimulatorException(Status.UnknownError, "Unknown property "+criteria.get("name"));
+		return value == null ? actual == null : value.equals(actual);
+	}
+
+	public String toString() {
+		return controlType+"("+name+")";
+	}
+}
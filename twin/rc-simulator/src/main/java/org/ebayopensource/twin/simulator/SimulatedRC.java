@@ -0,0 +1,806 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.simulator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.*;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.sun.net.httpserver.*;
+
+import org.ebayopensource.twin.json.JSON;
+
+/**
+ * A Twin RC written in Java, serving a synthetic element tree rather than real applications, so that the client
+ * can be load tested and profiled on any machine.
+ * <p>
+ * It speaks the RC's wire protocol over HTTP, with the routes of TwinRC.cs: sessions, element properties and
+ * patterns, searches (including waitForResults), exists polling, screenshots (PNG or base64 JSON), the focused
+ * element, the clipboard, attachments and batches. It compresses large responses, accepts compressed requests,
+ * echoes X-Twin-Request-Id and reports its handling time in Server-Timing. Routes it doesn't implement (structure,
+ * snapshot, watch, axis and selection) get a plain-text 404, as an older RC would send, so the client falls back.
+ * <p>
+ * Each command can be made to take a random time in a range, to fail at a given rate, and to queue for a single
+ * lock as the RC's commands queue for its STA thread:
+ * <pre>
+ * SimulatedRC rc = new SimulatedRC();
+ * SyntheticTree.populate(rc.getDesktop(), 5, 3, 10);
+ * rc.setLatency(5, 20);
+ * rc.setFailureRate(0.01);
+ * rc.start();
+ * Application app = new Application(rc.getURL());
+ * </pre>
+ * Or run it as a standalone server with java -jar rc-simulator.jar; see main() for its options.
+ * <p>
+ * Embedded in another JVM, start that JVM with -Dsun.net.httpserver.nodelay=true, as the tests here and in the
+ * load-test module are. Otherwise the JDK server's small writes hit Nagle + delayed ACK, and every request takes ~40ms.
+ */
+public class SimulatedRC {
+	/** What each route does */
+	private enum Action {
+		STATUS, NEW_SESSION, GET_SESSION, DELETE_SESSION, BATCH, RELEASE,
+		GET_FOCUSED, SET_FOCUSED,
+		GET_CLIPBOARD, SET_CLIPBOARD, CLEAR_CLIPBOARD,
+		NEW_ATTACHMENT, GET_ATTACHMENT, UPDATE_ATTACHMENT, DELETE_ATTACHMENT,
+		GET_ELEMENT, CLOSE, GET_PROPERTY, SET_PROPERTY, VALUE_OPTIONS, SET_SIZE, SET_LOCATION, GET_BOUNDS, SET_BOUNDS,
+		SCREENSHOT, CLICK, GET_NAME, KEYBOARD, PARENT, CHILDREN, DESCENDANTS, GET_EXISTS, AWAIT_EXISTS,
+	}
+
+	/** A response, before it is written: JSON or raw bytes, and any extra headers */
+	private static class Reply {
+		final int code;
+		final Object json;
+		final byte[] data;
+		final String contentType;
+		final Map<String,String> headers = new HashMap<String,String>();
+		Reply(int code, Object json) {
+			this.code = code;
+			this.json = json;
+			this.data = null;
+			this.contentType = "application/json; charset=utf-8";
+		}
+		Reply(int code, String contentType, byte[] data) {
+			this.code = code;
+			this.json = null;
+			this.data = data;
+			this.contentType = contentType;
+		}
+	}
+
+	private static class Session {
+		final String id = UUID.randomUUID().toString();
+		final Map<String,String> capabilities;
+		final Map<String,Attachment> attachments = new ConcurrentHashMap<String,Attachment>();
+		Session(Map<String,String> capabilities) {
+			this.capabilities = capabilities;
+		}
+	}
+
+	private static class Attachment {
+		final String uuid = UUID.randomUUID().toString();
+		/** Where the file would be on the RC's machine */
+		final String path;
+		volatile byte[] data;
+		Attachment(String extension) {
+			this.path = "C:\\Temp\\twin-"+uuid+"."+(extension == null ? "tmp" : extension);
+		}
+		Map<String,Object> toJSON() {
+			Map<String,Object> json = new HashMap<String,Object>();
+			json.put("class", "Twin.Model.Attachment");
+			json.put("uuid", uuid);
+			json.put("hCode", uuid.hashCode());
+			json.put("path", path);
+			return json;
+		}
+	}
+
+	/** How often waitForResults searches and POST exists check the tree */
+	private static final long POLL_INTERVAL = 50;
+	/** Responses at least this long are gzipped, if the client accepts it */
+	private static final int COMPRESSION_THRESHOLD = 1024;
+
+	private final Routes<Action> routes = new Routes<Action>();
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final SimulatedElement desktop = new SimulatedElement("Desktop", "Desktop");
+	/** Every element that has been sent to a client, by uuid */
+	private final Map<String,SimulatedElement> elements = new ConcurrentHashMap<String,SimulatedElement>();
+	private final Map<String,Session> sessions = new ConcurrentHashMap<String,Session>();
+	/** Capabilities of each configuration, by id */
+	private final Map<String,Map<String,String>> configurations = Collections.synchronizedMap(new LinkedHashMap<String,Map<String,String>>());
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger failureCount = new AtomicInteger();
+	private final AtomicInteger releaseCount = new AtomicInteger();
+	private final Random random = new Random();
+	private volatile long minLatency = 0, maxLatency = 0;
+	private volatile double failureRate = 0;
+	private volatile boolean serialized = false;
+	/** Held while running a command, if serialized, as the RC's commands hold its STA thread */
+	private final ReentrantLock sta = new ReentrantLock(true);
+	private volatile SimulatedElement focused;
+	/** The clipboard's type ("text" or "other"), or null if it is empty */
+	private String clipboardType;
+	private String clipboardText;
+
+	/** A simulator on an ephemeral port of the loopback interface */
+	public SimulatedRC() throws IOException {
+		this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+	}
+	/** A simulator on the given address, which isn't served until start() */
+	public SimulatedRC(InetSocketAddress address) throws IOException {
+		desktop.setBounds(new Rectangle(0, 0, 1920, 1080));
+		addRoutes();
+		server = HttpServer.create(address, 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SimulatedRC-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+	}
+
+	private void addRoutes() {
+		routes.add("/status", "GET", Action.STATUS);
+		routes.add("/session", "POST", Action.NEW_SESSION);
+		routes.add("/session/:session", "GET", Action.GET_SESSION);
+		routes.add("/session/:session", "DELETE", Action.DELETE_SESSION);
+		routes.add("/session/:session/batch", "POST", Action.BATCH);
+		routes.add("/session/:session/release", "POST", Action.RELEASE);
+		routes.add("/session/:session/element/active", "GET", Action.GET_FOCUSED);
+		routes.add("/session/:session/element/active", "POST", Action.SET_FOCUSED);
+		routes.add("/session/:session/clipboard", "GET", Action.GET_CLIPBOARD);
+		routes.add("/session/:session/clipboard", "POST", Action.SET_CLIPBOARD);
+		routes.add("/session/:session/clipboard", "DELETE", Action.CLEAR_CLIPBOARD);
+		routes.add("/session/:session/attachment", "POST", Action.NEW_ATTACHMENT);
+		routes.add("/session/:session/attachment/:attachment", "GET", Action.GET_ATTACHMENT);
+		routes.add("/session/:session/attachment/:attachment", "POST", Action.UPDATE_ATTACHMENT);
+		routes.add("/session/:session/attachment/:attachment", "DELETE", Action.DELETE_ATTACHMENT);
+
+		String element = "/session/:session/element/:target";
+		routes.add(element, "GET", Action.GET_ELEMENT);
+		routes.add(element, "DELETE", Action.CLOSE);
+		routes.add(element+"/enabled", "GET", Action.GET_PROPERTY);
+		for(String property : new String[] { "expanded", "selected", "value", "toggle", "window-state" }) {
+			routes.add(element+"/"+property, "GET", Action.GET_PROPERTY);
+			routes.add(element+"/"+property, "POST", Action.SET_PROPERTY);
+		}
+		routes.add(element+"/value", "OPTIONS", Action.VALUE_OPTIONS);
+		routes.add(element+"/size", "POST", Action.SET_SIZE);
+		routes.add(element+"/location", "POST", Action.SET_LOCATION);
+		routes.add(element+"/bounds", "POST", Action.SET_BOUNDS);
+		routes.add(element+"/name", "GET", Action.GET_NAME);
+		routes.add(element+"/parent", "GET", Action.PARENT);
+		routes.add(element+"/exists", "GET", Action.GET_EXISTS);
+		routes.add(element+"/exists", "POST", Action.AWAIT_EXISTS);
+
+		for(String target : new String[] { element, "/session/:session/desktop" }) {
+			routes.add(target+"/bounds", "GET", Action.GET_BOUNDS);
+			routes.add(target+"/screenshot", "GET", Action.SCREENSHOT);
+			routes.add(target+"/click", "POST", Action.CLICK);
+			routes.add(target+"/keyboard", "POST", Action.KEYBOARD);
+			routes.add(target+"/children", "GET", Action.CHILDREN);
+			routes.add(target+"/descendants", "GET", Action.DESCENDANTS);
+		}
+	}
+
+	/** Start serving requests */
+	public void start() {
+		server.start();
+	}
+	/** Stop serving requests, abandoning any in progress */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	/** The URL to give an Application */
+	public URL getURL() {
+		InetSocketAddress address = server.getAddress();
+		String host = address.getAddress().isAnyLocalAddress() ? "127.0.0.1" : address.getAddress().getHostAddress();
+		try {
+			return new URL("http", host, address.getPort(), "/");
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** The root of the element tree, to which windows are added */
+	public SimulatedElement getDesktop() {
+		return desktop;
+	}
+	/**
+	 * Offer a configuration in /status, which sessions can be opened for. Until one is added, a session can be
+	 * opened with any capabilities, and has the capabilities asked for.
+	 */
+	public void addConfiguration(String id, Map<String,String> capabilities) {
+		configurations.put(id, new HashMap<String,String>(capabilities));
+	}
+
+	/** Make each command take a random time between min and max milliseconds, like UI Automation calls on a real RC */
+	public void setLatency(long minMillis, long maxMillis) {
+		if(minMillis < 0 || maxMillis < minMillis)
+			throw new IllegalArgumentException("Invalid latency range "+minMillis+"-"+maxMillis+"ms");
+		this.minLatency = minMillis;
+		this.maxLatency = maxMillis;
+	}
+	/** Fail this fraction of commands, chosen at random, with an UnknownError. Opening and closing sessions never fail. */
+	public void setFailureRate(double failureRate) {
+		if(failureRate < 0 || failureRate > 1)
+			throw new IllegalArgumentException("Failure rate must be between 0 and 1: "+failureRate);
+		this.failureRate = failureRate;
+	}
+	/**
+	 * If true, run one command at a time, as the RC runs every UI Automation call on its STA thread. Commands that
+	 * poll (waitForResults searches and POST exists) give the lock up between polls, as the RC does.
+	 */
+	public void setSerialized(boolean serialized) {
+		this.serialized = serialized;
+	}
+
+	/** The number of HTTP requests received so far */
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+	/** The number of commands failed on purpose so far */
+	public int getFailureCount() {
+		return failureCount.get();
+	}
+	/** The number of elements clients have released so far, counting an element released twice twice */
+	public int getReleaseCount() {
+		return releaseCount.get();
+	}
+	/** The number of sessions open now */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void serve(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		requestCount.incrementAndGet();
+		Headers headers = exchange.getRequestHeaders();
+		String requestId = headers.getFirst("X-Twin-Request-Id");
+		if(requestId != null)
+			exchange.getResponseHeaders().set("X-Twin-Request-Id", requestId);
+
+		Reply reply;
+		try {
+			byte[] bytes = readFully(exchange.getRequestBody());
+			String encoding = headers.getFirst("Content-Encoding");
+			if(encoding != null)
+				bytes = decode(bytes, encoding);
+			Map<String,Object> body = bytes.length == 0 ? null : (Map<String,Object>)JSON.decode(bytes);
+			reply = handle(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), body, headers.getFirst("Accept"));
+		} catch (SimulatorException e) {
+			reply = e.httpCode == 0 ? new Reply(500, errorResponse(e)) : new Reply(e.httpCode, "text/plain", e.getMessage().getBytes("UTF-8"));
+		} catch (RuntimeException e) {
+			reply = new Reply(500, errorResponse(new SimulatorException(Status.UnknownError, e.toString())));
+		}
+
+		byte[] data = reply.data != null ? reply.data : JSON.encodeToBytes(reply.json);
+		Headers responseHeaders = exchange.getResponseHeaders();
+		for(Map.Entry<String,String> header : reply.headers.entrySet())
+			responseHeaders.set(header.getKey(), header.getValue());
+		responseHeaders.set("Content-Type", reply.contentType);
+		String acceptEncoding = headers.getFirst("Accept-Encoding");
+		if(reply.json != null && data.length >= COMPRESSION_THRESHOLD && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			data = gzip(data);
+			responseHeaders.set("Content-Encoding", "gzip");
+		}
+		responseHeaders.set("Server-Timing", String.format(Locale.ROOT, "handler;dur=%.3f", (System.nanoTime() - start) / 1e6));
+		exchange.sendResponseHeaders(reply.code, data.length == 0 ? -1 : data.length);
+		if(data.length > 0)
+			exchange.getResponseBody().write(data);
+	}
+
+	/** Route a request to its action */
+	@SuppressWarnings("unchecked")
+	private Reply handle(String method, String path, Map<String,Object> body, String accept) {
+		Routes.Match<Action> match = routes.match(path);
+		if(match == null)
+			throw new SimulatorException(404, "No resource mapped to path "+path);
+		Action action = match.methods.get(method);
+		if(action == null)
+			throw new SimulatorException(405, "Method "+method+" not allowed for path "+path);
+		String sessionId = match.parameters.get("session");
+		if(sessionId == null) {
+			if(action == Action.STATUS)
+				return new Reply(200, status());
+			Session session = new Session(configurationFor((Map<String,Object>)body.get("desiredCapabilities")));
+			sessions.put(session.id, session);
+			Reply reply = new Reply(303, "text/plain", new byte[0]);
+			reply.headers.put("Location", "/session/"+session.id);
+			return reply;
+		}
+		Session session = sessions.get(sessionId);
+		if(session == null)
+			throw new SimulatorException(Status.NoSuchSession, "No such session "+sessionId);
+		switch(action) {
+		case GET_SESSION:
+			return success(session, session.capabilities);
+		case DELETE_SESSION:
+			sessions.remove(sessionId);
+			return success(session, null);
+		case BATCH:
+			return success(session, batch(session, body));
+		default:
+			boolean locked = serialized;
+			if(locked)
+				sta.lock();
+			try {
+				injectFaults();
+				return perform(action, session, match.parameters, path, body, accept);
+			} finally {
+				if(locked)
+					sta.unlock();
+			}
+		}
+	}
+
+	/** Run each request of a batch in turn, as Batch.cs does, with paths relative to the session */
+	@SuppressWarnings("unchecked")
+	private List<Object> batch(Session session, Map<String,Object> body) {
+		List<Object> results = new ArrayList<Object>();
+		for(Object item : (List<Object>)body.get("requests")) {
+			Map<String,Object> request = (Map<String,Object>)item;
+			String path = "/session/"+session.id+"/"+((String)request.get("path")).replaceAll("^/+", "");
+			try {
+				results.add(handle((String)request.get("method"), path, (Map<String,Object>)request.get("body"), null).json);
+			} catch (SimulatorException e) {
+				results.add(errorResponse(e));
+			} catch (RuntimeException e) {
+				results.add(errorResponse(new SimulatorException(Status.UnknownError, e.toString())));
+			}
+		}
+		return results;
+	}
+
+	private void injectFaults() {
+		long min = minLatency, max = maxLatency;
+		if(max > 0)
+			sleep(min + (max > min ? (long)(random.nextDouble() * (max - min + 1)) : 0));
+		if(failureRate > 0 && random.nextDouble() < failureRate) {
+			failureCount.incrementAndGet();
+			throw new SimulatorException(Status.UnknownError, "Simulated failure");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Reply perform(Action action, Session session, Map<String,String> parameters, String path, Map<String,Object> body, String accept) {
+		switch(action) {
+		case RELEASE: {
+			// elements here live as long as the tree, so there is nothing to free, only the count to keep
+			int released = ((List<Object>)body.get("elements")).size();
+			releaseCount.addAndGet(released);
+			return success(session, released);
+		}
+		case GET_FOCUSED: {
+			SimulatedElement element = focused;
+			return success(session, element == null || !element.exists() ? null : json(element));
+		}
+		case SET_FOCUSED: {
+			Map<String,Object> target = (Map<String,Object>)body.get("focusedElement");
+			focused = element((String)target.get("uuid"));
+			return success(session, null);
+		}
+		case GET_CLIPBOARD: {
+			Map<String,Object> clipboard = new HashMap<String,Object>();
+			synchronized(this) {
+				clipboard.put("type", clipboardType);
+				clipboard.put("text", clipboardText);
+			}
+			return success(session, clipboard);
+		}
+		case SET_CLIPBOARD:
+			synchronized(this) {
+				clipboardType = (String)body.get("type");
+				clipboardText = (String)body.get("text");
+			}
+			return success(session, null);
+		case CLEAR_CLIPBOARD:
+			synchronized(this) {
+				clipboardType = clipboardText = null;
+			}
+			return success(session, null);
+		case NEW_ATTACHMENT: {
+			String name = (String)body.get("name");
+			Attachment attachment = new Attachment(name != null && name.contains(".") ? name.substring(name.lastIndexOf('.') + 1) : null);
+			attachment.data = Base64.decodeBase64((String)body.get("data"));
+			session.attachments.put(attachment.uuid, attachment);
+			return success(session, attachment.toJSON());
+		}
+		case GET_ATTACHMENT:
+			return success(session, attachment(session, parameters).toJSON());
+		case UPDATE_ATTACHMENT: {
+			Attachment attachment = attachment(session, parameters);
+			attachment.data = Base64.decodeBase64((String)body.get("data"));
+			return success(session, attachment.toJSON());
+		}
+		case DELETE_ATTACHMENT:
+			session.attachments.remove(attachment(session, parameters).uuid);
+			return success(session, null);
+		default:
+			break;
+		}
+
+		String uuid = parameters.get("target");
+		SimulatedElement element = uuid == null ? desktop : element(uuid);
+		if(action == Action.GET_EXISTS)
+			return success(session, element.exists());
+		if(action == Action.AWAIT_EXISTS) {
+			boolean target = (Boolean)body.get("value");
+			long deadline = System.currentTimeMillis() + (long)(((Number)body.get("timeout")).doubleValue() * 1000);
+			while(element.exists() != target && System.currentTimeMillis() < deadline)
+				poll();
+			if(element.exists() != target)
+				throw new SimulatorException(Status.InvalidElementState, "Element did not reach exists state "+target);
+			return success(session, null);
+		}
+		if(!element.exists())
+			throw new SimulatorException(Status.NoSuchElement, "Element no longer exists");
+
+		switch(action) {
+		case GET_ELEMENT:
+			return success(session, json(element));
+		case CLOSE:
+			element.remove();
+			return success(session, null);
+		case GET_NAME:
+			return success(session, element.getName());
+		case GET_PROPERTY: {
+			String property = path.substring(path.lastIndexOf('/') + 1);
+			if(!element.hasProperty(property))
+				throw new SimulatorException(Status.UnknownError, element+" doesn't support "+property);
+			return success(session, element.getProperty(property));
+		}
+		case SET_PROPERTY: {
+			String property = path.substring(path.lastIndexOf('/') + 1);
+			String key = property.equals("toggle") || property.equals("window-state") ? "state" : property;
+			if(!element.hasProperty(property))
+				throw new SimulatorException(Status.UnknownError, element+" doesn't support "+property);
+			if(property.equals("toggle")) {
+				// as SetToggleState, toggles if no state is given and answers the new state
+				boolean state = body != null && body.containsKey("state") ? (Boolean)body.get("state") : !(Boolean)element.getProperty("toggle");
+				element.setProperty("toggle", state);
+				return success(session, state);
+			}
+			if(body == null || body.get(key) == null)
+				throw new SimulatorException(Status.UnknownError, "Missing "+key+" in request body");
+			element.setProperty(property, body.get(key));
+			return success(session, null);
+		}
+		case VALUE_OPTIONS: {
+			Reply reply = success(session, null);
+			// as GetValueOptions, which lists POST for a read-only value; the client's isReadOnly() reads it that way
+			reply.headers.put("Allow", Boolean.TRUE.equals(element.getProperty("value-readonly")) ? "GET,POST,OPTIONS" : "GET,OPTIONS");
+			return reply;
+		}
+		case SET_SIZE: {
+			Rectangle bounds = element.getBounds();
+			bounds.setSize(integer(body, "width"), integer(body, "height"));
+			element.setBounds(bounds);
+			return success(session, null);
+		}
+		case SET_LOCATION: {
+			Rectangle bounds = element.getBounds();
+			bounds.setLocation(integer(body, "x"), integer(body, "y"));
+			element.setBounds(bounds);
+			return success(session, null);
+		}
+		case SET_BOUNDS:
+			element.setBounds(new Rectangle(integer(body, "x"), integer(body, "y"), integer(body, "width"), integer(body, "height")));
+			return success(session, null);
+		case GET_BOUNDS: {
+			Rectangle bounds = element.getBounds();
+			Map<String,Object> result = new HashMap<String,Object>();
+			result.put("x", bounds.x);
+			result.put("y", bounds.y);
+			result.put("width", bounds.width);
+			result.put("height", bounds.height);
+			return success(session, result);
+		}
+		case SCREENSHOT: {
+			byte[] png = screenshot(element, body);
+			if(accept != null && accept.contains("image/png"))
+				return new Reply(200, "image/png", png);
+			Map<String,Object> result = new HashMap<String,Object>();
+			result.put("contentType", "image/png");
+			result.put("data", new String(Base64.encodeBase64(png)));
+			return success(session, result);
+		}
+		case CLICK:
+			element.clicked();
+			if(element != desktop)
+				focused = element;
+			return success(session, null);
+		case KEYBOARD: {
+			SimulatedElement target = element == desktop ? focused : element;
+			if(target != null && target.exists() && target.hasProperty("value"))
+				target.setProperty("value", target.getProperty("value")+(String)body.get("keys"));
+			return success(session, null);
+		}
+		case PARENT: {
+			SimulatedElement parent = element.getParent();
+			return success(session, parent == null ? null : json(parent));
+		}
+		case CHILDREN:
+		case DESCENDANTS:
+			return success(session, search(element, action == Action.DESCENDANTS, body));
+		default:
+			throw new IllegalStateException("Unhandled action "+action);
+		}
+	}
+
+	/** A children or descendants search, polling until something matches if waitForResults asks for it */
+	@SuppressWarnings("unchecked")
+	private List<Object> search(SimulatedElement element, boolean recursive, Map<String,Object> body) {
+		Map<String,Object> criteria = body == null ? null : (Map<String,Object>)body.get("criteria");
+		Object wait = body == null ? null : body.get("waitForResults");
+		int count = body != null && body.get("count") instanceof Number ? ((Number)body.get("count")).intValue() : 0;
+		long timeout = wait instanceof Number ? (long)(((Number)wait).doubleValue() * 1000) : Boolean.TRUE.equals(wait) ? Long.MAX_VALUE / 2 : 0;
+		long deadline = System.currentTimeMillis() + timeout;
+		List<Object> result = new ArrayList<Object>();
+		while(true) {
+			collect(element, recursive, criteria, count, result);
+			if(!result.isEmpty() || System.currentTimeMillis() >= deadline || !element.exists())
+				return result;
+			poll();
+		}
+	}
+	private void collect(SimulatedElement element, boolean recursive, Map<String,Object> criteria, int count, List<Object> result) {
+		for(SimulatedElement child : element.getChildren()) {
+			if(count > 0 && result.size() >= count)
+				return;
+			if(criteria == null || child.matches(criteria))
+				result.add(json(child));
+			if(recursive)
+				collect(child, recursive, criteria, count, result);
+		}
+	}
+
+	/** A PNG of the element: its image if it has one, otherwise a drawing of it and its children */
+	private static byte[] screenshot(SimulatedElement element, Map<String,Object> body) {
+		Rectangle bounds = element.getBounds();
+		BufferedImage image = element.getImage();
+		if(image == null) {
+			image = new BufferedImage(Math.max(1, bounds.width), Math.max(1, bounds.height), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = image.createGraphics();
+			g.setColor(color(element));
+			g.fillRect(0, 0, image.getWidth(), image.getHeight());
+			for(SimulatedElement child : element.getChildren()) {
+				Rectangle area = child.getBounds();
+				g.setColor(color(child));
+				g.fillRect(area.x - bounds.x, area.y - bounds.y, area.width, area.height);
+			}
+			g.dispose();
+		}
+		if(body != null && body.containsKey("width")) {
+			Rectangle area = new Rectangle(integer(body, "x"), integer(body, "y"), integer(body, "width"), integer(body, "height"));
+			area = area.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+			if(area.isEmpty())
+				throw new SimulatorException(Status.UnknownError, "Area is outside the element");
+			image = image.getSubimage(area.x, area.y, area.width, area.height);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new SimulatorException(Status.UnknownError, "Couldn't encode screenshot: "+e);
+		}
+	}
+	/** A colour of its own for each element, so that screenshots show the tree's layout */
+	private static Color color(SimulatedElement element) {
+		return new Color(element.getUuid().hashCode() & 0xffffff);
+	}
+
+	private Map<String,Object> status() {
+		Map<String,Object> status = new HashMap<String,Object>();
+		status.put("running", true);
+		List<Object> list = new ArrayList<Object>();
+		synchronized(configurations) {
+			for(Map.Entry<String,Map<String,String>> entry : configurations.entrySet()) {
+				Map<String,Object> configuration = new HashMap<String,Object>();
+				configuration.put("id", entry.getKey());
+				configuration.put("capabilities", entry.getValue());
+				list.add(configuration);
+			}
+		}
+		status.put("configurations", list);
+		return status;
+	}
+	/** The first configuration matching the desired capabilities, as SessionFactory.Create() picks it */
+	private Map<String,String> configurationFor(Map<String,Object> desired) {
+		synchronized(configurations) {
+			if(configurations.isEmpty()) {
+				Map<String,String> capabilities = new HashMap<String,String>();
+				if(desired != null)
+					for(Map.Entry<String,Object> entry : desired.entrySet())
+						if(entry.getValue() != null)
+							capabilities.put(entry.getKey(), entry.getValue().toString());
+				return capabilities;
+			}
+			search: for(Map<String,String> capabilities : configurations.values()) {
+				if(desired != null)
+					for(Map.Entry<String,Object> entry : desired.entrySet())
+						if(entry.getValue() != null && !entry.getValue().equals(capabilities.get(entry.getKey())))
+							continue search;
+				return capabilities;
+			}
+		}
+		throw new SimulatorException(Status.UnknownError, "Couldn't find any configuration matching the given capabilities "+desired);
+	}
+
+	/** An element by uuid, which must have been sent to a client */
+	private SimulatedElement element(String uuid) {
+		SimulatedElement element = elements.get(uuid);
+		if(element == null)
+			throw new SimulatorException(Status.NoSuchElement, "No such element "+uuid);
+		return element;
+	}
+	/** The element's JSON, remembering it so that the client can refer to it */
+	private Map<String,Object> json(SimulatedElement element) {
+		elements.put(element.getUuid(), element);
+		return element.toJSON();
+	}
+	private static Attachment attachment(Session session, Map<String,String> parameters) {
+		Attachment attachment = session.attachments.get(parameters.get("attachment"));
+		if(attachment == null)
+			throw new SimulatorException(Status.UnknownError, "No such attachment "+parameters.get("attachment"));
+		return attachment;
+	}
+
+	private static Reply success(Session session, Object value) {
+		Map<String,Object> response = new HashMap<String,Object>();
+		response.put("sessionId", session.id);
+		response.put("status", Status.Success.code);
+		response.put("value", value);
+		return new Reply(200, response);
+	}
+	private static Map<String,Object> errorResponse(SimulatorException e) {
+		Map<String,Object> exception = new HashMap<String,Object>();
+		exception.put("message", e.getMessage());
+		exception.put("class", "Twin.TwinException");
+		Map<String,Object> response = new HashMap<String,Object>();
+		response.put("status", e.status.code);
+		response.put("value", exception);
+		return response;
+	}
+	private static int integer(Map<String,Object> body, String key) {
+		Object value = body == null ? null : body.get(key);
+		if(!(value instanceof Number))
+			throw new SimulatorException(Status.UnknownError, "Missing "+key+" in request body");
+		return ((Number)value).intValue();
+	}
+
+	/** Wait between polls, letting other commands run meanwhile if serialized */
+	private void poll() {
+		if(sta.isHeldByCurrentThread()) {
+			sta.unlock();
+			try {
+				sleep(POLL_INTERVAL);
+			} finally {
+				sta.lock();
+			}
+		} else {
+			sleep(POLL_INTERVAL);
+		}
+	}
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimulatorException(Status.UnknownError, "Interrupted");
+		}
+	}
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int read;
+		while((read=in.read(buf))>=0)
+			out.write(buf, 0, read);
+		in.close();
+		return out.toByteArray();
+	}
+	private static byte[] decode(byte[] body, String encoding) throws IOException {
+		InputStream in;
+		if(encoding.equalsIgnoreCase("gzip"))
+			in = new GZIPInputStream(new ByteArrayInputStream(body));
+		else if(encoding.equalsIgnoreCase("deflate"))
+			in = new InflaterInputStream(new ByteArrayInputStream(body));
+		else
+			throw new SimulatorException(415, "Unsupported Content-Encoding "+encoding);
+		return readFully(in);
+	}
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(data);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Run a simulator until killed. Options:
+	 * <ul>
+	 * <li>--port n - the port to listen on, on all interfaces (default 4444, as the RC)</li>
+	 * <li>--windows n, --depth n, --breadth n - the shape of the SyntheticTree to serve (default 3, 3, 5)</li>
+	 * <li>--latency min[-max] - the time each command takes in milliseconds (default 0)</li>
+	 * <li>--failure-rate f - the fraction of commands to fail (default 0)</li>
+	 * <li>--serialized - run one command at a time, like the RC's STA thread</li>
+	 * </ul>
+	 */
+	public static void main(String[] args) throws IOException {
+		// this JVM only serves the simulator, so it can set this for itself; see above
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		int port = 4444, windows = 3, depth = 3, breadth = 5;
+		long minLatency = 0, maxLatency = 0;
+		double failureRate = 0;
+		boolean serialized = false;
+		try {
+			for(int i=0; i<args.length; i++) {
+				String arg = args[i];
+				if(arg.equals("--serialized")) {
+					serialized = true;
+					continue;
+				}
+				if(i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for "+arg);
+				String value = args[++i];
+				if(arg.equals("--port"))
+					port = Integer.parseInt(value);
+				else if(arg.equals("--windows"))
+					windows = Integer.parseInt(value);
+				else if(arg.equals("--depth"))
+					depth = Integer.parseInt(value);
+				else if(arg.equals("--breadth"))
+					breadth = Integer.parseInt(value);
+				else if(arg.equals("--latency")) {
+					String[] range = value.split("-", 2);
+					minLatency = Long.parseLong(range[0]);
+					maxLatency = range.length > 1 ? Long.parseLong(range[1]) : minLatency;
+				} else if(arg.equals("--failure-rate"))
+					failureRate = Double.parseDouble(value);
+				else
+					throw new IllegalArgumentException("Unknown option "+arg);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java -jar rc-simulator.jar [--port n] [--windows n] [--depth n] [--breadth n] [--latency min[-max]] [--failure-rate f] [--serialized]");
+			System.exit(1);
+		}
+		SimulatedRC rc = new SimulatedRC(new InetSocketAddress(port));
+		SyntheticTree.populate(rc.getDesktop(), windows, depth, breadth);
+		rc.setLatency(minLatency, maxLatency);
+		rc.setFailureRate(failureRate);
+		rc.setSerialized(serialized);
+		rc.start();
+		System.out.println("Simulated RC listening on port "+port);
+	}
+}
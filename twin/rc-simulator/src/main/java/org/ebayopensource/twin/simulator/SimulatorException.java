@@ -0,0 +1,27 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.simulator;
+
+/** 
+ * Thrown while handling a request to send an error response: a JSON error with the given status, 
+ * or if httpCode is set, a bare HTTP error as sharpclaws sends for unmapped paths 
+ */
+class SimulatorException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	final Status status;
+	/** The HTTP status of a bare error, or 0 for a JSON error */
+	final int httpCode;
+
+	SimulatorException(Status status, String message) {
+		super(message);
+		this.status = status;
+		this.httpCode = 0;
+	}
+	SimulatorException(int httpCode, String message) {
+		super(message);
+		this.status = (httpCode == 404 || httpCode == 405) ? Status.UnknownCommand : Status.UnknownError;
+		this.httpCode = httpCode;
+	}
+}
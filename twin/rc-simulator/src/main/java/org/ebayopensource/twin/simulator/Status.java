@@ -0,0 +1,20 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.simulator;
+
+/** The status codes the simulator sends, as in the RC's ResponseStatus */
+enum Status {
+	Success(0),
+	NoSuchElement(1),
+	UnknownCommand(9),
+	InvalidElementState(12),
+	UnknownError(13),
+	NoSuchSession(100);
+
+	final int code;
+	Status(int code) {
+		this.code = code;
+	}
+}
@@ -0,0 +1,64 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.simulator;
+
+import java.awt.Rectangle;
+
+/**
+ * Fills a SimulatedRC with a regular tree of a chosen size, for load tests that care about its shape, not its content.
+ * <p>
+ * Each window holds depth levels of breadth elements each: Panes down to the last level, which cycles through
+ * a Button, an Edit, a CheckBox, a ListItem and a TreeItem so that every pattern is exercised. Elements are named
+ * by type and position among their siblings, e.g. "Button 3", and have ids giving their path from the desktop,
+ * e.g. "w1.3.0". Each level divides its parent's bounds into rows, so elements can be located on screen.
+ * A tree has windows * (breadth + breadth^2 + ... + breadth^depth) elements besides the windows.
+ */
+public class SyntheticTree {
+	private static final String[][] LEAVES = {
+		{ "Button" },
+		{ "Edit", "edit" },
+		{ "CheckBox", "toggle" },
+		{ "ListItem", "select" },
+		{ "TreeItem", "expand", "select" },
+	};
+
+	private SyntheticTree() {}
+
+	/** Add windows, each with depth levels of breadth elements, to the desktop */
+	public static void populate(SimulatedElement desktop, int windows, int depth, int breadth) {
+		if(windows < 0 || depth < 0 || breadth < 0)
+			throw new IllegalArgumentException("Tree dimensions can't be negative: "+windows+" windows, depth "+depth+", breadth "+breadth);
+		int existing = desktop.getChildren().size();
+		for(int i=0; i<windows; i++) {
+			int index = existing + i;
+			SimulatedElement window = desktop.add("Window", "Window "+index);
+			window.setId("w"+index);
+			window.setClassName("SimulatedWindow");
+			window.setBounds(new Rectangle(20 * i, 20 * i, 800, 600));
+			fill(window, depth, breadth);
+		}
+	}
+
+	private static void fill(SimulatedElement parent, int depth, int breadth) {
+		if(depth == 0)
+			return;
+		Rectangle area = parent.getBounds();
+		int rowHeight = Math.max(1, area.height / Math.max(1, breadth));
+		for(int i=0; i<breadth; i++) {
+			SimulatedElement child;
+			if(depth > 1) {
+				child = parent.add("Pane", "Pane "+i);
+			} else {
+				String[] leaf = LEAVES[i % LEAVES.length];
+				String[] patterns = new String[leaf.length - 1];
+				System.arraycopy(leaf, 1, patterns, 0, patterns.length);
+				child = parent.add(leaf[0], leaf[0]+" "+i, patterns);
+			}
+			child.setId(parent.getId()+"."+i);
+			child.setBounds(new Rectangle(area.x, area.y + i * rowHeight, area.width, rowHeight));
+			fill(child, depth - 1, breadth);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+package org.ebayopensource.twin.simulator;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.*;
+
+import org.testng.annotations.*;
+import static org.testng.AssertJUnit.*;
+
+import org.ebayopensource.twin.*;
+import org.ebayopensource.twin.element.*;
+import org.ebayopensource.twin.pattern.Editable;
+
+public class SimulatedRCTest {
+	private SimulatedRC rc;
+	private Application app;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		rc = new SimulatedRC();
+		SyntheticTree.populate(rc.getDesktop(), 2, 2, 5);
+		rc.start();
+		app = new Application(rc.getURL());
+		app.open("simulator", null);
+	}
+	@AfterMethod
+	public void tearDown() {
+		app.close();
+		rc.stop();
+	}
+
+	@Test
+	public void testTree() {
+		List<Element> windows = app.getDesktop().getChildren();
+		assertEquals(2, windows.size());
+		Element window = app.getDesktop().getChild(Criteria.name("Window 1"));
+		assertEquals("w1", window.getId());
+		assertEquals(5, window.getChildren().size());
+		assertEquals(30, window.getDescendants(null).size());
+		Element edit = window.getDescendant(Criteria.id("w1.2.1"));
+		assertEquals("Edit 1", edit.getName());
+		assertTrue(edit instanceof Edit);
+		assertEquals(5, window.getDescendants(Criteria.type(Editable.class)).size());
+		assertEquals("Pane 2", edit.getParent().getName());
+		assertEquals(5, window.getDescendants(Criteria.type(Button.class)).size());
+		assertEquals(new Rectangle(20, 20, 800, 600), window.getBounds());
+	}
+
+	@Test
+	public void testProperties() {
+		Edit edit = app.getDesktop().getDescendant(Criteria.id("w0.0.1"));
+		edit.setValue("hello");
+		assertEquals("hello", edit.getValue());
+		assertFalse(edit.isReadOnly());
+		edit.type(" world");
+		assertEquals("hello world", edit.getValue());
+
+		CheckBox check = app.getDesktop().getDescendant(Criteria.id("w0.0.2"));
+		assertFalse(check.getState());
+		assertTrue(check.toggle());
+		assertTrue(check.getState());
+
+		Element button = app.getDesktop().getDescendant(Criteria.id("w0.0.0"));
+		assertTrue(button instanceof Button);
+		assertFalse(button instanceof Editable);
+	}
+
+	@Test
+	public void testRemoved() {
+		Element pane = app.getDesktop().getDescendant(Criteria.id("w0.3"));
+		rc.getDesktop().getChildren().get(0).getChildren().get(3).remove();
+		assertFalse(pane.exists());
+		try {
+			pane.getName();
+			fail("Expected TwinException");
+		} catch (TwinNoSuchElementException e) {
+		}
+	}
+
+	@Test
+	public void testRelease() {
+		Element window = app.getDesktop().getChild(Criteria.name("Window 1"));
+		window.getChildren();
+		app.releaseAll();
+		assertEquals(6, rc.getReleaseCount());
+	}
+
+	@Test
+	public void testScreenshot() throws Exception {
+		Element window = app.getDesktop().getChild(Criteria.name("Window 0"));
+		BufferedImage image = window.getScreenshot().getImage();
+		assertEquals(800, image.getWidth());
+		assertEquals(600, image.getHeight());
+	}
+
+	@Test
+	public void testClipboardAndAttachments() throws Exception {
+		app.getClipboard().setText("copied");
+		assertEquals("copied", app.getClipboard().getText());
+		Attachment attachment = app.upload(new ByteArrayInputStream("data".getBytes("UTF-8")), "data.csv");
+		assertTrue(attachment.getFile().endsWith(".csv"));
+		attachment.delete();
+	}
+
+	@Test
+	public void testFaults() {
+		rc.setFailureRate(1);
+		try {
+			app.getDesktop().getChildren();
+			fail("Expected TwinException");
+		} catch (TwinException e) {
+			assertTrue(e.getMessage().contains("Simulated failure"));
+		}
+		assertEquals(1, rc.getFailureCount());
+
+		rc.setFailureRate(0);
+		rc.setLatency(100, 100);
+		long start = System.nanoTime();
+		app.getDesktop().getChildren();
+		assertTrue(System.nanoTime() - start >= 100000000L);
+	}
+
+	@Test
+	public void testSerialized() throws Exception {
+		rc.setSerialized(true);
+		rc.setLatency(50, 50);
+		final Element window = app.getDesktop().getChild(Criteria.name("Window 0"));
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<4; i++) {
+			Thread thread = new Thread() {
+				public void run() {
+					window.getName();
+				}
+			};
+			threads.add(thread);
+		}
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+			thread.start();
+		for(Thread thread : threads)
+			thread.join();
+		assertTrue(System.nanoTime() - start >= 200000000L);
+	}
+}
@@ -35,5 +35,24 @@ namespace Twin.Generic {
 
             methodHandlers[method](http);
         }
+
+        // Handle a JSON request that arrived inside another request, e.g. as part of a batch.
+        // Errors are returned as error responses rather than thrown.
+        internal JSONResponse Dispatch(ParsedRequest parent, string method, string path, Dictionary<string, object> body) {
+            Dictionary<string, string> parameters;
+            Responder responder = routes.Find(path, method.ToUpperInvariant(), out parameters);
+            if (!(responder is JSONResponder)) {
+                string message = (parameters == null) 
+                    ? "No resource mapped to path " + path 
+                    : "Method " + method + " not defined for path " + path;
+                return JSONResponder.GetExceptionResponse(new TwinException(ResponseStatus.UnknownCommand, message));
+            }
+            try {
+                return ((JSONResponder)responder).RespondOrFail(new JSONRequest(parent, parameters, body));
+            } catch (HttpException e) {
+                ResponseStatus status = (e.StatusCode == 404 || e.StatusCode == 405) ? ResponseStatus.UnknownCommand : ResponseStatus.UnknownError;
+                return JSONResponder.GetExceptionResponse(new TwinException(status, e.Message, e));
+            }
+        }
     }
 }
@@ -5,6 +5,7 @@
 using System;
 using System.Collections.Generic;
 using System.Diagnostics;
+using System.Globalization;
 using System.IO;
 using System.Text;
 using System.Windows.Automation;
@@ -26,6 +27,25 @@ namespace Twin.Generic
 			this.Servlet = (JasonServlet)request.Servlet;
 			this.Parameters = parameters;
 		}
+		// Whether the client listed the given content type in its Accept header, e.g. to get an image as raw bytes rather than base64 JSON
+		public bool Accepts(string contentType) {
+			string accept = Request.Headers["Accept"];
+			if (accept == null)
+				return false;
+			foreach (string range in accept.Split(',')) {
+				string[] parts = range.Split(';');
+				if (!parts[0].Trim().Equals(contentType, StringComparison.InvariantCultureIgnoreCase))
+					continue;
+				for (int i = 1; i < parts.Length; i++) {
+					string param = parts[i].Replace(" ", "");
+					double q;
+					if (param.StartsWith("q=") && double.TryParse(param.Substring(2), NumberStyles.Float, CultureInfo.InvariantCulture, out q) && q == 0)
+						return false; // explicitly refused
+				}
+				return true;
+			}
+			return false;
+		}
 	}
 	delegate void Handler(ParsedRequest request);
 	class Responder {
@@ -79,6 +99,10 @@ namespace Twin.Generic
 		public JSONRequest(JSONRequest parent) : base(parent.Request, parent.Parameters) {
 			Body = parent.Body;
 		}
+		// a request that didn't come directly from HTTP, e.g. one of a batch
+		public JSONRequest(ParsedRequest parent, Dictionary<string, string> parameters, Dictionary<string, object> body) : base(parent.Request, parameters) {
+			Body = body;
+		}
 		
         public Dictionary<string, object> Body;
     }
@@ -87,6 +111,9 @@ namespace Twin.Generic
         public Dictionary<string,object> Body;
         public string Location;
         public string[] Options;
+        // sent as the body instead of Body if set, e.g. an image the client asked for as raw bytes
+        public byte[] Data;
+        public string ContentType;
     }
 	delegate JSONResponse JSONHandler(JSONRequest request);
 	class JSONResponder : Responder {
@@ -99,19 +126,24 @@ namespace Twin.Generic
 		}
 		
 		public override void Respond(ParsedRequest request) {
+			long start = Stopwatch.GetTimestamp();
+			STAHelper.ResetTiming();
 			JSONRequest jreq = new JSONRequest(request);
-			JSONResponse jres = null;
+            WriteJSONResponse(RespondOrFail(jreq), request.Request, start);
+		}
+		
+		// Respond, converting any exception other than HttpException into an error response
+		internal JSONResponse RespondOrFail(JSONRequest request) {
             try {
-            	jres = Respond(jreq);
+            	return Respond(request);
             } catch (Exception e) {
                 if (e is HttpException)
                     throw e;
-                jres = GetExceptionResponse(e);
+                return GetExceptionResponse(e);
             }
-            WriteJSONResponse(jres, request.Request.Response);
 		}
 		
-        JSONResponse GetExceptionResponse(Exception e) {
+        internal static JSONResponse GetExceptionResponse(Exception e) {
         	Logger.Current.Trace("Building response for thrown exception");
             Logger.Current.Trace(e);
             JSONResponse response = new JSONResponse();
@@ -157,22 +189,47 @@ namespace Twin.Generic
             return body;
         }
 
-        void WriteJSONResponse(JSONResponse response, IResponse http) {
+        void WriteJSONResponse(JSONResponse response, IRequest request, long start) {
+            IResponse http = request.Response;
             http.StatusCode = response.StatusCode;
             if (response.Location != null)
                 http.Headers["Location"] = http.URL(response.Location);
             if (response.Options != null)
                 http.Headers["Allow"] = string.Join(",", response.Options);
 
-            if(response.Body != null) 
-                using(TextWriter writer = http.OpenWriter("application/json")) {
-                    // Ideally we'd stream the object for perf reasons.
-                    // however during dev, if the serialiser hits an unrecognised object we want the stacktrace to be sent to the client
-                    // this can't happen if data has already been written. So for now, convert to a string in memory, then write when done.
-                    // JSON.Write(response.Body, writer);
-                    writer.Write(JSON.ToString(response.Body, 4));
-                }
+            byte[] data = null;
+            if(response.Data != null) {
+                data = response.Data;
+                http.Headers["Content-Type"] = response.ContentType;
+                http.Headers["Content-Length"] = data.Length.ToString();
+            } else if(response.Body != null) {
+                // Ideally we'd stream the object for perf reasons.
+                // however during dev, if the serialiser hits an unrecognised object we want the stacktrace to be sent to the client
+                // this can't happen if data has already been written. So for now, convert to a string in memory, then write when done.
+                // JSON.Write(response.Body, writer);
+                data = new UTF8Encoding(false).GetBytes(JSON.ToString(response.Body, 4));
+                http.Headers["Content-Type"] = "application/json; charset=utf-8";
+                // small responses are sent as they are, larger ones are sent chunked, which is gzipped if the client accepts it
+                if (data.Length < CompressionThreshold)
+                    http.Headers["Content-Length"] = data.Length.ToString();
+            }
+            WriteTiming(request, start);
+            if(data != null)
+                http.WriteBytes(data);
+        }
+        // Tell the client where the time went, so its traces can separate the RC's work from the wire.
+        // The request id the client sent is echoed back so server logs and client traces can be matched up.
+        static void WriteTiming(IRequest request, long start) {
+            double handler = (Stopwatch.GetTimestamp() - start) * 1000.0 / Stopwatch.Frequency;
+            string id = request.Headers["X-Twin-Request-Id"];
+            if (id != null)
+                request.Response.Headers["X-Twin-Request-Id"] = id;
+            request.Response.Headers["Server-Timing"] = string.Format(CultureInfo.InvariantCulture,
+                "handler;dur={0:0.###}, sta-wait;dur={1:0.###}, sta;dur={2:0.###}", handler, STAHelper.WaitMillis, STAHelper.RunMillis);
+            Logger.Current.Trace("Request {0} {1} {2} handled in {3:0.###}ms", id, request.Method, request.Path, handler);
         }
+        // Below this many bytes, compressing a response saves less time than it costs
+        const int CompressionThreshold = 1024;
 	}
 	
 	class SessionRequest : JSONRequest {
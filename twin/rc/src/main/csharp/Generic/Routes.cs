@@ -25,6 +25,17 @@ namespace Twin.Generic {
              }
         }
 
+        // Find the responder for a method and path without going through HTTP, e.g. for batched requests
+        public Responder Find(string path, string method, out Dictionary<string, string> parameters) {
+            foreach (Mapping mapping in mappings.Values) {
+                parameters = mapping.Match(path);
+                if (parameters != null)
+                    return mapping[method];
+            }
+            parameters = null;
+            return null;
+        }
+
         public Dictionary<string, Action<IRequest>> Match(string path) {
             foreach (Mapping mapping in mappings.Values) {
                 Dictionary<string, string> parameters = mapping.Match(path);
@@ -51,6 +51,16 @@ namespace Twin.Model {
             }
         }
 
+        // Release an object by its key, returning false if it isn't held, e.g. because it has already been released
+        [MethodImpl(MethodImplOptions.Synchronized)]
+        public bool Release(Guid key) {
+            object o;
+            if (persistentObjects == null || !persistentObjects.TryGetValue(key, out o))
+                return false;
+            Release(o);
+            return true;
+        }
+
         public object this[Guid id] {
             [MethodImpl(MethodImplOptions.Synchronized)]
             get {
@@ -51,8 +51,7 @@ namespace Twin.Proxy {
             }
         }
 
-        // TODO: this is not called anywhere. 
-        // We could have some finalisation magic on the client side that disposes unused objects in batches
+        // Not called by the RC itself: the client releases objects it no longer has in batches, see Elements.Release
 
         public void Dispose() {
             Session.Release(Target);
@@ -4,6 +4,7 @@
 
 using System;
 using System.Collections.Generic;
+using System.Diagnostics;
 using System.Reflection;
 using System.Runtime.CompilerServices;
 using System.Runtime.Serialization;
@@ -21,15 +22,20 @@ namespace Twin
 		internal bool done;
 		internal Func func;
 		internal object result;
+		// Stopwatch timestamps, so callers can tell queueing from work
+		internal long queued, started, finished;
 		public Job(Func func) {
 			this.func = func;
+			this.queued = Stopwatch.GetTimestamp();
 		}
 		internal void Run() {
+			started = Stopwatch.GetTimestamp();
 			try {
 				result = func.Invoke();
 			} catch (Exception e) {
 				exception = e;
 			} finally {
+				finished = Stopwatch.GetTimestamp();
 				done = true;
 			}
 		}
@@ -65,10 +71,15 @@ namespace Twin
 	}
 	
 	internal class STAHelper {
+		// Time the calling thread has spent waiting for the STA thread, and having its jobs run there, since ResetTiming()
+		[ThreadStatic] private static long waitTicks;
+		[ThreadStatic] private static long runTicks;
+
 		public static object Invoke(Func func) {
 			Job j = new Job(func);
 			if(Thread.CurrentThread.GetApartmentState() == ApartmentState.STA) {
 				j.Run();
+				runTicks += j.finished - j.started;
 				return j.evaluate();
 			} else lock(j) {
 				STAHelper helper = STAHelper.Instance;
@@ -76,6 +87,8 @@ namespace Twin
 				Logger.Current.Trace("Job created on STA thread, waiting");
 				Monitor.Wait(j);
 				Logger.Current.Trace("Job finished on STA thread, returning");
+				waitTicks += j.started - j.queued;
+				runTicks += j.finished - j.started;
 				return j.evaluate();				
 			}
 		}
@@ -83,6 +96,17 @@ namespace Twin
 			Invoke(delegate() { func.Invoke(); return null; });
 		}
 		
+		internal static void ResetTiming() {
+			waitTicks = 0;
+			runTicks = 0;
+		}
+		internal static double WaitMillis {
+			get { return waitTicks * 1000.0 / Stopwatch.Frequency; }
+		}
+		internal static double RunMillis {
+			get { return runTicks * 1000.0 / Stopwatch.Frequency; }
+		}
+
 		private static STAHelper instance;
 		private static STAHelper Instance {
 			[MethodImpl(MethodImplOptions.Synchronized)]
@@ -46,6 +46,9 @@ namespace Twin {
             Routes["/session/:session/clipboard"]["GET"] = new SessionHandler(Clipboards.GetContent);
             Routes["/session/:session/clipboard"]["DELETE"] = new SessionHandler(Clipboards.Clear);
 
+            Routes["/session/:session/batch"]["POST"] = new SessionHandler(Batch.Execute);
+            Routes["/session/:session/release"]["POST"] = new SessionHandler(Elements.Release);
+
             Element("/session/:session/element/:target");
             Desktop("/session/:session/desktop");
 
@@ -100,8 +103,10 @@ namespace Twin {
             Routes[path + "/parent"]["GET"] = new ElementHandler(Elements.GetParent);
             Routes[path + "/children"]["GET"] = new ElementHandler(Search.FindChildren);
             Routes[path + "/descendants"]["GET"] = new ElementHandler(Search.FindDescendants);
+            Routes[path + "/snapshot"]["GET"] = new ElementHandler(Snapshot.GetSnapshot);
             Routes[path + "/exists"]["GET"] = new ElementResponder(new ElementHandler(Elements.GetExists), true); // don't throw if element doesn't exist
             Routes[path + "/exists"]["POST"] = new ElementResponder(new ElementHandler(Elements.PollExists), true); // don't throw if element doesn't exist
+            Routes[path + "/watch"]["POST"] = new ElementResponder(new ElementHandler(Watch.Start), true); // reports the element going away itself
             Routes[path + "/toggle"]["GET"] = new ElementHandler(Elements.GetToggleState);
             Routes[path + "/toggle"]["POST"] = new ElementHandler(Elements.SetToggleState);
             Routes[path + "/window-state"]["GET"] = new ElementHandler(Elements.GetWindowState);
@@ -118,6 +123,8 @@ namespace Twin {
         	Routes[path + "/keyboard"]["POST"] = (DesktopResponder)new ElementHandler(Elements.SendKeys);
         	Routes[path + "/children"]["GET"] = (DesktopResponder)new ElementHandler(Search.FindChildren);
         	Routes[path + "/descendants"]["GET"] = (DesktopResponder)new ElementHandler(Search.FindDescendants);
+        	Routes[path + "/snapshot"]["GET"] = (DesktopResponder)new ElementHandler(Snapshot.GetSnapshot);
+        	Routes[path + "/watch"]["POST"] = (DesktopResponder)new ElementHandler(Watch.Start);
         }
 
         internal Uri ExternalUri {
@@ -0,0 +1,41 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+using System;
+using System.Collections.Generic;
+using System.Text;
+using Twin.Model;
+using Twin.Generic;
+
+namespace Twin.View {
+    class Batch {
+        // Run several requests against the session in one round trip.
+        // Body is {"requests":[{"method":"GET", "path":"element/<uuid>/name", "body":{...}}, ...]}, paths are relative to the session.
+        // Returns a list with one response body ({"status":..., "value":...}) per request, in order.
+        // Each request succeeds or fails independently.
+        public static object Execute(SessionRequest request) {
+            if (request.Body == null || !request.Body.ContainsKey("requests") || !(request.Body["requests"] is List<object>))
+                throw new TwinException(ResponseStatus.UnknownError, "Batch body must contain a list of requests");
+            JasonServlet servlet = (JasonServlet)request.Servlet;
+            string prefix = "/session/" + request.Parameters["session"] + "/";
+
+            List<object> results = new List<object>();
+            foreach (object item in (List<object>)request.Body["requests"]) {
+                Dictionary<string, object> sub = (Dictionary<string, object>)item;
+                string method = (string)sub["method"];
+                string path = prefix + ((string)sub["path"]).TrimStart('/');
+                Dictionary<string, object> body = sub.ContainsKey("body") ? (Dictionary<string, object>)sub["body"] : null;
+
+                JSONResponse response = servlet.Dispatch(request, method, path, body);
+                if (response.Body == null) {
+                    response.Body = new Dictionary<string, object>();
+                    response.Body["status"] = (int)ResponseStatus.Success;
+                    response.Body["value"] = null;
+                }
+                results.Add(response.Body);
+            }
+            return results;
+        }
+    }
+}
@@ -29,6 +29,19 @@ namespace Twin.View {
             return null;
         }
 		
+        // Forget elements the client no longer has, so a long session doesn't keep every element it ever returned.
+        // Body is {"elements":["<uuid>", ...]}, with a uuid once for each time the element was sent to the client.
+        // Returns how many were released; uuids that aren't held (e.g. already released) are ignored.
+        public static object Release(SessionRequest request) {
+            if (request.Body == null || !request.Body.ContainsKey("elements") || !(request.Body["elements"] is List<object>))
+                throw new TwinException(ResponseStatus.UnknownError, "Release body must contain a list of elements");
+            int released = 0;
+            foreach (object uuid in (List<object>)request.Body["elements"])
+                if (request.Session.Release(new Guid((string)uuid)))
+                    released++;
+            return released;
+        }
+
         public static object Close(ElementRequest request) {
             request.Target.Close();
             return null;
@@ -196,7 +209,14 @@ namespace Twin.View {
             System.Drawing.Bitmap bitmap = (bounds == defaultRect) ? request.Target.CaptureScreenshot() : request.Target.CaptureScreenshot(bounds);            
             byte[] imageData = BitmapToPNG(bitmap);
             bitmap.Dispose();
-            
+
+            if (request.Accepts("image/png")) {
+                // sent as it is, saving the base64 encoding that makes it a third bigger
+                JSONResponse response = new JSONResponse();
+                response.Data = imageData;
+                response.ContentType = "image/png";
+                return response;
+            }
             data["contentType"] = "image/png";
             data["data"] = Convert.ToBase64String(imageData);
             return data;
@@ -26,7 +26,7 @@ namespace Twin.View {
                 return 0;
             return Convert.ToInt32(body["count"]);
         }
-        private static Condition ParseCondition(Dictionary<string, object> body) {
+        internal static Condition ParseCondition(Dictionary<string, object> body) {
             if (body == null || !body.ContainsKey("criteria"))
                 return null;
 
@@ -215,7 +215,7 @@ namespace Twin.View {
         	);
         }
 
-        private static List<PersistedObject<Element>> Wrap(List<AutomationElement> searchResults, Session session) {
+        internal static List<PersistedObject<Element>> Wrap(List<AutomationElement> searchResults, Session session) {
             List<PersistedObject<Element>> result = new List<PersistedObject<Element>>();
             STAHelper.Invoke(
             	delegate() {
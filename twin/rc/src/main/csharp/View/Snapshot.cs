@@ -0,0 +1,85 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+using System;
+using System.Collections.Generic;
+using System.Windows;
+
+using Twin.Generic;
+using Twin.Model;
+using Twin.Proxy;
+
+namespace Twin.View {
+    class Snapshot {
+        // Return the tree rooted at the target in one go, so the client doesn't need a request per node and property.
+        // Body is {"depth":n, "properties":["value", "bounds", ...]}. depth 0 is just the target, absent means the whole tree.
+        // Each node is {"element":{...}, "properties":{...}, "children":[...]}. "children" is left out of nodes at the
+        // depth limit, and a property is left out of "properties" if the element doesn't support it.
+        public static object GetSnapshot(ElementRequest request) {
+            int depth = (request.Body != null && request.Body.ContainsKey("depth")) ? Convert.ToInt32(request.Body["depth"]) : int.MaxValue;
+            List<string> properties = new List<string>();
+            if (request.Body != null && request.Body.ContainsKey("properties")) {
+                foreach (object name in (List<object>)request.Body["properties"]) {
+                    if (Array.IndexOf(Supported, name) < 0)
+                        throw new ArgumentOutOfRangeException("properties", name, "Unknown snapshot property");
+                    properties.Add((string)name);
+                }
+            }
+            return STAHelper.Invoke(
+                delegate() {
+                    return Add(request.Target, depth, properties, request.Session);
+                }
+            );
+        }
+
+        static readonly string[] Supported = { "enabled", "value", "bounds", "expanded", "selected", "toggle" };
+
+        private static Dictionary<string, object> Add(Element target, int depth, List<string> properties, Session session) {
+            Dictionary<string, object> node = new Dictionary<string, object>();
+            node["element"] = PersistedObject.Get(target, session);
+
+            Dictionary<string, object> values = new Dictionary<string, object>();
+            foreach (string name in properties) {
+                try {
+                    values[name] = GetProperty(target, name);
+                } catch (Exception) {
+                    // unsupported by this element, e.g. toggle on a button
+                }
+            }
+            node["properties"] = values;
+
+            if (depth > 0) {
+                List<object> children = new List<object>();
+                foreach (Element child in target.Children)
+                    children.Add(Add(child, depth - 1, properties, session));
+                node["children"] = children;
+            }
+            return node;
+        }
+
+        private static object GetProperty(Element target, string name) {
+            switch (name) {
+                case "enabled":
+                    return target.Enabled;
+                case "value":
+                    return target.Value;
+                case "bounds":
+                    Dictionary<string, object> data = new Dictionary<string, object>();
+                    Rect bounds = target.Bounds;
+                    data["width"] = bounds.Width;
+                    data["height"] = bounds.Height;
+                    data["x"] = bounds.X;
+                    data["y"] = bounds.Y;
+                    return data;
+                case "expanded":
+                    return target.Expanded;
+                case "selected":
+                    return target.Selected;
+                case "toggle":
+                    return target.ToggleState;
+            }
+            throw new ArgumentOutOfRangeException("name", name, "Unknown snapshot property");
+        }
+    }
+}
@@ -0,0 +1,203 @@
+// [Twin] Copyright eBay Inc., Twin authors, and other contributors.
+// This file is provided to you under the terms of the Apache License, Version 2.0.
+// See LICENSE.txt and NOTICE.txt for license and copyright information.
+
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Threading;
+using System.Windows.Automation;
+
+using Twin.Generic;
+using Twin.Logging;
+using Twin.Model;
+
+namespace Twin.View {
+    class Watch {
+        // Wait for the element tree to change, telling the client as soon as it happens rather than making it poll.
+        // Body is {"event":"child"|"descendant"|"gone", "criteria":{...}, "timeout":seconds}, timeout may be absent for "forever".
+        // The response is newline-delimited JSON sent with chunked encoding. {"status":0,"event":"waiting"} is sent straight away
+        // and then every HeartbeatInterval, so proxies and the client know we're alive. The last line is the outcome:
+        //   {"status":0,"event":"appeared","value":[elements]}
+        //   {"status":0,"event":"gone","value":null}
+        //   or an ordinary error body, NoSuchElement/InvalidElementState on timeout.
+        // We search again whenever UI Automation tells us something changed, and every RecheckInterval as not all
+        // controls raise structure events.
+        // This writes its own response, so it can't be used from a batch.
+        const double HeartbeatInterval = 10.0;
+        const double RecheckInterval = 2.0;
+
+        public static object Start(ElementRequest request) {
+            if (request.Body == null || !request.Body.ContainsKey("event") || !(request.Body["event"] is string))
+                throw new ArgumentException("Body should contain key 'event' describing what to wait for");
+            string kind = (string)request.Body["event"];
+            TreeScope scope;
+            switch (kind) {
+                case "child":
+                    scope = TreeScope.Children;
+                    break;
+                case "descendant":
+                    scope = TreeScope.Descendants;
+                    break;
+                case "gone":
+                    scope = TreeScope.Element;
+                    break;
+                default:
+                    throw new ArgumentOutOfRangeException("body[\"event\"]", kind, "Unrecognised event");
+            }
+            Condition condition = Search.ParseCondition(request.Body);
+            double timeout = ParseTimeout(request.Body);
+            Logger.Current.Trace("Watching for {0} matching {1} with a timeout of {2} sec", kind, condition, timeout);
+
+            AutoResetEvent changed = new AutoResetEvent(false);
+            Subscription subscription = new Subscription(request.Target, kind == "gone", changed);
+            try {
+                using (TextWriter writer = request.Request.Response.OpenWriter("application/x-ndjson")) {
+                    try {
+                        WaitAndReport(request, scope, condition, timeout, changed, writer);
+                    } catch (IOException e) {
+                        Logger.Current.Trace("Client went away while watching: {0}", e.Message);
+                    } catch (Exception e) {
+                        try {
+                            WriteLine(writer, JSONResponder.GetExceptionResponse(e).Body);
+                        } catch (IOException) {}
+                    }
+                }
+            } finally {
+                subscription.Dispose();
+                changed.Close();
+            }
+            return new JSONResponse(); // already written
+        }
+
+        private static void WaitAndReport(ElementRequest request, TreeScope scope, Condition condition, double timeout, AutoResetEvent changed, TextWriter writer) {
+            long now = DateTime.Now.Ticks;
+            long deadline = Double.IsPositiveInfinity(timeout) ? long.MaxValue : now + (long)(timeout * 10000000);
+            long nextHeartbeat = now + (long)(HeartbeatInterval * 10000000);
+            WriteLine(writer, Event("waiting"));
+
+            while (true) {
+                Dictionary<string, object> outcome = Check(request, scope, condition);
+                if (outcome != null) {
+                    WriteLine(writer, outcome);
+                    return;
+                }
+                now = DateTime.Now.Ticks;
+                if (now >= deadline) {
+                    TwinException timedOut = (scope == TreeScope.Element)
+                        ? new TwinException(ResponseStatus.InvalidElementState, "Element did not reach exists state False")
+                        : new TwinException(ResponseStatus.NoSuchElement, "No element matching " + condition + " appeared");
+                    WriteLine(writer, JSONResponder.GetExceptionResponse(timedOut).Body);
+                    return;
+                }
+                if (now >= nextHeartbeat) {
+                    WriteLine(writer, Event("waiting"));
+                    nextHeartbeat = now + (long)(HeartbeatInterval * 10000000);
+                }
+                long wake = Math.Min(Math.Min(deadline, nextHeartbeat), now + (long)(RecheckInterval * 10000000));
+                changed.WaitOne((int)Math.Max(1, (wake - now) / 10000), false);
+            }
+        }
+
+        // null if we should keep waiting
+        private static Dictionary<string, object> Check(ElementRequest request, TreeScope scope, Condition condition) {
+            if (scope == TreeScope.Element) {
+                if (request.Target.Exists)
+                    return null;
+                Dictionary<string, object> gone = Event("gone");
+                gone["value"] = null;
+                return gone;
+            }
+            // all matches, not just the closest, so the client can tell if what it waited for is ambiguous
+            List<AutomationElement> found = Search.FindAll(request.Target.AutomationElement, scope, 0, condition, request.Session.Process.Id);
+            if (found.Count == 0)
+                return null;
+            Dictionary<string, object> appeared = Event("appeared");
+            appeared["value"] = Search.Wrap(found, request.Session);
+            return appeared;
+        }
+
+        private static double ParseTimeout(Dictionary<string, object> body) {
+            if (!body.ContainsKey("timeout") || body["timeout"] == null)
+                return double.PositiveInfinity;
+            return Convert.ToDouble(body["timeout"]);
+        }
+
+        private static Dictionary<string, object> Event(string name) {
+            Dictionary<string, object> line = new Dictionary<string, object>();
+            line["status"] = (int)ResponseStatus.Success;
+            line["event"] = name;
+            return line;
+        }
+
+        private static void WriteLine(TextWriter writer, Dictionary<string, object> line) {
+            writer.Write(JSON.ToString(line));
+            writer.Write('\n');
+            writer.Flush(); // sends a chunk
+        }
+
+        // UI Automation event handlers that signal whenever something we're watching might have changed
+        class Subscription : IDisposable {
+            readonly AutomationElement target;
+            readonly AutomationElement parent;
+            readonly AutoResetEvent changed;
+            readonly StructureChangedEventHandler structureHandler;
+            readonly AutomationEventHandler windowHandler;
+            readonly AutomationPropertyChangedEventHandler propertyHandler;
+
+            public Subscription(Element element, bool gone, AutoResetEvent changed) {
+                this.changed = changed;
+                structureHandler = delegate(object sender, StructureChangedEventArgs e) { Signal(); };
+                windowHandler = delegate(object sender, AutomationEventArgs e) { Signal(); };
+                propertyHandler = delegate(object sender, AutomationPropertyChangedEventArgs e) { Signal(); };
+
+                if (gone) {
+                    // the element itself can't tell us it has been removed, so watch its parent too
+                    target = element.AutomationElement;
+                    Element parentElement = element.Parent;
+                    parent = (parentElement == null) ? AutomationElement.RootElement : parentElement.AutomationElement;
+                    STAHelper.Invoke(
+                        delegate() {
+                            Automation.AddStructureChangedEventHandler(parent, TreeScope.Children, structureHandler);
+                            Automation.AddAutomationEventHandler(WindowPattern.WindowClosedEvent, target, TreeScope.Element, windowHandler);
+                        }
+                    );
+                } else {
+                    // new windows don't raise structure events on the desktop, and search criteria can match on changed properties
+                    target = element.AutomationElement;
+                    STAHelper.Invoke(
+                        delegate() {
+                            Automation.AddStructureChangedEventHandler(target, TreeScope.Subtree, structureHandler);
+                            Automation.AddAutomationEventHandler(WindowPattern.WindowOpenedEvent, target, TreeScope.Subtree, windowHandler);
+                            Automation.AddAutomationPropertyChangedEventHandler(target, TreeScope.Subtree, propertyHandler,
+                                AutomationElement.NameProperty, AutomationElement.IsEnabledProperty, ValuePattern.ValueProperty);
+                        }
+                    );
+                }
+            }
+
+            private void Signal() {
+                try {
+                    changed.Set();
+                } catch (ObjectDisposedException) {} // event delivered after we finished
+            }
+
+            public void Dispose() {
+                STAHelper.Invoke(
+                    delegate() {
+                        try {
+                            if (parent != null) {
+                                Automation.RemoveStructureChangedEventHandler(parent, structureHandler);
+                                Automation.RemoveAutomationEventHandler(WindowPattern.WindowClosedEvent, target, windowHandler);
+                            } else {
+                                Automation.RemoveStructureChangedEventHandler(target, structureHandler);
+                                Automation.RemoveAutomationEventHandler(WindowPattern.WindowOpenedEvent, target, windowHandler);
+                                Automation.RemoveAutomationPropertyChangedEventHandler(target, propertyHandler);
+                            }
+                        } catch (ElementNotAvailableException) {} // handlers go with the element
+                    }
+                );
+            }
+        }
+    }
+}